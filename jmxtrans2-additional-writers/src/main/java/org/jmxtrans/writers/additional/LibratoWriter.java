@@ -26,12 +26,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayDeque;
 import java.util.Queue;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
-import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
@@ -46,17 +43,12 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 import static com.fasterxml.jackson.core.JsonEncoding.UTF8;
 
-@ThreadSafe
+@NotThreadSafe
 public class LibratoWriter implements OutputStreamBasedOutputWriter {
 
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
-    @Nonnull private final ThreadLocal<ResultsClassifier> resultsClassifier = new ThreadLocal<ResultsClassifier>() {
-        @Override
-        protected ResultsClassifier initialValue() {
-            return new ResultsClassifier();
-        }
-    };
+    @Nonnull private final ResultsClassifier resultsClassifier = new ResultsClassifier();
     @Nonnull private final JsonFactory jsonFactory;
     @Nonnull private final String source;
 
@@ -67,12 +59,12 @@ public class LibratoWriter implements OutputStreamBasedOutputWriter {
 
     @Override
     public void beforeBatch(@Nonnull OutputStream out) throws IOException {
-        resultsClassifier.get().clear();
+        resultsClassifier.clear();
     }
 
     @Override
     public int write(@Nonnull OutputStream out, @Nonnull QueryResult result) throws IOException {
-        resultsClassifier.get().addResult(result);
+        resultsClassifier.addResult(result);
         return 0;
     }
 
@@ -81,13 +73,13 @@ public class LibratoWriter implements OutputStreamBasedOutputWriter {
         try(JsonGenerator jsonGenerator = jsonFactory.createGenerator(out, UTF8)) {
             int resultsWritten = 0;
             jsonGenerator.writeStartObject();
-            resultsWritten += writeResultsAs("counters", jsonGenerator, resultsClassifier.get().getCounters());
-            resultsWritten += writeResultsAs("gauges", jsonGenerator, resultsClassifier.get().getGauges());
+            resultsWritten += writeResultsAs("counters", jsonGenerator, resultsClassifier.getCounters());
+            resultsWritten += writeResultsAs("gauges", jsonGenerator, resultsClassifier.getGauges());
             jsonGenerator.writeEndObject();
             jsonGenerator.flush();
             return resultsWritten;
         } finally {
-            resultsClassifier.remove();
+            resultsClassifier.clear();
         }
     }
 
@@ -101,10 +93,19 @@ public class LibratoWriter implements OutputStreamBasedOutputWriter {
             jsonGenerator.writeStringField("source", source);
             jsonGenerator.writeNumberField("measure_time", result.getEpoch(SECONDS));
             
-            if (result.getValue() instanceof Number) {
-                writeNumberField(jsonGenerator, "value", (Number)result.getValue());
-            } else {
-                logger.info(format("Value for result [%s] is not a number, cannot send it to Librato", result));
+            switch (result.getValueType()) {
+                case LONG:
+                    jsonGenerator.writeNumberField("value", result.getLongValue());
+                    break;
+                case DOUBLE:
+                    jsonGenerator.writeNumberField("value", result.getDoubleValue());
+                    break;
+                default:
+                    if (result.getValue() instanceof Float) {
+                        jsonGenerator.writeNumberField("value", (Float) result.getValue());
+                    } else {
+                        logger.info(format("Value for result [%s] is not a number, cannot send it to Librato", result));
+                    }
             }
             
             jsonGenerator.writeEndObject();
@@ -114,22 +115,6 @@ public class LibratoWriter implements OutputStreamBasedOutputWriter {
         return counter;
     }
 
-    private void writeNumberField(JsonGenerator jsonGenerator, String name, Number value) throws IOException {
-        if (value instanceof Integer) {
-            jsonGenerator.writeNumberField(name, (Integer)value);
-        } else if (value instanceof Long) {
-            jsonGenerator.writeNumberField(name, (Long)value);
-        } else if (value instanceof Float) {
-            jsonGenerator.writeNumberField(name, (Float)value);
-        } else if (value instanceof Double) {
-            jsonGenerator.writeNumberField(name, (Double)value);
-        } else if (value instanceof AtomicInteger) {
-            jsonGenerator.writeNumberField(name, ((AtomicInteger)value).get());
-        } else if (value instanceof AtomicLong) {
-            jsonGenerator.writeNumberField(name, ((AtomicLong) value).get());
-        }
-    }
-
     @NotThreadSafe
     private static final class ResultsClassifier {
         @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
@@ -26,8 +26,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.Invocation;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.time.Interval;
 
 @ThreadSafe
@@ -39,9 +43,24 @@ public interface Configuration {
     @Nonnull
     Interval getPeriod();
 
+    @Nonnull
+    DispatchMode getDispatchMode();
+
+    @Nonnull
+    OverrunPolicy getOverrunPolicy();
+
+    @Nonnull
+    OverlapPolicy getOverlapPolicy();
+
     @Nonnull
     Iterable<OutputWriter> getOutputWriters();
 
     @Nonnull
     Iterable<Invocation> getInvocations();
+
+    /**
+     * @return capacity of the executor running all invocations
+     */
+    @Nonnull
+    Bulkhead getInvocationBulkhead();
 }
@@ -50,6 +50,10 @@ public class ConfigurationMerger {
             appendInvocations(result, configuration.getInvocations());
             appendOutputWriters(result, configuration.getOutputWriters());
             result.setPeriod(configuration.getPeriod());
+            result.setDispatchMode(configuration.getDispatchMode());
+            result.setOverrunPolicy(configuration.getOverrunPolicy());
+            result.setOverlapPolicy(configuration.getOverlapPolicy());
+            result.setInvocationBulkhead(configuration.getInvocationBulkhead());
         }
         return result;
     }
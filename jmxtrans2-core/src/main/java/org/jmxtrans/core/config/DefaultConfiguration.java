@@ -27,8 +27,13 @@ import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.Invocation;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.InvocationScheduler;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.time.Interval;
 
 import static java.util.Collections.emptyList;
@@ -55,6 +60,24 @@ public class DefaultConfiguration implements Configuration {
         return new Interval(60, SECONDS);
     }
 
+    @Nonnull
+    @Override
+    public DispatchMode getDispatchMode() {
+        return DispatchMode.BURST;
+    }
+
+    @Nonnull
+    @Override
+    public OverrunPolicy getOverrunPolicy() {
+        return OverrunPolicy.COALESCE;
+    }
+
+    @Nonnull
+    @Override
+    public OverlapPolicy getOverlapPolicy() {
+        return OverlapPolicy.SKIP;
+    }
+
     @Nonnull
     @Override
     public Iterable<OutputWriter> getOutputWriters() {
@@ -67,6 +90,12 @@ public class DefaultConfiguration implements Configuration {
         return emptyList();
     }
 
+    @Nonnull
+    @Override
+    public Bulkhead getInvocationBulkhead() {
+        return Bulkhead.named(InvocationScheduler.BULKHEAD_NAME);
+    }
+
     public static Configuration getInstance() {
         return INSTANCE;
     }
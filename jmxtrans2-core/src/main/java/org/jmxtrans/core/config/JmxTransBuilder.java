@@ -22,14 +22,19 @@
  */
 package org.jmxtrans.core.config;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
 import java.util.concurrent.TimeUnit;
@@ -40,19 +45,36 @@ import javax.management.MalformedObjectNameException;
 import javax.xml.bind.JAXBException;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.jmxtrans.core.lifecycle.CloseableLifecycleAdapter;
 import org.jmxtrans.core.lifecycle.LifecycleAware;
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
 import org.jmxtrans.core.monitoring.MBeanRegistry;
 import org.jmxtrans.core.monitoring.ObjectNameFactory;
 import org.jmxtrans.core.monitoring.SelfNamedMBean;
+import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
+import org.jmxtrans.core.query.Priority;
+import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.ResultNameStrategy;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.results.ChangeSuppressor;
+import org.jmxtrans.core.results.CounterStore;
+import org.jmxtrans.core.scheduler.AdaptiveConcurrencyLimit;
+import org.jmxtrans.core.scheduler.Bulkheads;
+import org.jmxtrans.core.scheduler.InstrumentedThreadPoolExecutor;
+import org.jmxtrans.core.scheduler.InvocationScheduler;
 import org.jmxtrans.core.scheduler.JmxTransThreadFactory;
+import org.jmxtrans.core.scheduler.LatencyMonitor;
 import org.jmxtrans.core.scheduler.NaiveScheduler;
+import org.jmxtrans.core.scheduler.PriorityTaskQueue;
 import org.jmxtrans.core.scheduler.QueryGenerator;
 import org.jmxtrans.core.scheduler.QueryProcessor;
+import org.jmxtrans.core.scheduler.ResultBackpressure;
 import org.jmxtrans.core.scheduler.ResultProcessor;
+import org.jmxtrans.core.scheduler.TaskMetrics;
+import org.jmxtrans.core.scheduler.WriterChannel;
+import org.jmxtrans.core.scheduler.WriterChannels;
 import org.jmxtrans.utils.PropertyPlaceholderResolver;
 import org.jmxtrans.utils.io.Resource;
 import org.jmxtrans.utils.time.Clock;
@@ -63,6 +85,7 @@ import org.xml.sax.SAXException;
 import static java.lang.String.format;
 import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
 import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 @ThreadSafe
@@ -73,6 +96,13 @@ public class JmxTransBuilder {
     private final Logger logger = LoggerFactory.getLogger(getClass().getName());
     @Nonnull private final ObjectNameFactory executorObjectNameFactory = new ObjectNameFactory("executor");
     @Nonnull private final ObjectNameFactory outputObjectNameFactory = new ObjectNameFactory("outputWriter");
+    @Nonnull private final ObjectNameFactory schedulerObjectNameFactory = new ObjectNameFactory("scheduler");
+    @Nonnull private final ObjectNameFactory concurrencyLimitObjectNameFactory = new ObjectNameFactory("concurrencyLimit");
+    @Nonnull private final ObjectNameFactory taskObjectNameFactory = new ObjectNameFactory("tasks");
+    @Nonnull private final ObjectNameFactory channelObjectNameFactory = new ObjectNameFactory("writerChannel");
+    @Nonnull private final ObjectNameFactory latencyObjectNameFactory = new ObjectNameFactory("latency");
+    @Nonnull private final ObjectNameFactory namingObjectNameFactory = new ObjectNameFactory("naming");
+    @Nonnull private final ObjectNameFactory derivationObjectNameFactory = new ObjectNameFactory("derivation");
 
     public JmxTransBuilder(
             boolean ignoreParsingErrors,
@@ -87,40 +117,118 @@ public class JmxTransBuilder {
 
         MBeanRegistry mBeanRegistry = new MBeanRegistry(getPlatformMBeanServer());
 
-        ExecutorService queryExecutor = createExecutorService("queries", 2, 1000, 1, MINUTES, mBeanRegistry);
-        ExecutorService resultExecutor = createExecutorService("results", 2, 1000, 1, MINUTES, mBeanRegistry);
         ScheduledExecutorService queryTimer = createScheduledExecutorService("queryTimer", mBeanRegistry);
+        ScheduledExecutorService queryWatchdog = createScheduledExecutorService("queryWatchdog", mBeanRegistry);
+        Map<Priority, TaskMetrics> queryMetrics = TaskMetrics.perPriority();
+        for (Map.Entry<Priority, TaskMetrics> metrics : queryMetrics.entrySet()) {
+            String componentName = "queries-" + metrics.getKey().name().toLowerCase();
+            mBeanRegistry.register(taskObjectNameFactory.create(componentName), metrics.getValue());
+        }
+        TaskMetrics resultMetrics = mBeanRegistry.register(taskObjectNameFactory.create("results"), new TaskMetrics());
+        ResultNameStrategy resultNameStrategy = mBeanRegistry.register(namingObjectNameFactory.create("resultNames"), new ResultNameStrategy());
 
         Configuration configuration = loadConfiguration(clock);
-        
+
+        long derivationMaxIdleMillis = CounterStore.maxIdleMillisFor(longestCollectIntervalMillis(configuration));
+        CounterStore counterStore = mBeanRegistry.register(
+                derivationObjectNameFactory.create("counters"),
+                new CounterStore(CounterStore.DEFAULT_MAX_SERIES, derivationMaxIdleMillis, MILLISECONDS));
+        ChangeSuppressor changeSuppressor = mBeanRegistry.register(
+                derivationObjectNameFactory.create("changes"),
+                new ChangeSuppressor(ChangeSuppressor.DEFAULT_MAX_SERIES, derivationMaxIdleMillis, MILLISECONDS));
+
         registerMBeans(configuration, mBeanRegistry);
 
+        Bulkheads queryExecutors = createBulkheads(configuration.getServers(), clock, mBeanRegistry);
+        WriterChannels writerChannels = createWriterChannels(configuration.getOutputWriters(), clock, mBeanRegistry);
+
+        ResultProcessor resultProcessor = new ResultProcessor(clock, writerChannels, resultMetrics);
+
+        QueryProcessor queryProcessor = new QueryProcessor(
+                clock,
+                configuration.getOutputWriters(),
+                queryExecutors,
+                resultProcessor,
+                resultNameStrategy,
+                queryMetrics,
+                queryWatchdog,
+                counterStore,
+                changeSuppressor,
+                createReadExecutor(mBeanRegistry)
+        );
+
+        QueryGenerator queryGenerator = new QueryGenerator(
+                clock,
+                configuration.getPeriod(),
+                configuration.getDispatchMode(),
+                configuration.getOverrunPolicy(),
+                configuration.getOverlapPolicy(),
+                configuration.getServers(),
+                queryProcessor,
+                queryTimer,
+                new ResultBackpressure(writerChannels)
+        );
+        mBeanRegistry.register(schedulerObjectNameFactory.create("queryGenerator"), queryGenerator);
+
+        InvocationScheduler invocationScheduler = new InvocationScheduler(
+                clock,
+                configuration.getPeriod(),
+                configuration.getInvocations(),
+                getPlatformMBeanServer(),
+                createInvocationExecutor(configuration.getInvocationBulkhead(), clock, mBeanRegistry),
+                queryTimer,
+                configuration.getOutputWriters(),
+                resultProcessor,
+                mBeanRegistry.register(taskObjectNameFactory.create("invocations"), new TaskMetrics())
+        );
+        mBeanRegistry.register(schedulerObjectNameFactory.create("invocationScheduler"), invocationScheduler);
+
         return new NaiveScheduler(
-                queryExecutor,
-                resultExecutor,
+                queryExecutors,
+                writerChannels,
                 queryTimer,
-                new QueryGenerator(
-                        clock,
-                        configuration.getPeriod(),
-                        configuration.getServers(),
-                        new QueryProcessor(
-                                clock,
-                                configuration.getOutputWriters(),
-                                queryExecutor,
-                                new ResultProcessor(
-                                        clock,
-                                        resultExecutor
-                                ),
-                                new ResultNameStrategy()
-                        ),
-                        queryTimer
-                ),
-                Collections.<LifecycleAware>singletonList(mBeanRegistry),
+                queryWatchdog,
+                queryGenerator,
+                lifecycleListeners(configuration, invocationScheduler, queryProcessor, mBeanRegistry),
                 shutdownTimerMillis
         );
     }
 
+    @Nonnull
+    private List<LifecycleAware> lifecycleListeners(
+            @Nonnull Configuration configuration,
+            @Nonnull InvocationScheduler invocationScheduler,
+            @Nonnull QueryProcessor queryProcessor,
+            @Nonnull MBeanRegistry mBeanRegistry) {
+        List<LifecycleAware> lifecycleListeners = new ArrayList<>();
+        lifecycleListeners.add(mBeanRegistry);
+        lifecycleListeners.add(invocationScheduler);
+        lifecycleListeners.add(queryProcessor);
+        // servers are closed last, once all queries have been processed
+        for (Server server : configuration.getServers()) {
+            if (server instanceof Closeable) {
+                lifecycleListeners.add(new CloseableLifecycleAdapter((Closeable) server));
+            }
+        }
+        return lifecycleListeners;
+    }
+
+    /**
+     * Series derived from one collection to the next must be kept at least that long.
+     */
+    private long longestCollectIntervalMillis(@Nonnull Configuration configuration) {
+        long longest = configuration.getPeriod().getDuration(MILLISECONDS);
+        for (Server server : configuration.getServers()) {
+            for (Query query : server.getQueries()) {
+                if (query.getCollectInterval() == null) continue;
+                longest = Math.max(longest, query.getCollectInterval().getDuration(MILLISECONDS));
+            }
+        }
+        return longest;
+    }
+
     private void registerMBeans(Configuration configuration, MBeanRegistry mBeanRegistry) {
+        registerMBeans(mBeanRegistry, configuration.getServers());
         for (Server server : configuration.getServers()) {
             registerMBeans(mBeanRegistry, server.getQueries());
             registerMBeans(mBeanRegistry, configuration.getOutputWriters());
@@ -130,7 +238,7 @@ public class JmxTransBuilder {
     private void registerMBeans(MBeanRegistry mBeanRegistry, Iterable<?> objects) {
         for (Object object : objects) {
             
-            if (!(object instanceof SelfNamedMBean)) break;
+            if (!(object instanceof SelfNamedMBean)) continue;
             
             SelfNamedMBean selfNamedMBean = (SelfNamedMBean)object;
             try {
@@ -181,11 +289,114 @@ public class JmxTransBuilder {
         return singleton(configParser);
     }
 
+    /**
+     * Create one query executor per bulkhead, servers sharing a bulkhead share its executor.
+     */
+    @Nonnull
+    private Bulkheads createBulkheads(
+            @Nonnull Iterable<Server> servers,
+            @Nonnull Clock clock,
+            @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
+        Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+        for (Server server : servers) {
+            Bulkhead bulkhead = server.getBulkhead();
+            Bulkhead existing = bulkheads.get(bulkhead.getName());
+            bulkheads.put(bulkhead.getName(), existing == null ? bulkhead : existing.merge(bulkhead));
+        }
+        Map<String, ExecutorService> executors = new HashMap<>();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            String componentName = "queries-" + bulkhead.getName();
+            InstrumentedThreadPoolExecutor executor = createExecutorService(
+                    componentName,
+                    bulkhead.getMinConcurrentQueries(),
+                    bulkhead.getMaxQueuedQueries(),
+                    1, MINUTES,
+                    mBeanRegistry);
+            createConcurrencyLimit(
+                    componentName,
+                    executor,
+                    bulkhead.getMinConcurrentQueries(), bulkhead.getMaxConcurrentQueries(),
+                    clock,
+                    mBeanRegistry);
+            executors.put(bulkhead.getName(), executor);
+        }
+        return new Bulkheads(executors);
+    }
+
+    /**
+     * Create one channel per output writer, each writer is only ever called from the consumer thread of its channel.
+     */
+    @Nonnull
+    private WriterChannels createWriterChannels(
+            @Nonnull Iterable<OutputWriter> outputWriters,
+            @Nonnull Clock clock,
+            @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
+        Map<OutputWriter, WriterChannel> channels = new IdentityHashMap<>();
+        int index = 0;
+        for (OutputWriter outputWriter : outputWriters) {
+            String componentName = "results-" + index++;
+            LatencyMonitor latencyMonitor = mBeanRegistry.register(
+                    latencyObjectNameFactory.create(componentName),
+                    new LatencyMonitor(clock));
+            WriterChannel channel = mBeanRegistry.register(
+                    channelObjectNameFactory.create(componentName),
+                    new WriterChannel(WriterChannel.DEFAULT_CAPACITY, new JmxTransThreadFactory(componentName), latencyMonitor));
+            channels.put(outputWriter, channel);
+        }
+        return new WriterChannels(channels);
+    }
+
+    /**
+     * MBeans read in parallel have their own threads, so that reads do not compete with queries for the threads of the
+     * bulkheads. Reads rejected once all threads are busy are done by the thread running their query.
+     */
+    @Nonnull
+    private ExecutorService createReadExecutor(@Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
+        String componentName = "reads";
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                0, QueryProcessor.MAX_READ_THREADS,
+                1, MINUTES,
+                new SynchronousQueue<Runnable>(),
+                new JmxTransThreadFactory(componentName),
+                new AbortPolicy());
+        mBeanRegistry.register(
+                executorObjectNameFactory.create(componentName),
+                new ThreadPoolExecutorMetrics(executor));
+        return executor;
+    }
+
+    /**
+     * Invocations have their own threads, so that expensive operations do not delay queries. Their executor is sized
+     * like the executor of a query bulkhead.
+     */
+    @Nonnull
+    private ExecutorService createInvocationExecutor(
+            @Nonnull Bulkhead bulkhead,
+            @Nonnull Clock clock,
+            @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
+        String componentName = bulkhead.getName();
+        InstrumentedThreadPoolExecutor executor = createExecutorService(
+                componentName,
+                bulkhead.getMinConcurrentQueries(),
+                bulkhead.getMaxQueuedQueries(),
+                1, MINUTES,
+                mBeanRegistry);
+        createConcurrencyLimit(
+                componentName,
+                executor,
+                bulkhead.getMinConcurrentQueries(), bulkhead.getMaxConcurrentQueries(),
+                clock,
+                mBeanRegistry);
+        return executor;
+    }
+
     @Nonnull
     private ScheduledExecutorService createScheduledExecutorService(
             @Nonnull String componentName,
             @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
         ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new JmxTransThreadFactory(componentName), new AbortPolicy());
+        // tasks are often cancelled long before their delay, do not keep them around
+        executor.setRemoveOnCancelPolicy(true);
         mBeanRegistry.register(
                 executorObjectNameFactory.create(componentName),
                 new ThreadPoolExecutorMetrics(executor));
@@ -193,22 +404,40 @@ public class JmxTransBuilder {
     }
 
     @Nonnull
-    private ExecutorService createExecutorService(
+    private InstrumentedThreadPoolExecutor createExecutorService(
             @Nonnull String componentName,
-            int maxThreads,
+            int minThreads,
             int maxQueueSize,
             int keepAliveTime,
             @Nonnull TimeUnit unit,
             @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(
-                1, maxThreads,
+        // core and max pool sizes are kept equal by the concurrency limit: with a bounded queue, threads above the
+        // core size would only be created once the queue is full
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(
+                minThreads, minThreads,
                 keepAliveTime, unit,
-                new ArrayBlockingQueue<Runnable>(maxQueueSize),
+                new PriorityTaskQueue(maxQueueSize),
                 new JmxTransThreadFactory(componentName),
                 new AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
         mBeanRegistry.register(
                 executorObjectNameFactory.create(componentName),
                 new ThreadPoolExecutorMetrics(executor));
         return executor;
     }
+
+    @Nonnull
+    private AdaptiveConcurrencyLimit createConcurrencyLimit(
+            @Nonnull String componentName,
+            @Nonnull InstrumentedThreadPoolExecutor executor,
+            int minThreads,
+            int maxThreads,
+            @Nonnull Clock clock,
+            @Nonnull MBeanRegistry mBeanRegistry) throws MalformedObjectNameException {
+        AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit(executor, clock, minThreads, maxThreads);
+        executor.addListener(concurrencyLimit);
+        return mBeanRegistry.register(
+                concurrencyLimitObjectNameFactory.create(componentName),
+                concurrencyLimit);
+    }
 }
@@ -29,8 +29,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.Invocation;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.time.Interval;
 
 import lombok.Getter;
@@ -40,6 +44,10 @@ import lombok.Setter;
 final class ModifiableConfiguration implements Configuration {
 
     @Setter private Interval period;
+    @Setter private DispatchMode dispatchMode;
+    @Setter private OverrunPolicy overrunPolicy;
+    @Setter private OverlapPolicy overlapPolicy;
+    @Setter private Bulkhead invocationBulkhead;
     @Nonnull @Getter private final Collection<OutputWriter> outputWriters = new ArrayList<>();
     @Nonnull @Getter private final Collection<Invocation> invocations = new ArrayList<>();
     @Nonnull @Getter private final Collection<Server> servers = new ArrayList<>();
@@ -51,6 +59,34 @@ final class ModifiableConfiguration implements Configuration {
         return period;
     }
 
+    @Nonnull
+    @Override
+    public DispatchMode getDispatchMode() {
+        if (dispatchMode == null) return DefaultConfiguration.getInstance().getDispatchMode();
+        return dispatchMode;
+    }
+
+    @Nonnull
+    @Override
+    public OverrunPolicy getOverrunPolicy() {
+        if (overrunPolicy == null) return DefaultConfiguration.getInstance().getOverrunPolicy();
+        return overrunPolicy;
+    }
+
+    @Nonnull
+    @Override
+    public OverlapPolicy getOverlapPolicy() {
+        if (overlapPolicy == null) return DefaultConfiguration.getInstance().getOverlapPolicy();
+        return overlapPolicy;
+    }
+
+    @Nonnull
+    @Override
+    public Bulkhead getInvocationBulkhead() {
+        if (invocationBulkhead == null) return DefaultConfiguration.getInstance().getInvocationBulkhead();
+        return invocationBulkhead;
+    }
+
     public void addServer(@Nonnull Server server) {
         servers.add(server);
     }
@@ -28,8 +28,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.Invocation;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.time.Interval;
 
 @ThreadSafe // TODO: synchronization is overly aggressive
@@ -40,9 +44,17 @@ public class StandardConfiguration implements Configuration {
     @Nonnull
     private volatile Interval period;
     @Nonnull
+    private volatile DispatchMode dispatchMode;
+    @Nonnull
+    private volatile OverrunPolicy overrunPolicy;
+    @Nonnull
+    private volatile OverlapPolicy overlapPolicy;
+    @Nonnull
     private final CopyOnWriteArrayList<OutputWriter> outputWriters = new CopyOnWriteArrayList<>();
     @Nonnull
     private final CopyOnWriteArrayList<Invocation> invocations = new CopyOnWriteArrayList<>();
+    @Nonnull
+    private volatile Bulkhead invocationBulkhead;
 
     public StandardConfiguration(Configuration configuration) {
         servers.clear();
@@ -50,6 +62,9 @@ public class StandardConfiguration implements Configuration {
             servers.add(server);
         }
         period = configuration.getPeriod();
+        dispatchMode = configuration.getDispatchMode();
+        overrunPolicy = configuration.getOverrunPolicy();
+        overlapPolicy = configuration.getOverlapPolicy();
         outputWriters.clear();
         for (OutputWriter outputWriter : configuration.getOutputWriters()) {
             outputWriters.add(outputWriter);
@@ -58,6 +73,7 @@ public class StandardConfiguration implements Configuration {
         for (Invocation invocation : configuration.getInvocations()) {
             invocations.add(invocation);
         }
+        invocationBulkhead = configuration.getInvocationBulkhead();
     }
 
     @Nonnull
@@ -72,6 +88,24 @@ public class StandardConfiguration implements Configuration {
         return period;
     }
 
+    @Override
+    @Nonnull
+    public synchronized DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    @Override
+    @Nonnull
+    public synchronized OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    @Override
+    @Nonnull
+    public synchronized OverlapPolicy getOverlapPolicy() {
+        return overlapPolicy;
+    }
+
     @Override
     @Nonnull
     public synchronized Iterable<OutputWriter> getOutputWriters() {
@@ -83,4 +117,10 @@ public class StandardConfiguration implements Configuration {
     public synchronized Iterable<Invocation> getInvocations() {
         return invocations;
     }
+
+    @Override
+    @Nonnull
+    public synchronized Bulkhead getInvocationBulkhead() {
+        return invocationBulkhead;
+    }
 }
@@ -26,6 +26,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.annotation.Nonnull;
 
+import org.jmxtrans.core.scheduler.InstrumentedThreadPoolExecutor;
+
 public class ThreadPoolExecutorMetrics implements ThreadPoolExecutorMetricsMBean {
     
     @Nonnull private final ThreadPoolExecutor executor;
@@ -44,6 +46,35 @@ public class ThreadPoolExecutorMetrics implements ThreadPoolExecutorMetricsMBean
         return executor.getQueue().remainingCapacity();
     }
 
+    /**
+     * Peak size of the work queue, if the executor keeps track of it, current size otherwise.
+     */
+    @Override
+    public int getPeakWorkQueueSize() {
+        if (executor instanceof InstrumentedThreadPoolExecutor) {
+            return ((InstrumentedThreadPoolExecutor) executor).getPeakQueueSize();
+        }
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void resetPeakWorkQueueSize() {
+        if (executor instanceof InstrumentedThreadPoolExecutor) {
+            ((InstrumentedThreadPoolExecutor) executor).resetPeakQueueSize();
+        }
+    }
+
+    /**
+     * Number of tasks rejected by the executor, if it keeps track of them, 0 otherwise.
+     */
+    @Override
+    public long getRejectedTaskCount() {
+        if (executor instanceof InstrumentedThreadPoolExecutor) {
+            return ((InstrumentedThreadPoolExecutor) executor).getRejectedTaskCount();
+        }
+        return 0;
+    }
+
     @Override
     public int getActiveCount() {
         return executor.getActiveCount();
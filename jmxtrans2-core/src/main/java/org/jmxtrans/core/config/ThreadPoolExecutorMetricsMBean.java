@@ -27,6 +27,12 @@ public interface ThreadPoolExecutorMetricsMBean {
 
     int getWorkQueueRemainingCapacity();
 
+    int getPeakWorkQueueSize();
+
+    void resetPeakWorkQueueSize();
+
+    long getRejectedTaskCount();
+
     int getActiveCount();
 
     int getCorePoolSize();
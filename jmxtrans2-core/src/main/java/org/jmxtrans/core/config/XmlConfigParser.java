@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -60,12 +61,20 @@ import org.jmxtrans.core.monitoring.ObjectNameFactory;
 import org.jmxtrans.core.output.MetricCollectingOutputWriter;
 import org.jmxtrans.core.output.OutputWriter;
 import org.jmxtrans.core.output.OutputWriterFactory;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.InProcessServer;
 import org.jmxtrans.core.query.Invocation;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.QueryAttribute;
 import org.jmxtrans.core.query.RemoteServer;
+import org.jmxtrans.core.results.ChangeSuppression;
+import org.jmxtrans.core.results.CounterMode;
 import org.jmxtrans.core.results.MetricType;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.InvocationScheduler;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.io.Resource;
 import org.jmxtrans.utils.io.StandardResource;
 import org.jmxtrans.utils.time.Clock;
@@ -136,8 +145,20 @@ public class XmlConfigParser implements ConfigParser {
         if (jmxtrans.getCollectIntervalInSeconds() != null) {
             configuration.setPeriod(new Interval(jmxtrans.getCollectIntervalInSeconds(), SECONDS));
         }
+        if (jmxtrans.getDispatchMode() != null) {
+            configuration.setDispatchMode(DispatchMode.valueOf(jmxtrans.getDispatchMode().name()));
+        }
+        if (jmxtrans.getOverrunPolicy() != null) {
+            configuration.setOverrunPolicy(OverrunPolicy.valueOf(jmxtrans.getOverrunPolicy().name()));
+        }
+        if (jmxtrans.getOverlapPolicy() != null) {
+            configuration.setOverlapPolicy(OverlapPolicy.valueOf(jmxtrans.getOverlapPolicy().name()));
+        }
+        if (jmxtrans.getMinResultThreads() != null || jmxtrans.getMaxResultThreads() != null) {
+            logger.warn("minResultThreads and maxResultThreads are ignored, results are written by a single thread per output writer");
+        }
         if (jmxtrans.getQueries() != null) {
-            configuration.addServer(new InProcessServer(parse(jmxtrans.getQueries())));
+            configuration.addServer(new InProcessServer(parse(jmxtrans.getQueries(), null)));
         }
         if (jmxtrans.getServers() != null) {
             try {
@@ -159,7 +180,7 @@ public class XmlConfigParser implements ConfigParser {
 
             Collection<Query> queries = Collections.emptyList();
             if (server.getQueries() != null) {
-                queries = parse(server.getQueries());
+                queries = parse(server.getQueries(), server.getCollectIntervalInSeconds());
             }
             configuration.addServer(RemoteServer.builder()
                     .withUrl(server.getJmxUrl())
@@ -169,22 +190,42 @@ public class XmlConfigParser implements ConfigParser {
                     .withPassword(server.getPassword())
                     .withProtocolProviderPackages(server.getProtocolProviderPackages())
                     .withQueries(queries)
+                    .withBulkhead(server.getBulkhead())
+                    .withMinConcurrentQueries(server.getMinConcurrentQueries())
+                    .withMaxConcurrentQueries(server.getMaxConcurrentQueries())
+                    .withMaxQueuedQueries(server.getMaxQueuedQueries())
+                    .withObjectNameCacheTtl(server.getObjectNameCacheTtlInSeconds(), SECONDS)
                     .build());
         }
     }
 
-    private List<Query> parse(@Nonnull QueriesType queries) {
+    /**
+     * @param serverCollectIntervalInSeconds collection interval defined on the server, used for queries not defining
+     *                                       their own collection interval.
+     */
+    private List<Query> parse(@Nonnull QueriesType queries, @Nullable Integer serverCollectIntervalInSeconds) {
         List<Query> result = new ArrayList<>();
         for (QueryType query : queries.getQuery()) {
+            Integer collectIntervalInSeconds = query.getCollectIntervalInSeconds() != null
+                    ? query.getCollectIntervalInSeconds()
+                    : serverCollectIntervalInSeconds;
             Query.Builder queryBuilder = Query.builder()
                     .withObjectName(query.getObjectName())
                     .withResultAlias(query.getResultAlias())
-                    .withMaxResults(query.getMaxResults());
+                    .withMaxResults(query.getMaxResults())
+                    .withCollectInterval(parseInterval(collectIntervalInSeconds))
+                    .withPriority(Priority.valueOf(query.getPriority().name()))
+                    .withMaxParallelReads(query.getMaxParallelReads());
+            ChangeSuppression queryChangeSuppression = parseChangeSuppression(
+                    query.getDeadBand(), query.getHeartbeatPeriods(), null);
             for (QueryType.QueryAttribute attribute : query.getQueryAttribute()) {
                 QueryAttribute.Builder attributeBuilder = QueryAttribute
                         .builder(attribute.getName())
                         .withResultAlias(attribute.getResultAlias())
-                        .withType(parseMetricType(attribute.getType()));
+                        .withType(parseMetricType(attribute.getType()))
+                        .withCounterMode(CounterMode.valueOf(attribute.getCounterMode().name()))
+                        .withChangeSuppression(parseChangeSuppression(
+                                attribute.getDeadBand(), attribute.getHeartbeatPeriods(), queryChangeSuppression));
                 for (String key : attribute.getKey()) {
                     attributeBuilder.addKey(key);
                 }
@@ -195,6 +236,30 @@ public class XmlConfigParser implements ConfigParser {
         return result;
     }
 
+    /**
+     * @param inherited change suppression of the enclosing query, each of its settings is used unless overridden
+     */
+    @Nullable
+    private ChangeSuppression parseChangeSuppression(
+            @Nullable Double deadBand,
+            @Nullable Integer heartbeatPeriods,
+            @Nullable ChangeSuppression inherited) {
+        if (deadBand == null && heartbeatPeriods == null) return inherited;
+        double inheritedDeadBand = inherited != null ? inherited.getDeadBand() : 0;
+        int inheritedHeartbeatPeriods = inherited != null
+                ? inherited.getHeartbeatPeriods()
+                : ChangeSuppression.DEFAULT_HEARTBEAT_PERIODS;
+        return new ChangeSuppression(
+                deadBand != null ? deadBand : inheritedDeadBand,
+                heartbeatPeriods != null ? heartbeatPeriods : inheritedHeartbeatPeriods);
+    }
+
+    @Nullable
+    private Interval parseInterval(@Nullable Integer intervalInSeconds) {
+        if (intervalInSeconds == null) return null;
+        return new Interval(intervalInSeconds, SECONDS);
+    }
+
     private MetricType parseMetricType(String type) {
         if (type == null) return UNKNOWN;
         if (type.isEmpty()) return UNKNOWN;
@@ -202,6 +267,11 @@ public class XmlConfigParser implements ConfigParser {
     }
 
     private void parse(@Nonnull Jmxtrans.Invocations invocations, @Nonnull ModifiableConfiguration configuration) throws MalformedObjectNameException {
+        configuration.setInvocationBulkhead(new Bulkhead(
+                InvocationScheduler.BULKHEAD_NAME,
+                invocations.getMinThreads() != null ? invocations.getMinThreads() : Bulkhead.DEFAULT_MIN_CONCURRENT_QUERIES,
+                invocations.getMaxThreads() != null ? invocations.getMaxThreads() : Bulkhead.DEFAULT_MAX_CONCURRENT_QUERIES,
+                invocations.getMaxQueuedInvocations() != null ? invocations.getMaxQueuedInvocations() : Bulkhead.DEFAULT_MAX_QUEUED_QUERIES));
         for (InvocationType invocation : invocations.getInvocation()) {
             List<String> params = new ArrayList<>();
             List<String> signature = new ArrayList<>();
@@ -218,6 +288,9 @@ public class XmlConfigParser implements ConfigParser {
                             signature.toArray(new String[0]),
                             invocation.getResultAlias(),
                             parseMetricType(invocation.getType()),
+                            parseInterval(invocation.getCollectIntervalInSeconds()),
+                            invocation.getResultCacheTtlInSeconds(), SECONDS,
+                            invocation.getMaxConcurrentInvocations(),
                             new SystemClock()));
         }
     }
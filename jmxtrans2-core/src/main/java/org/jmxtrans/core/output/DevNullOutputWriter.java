@@ -30,16 +30,27 @@ import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 @Immutable
 @ThreadSafe
-public class DevNullOutputWriter implements OutputWriter {
+public class DevNullOutputWriter implements ColumnarOutputWriter {
 
     @Override
     public int write(@Nonnull QueryResult result) throws IOException {
         return 0;
     }
 
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+        return 0;
+    }
+
+    @Override
+    public int writeBatch(@Nonnull ResultBatch batch) throws IOException {
+        return 0;
+    }
+
     public static final class Factory implements OutputWriterFactory<DevNullOutputWriter> {
         @Nonnull
         @Override
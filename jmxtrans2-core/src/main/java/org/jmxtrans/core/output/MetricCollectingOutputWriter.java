@@ -33,6 +33,7 @@ import javax.management.ObjectName;
 
 import org.jmxtrans.core.monitoring.SelfNamedMBean;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 import org.jmxtrans.utils.time.Clock;
 import org.jmxtrans.utils.time.NanoChronometer;
 
@@ -40,7 +41,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
-public class MetricCollectingOutputWriter implements OutputWriter, MetricCollectingOutputWriterMBean, SelfNamedMBean {
+public class MetricCollectingOutputWriter implements ColumnarOutputWriter, MetricCollectingOutputWriterMBean, SelfNamedMBean {
 
     @Nonnull private final Clock clock;
     @Nonnull private final OutputWriter delegate;
@@ -63,6 +64,29 @@ public class MetricCollectingOutputWriter implements OutputWriter, MetricCollect
         }
     }
 
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException, InterruptedException {
+        try (NanoChronometer chronometer = getProcessingTimeChronometer()) {
+            int count = delegate.writeAll(results);
+            processedCount.addAndGet(count);
+            return count;
+        }
+    }
+
+    /**
+     * Batches are read in place if the delegate supports it, and restored as results otherwise.
+     */
+    @Override
+    public int writeBatch(@Nonnull ResultBatch batch) throws IOException, InterruptedException {
+        try (NanoChronometer chronometer = getProcessingTimeChronometer()) {
+            int count = delegate instanceof ColumnarOutputWriter
+                    ? ((ColumnarOutputWriter) delegate).writeBatch(batch)
+                    : delegate.writeAll(batch);
+            processedCount.addAndGet(count);
+            return count;
+        }
+    }
+
     @Nonnull
     private NanoChronometer getProcessingTimeChronometer() {
         return new NanoChronometer(processingTimeCounter, clock);
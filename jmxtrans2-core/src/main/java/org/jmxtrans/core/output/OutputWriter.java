@@ -26,11 +26,15 @@ import java.io.IOException;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.ThreadSafe;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.jmxtrans.core.results.QueryResult;
 
-@ThreadSafe
+/**
+ * Each output writer is only ever called from a single thread, the consumer thread of its
+ * {@link org.jmxtrans.core.scheduler.WriterChannel}. Implementations do not need to be thread safe.
+ */
+@NotThreadSafe
 public interface OutputWriter {
 
     /**
@@ -39,4 +43,13 @@ public interface OutputWriter {
     @CheckReturnValue
     int write(@Nonnull QueryResult result) throws IOException, InterruptedException;
 
+    /**
+     * Write a batch of results of a query execution at once. Implementations should take advantage of the whole batch
+     * being available, for example by acquiring their connection only once.
+     *
+     * @return the number of results actually processed
+     */
+    @CheckReturnValue
+    int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException, InterruptedException;
+
 }
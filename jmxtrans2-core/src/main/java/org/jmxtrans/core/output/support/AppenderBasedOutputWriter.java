@@ -28,8 +28,15 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 public interface AppenderBasedOutputWriter {
     @CheckReturnValue
     int write(@Nonnull Appendable writer, @Nonnull QueryResult result) throws IOException;
+
+    /**
+     * Same as {@link #write(Appendable, QueryResult)}, for the result at the given index of the batch.
+     */
+    @CheckReturnValue
+    int write(@Nonnull Appendable writer, @Nonnull ResultBatch batch, int index) throws IOException;
 }
@@ -23,12 +23,10 @@
 package org.jmxtrans.core.output.support;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
@@ -37,53 +35,61 @@ import org.jmxtrans.core.results.QueryResult;
 import org.jmxtrans.core.results.QueryResultTimeComparator;
 
 import static java.lang.String.format;
-import static java.util.Collections.emptyList;
-import static java.util.Collections.sort;
+import static java.util.Arrays.fill;
+import static java.util.Arrays.sort;
 
+/**
+ * Pending results are kept in an array which is reused from one batch to the next, and sorted in place.
+ */
+@NotThreadSafe
 public class BatchingOutputWriter<T extends BatchedOutputWriter> implements OutputWriter {
 
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
-    @Nonnull private final LinkedBlockingQueue<QueryResult> resultQueue;
-    private final int batchSize;
+    @Nonnull private final QueryResult[] pendingResults;
+    private int pendingCount = 0;
     @Nonnull private final T outputWriter;
     @Nonnull private final Comparator<QueryResult> batchOrder = new QueryResultTimeComparator();
 
     public BatchingOutputWriter(int batchSize, @Nonnull T outputWriter) {
-        this.batchSize = batchSize;
-        resultQueue = new LinkedBlockingQueue<>(batchSize);
+        pendingResults = new QueryResult[batchSize];
         this.outputWriter = outputWriter;
     }
 
 
     @Override
     public int write(@Nonnull QueryResult result) throws IOException {
-        List<QueryResult> batch = enqueueAndGetBatch(result);
-        if (batch.isEmpty()) return 0;
-        return processBatch(batch);
+        return enqueue(result);
     }
 
-    // FIXME: There is a problem with synchronization here. All operations on the resultQueue are synchronized so using
-    // a concurrent collection does not make much sense. But we still need to ensure that the queue is drained only
-    // once if multiple results arrive when the queue is full. This needs some more love ...
-    @Nonnull
-    private synchronized List<QueryResult> enqueueAndGetBatch(@Nonnull QueryResult result) {
-        if (!resultQueue.offer(result)) {
-            List<QueryResult> batch = new ArrayList<>(batchSize);
-            resultQueue.drainTo(batch);
-            // I cannot see any reason why this offer could fail, so let's not check the result
-            resultQueue.offer(result);
-            return batch;
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+        int counter = 0;
+        for (QueryResult result : results) {
+            counter += enqueue(result);
         }
-        return emptyList();
+        return counter;
+    }
+
+    /**
+     * Pending results are flushed as a batch when the next result is received.
+     *
+     * @return number of results written by flushing pending results, if any
+     */
+    private int enqueue(@Nonnull QueryResult result) throws IOException {
+        int counter = 0;
+        if (pendingCount == pendingResults.length) counter = processPendingResults();
+        pendingResults[pendingCount++] = result;
+        return counter;
     }
 
-    private int processBatch(@Nonnull List<QueryResult> batch) throws IOException {
+    private int processPendingResults() throws IOException {
         int counter = 0;
         try {
             outputWriter.beforeBatch();
-            sort(batch, batchOrder);
-            for (QueryResult result : batch) {
+            sort(pendingResults, 0, pendingCount, batchOrder);
+            for (int i = 0; i < pendingCount; i++) {
+                QueryResult result = pendingResults[i];
                 try {
                     counter += outputWriter.write(result);
                 } catch (IOException ioe) {
@@ -93,6 +99,8 @@ public class BatchingOutputWriter<T extends BatchedOutputWriter> implements Outp
                 }
             }
         } finally {
+            fill(pendingResults, 0, pendingCount, null);
+            pendingCount = 0;
             counter += outputWriter.afterBatch();
         }
         return counter;
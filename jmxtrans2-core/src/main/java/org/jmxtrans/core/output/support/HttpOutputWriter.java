@@ -25,6 +25,7 @@ package org.jmxtrans.core.output.support;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.Proxy;
@@ -34,6 +35,7 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.results.QueryResult;
@@ -51,11 +53,12 @@ import static org.jmxtrans.core.log.LoggerFactory.getLogger;
 import static org.jmxtrans.utils.io.Charsets.US_ASCII;
 import static org.jmxtrans.utils.io.IoUtils.copy;
 
+@NotThreadSafe
 public class HttpOutputWriter<T extends OutputStreamBasedOutputWriter> implements BatchedOutputWriter {
 
     @Nonnull private final Logger logger = getLogger(getClass().getName());
     
-    @Nonnull private final ThreadLocal<HttpURLConnection> connection = new ThreadLocal<>();
+    @Nullable private HttpURLConnection connection;
 
     @Nonnull final private URL url;
     private final int timeoutInMillis;
@@ -86,7 +89,7 @@ public class HttpOutputWriter<T extends OutputStreamBasedOutputWriter> implement
     public void beforeBatch() throws IOException {
         HttpURLConnection urlConnection = openConnection();
         configureConnection(urlConnection);
-        connection.set(urlConnection);
+        connection = urlConnection;
         target.beforeBatch(getURLConnection().getOutputStream());
     }
 
@@ -97,8 +100,18 @@ public class HttpOutputWriter<T extends OutputStreamBasedOutputWriter> implement
         return count;
     }
 
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+        OutputStream out = getURLConnection().getOutputStream();
+        int count = 0;
+        for (QueryResult result : results) {
+            count += target.write(out, result);
+        }
+        return count;
+    }
+
     private HttpURLConnection getURLConnection() {
-        HttpURLConnection urlConnection = connection.get();
+        HttpURLConnection urlConnection = connection;
         if (urlConnection == null) throw new IllegalStateException("Connection has not been initialized");
         return urlConnection;
     }
@@ -113,9 +126,9 @@ public class HttpOutputWriter<T extends OutputStreamBasedOutputWriter> implement
                 throw new IOException("Error connecting to server, response code is not OK but " + urlConnection.getResponseCode());
             }
             try {
-                disposeOfConnection(connection.get());
+                disposeOfConnection(urlConnection);
             } finally {
-                connection.remove();
+                connection = null;
             }
         }
     }
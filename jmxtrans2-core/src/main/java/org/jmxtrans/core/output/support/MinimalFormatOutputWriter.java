@@ -23,26 +23,39 @@
 package org.jmxtrans.core.output.support;
 
 import java.io.IOException;
-import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import static org.jmxtrans.utils.StringUtils2.appendLong;
+
 @ThreadSafe
 public class MinimalFormatOutputWriter implements AppenderBasedOutputWriter {
     @Override
     public int write(@Nonnull Appendable writer, @Nonnull QueryResult result) throws IOException {
         writer.append(result.getName());
         writer.append(" ");
-        writer.append(Objects.toString(result.getValue()));
+        result.appendValue(writer);
         writer.append(" ");
-        writer.append(Long.toString(result.getEpoch(MILLISECONDS)));
+        appendLong(writer, result.getEpoch(MILLISECONDS));
         writer.append("\n"); // Let's be platform agnostic and make sure we output the same format all the time by not
                              // using System.lineSeparator()
         return 1;
     }
+
+    @Override
+    public int write(@Nonnull Appendable writer, @Nonnull ResultBatch batch, int index) throws IOException {
+        writer.append(batch.getSeries(index).getName());
+        writer.append(" ");
+        batch.appendValue(index, writer);
+        writer.append(" ");
+        appendLong(writer, batch.getEpoch(index, MILLISECONDS));
+        writer.append("\n");
+        return 1;
+    }
 }
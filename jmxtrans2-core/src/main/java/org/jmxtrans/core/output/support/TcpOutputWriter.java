@@ -27,9 +27,10 @@ import java.io.IOException;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
-import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.output.ColumnarOutputWriter;
 import org.jmxtrans.core.output.support.pool.PoolableSocketAppender;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 import stormpot.Pool;
 import stormpot.Timeout;
@@ -52,7 +53,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  * connections instead.
  */
 @ThreadSafe
-public class TcpOutputWriter<T extends AppenderBasedOutputWriter> implements OutputWriter{
+public class TcpOutputWriter<T extends AppenderBasedOutputWriter> implements ColumnarOutputWriter {
 
     public static final Timeout CLAIM_TIMEOUT = new Timeout(10, MILLISECONDS);
     @Nonnull private final T target;
@@ -74,4 +75,35 @@ public class TcpOutputWriter<T extends AppenderBasedOutputWriter> implements Out
             if (poolableSocketAppender != null) poolableSocketAppender.release();
         }
     }
+
+    /**
+     * All results are written with the same socket, claimed from the pool only once.
+     */
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException, InterruptedException {
+        PoolableSocketAppender poolableSocketAppender = socketPool.claim(CLAIM_TIMEOUT);
+        try {
+            int resultsWritten = 0;
+            for (QueryResult result : results) {
+                resultsWritten += target.write(poolableSocketAppender, result);
+            }
+            return resultsWritten;
+        } finally {
+            if (poolableSocketAppender != null) poolableSocketAppender.release();
+        }
+    }
+
+    @Override
+    public int writeBatch(@Nonnull ResultBatch batch) throws IOException, InterruptedException {
+        PoolableSocketAppender poolableSocketAppender = socketPool.claim(CLAIM_TIMEOUT);
+        try {
+            int resultsWritten = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                resultsWritten += target.write(poolableSocketAppender, batch, i);
+            }
+            return resultsWritten;
+        } finally {
+            if (poolableSocketAppender != null) poolableSocketAppender.release();
+        }
+    }
 }
@@ -28,12 +28,13 @@ import java.io.Writer;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
-import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.output.ColumnarOutputWriter;
 import org.jmxtrans.core.output.support.AppenderBasedOutputWriter;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 @ThreadSafe
-public class ConsoleOutputWriter implements OutputWriter {
+public class ConsoleOutputWriter implements ColumnarOutputWriter {
 
     @Nonnull private final AppenderBasedOutputWriter delegate;
     @Nonnull private Writer writer;
@@ -50,4 +51,24 @@ public class ConsoleOutputWriter implements OutputWriter {
         return resultsWritten;
     }
 
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+        int resultsWritten = 0;
+        for (QueryResult result : results) {
+            resultsWritten += delegate.write(writer, result);
+        }
+        writer.flush();
+        return resultsWritten;
+    }
+
+    @Override
+    public int writeBatch(@Nonnull ResultBatch batch) throws IOException {
+        int resultsWritten = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            resultsWritten += delegate.write(writer, batch, i);
+        }
+        writer.flush();
+        return resultsWritten;
+    }
+
 }
@@ -25,7 +25,6 @@ package org.jmxtrans.core.output.writers;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -33,10 +32,13 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.output.support.AppenderBasedOutputWriter;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 import org.jmxtrans.utils.VisibleForTesting;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import static org.jmxtrans.utils.StringUtils2.appendLong;
+
 @ThreadSafe
 public class GraphiteOutputWriter implements AppenderBasedOutputWriter {
 
@@ -50,9 +52,20 @@ public class GraphiteOutputWriter implements AppenderBasedOutputWriter {
         writer.append(buildMetricPathPrefix());
         writer.append(result.getName());
         writer.append(" ");
-        writer.append(Objects.toString(result.getValue()));
+        result.appendValue(writer);
+        writer.append(" ");
+        appendLong(writer, result.getEpoch(SECONDS));
+        return 1;
+    }
+
+    @Override
+    public int write(@Nonnull Appendable writer, @Nonnull ResultBatch batch, int index) throws IOException {
+        writer.append(buildMetricPathPrefix());
+        writer.append(batch.getSeries(index).getName());
+        writer.append(" ");
+        batch.appendValue(index, writer);
         writer.append(" ");
-        writer.append(Long.toString(result.getEpoch(SECONDS)));
+        appendLong(writer, batch.getEpoch(index, SECONDS));
         return 1;
     }
 
@@ -0,0 +1,92 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Isolated share of the query collection capacity.
+ *
+ * Queries of servers sharing the same bulkhead are collected by a dedicated pool of threads, with its own queue. A
+ * slow or unresponsive server can only exhaust the capacity of its own bulkhead, not the capacity of other servers.
+ *
+ * The number of threads of a bulkhead adapts to the latency of its queries, between {@code minConcurrentQueries} and
+ * {@code maxConcurrentQueries}.
+ */
+@Immutable
+@ThreadSafe
+@EqualsAndHashCode
+@ToString
+public final class Bulkhead {
+
+    public static final int DEFAULT_MIN_CONCURRENT_QUERIES = 1;
+    public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 2;
+    public static final int DEFAULT_MAX_QUEUED_QUERIES = 100;
+
+    @Nonnull @Getter private final String name;
+    @Getter private final int minConcurrentQueries;
+    @Getter private final int maxConcurrentQueries;
+    @Getter private final int maxQueuedQueries;
+
+    public Bulkhead(@Nonnull String name, int minConcurrentQueries, int maxConcurrentQueries, int maxQueuedQueries) {
+        if (minConcurrentQueries <= 0) throw new IllegalArgumentException("minConcurrentQueries must be positive");
+        if (maxConcurrentQueries < minConcurrentQueries) {
+            throw new IllegalArgumentException("maxConcurrentQueries must not be lower than minConcurrentQueries");
+        }
+        if (maxQueuedQueries <= 0) throw new IllegalArgumentException("maxQueuedQueries must be positive");
+        this.name = name;
+        this.minConcurrentQueries = minConcurrentQueries;
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.maxQueuedQueries = maxQueuedQueries;
+    }
+
+    @Nonnull
+    public static Bulkhead named(@Nonnull String name) {
+        return new Bulkhead(
+                name,
+                DEFAULT_MIN_CONCURRENT_QUERIES,
+                DEFAULT_MAX_CONCURRENT_QUERIES,
+                DEFAULT_MAX_QUEUED_QUERIES);
+    }
+
+    /**
+     * Merge two definitions of the same bulkhead, keeping the largest limits.
+     */
+    @Nonnull
+    public Bulkhead merge(@Nonnull Bulkhead other) {
+        if (!name.equals(other.name)) {
+            throw new IllegalArgumentException("Cannot merge bulkheads " + name + " and " + other.name);
+        }
+        return new Bulkhead(
+                name,
+                Math.max(minConcurrentQueries, other.minConcurrentQueries),
+                Math.max(maxConcurrentQueries, other.maxConcurrentQueries),
+                Math.max(maxQueuedQueries, other.maxQueuedQueries));
+    }
+}
@@ -22,6 +22,7 @@
  */
 package org.jmxtrans.core.query;
 
+import java.io.Closeable;
 import java.lang.management.ManagementFactory;
 
 import javax.annotation.Nonnull;
@@ -29,13 +30,30 @@ import javax.management.MBeanServerConnection;
 
 import lombok.Getter;
 
-public class InProcessServer implements Server {
+/**
+ * Server collecting the MBeans of the platform MBean server of this JVM. Closing the server stops the index of its
+ * MBeans from listening to MBean registrations.
+ */
+public class InProcessServer implements Server, Closeable {
+    @Nonnull public static final String DEFAULT_BULKHEAD_NAME = "local";
+
     @Nonnull
     @Getter
     private final Iterable<Query> queries;
+    @Nonnull
+    @Getter
+    private final Bulkhead bulkhead;
+    @Nonnull
+    @Getter
+    private final ObjectNameIndex objectNameResolver = new ObjectNameIndex(ManagementFactory.getPlatformMBeanServer());
 
     public InProcessServer(@Nonnull Iterable<Query> queries) {
+        this(queries, Bulkhead.named(DEFAULT_BULKHEAD_NAME));
+    }
+
+    public InProcessServer(@Nonnull Iterable<Query> queries, @Nonnull Bulkhead bulkhead) {
         this.queries = queries;
+        this.bulkhead = bulkhead;
     }
 
     @Override
@@ -49,4 +67,14 @@ public class InProcessServer implements Server {
         return ManagementFactory.getPlatformMBeanServer();
     }
 
+    @Override
+    public void invalidateConnection() {
+        // the platform MBean server is always valid
+    }
+
+    @Override
+    public void close() {
+        objectNameResolver.close();
+    }
+
 }
@@ -22,30 +22,47 @@
  */
 package org.jmxtrans.core.query;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
-import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
 import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
 import org.jmxtrans.utils.time.Clock;
+import org.jmxtrans.utils.time.Interval;
 
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.ToString;
 
 /**
+ * Invokes a JMX operation on each MBean matching an ObjectName, and exports the values it returns.
+ *
+ * Operations can be expensive: results are cached for the given TTL, and at most the given number of invocations of
+ * the operation run at once. Further invocations are rejected while the limit is reached.
+ *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 @ThreadSafe
-@EqualsAndHashCode(exclude = {"logger", "clock"})
-@ToString(exclude = {"logger", "clock"})
+@EqualsAndHashCode(exclude = {"logger", "clock", "permits", "cachedValues", "cachedAtMillis", "cacheHitCount", "rejectedCount"})
+@ToString(exclude = {"logger", "clock", "permits", "cachedValues", "cachedAtMillis", "cacheHitCount", "rejectedCount"})
 public class Invocation {
 
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
@@ -55,8 +72,21 @@ public class Invocation {
     @Nonnull private final Object[] params;
     @Nonnull private final String[] signature;
     @Nonnull private final MetricType type;
+    /**
+     * Interval between two invocations, <code>null</code> to use the default collection interval.
+     */
+    @Nullable @Getter private final Interval collectInterval;
+    /** How long results are reused, 0 to invoke the operation each time. */
+    @Getter private final long resultCacheTtlMillis;
+    @Getter private final int maxConcurrentInvocations;
     @Nonnull private final Clock clock;
 
+    @Nonnull private final Semaphore permits;
+    @GuardedBy("this") @Nullable private List<Object> cachedValues;
+    @GuardedBy("this") private long cachedAtMillis;
+    @Nonnull private final AtomicLong cacheHitCount = new AtomicLong();
+    @Nonnull private final AtomicLong rejectedCount = new AtomicLong();
+
     public Invocation(
             @Nonnull ObjectName objectName,
             @Nonnull String operationName,
@@ -65,24 +95,117 @@ public class Invocation {
             @Nonnull String resultAlias,
             @Nonnull MetricType type,
             @Nonnull Clock clock) {
+        this(objectName, operationName, params, signature, resultAlias, type, null, 0, TimeUnit.MILLISECONDS, 1, clock);
+    }
+
+    /**
+     * @param collectInterval          interval between two invocations, null to use the default collection interval
+     * @param resultCacheTtl           how long results are reused, 0 to invoke the operation each time
+     * @param maxConcurrentInvocations maximum number of invocations of this operation running at once
+     */
+    public Invocation(
+            @Nonnull ObjectName objectName,
+            @Nonnull String operationName,
+            @Nonnull Object[] params,
+            @Nonnull String[] signature,
+            @Nonnull String resultAlias,
+            @Nonnull MetricType type,
+            @Nullable Interval collectInterval,
+            long resultCacheTtl,
+            @Nonnull TimeUnit resultCacheTtlUnit,
+            int maxConcurrentInvocations,
+            @Nonnull Clock clock) {
         this.objectName = objectName;
         this.operationName = operationName;
         this.params = params.clone();
         this.signature = signature.clone();
         this.resultAlias = resultAlias;
         this.type = type;
+        this.collectInterval = collectInterval;
+        this.resultCacheTtlMillis = resultCacheTtlUnit.toMillis(resultCacheTtl);
+        this.maxConcurrentInvocations = maxConcurrentInvocations;
+        this.permits = new Semaphore(maxConcurrentInvocations);
         this.clock = clock;
     }
 
-    public void invoke(@Nonnull MBeanServer mbeanServer, @Nonnull BlockingQueue<QueryResult> resultQueue) {
+    public void invoke(@Nonnull MBeanServerConnection mbeanServer, @Nonnull final BlockingQueue<QueryResult> resultQueue) throws IOException {
+        invoke(mbeanServer, new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                return resultQueue.add(result);
+            }
+        });
+    }
+
+    /**
+     * Values still in cache are handed to the sink again, without invoking the operation. Results are stamped with the
+     * time of this invocation, whether their values come from the cache or not.
+     *
+     * @return false if the invocation was rejected because too many invocations of this operation are running
+     */
+    public boolean invoke(@Nonnull MBeanServerConnection mbeanServer, @Nonnull ResultSink sink) throws IOException {
+        List<Object> values = getCachedValues();
+        if (values != null) {
+            cacheHitCount.incrementAndGet();
+        } else if (permits.tryAcquire()) {
+            try {
+                values = doInvoke(mbeanServer);
+                cache(values);
+            } finally {
+                permits.release();
+            }
+        } else {
+            rejectedCount.incrementAndGet();
+            logger.debug("Too many invocations of " + objectName + "#" + operationName + " running, skipping invocation");
+            return false;
+        }
+        long epochInMillis = clock.currentTimeMillis();
+        for (Object value : values) {
+            if (!sink.accept(new QueryResult(resultAlias, type, value, epochInMillis))) break;
+        }
+        return true;
+    }
+
+    /**
+     * @return values returned by the operation for each matching MBean
+     */
+    @Nonnull
+    private List<Object> doInvoke(@Nonnull MBeanServerConnection mbeanServer) throws IOException {
+        List<Object> values = new ArrayList<>();
         Set<ObjectName> objectNames = mbeanServer.queryNames(objectName, null);
         for (ObjectName on : objectNames) {
             try {
-                Object result = mbeanServer.invoke(on, operationName, params, signature);
-                resultQueue.add(new QueryResult(resultAlias, type, result, clock.currentTimeMillis()));
+                values.add(mbeanServer.invoke(on, operationName, params, signature));
             } catch (Exception e) {
                 logger.warn("Exception invoking " + on + "#" + operationName + "(" + Arrays.toString(params) + ")", e);
             }
         }
+        return Collections.unmodifiableList(values);
+    }
+
+    @Nullable
+    private synchronized List<Object> getCachedValues() {
+        if (cachedValues == null || clock.currentTimeMillis() - cachedAtMillis >= resultCacheTtlMillis) return null;
+        return cachedValues;
+    }
+
+    private synchronized void cache(@Nonnull List<Object> values) {
+        if (resultCacheTtlMillis <= 0) return;
+        cachedValues = values;
+        cachedAtMillis = clock.currentTimeMillis();
+    }
+
+    /**
+     * @return number of invocations answered from the result cache
+     */
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    /**
+     * @return number of invocations rejected because too many invocations of this operation were running
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
     }
 }
@@ -0,0 +1,295 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.utils.time.Clock;
+
+import static java.lang.String.format;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Keeps a single {@link JMXConnector} open to a remote server and shares it between all queries.
+ *
+ * The connection is validated with a cheap call ({@link MBeanServerConnection#getMBeanCount()}) if it has not been
+ * used successfully for more than {@code validationIntervalMillis}. After a failure, reconnection is attempted with an
+ * exponential backoff, bounded by {@code maxBackoffMillis}, so that a dead server is not hammered on every query.
+ *
+ * Remote calls are never made while holding the monitor guarding the current connection: a hung server must not
+ * prevent {@link #invalidate()} from returning, as it is called from the watchdog thread shared by all queries. For the
+ * same reason, invalidated connectors are closed on a separate executor. Validations and connections are serialized by
+ * a separate lock, which waiting queries leave when interrupted.
+ *
+ * Neither closing the connector nor interrupting a query releases a remote call already waiting for its response, so
+ * remote calls are bounded by a read timeout, see {@link ReadTimeoutRmiSocketFactory}.
+ */
+@ThreadSafe
+public class JmxConnectionCache implements Closeable {
+
+    /** Closes invalidated connectors, its threads terminate once idle. */
+    @Nonnull private static final Executor CONNECTOR_CLOSER = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 10, SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread thread = defaultThreadFactory().newThread(r);
+                    thread.setDaemon(true);
+                    thread.setName("jmxtrans-connector-closer");
+                    return thread;
+                }
+            });
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+
+    @Nonnull private final JMXServiceURL url;
+    @Nonnull private final Map<String, ?> environment;
+    @Nonnull private final Clock clock;
+    private final long validationIntervalMillis;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int readTimeoutMillis;
+    @Nonnull private final Executor closeExecutor;
+
+    @Nullable @GuardedBy("this") private JMXConnector connector;
+    @Nullable @GuardedBy("this") private MBeanServerConnection connection;
+
+    @Nonnull private final Lock connectLock = new ReentrantLock();
+    @GuardedBy("connectLock") private long lastValidatedMillis;
+    @GuardedBy("connectLock") private int consecutiveFailures;
+    @GuardedBy("connectLock") private long nextConnectionAttemptMillis;
+
+    @Nonnull private final AtomicInteger connectCount = new AtomicInteger();
+    @Nonnull private final AtomicInteger reuseCount = new AtomicInteger();
+    @Nonnull private final AtomicInteger failureCount = new AtomicInteger();
+
+    /**
+     * @param readTimeoutMillis how long remote calls wait for their response, 0 to wait forever
+     */
+    public JmxConnectionCache(
+            @Nonnull JMXServiceURL url,
+            @Nonnull Map<String, ?> environment,
+            @Nonnull Clock clock,
+            long validationIntervalMillis,
+            long minBackoffMillis,
+            long maxBackoffMillis,
+            int readTimeoutMillis) {
+        this(url, environment, clock, validationIntervalMillis, minBackoffMillis, maxBackoffMillis, readTimeoutMillis,
+                CONNECTOR_CLOSER);
+    }
+
+    JmxConnectionCache(
+            @Nonnull JMXServiceURL url,
+            @Nonnull Map<String, ?> environment,
+            @Nonnull Clock clock,
+            long validationIntervalMillis,
+            long minBackoffMillis,
+            long maxBackoffMillis,
+            int readTimeoutMillis,
+            @Nonnull Executor closeExecutor) {
+        this.url = url;
+        this.environment = environment;
+        this.clock = clock;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.closeExecutor = closeExecutor;
+    }
+
+    @Nonnull
+    public MBeanServerConnection getConnection() throws IOException {
+        try {
+            connectLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted while waiting for connection to [%s]", url));
+        }
+        try {
+            MBeanServerConnection current = getCurrentConnection();
+            if (current != null) {
+                if (isValid(current)) {
+                    reuseCount.incrementAndGet();
+                    return current;
+                }
+                discard(current);
+            }
+            return connect();
+        } finally {
+            connectLock.unlock();
+        }
+    }
+
+    /**
+     * Close the current connection, if any, in the background. The next call to {@link #getConnection()} will
+     * reconnect, without waiting for the backoff delay.
+     */
+    public void invalidate() {
+        final JMXConnector toClose;
+        synchronized (this) {
+            if (connection == null) return;
+            toClose = swap(null, null);
+        }
+        logger.debug(format("Invalidating connection to [%s]", url));
+        closeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                close(toClose);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        JMXConnector toClose;
+        synchronized (this) {
+            toClose = swap(null, null);
+        }
+        close(toClose);
+    }
+
+    @Nullable
+    private synchronized MBeanServerConnection getCurrentConnection() {
+        return connection;
+    }
+
+    @GuardedBy("connectLock")
+    private boolean isValid(@Nonnull MBeanServerConnection connection) {
+        long now = clock.currentTimeMillis();
+        if (now - lastValidatedMillis < validationIntervalMillis) return true;
+        try {
+            connection.getMBeanCount();
+            lastValidatedMillis = now;
+            return true;
+        } catch (IOException e) {
+            logger.info(format("Connection to [%s] is broken, reconnecting", url));
+            failureCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    @Nonnull
+    @GuardedBy("connectLock")
+    private MBeanServerConnection connect() throws IOException {
+        long now = clock.currentTimeMillis();
+        if (now < nextConnectionAttemptMillis) {
+            throw new IOException(format("Not connecting to [%s], backing off after %d failure(s) until %d",
+                    url, consecutiveFailures, nextConnectionAttemptMillis));
+        }
+        if (readTimeoutMillis > 0) ReadTimeoutRmiSocketFactory.installIfAbsent(readTimeoutMillis);
+        try {
+            JMXConnector newConnector = JMXConnectorFactory.connect(url, environment);
+            MBeanServerConnection newConnection = newConnector.getMBeanServerConnection();
+            JMXConnector previous;
+            synchronized (this) {
+                previous = swap(newConnector, newConnection);
+            }
+            close(previous);
+            lastValidatedMillis = now;
+            consecutiveFailures = 0;
+            nextConnectionAttemptMillis = 0;
+            connectCount.incrementAndGet();
+            logger.debug(format("Connected to [%s]", url));
+            return newConnection;
+        } catch (IOException | RuntimeException e) {
+            failureCount.incrementAndGet();
+            consecutiveFailures++;
+            nextConnectionAttemptMillis = now + backoffMillis(consecutiveFailures);
+            throw e;
+        }
+    }
+
+    private long backoffMillis(int failures) {
+        long backoff = minBackoffMillis;
+        for (int i = 1; i < failures && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    /**
+     * Forget the given connection, unless it has already been replaced.
+     */
+    private void discard(@Nonnull MBeanServerConnection broken) {
+        JMXConnector toClose;
+        synchronized (this) {
+            if (connection != broken) return;
+            toClose = swap(null, null);
+        }
+        close(toClose);
+    }
+
+    /**
+     * @return the connector previously in use, to be closed once the monitor is released
+     */
+    @Nullable
+    @GuardedBy("this")
+    private JMXConnector swap(@Nullable JMXConnector newConnector, @Nullable MBeanServerConnection newConnection) {
+        JMXConnector previous = connector;
+        connector = newConnector;
+        connection = newConnection;
+        return previous;
+    }
+
+    private void close(@Nullable JMXConnector toClose) {
+        if (toClose == null) return;
+        try {
+            toClose.close();
+        } catch (IOException e) {
+            logger.debug(format("Error closing connection to [%s], ignoring", url), e);
+        }
+    }
+
+    public int getConnectCount() {
+        return connectCount.get();
+    }
+
+    public int getReuseCount() {
+        return reuseCount.get();
+    }
+
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenMBeanAttributeInfo;
+
+/**
+ * Attributes of an MBean which can be collected, among the attributes requested by a query.
+ */
+@Immutable
+final class MBeanAttributes {
+
+    @Nonnull private static final Set<String> SCALAR_TYPES = new HashSet<>(Arrays.asList(
+            "byte", "short", "int", "long", "float", "double",
+            "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double", "java.lang.Number", "java.math.BigInteger", "java.math.BigDecimal",
+            "java.util.concurrent.atomic.AtomicInteger", "java.util.concurrent.atomic.AtomicLong",
+            "java.lang.String", "java.util.Date"));
+
+    @Nonnull private static final Set<String> COMPOSITE_TYPES = new HashSet<>(Arrays.asList(
+            "javax.management.openmbean.CompositeData", "javax.management.openmbean.CompositeDataSupport"));
+
+    @Nonnull private static final Set<String> UNSUPPORTED_TYPES = new HashSet<>(Arrays.asList(
+            "boolean", "java.lang.Boolean", "char", "java.lang.Character", "void",
+            "javax.management.openmbean.TabularData", "javax.management.openmbean.TabularDataSupport"));
+
+    @Nonnull private final String[] names;
+    @Nonnull private final Map<String, AttributeKind> kinds;
+
+    private MBeanAttributes(@Nonnull String[] names, @Nonnull Map<String, AttributeKind> kinds) {
+        this.names = names;
+        this.kinds = kinds;
+    }
+
+    /**
+     * @return all requested attributes, their kind is resolved from their values
+     */
+    @Nonnull
+    static MBeanAttributes unknown(@Nonnull String[] requestedNames) {
+        return new MBeanAttributes(requestedNames, Collections.<String, AttributeKind>emptyMap());
+    }
+
+    /**
+     * @return requested attributes which exist on the MBean, are readable and have a type which can be collected
+     */
+    @Nonnull
+    static MBeanAttributes from(@Nonnull MBeanInfo mBeanInfo, @Nonnull String[] requestedNames) {
+        Map<String, MBeanAttributeInfo> infos = new HashMap<>();
+        for (MBeanAttributeInfo info : mBeanInfo.getAttributes()) {
+            infos.put(info.getName(), info);
+        }
+        Map<String, AttributeKind> kinds = new HashMap<>();
+        for (String name : requestedNames) {
+            MBeanAttributeInfo info = infos.get(name);
+            if (info == null || !info.isReadable()) continue;
+            AttributeKind kind = kindOf(info);
+            if (kind != null) kinds.put(name, kind);
+        }
+        return new MBeanAttributes(kinds.keySet().toArray(new String[kinds.size()]), kinds);
+    }
+
+    /**
+     * @return kind of the attribute, or null if it cannot be collected
+     */
+    @Nullable
+    private static AttributeKind kindOf(@Nonnull MBeanAttributeInfo info) {
+        if (info instanceof OpenMBeanAttributeInfo && ((OpenMBeanAttributeInfo) info).getOpenType() instanceof CompositeType) {
+            return AttributeKind.COMPOSITE;
+        }
+        String type = info.getType();
+        if (type == null) return AttributeKind.UNKNOWN;
+        if (SCALAR_TYPES.contains(type)) return AttributeKind.SCALAR;
+        if (COMPOSITE_TYPES.contains(type)) return AttributeKind.COMPOSITE;
+        if (UNSUPPORTED_TYPES.contains(type) || type.startsWith("[")) return null;
+        return AttributeKind.UNKNOWN;
+    }
+
+    /**
+     * @return names of the attributes to read, never modified
+     */
+    @Nonnull
+    String[] getNames() {
+        return names;
+    }
+
+    boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Nonnull
+    AttributeKind getKind(@Nonnull String name) {
+        AttributeKind kind = kinds.get(name);
+        return kind != null ? kind : AttributeKind.UNKNOWN;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.utils.time.Clock;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import static javax.management.MBeanServerNotification.UNREGISTRATION_NOTIFICATION;
+
+/**
+ * Caches, for each MBean read by a query, which of the attributes of the query it can provide.
+ *
+ * The {@link MBeanInfo} of an MBean is read the first time the MBean is queried, so that attributes which do not
+ * exist, are not readable or have a type which cannot be collected are never requested from the server. If the
+ * MBean fails to provide its {@link MBeanInfo}, all attributes are requested.
+ *
+ * An MBean can be registered again under the same ObjectName with other attributes. Entries are dropped when the
+ * {@link ObjectNameResolver} of the server notifies the unregistration of their MBean, and are otherwise read again
+ * after a time to live, for servers which do not support notifications.
+ */
+@ThreadSafe
+class MBeanInfoCache implements NotificationListener {
+
+    static final long DEFAULT_TIME_TO_LIVE_MILLIS = MINUTES.toMillis(10);
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final ConcurrentMap<ObjectName, Entry> entries = new ConcurrentHashMap<>();
+    @Nonnull private final Clock clock;
+    private final long timeToLiveMillis;
+
+    MBeanInfoCache(@Nonnull Clock clock, long timeToLiveMillis) {
+        this.clock = clock;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Nonnull
+    MBeanAttributes get(
+            @Nonnull MBeanServerConnection connection,
+            @Nonnull ObjectName objectName,
+            @Nonnull String[] requestedNames) throws InstanceNotFoundException, IOException {
+        long now = clock.currentTimeMillis();
+        Entry entry = entries.get(objectName);
+        if (entry != null && entry.expiresAtMillis > now) return entry.attributes;
+        MBeanAttributes attributes = load(connection, objectName, requestedNames);
+        entries.put(objectName, new Entry(attributes, now + timeToLiveMillis));
+        return attributes;
+    }
+
+    @Nonnull
+    private MBeanAttributes load(
+            @Nonnull MBeanServerConnection connection,
+            @Nonnull ObjectName objectName,
+            @Nonnull String[] requestedNames) throws InstanceNotFoundException, IOException {
+        try {
+            MBeanInfo mBeanInfo = connection.getMBeanInfo(objectName);
+            if (mBeanInfo != null) return MBeanAttributes.from(mBeanInfo, requestedNames);
+        } catch (IntrospectionException | ReflectionException e) {
+            logger.debug(format("Could not read MBeanInfo of %s, reading all attributes", objectName));
+        }
+        return MBeanAttributes.unknown(requestedNames);
+    }
+
+    void invalidate(@Nonnull ObjectName objectName) {
+        entries.remove(objectName);
+    }
+
+    @Override
+    public void handleNotification(@Nonnull Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) return;
+        if (!UNREGISTRATION_NOTIFICATION.equals(notification.getType())) return;
+        invalidate(((MBeanServerNotification) notification).getMBeanName());
+    }
+
+    /**
+     * Forget MBeans which are not matched anymore, so that the cache does not grow with MBeans coming and going.
+     */
+    void retainAll(@Nonnull Set<ObjectName> objectNames) {
+        if (entries.size() <= objectNames.size()) return;
+        entries.keySet().retainAll(objectNames);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        @Nonnull private final MBeanAttributes attributes;
+        private final long expiresAtMillis;
+
+        private Entry(@Nonnull MBeanAttributes attributes, long expiresAtMillis) {
+            this.attributes = attributes;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.utils.time.Clock;
+
+import static javax.management.MBeanServerNotification.UNREGISTRATION_NOTIFICATION;
+
+/**
+ * Caches the MBeans matching each ObjectName queried on a remote server, to save a round trip per query run.
+ *
+ * The set of MBeans of a server rarely changes, cached entries are kept for a time to live. When the connection to
+ * the server supports notifications, entries are also invalidated as soon as a matching MBean is registered or
+ * unregistered. Entries are invalidated by queries when one of their MBeans cannot be found, and all entries are
+ * dropped when the connection changes.
+ *
+ * A time to live of zero disables the cache.
+ */
+@ThreadSafe
+public class ObjectNameCache implements ObjectNameResolver, NotificationListener {
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final Clock clock;
+    private final long timeToLiveMillis;
+    @Nonnull private final ConcurrentMap<ObjectName, Entry> entries = new ConcurrentHashMap<>();
+    @Nonnull private final Set<NotificationListener> unregistrationListeners = new CopyOnWriteArraySet<>();
+    @GuardedBy("this") @Nullable private MBeanServerConnection watchedConnection;
+
+    public ObjectNameCache(@Nonnull Clock clock, long timeToLiveMillis) {
+        this.clock = clock;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Nonnull
+    @Override
+    public Set<ObjectName> queryNames(
+            @Nonnull MBeanServerConnection connection,
+            @Nonnull ObjectName objectName,
+            @Nonnull QueryMetrics metrics) throws IOException {
+        if (timeToLiveMillis <= 0) return connection.queryNames(objectName, null);
+        watch(connection);
+
+        long now = clock.currentTimeMillis();
+        Entry entry = entries.get(objectName);
+        if (entry != null && entry.expiresAtMillis > now) {
+            metrics.incrementObjectNameCacheHits();
+            return entry.names;
+        }
+        metrics.incrementObjectNameCacheMisses();
+        Set<ObjectName> names = Collections.unmodifiableSet(connection.queryNames(objectName, null));
+        entries.put(objectName, new Entry(names, now + timeToLiveMillis));
+        return names;
+    }
+
+    @Override
+    public void invalidate(@Nonnull ObjectName objectName) {
+        entries.remove(objectName);
+    }
+
+    @Override
+    public void addUnregistrationListener(@Nonnull NotificationListener listener) {
+        unregistrationListeners.add(listener);
+    }
+
+    /**
+     * Drop cached entries if the connection changed, and subscribe to the MBean registrations of the new connection.
+     */
+    private synchronized void watch(@Nonnull MBeanServerConnection connection) {
+        if (connection == watchedConnection) return;
+        entries.clear();
+        watchedConnection = connection;
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        try {
+            connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+        } catch (Exception e) {
+            logger.debug("Server does not support notifications, cached MBeans are only refreshed after "
+                    + timeToLiveMillis + "ms");
+        }
+    }
+
+    @Override
+    public void handleNotification(@Nonnull Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) return;
+        ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+        for (Iterator<ObjectName> iterator = entries.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().apply(name)) iterator.remove();
+        }
+        if (UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            for (NotificationListener listener : unregistrationListeners) {
+                listener.handleNotification(notification, handback);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        @Nonnull private final Set<ObjectName> names;
+        private final long expiresAtMillis;
+
+        private Entry(@Nonnull Set<ObjectName> names, long expiresAtMillis) {
+            this.names = names;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+
+import static javax.management.MBeanServerNotification.REGISTRATION_NOTIFICATION;
+import static javax.management.MBeanServerNotification.UNREGISTRATION_NOTIFICATION;
+
+/**
+ * Index of the MBeans matching each ObjectName pattern queried on a local {@link MBeanServer}.
+ *
+ * {@link MBeanServer#queryNames(ObjectName, javax.management.QueryExp)} scans all registered MBeans, which costs more
+ * than reading their attributes on servers with tens of thousands of MBeans. Instead, the MBeans matching a pattern
+ * are looked up once, the first time the pattern is queried, and the index is then kept up to date from the
+ * registration and unregistration notifications of the {@link MBeanServerDelegate}.
+ *
+ * ObjectNames which are not patterns are cheap to look up and are not indexed, neither are queries on other MBean
+ * servers.
+ *
+ * Closing the index unsubscribes it from the notifications of the {@link MBeanServerDelegate} and drops all indexed
+ * patterns, they are indexed again if the index is used after being closed.
+ */
+@ThreadSafe
+public class ObjectNameIndex implements ObjectNameResolver, NotificationListener, Closeable {
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final MBeanServer mBeanServer;
+    @Nonnull private final ConcurrentMap<ObjectName, Set<ObjectName>> matchesByPattern = new ConcurrentHashMap<>();
+    /** Patterns being looked up, kept up to date from notifications until they are published. */
+    @Nonnull private final ConcurrentMap<ObjectName, Set<ObjectName>> indexingPatterns = new ConcurrentHashMap<>();
+    @Nonnull private final AtomicBoolean listening = new AtomicBoolean(false);
+    @Nonnull private final Set<NotificationListener> unregistrationListeners = new CopyOnWriteArraySet<>();
+
+    public ObjectNameIndex(@Nonnull MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Nonnull
+    @Override
+    public Set<ObjectName> queryNames(
+            @Nonnull MBeanServerConnection connection,
+            @Nonnull ObjectName objectName,
+            @Nonnull QueryMetrics metrics) throws IOException {
+        if (!objectName.isPattern() || connection != mBeanServer) return connection.queryNames(objectName, null);
+        Set<ObjectName> matches = matchesByPattern.get(objectName);
+        if (matches == null) {
+            metrics.incrementObjectNameCacheMisses();
+            matches = index(objectName);
+            if (matches == null) return connection.queryNames(objectName, null);
+        } else {
+            metrics.incrementObjectNameCacheHits();
+        }
+        return Collections.unmodifiableSet(matches);
+    }
+
+    /**
+     * The index is not expected to miss notifications, but the pattern is indexed again on its next query anyway.
+     */
+    @Override
+    public void invalidate(@Nonnull ObjectName objectName) {
+        matchesByPattern.remove(objectName);
+    }
+
+    @Override
+    public void addUnregistrationListener(@Nonnull NotificationListener listener) {
+        startListening();
+        unregistrationListeners.add(listener);
+    }
+
+    /**
+     * @return MBeans matching the pattern, null if the pattern is being indexed by another thread
+     */
+    @Nullable
+    private Set<ObjectName> index(@Nonnull ObjectName pattern) {
+        startListening();
+        Set<ObjectName> matches = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+        if (indexingPatterns.putIfAbsent(pattern, matches) != null) return null;
+        try {
+            // notifications are applied to the matches during the initial lookup, so that no registration is missed
+            matches.addAll(mBeanServer.queryNames(pattern, null));
+            // MBeans unregistered during the initial lookup might have been added back
+            for (Iterator<ObjectName> iterator = matches.iterator(); iterator.hasNext(); ) {
+                if (!mBeanServer.isRegistered(iterator.next())) iterator.remove();
+            }
+            // matches are only published once complete
+            Set<ObjectName> existing = matchesByPattern.putIfAbsent(pattern, matches);
+            if (existing != null) return existing;
+        } finally {
+            indexingPatterns.remove(pattern);
+        }
+        logger.debug("Indexed " + matches.size() + " MBeans matching " + pattern);
+        return matches;
+    }
+
+    private void startListening() {
+        if (!listening.compareAndSet(false, true)) return;
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        try {
+            mBeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+        } catch (InstanceNotFoundException e) {
+            throw new IllegalStateException("MBean server has no delegate, cannot index MBeans", e);
+        }
+    }
+
+    @Override
+    public void handleNotification(@Nonnull Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) return;
+        ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+        if (REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            register(name, indexingPatterns);
+            register(name, matchesByPattern);
+        } else if (UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            for (Set<ObjectName> matches : indexingPatterns.values()) {
+                matches.remove(name);
+            }
+            for (Set<ObjectName> matches : matchesByPattern.values()) {
+                matches.remove(name);
+            }
+            for (NotificationListener listener : unregistrationListeners) {
+                listener.handleNotification(notification, handback);
+            }
+        }
+    }
+
+    private static void register(@Nonnull ObjectName name, @Nonnull Map<ObjectName, Set<ObjectName>> matchesByPattern) {
+        for (Map.Entry<ObjectName, Set<ObjectName>> entry : matchesByPattern.entrySet()) {
+            if (entry.getKey().apply(name)) entry.getValue().add(name);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!listening.compareAndSet(true, false)) return;
+        try {
+            mBeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+        } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+            logger.debug("MBean server delegate was not listened to anymore");
+        }
+        matchesByPattern.clear();
+    }
+
+    /**
+     * @return number of indexed patterns
+     */
+    public int size() {
+        return matchesByPattern.size();
+    }
+}
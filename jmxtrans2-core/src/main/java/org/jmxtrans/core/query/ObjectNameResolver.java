@@ -0,0 +1,78 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+/**
+ * Resolves the ObjectName of a {@link Query}, which can be a pattern, to the names of the matching MBeans.
+ *
+ * Resolvers can cache the names they resolve, in which case cache hits and misses are counted in the
+ * {@link QueryMetrics} of the query.
+ */
+public interface ObjectNameResolver {
+
+    /** Resolver asking the MBean server on each call. */
+    @Nonnull ObjectNameResolver DIRECT = new ObjectNameResolver() {
+        @Nonnull
+        @Override
+        public Set<ObjectName> queryNames(
+                @Nonnull MBeanServerConnection connection,
+                @Nonnull ObjectName objectName,
+                @Nonnull QueryMetrics metrics) throws IOException {
+            return connection.queryNames(objectName, null);
+        }
+
+        @Override
+        public void invalidate(@Nonnull ObjectName objectName) {
+        }
+
+        @Override
+        public void addUnregistrationListener(@Nonnull NotificationListener listener) {
+        }
+    };
+
+    @Nonnull
+    Set<ObjectName> queryNames(
+            @Nonnull MBeanServerConnection connection,
+            @Nonnull ObjectName objectName,
+            @Nonnull QueryMetrics metrics) throws IOException;
+
+    /**
+     * Forget what is known about the MBeans matching the given ObjectName, because one of them could not be found.
+     */
+    void invalidate(@Nonnull ObjectName objectName);
+
+    /**
+     * Forward the unregistration notifications received by this resolver to the given listener, so that what is known
+     * about the unregistered MBeans can be forgotten. Resolvers which receive no notifications ignore the listener, as
+     * do resolvers already forwarding to it.
+     */
+    void addUnregistrationListener(@Nonnull NotificationListener listener);
+}
@@ -25,15 +25,23 @@ package org.jmxtrans.core.query;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.management.Attribute;
-import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -42,8 +50,11 @@ import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
 import org.jmxtrans.core.monitoring.ObjectNameFactory;
 import org.jmxtrans.core.monitoring.SelfNamedMBean;
+import org.jmxtrans.core.results.CountingResultSink;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
 import org.jmxtrans.utils.time.Clock;
+import org.jmxtrans.utils.time.Interval;
 import org.jmxtrans.utils.time.NanoChronometer;
 import org.jmxtrans.utils.time.SystemClock;
 
@@ -52,6 +63,7 @@ import lombok.Getter;
 import lombok.ToString;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * Describe a JMX query on which metrics are collected.
@@ -92,16 +104,47 @@ public class Query implements QueryMBean, SelfNamedMBean {
     @Nonnull private final ObjectName queryMbeanObjectName;
 
     @Getter private final int maxResults;
-    
+
+    /**
+     * Interval between two collections of this query, <code>null</code> to use the default collection interval.
+     */
+    @Nullable @Getter private final Interval collectInterval;
+
+    /**
+     * Priority class of this query, used to order and shed work under overload.
+     */
+    @Nonnull @Getter private final Priority priority;
+
+    /**
+     * Maximum number of MBeans matching this query which are read in parallel, 1 to read them one after the other.
+     */
+    @Getter private final int maxParallelReads;
+
+    /**
+     * Queries whose reads are merged into this one by the {@link QueryPlanner}, empty if this query was not created by
+     * merging other queries.
+     */
+    @Nonnull private final List<Query> mergedQueries;
+
+    @Nonnull private final MBeanInfoCache mBeanInfoCache;
+
     private Query(@Nonnull ObjectName objectName,
                   @Nullable String resultAlias,
                   @Nonnull List<QueryAttribute> attributes,
                   @Nonnull ObjectName queryMbeanObjectName,
                   int maxResults,
+                  @Nullable Interval collectInterval,
+                  @Nonnull Priority priority,
+                  int maxParallelReads,
+                  @Nonnull List<Query> mergedQueries,
                   @Nonnull QueryMetrics metrics) {
         this.objectName = objectName;
         this.resultAlias = resultAlias;
         this.maxResults = maxResults;
+        this.collectInterval = collectInterval;
+        this.priority = priority;
+        this.maxParallelReads = maxParallelReads;
+        this.mergedQueries = mergedQueries;
         this.attributesByName = new HashMap<>();
         for (QueryAttribute attribute : attributes) {
             attributesByName.put(attribute.getName(), attribute);
@@ -109,41 +152,240 @@ public class Query implements QueryMBean, SelfNamedMBean {
         this.attributeNames = attributesByName.keySet().toArray(new String[0]);
         this.queryMbeanObjectName = queryMbeanObjectName;
         this.metrics = metrics;
+        this.mBeanInfoCache = new MBeanInfoCache(metrics.getClock(), MBeanInfoCache.DEFAULT_TIME_TO_LIVE_MILLIS);
     }
 
     public Iterable<QueryResult> collectMetrics(@Nonnull MBeanServerConnection mbeanServer, @Nonnull ResultNameStrategy resultNameStrategy) throws IOException {
-        Collection<QueryResult> results = new ArrayList<>();
+        return collectMetrics(mbeanServer, ObjectNameResolver.DIRECT, null, resultNameStrategy);
+    }
+
+    /**
+     * Collect all results in memory, see
+     * {@link #collectMetrics(MBeanServerConnection, ObjectNameResolver, Executor, long, ResultNameStrategy, ResultSink)}
+     * to stream them instead.
+     */
+    public Iterable<QueryResult> collectMetrics(
+            @Nonnull MBeanServerConnection mbeanServer,
+            @Nonnull ObjectNameResolver objectNameResolver,
+            @Nullable Executor readExecutor,
+            @Nonnull ResultNameStrategy resultNameStrategy) throws IOException {
+        final List<QueryResult> results = new ArrayList<>();
+        collectMetrics(mbeanServer, objectNameResolver, readExecutor, Long.MAX_VALUE, resultNameStrategy, new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                return results.add(result);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Results are pushed to the sink as they are extracted, from the calling thread. Collection stops once
+     * {@link #maxResults} results are collected or the sink does not accept more results.
+     *
+     * @param objectNameResolver used to find the MBeans matching the ObjectName of this query
+     * @param readExecutor       used to read up to {@link #maxParallelReads} MBeans in parallel, null to read them one
+     *                           after the other. Reads are also done from the calling thread, so that they make
+     *                           progress even if the executor is saturated.
+     * @param deadline           time, in milliseconds of the clock of this query, after which MBeans still being read
+     *                           by the read executor are not waited for
+     */
+    public void collectMetrics(
+            @Nonnull MBeanServerConnection mbeanServer,
+            @Nonnull ObjectNameResolver objectNameResolver,
+            @Nullable Executor readExecutor,
+            long deadline,
+            @Nonnull ResultNameStrategy resultNameStrategy,
+            @Nonnull ResultSink sink) throws IOException {
+        if (!mergedQueries.isEmpty()) {
+            collectMergedMetrics(mbeanServer, objectNameResolver, readExecutor, deadline, resultNameStrategy, sink);
+            return;
+        }
+        final CountingResultSink results = new CountingResultSink(sink, maxResults);
         try (NanoChronometer chrono = metrics.collectionDurationChronometer()) {
             /*
              * Optimisation tip: no need to skip 'mbeanServer.queryNames()' if the ObjectName is not a pattern
              * (i.e. not '*' or '?' wildcard) because the mbeanserver internally performs the check.
              * Seen on com.sun.jmx.interceptor.DefaultMBeanServerInterceptor
              */
-            Set<ObjectName> matchingObjectNames = mbeanServer.queryNames(this.objectName, null);
-            logger.debug(format("Query %s returned %s", objectName, matchingObjectNames));
+            Set<ObjectName> matchingObjectNames = objectNameResolver.queryNames(mbeanServer, this.objectName, metrics);
+            if (logger.isDebugEnabled()) logger.debug(format("Query %s returned %s", objectName, matchingObjectNames));
+
+            readMBeans(mbeanServer, objectNameResolver, matchingObjectNames, readExecutor, deadline, resultNameStrategy, new ReadCollector() {
+                @Override
+                public boolean collect(@Nonnull MBeanRead read, @Nonnull ResultNameStrategy resultNameStrategy) {
+                    // early return if we reach maxResults
+                    return !collectAttributes(read, results, resultNameStrategy);
+                }
+            });
+        } finally {
+            metrics.incrementCollected(results.getCount());
+            metrics.incrementCollectionsCount();
+        }
+    }
 
-            for (ObjectName matchingObjectName : matchingObjectNames) {
-                try {
-                    AttributeList jmxAttributes = mbeanServer.getAttributes(matchingObjectName, this.attributeNames);
-                    logger.debug(format("Query %s returned %s", matchingObjectName, jmxAttributes));
-                    for (Attribute jmxAttribute : jmxAttributes.asList()) {
-                        attributesByName.get(jmxAttribute.getName()).collectMetrics(
-                                matchingObjectName, jmxAttribute.getValue(), results, this, resultNameStrategy, maxResults);
-
-                        // early return if we reach maxResults
-                        if (results.size() >= maxResults) return results;
+    /**
+     * Read the attributes of all merged queries with one call per MBean, and hand the values to each merged query.
+     *
+     * Each merged query applies its own naming, types and maximum number of results, and is accounted in its own
+     * metrics.
+     */
+    private void collectMergedMetrics(
+            @Nonnull MBeanServerConnection mbeanServer,
+            @Nonnull ObjectNameResolver objectNameResolver,
+            @Nullable Executor readExecutor,
+            long deadline,
+            @Nonnull ResultNameStrategy resultNameStrategy,
+            @Nonnull ResultSink sink) throws IOException {
+        final int size = mergedQueries.size();
+        final List<CountingResultSink> sinks = new ArrayList<>(size);
+        List<NanoChronometer> chronometers = new ArrayList<>(size);
+        for (Query query : mergedQueries) {
+            sinks.add(new CountingResultSink(sink, query.maxResults));
+            chronometers.add(query.metrics.collectionDurationChronometer());
+        }
+        try {
+            Set<ObjectName> matchingObjectNames = objectNameResolver.queryNames(mbeanServer, this.objectName, metrics);
+            if (logger.isDebugEnabled()) logger.debug(format("Merged query %s returned %s", objectName, matchingObjectNames));
+
+            readMBeans(mbeanServer, objectNameResolver, matchingObjectNames, readExecutor, deadline, resultNameStrategy, new ReadCollector() {
+                @Override
+                public boolean collect(@Nonnull MBeanRead read, @Nonnull ResultNameStrategy resultNameStrategy) {
+                    boolean complete = true;
+                    for (int i = 0; i < size; i++) {
+                        CountingResultSink querySink = sinks.get(i);
+                        if (!querySink.isAccepting()) continue;
+                        complete &= !mergedQueries.get(i).collectAttributes(read, querySink, resultNameStrategy);
                     }
-                } catch (Exception e) {
-                    logger.warn(format("Exception processing query %s", this), e);
+                    return complete;
                 }
-            }
-            return results;
+            });
         } finally {
-            metrics.incrementCollected(results.size());
-            metrics.incrementCollectionsCount();
+            for (int i = 0; i < size; i++) {
+                Query query = mergedQueries.get(i);
+                chronometers.get(i).close();
+                query.metrics.incrementCollected(sinks.get(i).getCount());
+                query.metrics.incrementCollectionsCount();
+            }
         }
     }
 
+    /**
+     * Read the attributes of the given MBeans and hand them to the collector until it is complete. The collector is
+     * always called from the calling thread, even when MBeans are read in parallel.
+     */
+    private void readMBeans(
+            @Nonnull MBeanServerConnection mbeanServer,
+            @Nonnull ObjectNameResolver objectNameResolver,
+            @Nonnull Set<ObjectName> matchingObjectNames,
+            @Nullable Executor readExecutor,
+            long deadline,
+            @Nonnull ResultNameStrategy resultNameStrategy,
+            @Nonnull ReadCollector collector) {
+        objectNameResolver.addUnregistrationListener(mBeanInfoCache);
+        mBeanInfoCache.retainAll(matchingObjectNames);
+        if (readExecutor == null || maxParallelReads <= 1 || matchingObjectNames.size() <= 1) {
+            for (ObjectName matchingObjectName : matchingObjectNames) {
+                MBeanRead read = read(mbeanServer, objectNameResolver, matchingObjectName);
+                if (read != null && collector.collect(read, resultNameStrategy)) return;
+            }
+            return;
+        }
+        new ParallelReads(mbeanServer, objectNameResolver, matchingObjectNames)
+                .collect(readExecutor, deadline, resultNameStrategy, collector);
+    }
+
+    /**
+     * @return attributes of the MBean, null if they could not be read
+     */
+    @Nullable
+    private MBeanRead read(
+            @Nonnull MBeanServerConnection mbeanServer,
+            @Nonnull ObjectNameResolver objectNameResolver,
+            @Nonnull ObjectName matchingObjectName) {
+        try {
+            MBeanAttributes mBeanAttributes = mBeanInfoCache.get(mbeanServer, matchingObjectName, this.attributeNames);
+            if (mBeanAttributes.isEmpty()) return null;
+            List<Attribute> jmxAttributes = mbeanServer.getAttributes(matchingObjectName, mBeanAttributes.getNames()).asList();
+            if (logger.isDebugEnabled()) logger.debug(format("Query %s returned %s", matchingObjectName, jmxAttributes));
+            return new MBeanRead(matchingObjectName, jmxAttributes, mBeanAttributes);
+        } catch (InstanceNotFoundException e) {
+            logger.debug(format("MBean %s of query %s is not registered anymore", matchingObjectName, this));
+            objectNameResolver.invalidate(this.objectName);
+            mBeanInfoCache.invalidate(matchingObjectName);
+        } catch (Exception e) {
+            logger.warn(format("Exception processing query %s", this), e);
+        }
+        return null;
+    }
+
+    /**
+     * Attributes which are not collected by this query are ignored, they were read for another merged query.
+     *
+     * @return whether the sink accepts more results
+     */
+    private boolean collectAttributes(
+            @Nonnull MBeanRead read,
+            @Nonnull ResultSink sink,
+            @Nonnull ResultNameStrategy resultNameStrategy) {
+        for (Attribute jmxAttribute : read.attributes) {
+            QueryAttribute attribute = attributesByName.get(jmxAttribute.getName());
+            if (attribute == null) continue;
+            boolean accepting = attribute.collectMetrics(
+                    read.objectName, jmxAttribute.getValue(), read.mBeanAttributes.getKind(jmxAttribute.getName()),
+                    sink, this, resultNameStrategy);
+            if (!accepting) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether both queries read the same MBeans at the same interval, so that their reads can be merged
+     */
+    public boolean readsSameMBeansAs(@Nonnull Query other) {
+        return mergedQueries.isEmpty()
+                && other.mergedQueries.isEmpty()
+                && objectName.equals(other.objectName)
+                && (collectInterval == null ? other.collectInterval == null : collectInterval.equals(other.collectInterval));
+    }
+
+    /**
+     * Create a query reading the attributes of all the given queries at once. The given queries must all read the same
+     * MBeans at the same interval, the merged query gets the highest of their priorities and parallelism.
+     */
+    @Nonnull
+    static Query merge(@Nonnull List<Query> queries) {
+        Query first = queries.get(0);
+        Map<String, QueryAttribute> attributes = new HashMap<>();
+        Priority priority = first.priority;
+        int maxParallelReads = 1;
+        int maxResults = 0;
+        List<QueryMetrics> mergedQueryMetrics = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            if (!first.readsSameMBeansAs(query)) {
+                throw new IllegalArgumentException("Cannot merge queries " + first + " and " + query);
+            }
+            for (QueryAttribute attribute : query.getQueryAttributes()) {
+                if (!attributes.containsKey(attribute.getName())) attributes.put(attribute.getName(), attribute);
+            }
+            if (query.priority.compareTo(priority) < 0) priority = query.priority;
+            maxParallelReads = Math.max(maxParallelReads, query.maxParallelReads);
+            maxResults += query.maxResults;
+            mergedQueryMetrics.add(query.metrics);
+        }
+        return new Query(
+                first.objectName,
+                null,
+                new ArrayList<>(attributes.values()),
+                first.queryMbeanObjectName,
+                maxResults,
+                first.collectInterval,
+                priority,
+                maxParallelReads,
+                new ArrayList<>(queries),
+                new QueryMetrics(first.metrics.getClock(), mergedQueryMetrics));
+    }
+
     @Nonnull
     public Collection<QueryAttribute> getQueryAttributes() {
         return attributesByName.values();
@@ -164,6 +406,28 @@ public class Query implements QueryMBean, SelfNamedMBean {
         return metrics.getCollectionsCount();
     }
 
+    public void incrementOverlappingRunCount() {
+        metrics.incrementOverlappingRunCount();
+        for (Query query : mergedQueries) {
+            query.incrementOverlappingRunCount();
+        }
+    }
+
+    @Override
+    public int getOverlappingRunCount() {
+        return metrics.getOverlappingRunCount();
+    }
+
+    @Override
+    public int getObjectNameCacheHitCount() {
+        return metrics.getObjectNameCacheHits();
+    }
+
+    @Override
+    public int getObjectNameCacheMissCount() {
+        return metrics.getObjectNameCacheMisses();
+    }
+
     @Nonnull
     @Override
     public ObjectName getObjectName() {
@@ -181,6 +445,121 @@ public class Query implements QueryMBean, SelfNamedMBean {
         return new Builder();
     }
 
+    private interface ReadCollector {
+        /**
+         * @return whether no more MBean needs to be collected
+         */
+        boolean collect(@Nonnull MBeanRead read, @Nonnull ResultNameStrategy resultNameStrategy);
+    }
+
+    private static final class MBeanRead {
+        @Nonnull private final ObjectName objectName;
+        @Nonnull private final List<Attribute> attributes;
+        @Nonnull private final MBeanAttributes mBeanAttributes;
+
+        private MBeanRead(@Nonnull ObjectName objectName, @Nonnull List<Attribute> attributes, @Nonnull MBeanAttributes mBeanAttributes) {
+            this.objectName = objectName;
+            this.attributes = attributes;
+            this.mBeanAttributes = mBeanAttributes;
+        }
+    }
+
+    /**
+     * Reads the MBeans matching a query from up to {@link #maxParallelReads} threads: the calling thread and helpers
+     * submitted to the read executor. Each MBean is read by a single thread, and reads are collected on the calling
+     * thread, in the order in which they complete.
+     *
+     * Helpers stop taking new MBeans once the collector is complete. Helpers which only start after that, or are
+     * rejected by the executor, do nothing: the calling thread reads whatever MBean was not taken by a helper. MBeans
+     * still being read by helpers at the deadline are not waited for.
+     */
+    @ThreadSafe
+    private final class ParallelReads implements Runnable {
+        /** Placeholder for MBeans which could not be read. */
+        @Nonnull private final MBeanRead failedRead = new MBeanRead(objectName, Collections.<Attribute>emptyList(), MBeanAttributes.unknown(new String[0]));
+        @Nonnull private final MBeanServerConnection mbeanServer;
+        @Nonnull private final ObjectNameResolver objectNameResolver;
+        private final int mBeanCount;
+        @GuardedBy("this") @Nonnull private final Iterator<ObjectName> remainingObjectNames;
+        @Nonnull private final BlockingQueue<MBeanRead> completedReads = new LinkedBlockingQueue<>();
+        private volatile boolean stopped = false;
+
+        private ParallelReads(
+                @Nonnull MBeanServerConnection mbeanServer,
+                @Nonnull ObjectNameResolver objectNameResolver,
+                @Nonnull Set<ObjectName> matchingObjectNames) {
+            this.mbeanServer = mbeanServer;
+            this.objectNameResolver = objectNameResolver;
+            this.mBeanCount = matchingObjectNames.size();
+            this.remainingObjectNames = new ArrayList<>(matchingObjectNames).iterator();
+        }
+
+        @Nullable
+        private synchronized ObjectName next() {
+            if (stopped || !remainingObjectNames.hasNext()) return null;
+            return remainingObjectNames.next();
+        }
+
+        @Nonnull
+        private MBeanRead readNext(@Nonnull ObjectName objectName) {
+            MBeanRead read = read(mbeanServer, objectNameResolver, objectName);
+            return read != null ? read : failedRead;
+        }
+
+        /**
+         * Run by helpers.
+         */
+        @Override
+        public void run() {
+            for (ObjectName objectName = next(); objectName != null; objectName = next()) {
+                completedReads.add(readNext(objectName));
+            }
+        }
+
+        private void collect(
+                @Nonnull Executor readExecutor,
+                long deadline,
+                @Nonnull ResultNameStrategy resultNameStrategy,
+                @Nonnull ReadCollector collector) {
+            int helpers = Math.min(maxParallelReads, mBeanCount) - 1;
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    readExecutor.execute(this);
+                }
+            } catch (RejectedExecutionException e) {
+                logger.debug(format("Read executor is saturated, query %s is read with fewer threads", Query.this));
+            }
+            try {
+                for (int collected = 0; collected < mBeanCount; collected++) {
+                    MBeanRead read = completedReads.poll();
+                    if (read == null) {
+                        ObjectName objectName = next();
+                        read = objectName != null ? readNext(objectName) : awaitRead(deadline);
+                        if (read == null) {
+                            logger.debug(format("Query %s reached its deadline while reading MBeans in parallel", Query.this));
+                            return;
+                        }
+                    }
+                    if (read != failedRead && collector.collect(read, resultNameStrategy)) return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stopped = true;
+            }
+        }
+
+        /**
+         * @return the next MBean read by a helper, null if none completed before the deadline
+         */
+        @Nullable
+        private MBeanRead awaitRead(long deadline) throws InterruptedException {
+            long remainingMillis = deadline - metrics.getClock().currentTimeMillis();
+            if (remainingMillis <= 0) return completedReads.poll();
+            return completedReads.poll(remainingMillis, MILLISECONDS);
+        }
+    }
+
     public static final class Builder {
         @Nonnull private static final ObjectNameFactory objectNameFactory = new ObjectNameFactory("query");
 
@@ -189,6 +568,9 @@ public class Query implements QueryMBean, SelfNamedMBean {
         @Nonnull private final List<QueryAttribute> attributes = new ArrayList<>();
         @Nonnull private final Clock clock;
         private int maxResults = 50;
+        @Nullable private Interval collectInterval;
+        @Nonnull private Priority priority = Priority.NORMAL;
+        private int maxParallelReads = 1;
 
         private Builder() {
             this.clock = new SystemClock();
@@ -219,6 +601,21 @@ public class Query implements QueryMBean, SelfNamedMBean {
             return this;
         }
 
+        public Builder withCollectInterval(@Nullable Interval collectInterval) {
+            this.collectInterval = collectInterval;
+            return this;
+        }
+
+        public Builder withPriority(@Nonnull Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder withMaxParallelReads(int maxParallelReads) {
+            this.maxParallelReads = maxParallelReads;
+            return this;
+        }
+
         public Builder addAttribute(@Nonnull String attributeName) {
             addAttribute(QueryAttribute.builder(attributeName).build());
             return this;
@@ -246,6 +643,10 @@ public class Query implements QueryMBean, SelfNamedMBean {
                         attributes,
                         objectNameFactory.create(objectName.toString()),
                         maxResults,
+                        collectInterval,
+                        priority,
+                        maxParallelReads,
+                        Collections.<Query>emptyList(),
                         new QueryMetrics(clock)
                 );
             } catch (MalformedObjectNameException e) {
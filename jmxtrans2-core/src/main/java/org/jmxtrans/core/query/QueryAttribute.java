@@ -34,8 +34,12 @@ import javax.management.openmbean.CompositeData;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.core.results.ChangeSuppression;
+import org.jmxtrans.core.results.CounterMode;
 import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
+import org.jmxtrans.core.results.SeriesDescriptor;
 import org.jmxtrans.utils.Preconditions2;
 import org.jmxtrans.utils.time.Clock;
 import org.jmxtrans.utils.time.SystemClock;
@@ -46,6 +50,7 @@ import lombok.ToString;
 
 import static java.lang.String.format;
 
+import static org.jmxtrans.core.results.MetricType.GAUGE;
 import static org.jmxtrans.core.results.MetricType.UNKNOWN;
 
 /**
@@ -53,13 +58,13 @@ import static org.jmxtrans.core.results.MetricType.UNKNOWN;
  * <p/>
  * Collected values are sent to a {@linkplain java.util.concurrent.BlockingQueue}
  * for later export to the target monitoring systems
- * (see {@link #collectMetrics(javax.management.ObjectName, Object, java.util.Collection, Query, ResultNameStrategy, int)}.
+ * (see {@link #collectMetrics(javax.management.ObjectName, Object, org.jmxtrans.core.results.ResultSink, Query, ResultNameStrategy)}.
  *
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  * @author Jon Stevens
  */
-@EqualsAndHashCode(exclude = {"logger", "clock"})
-@ToString(exclude = {"logger", "clock"})
+@EqualsAndHashCode(exclude = {"logger", "clock", "keysToCollect"})
+@ToString(exclude = {"logger", "clock", "keysToCollect"})
 public class QueryAttribute {
 
     @Nonnull
@@ -86,6 +91,20 @@ public class QueryAttribute {
      */
     @Nullable @Getter private final MetricType type;
 
+    /**
+     * Whether values are emitted as read, or as deltas or rates of a counter.
+     *
+     * @see org.jmxtrans.core.results.CounterStore
+     */
+    @Nonnull @Getter private final CounterMode counterMode;
+
+    /**
+     * <code>null</code> if all values are emitted, even unchanged ones.
+     *
+     * @see org.jmxtrans.core.results.ChangeSuppressor
+     */
+    @Nullable @Getter private final ChangeSuppression changeSuppression;
+
     /**
      * <code>null</code> if no 'key' as been defined in the config.
      * Empty list if empty 'key' node has been declared in the config.
@@ -94,12 +113,16 @@ public class QueryAttribute {
      */
     @Nullable
     private final Set<String> keys;
+    /** {@link #keys}, copied once. */
+    @Nullable private final String[] keysToCollect;
     
     @Nonnull private final Clock clock;
 
     /**
      * @param name        name of the JMX attribute
      * @param type        type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
+     * @param counterMode how values are emitted
+     * @param changeSuppression whether unchanged values are emitted
      * @param resultAlias name of the result that will be exported
      * @param keys        of the {@link javax.management.openmbean.CompositeData} to collect
      * @param clock
@@ -107,84 +130,122 @@ public class QueryAttribute {
     private QueryAttribute(
             @Nonnull String name,
             @Nullable MetricType type,
+            @Nonnull CounterMode counterMode,
+            @Nullable ChangeSuppression changeSuppression,
             @Nullable String resultAlias,
             @Nullable Set<String> keys,
             @Nonnull Clock clock) {
         this.name = Preconditions2.checkNotEmpty(name);
         this.type = type;
+        this.counterMode = counterMode;
+        this.changeSuppression = changeSuppression;
         this.resultAlias = resultAlias;
         this.keys = keys;
+        this.keysToCollect = keys == null ? null : keys.toArray(new String[keys.size()]);
         this.clock = clock;
     }
 
+    /**
+     * @return type of the exported results: deltas and rates of a counter are gauges
+     */
+    @Nullable
+    public MetricType getResultType() {
+        return counterMode == CounterMode.RAW ? type : GAUGE;
+    }
+
     /**
      * @param objectName    <code>objectName</code> on which the <code>attribute</code> was obtained.
      * @param value         value of the given attribute. A 'simple' value (String, Number, Date)
      *                      or a {@link javax.management.openmbean.CompositeData}
-     * @param results       queue to which the the computed result(s) must be added
+     * @param sink          to which the computed result(s) are pushed, as they are computed
      * @param query
      * @param resultNameStrategy
-     * @return collected metrics count
+     * @return whether the sink accepts more results
      */
-    public void collectMetrics(
+    public boolean collectMetrics(
             @Nonnull ObjectName objectName,
             @Nonnull Object value,
-            @Nonnull Collection<QueryResult> results,
+            @Nonnull ResultSink sink,
             @Nonnull Query query,
-            @Nonnull ResultNameStrategy resultNameStrategy,
-            int maxResults) {
-        if (value instanceof CompositeData) {
-            CompositeData compositeData = (CompositeData) value;
-            collectCompositeData(objectName, results, query, resultNameStrategy, compositeData, maxResults);
-        } else if (value instanceof Number || value instanceof String || value instanceof Date) {
-            collectScalar(objectName, value, results, query, resultNameStrategy);
+            @Nonnull ResultNameStrategy resultNameStrategy) {
+        return collectMetrics(objectName, value, AttributeKind.UNKNOWN, sink, query, resultNameStrategy);
+    }
+
+    /**
+     * @param kind kind of the attribute resolved from its declared type, values are only inspected if it is
+     *             {@link AttributeKind#UNKNOWN}
+     */
+    boolean collectMetrics(
+            @Nonnull ObjectName objectName,
+            @Nullable Object value,
+            @Nonnull AttributeKind kind,
+            @Nonnull ResultSink sink,
+            @Nonnull Query query,
+            @Nonnull ResultNameStrategy resultNameStrategy) {
+        if (value == null) {
+            logger.debug(format("Ignore null attribute value %s:%s:%s", query, objectName, this));
+            return true;
         }
-        logger.info(format("Ignore non CompositeData attribute value %s:%s:%s=%s", query, objectName, this, value));
+        if (kind == AttributeKind.UNKNOWN) kind = kindOf(value);
+        switch (kind) {
+            case COMPOSITE:
+                return collectCompositeData(objectName, sink, query, resultNameStrategy, (CompositeData) value);
+            case SCALAR:
+                return collectScalar(objectName, value, sink, query, resultNameStrategy);
+            case UNKNOWN:
+            default:
+                logger.info(format("Ignore non CompositeData attribute value %s:%s:%s=%s", query, objectName, this, value));
+                return true;
+        }
+    }
+
+    @Nonnull
+    private static AttributeKind kindOf(@Nonnull Object value) {
+        if (value instanceof CompositeData) return AttributeKind.COMPOSITE;
+        if (value instanceof Number || value instanceof String || value instanceof Date) return AttributeKind.SCALAR;
+        return AttributeKind.UNKNOWN;
     }
 
-    private void collectScalar(
+    private boolean collectScalar(
             @Nonnull ObjectName objectName,
             @Nullable Object value,
-            @Nonnull Collection<QueryResult> results,
+            @Nonnull ResultSink sink,
             @Nonnull Query query,
             @Nonnull ResultNameStrategy resultNameStrategy) {
         if (keys != null && logger.isInfoEnabled()) {
             logger.info(format("Ignore keys configured for 'simple' jmx attribute. %s:%s:%s", query, objectName, this));
         }
-        String resultName = resultNameStrategy.getResultName(query, objectName, this);
-        QueryResult result = new QueryResult(resultName, getType(), value, clock.currentTimeMillis());
-        logger.debug("Collect " + result);
-        results.add(result);
+        SeriesDescriptor series = resultNameStrategy.getSeries(query, objectName, this, null);
+        QueryResult result = new QueryResult(series, value, clock.currentTimeMillis());
+        if (logger.isDebugEnabled()) logger.debug("Collect " + result);
+        return sink.accept(result);
     }
 
-    private void collectCompositeData(
+    private boolean collectCompositeData(
             @Nonnull ObjectName objectName,
-            @Nonnull Collection<QueryResult> results,
+            @Nonnull ResultSink sink,
             @Nonnull Query query,
             @Nonnull ResultNameStrategy resultNameStrategy,
-            @Nonnull CompositeData compositeData,
-            int maxResults) {
-        String[] keysToCollect;
-        if (keys == null) {
+            @Nonnull CompositeData compositeData) {
+        String[] keysToCollect = this.keysToCollect;
+        if (keysToCollect == null) {
             keysToCollect = compositeData.getCompositeType().keySet().toArray(new String[0]);
             logger.info(format("No 'key' has been configured to collect data on this Composite attribute, collect all keys. %s:%s:%s", query, objectName, this));
-        } else {
-            keysToCollect = keys.toArray(new String[keys.size()]);
         }
         for (String key : keysToCollect) {
-            String resultName = resultNameStrategy.getResultName(query, objectName, this, key);
             Object compositeValue = compositeData.get(key);
             if (compositeValue instanceof Number || compositeValue instanceof String || compositeValue instanceof Date) {
-                QueryResult result = new QueryResult(resultName, getType(), compositeValue, clock.currentTimeMillis());
-                logger.debug("Collect " + result);
-                results.add(result);
+                SeriesDescriptor series = resultNameStrategy.getSeries(query, objectName, this, key);
+                QueryResult result = new QueryResult(series, compositeValue, clock.currentTimeMillis());
+                if (logger.isDebugEnabled()) logger.debug("Collect " + result);
 
-                // early return if we reach maxResults
-                if (results.size() >= maxResults) return;
+                // early return if the sink is full
+                if (!sink.accept(result)) return false;
             } else {
                 logger.debug(format("Skip non supported value %s:%s:%s:%s=%s", query, objectName, this, key, compositeValue));
             }
         }
+        return true;
     }
 
     @Nonnull
@@ -197,6 +258,10 @@ public class QueryAttribute {
         private String name;
         @Nonnull
         private MetricType type = UNKNOWN;
+        @Nonnull
+        private CounterMode counterMode = CounterMode.RAW;
+        @Nullable
+        private ChangeSuppression changeSuppression;
         @Nullable
         private String resultAlias;
         @Nullable
@@ -216,6 +281,16 @@ public class QueryAttribute {
             return this;
         }
 
+        public Builder withCounterMode(@Nonnull CounterMode counterMode) {
+            this.counterMode = counterMode;
+            return this;
+        }
+
+        public Builder withChangeSuppression(@Nullable ChangeSuppression changeSuppression) {
+            this.changeSuppression = changeSuppression;
+            return this;
+        }
+
         public void addKey(String key) {
             if (keys == null) keys = new HashSet<>();
             keys.add(key);
@@ -233,7 +308,7 @@ public class QueryAttribute {
 
         @Nonnull
         public QueryAttribute build() {
-            return new QueryAttribute(name, type, resultAlias, keys, new SystemClock());
+            return new QueryAttribute(name, type, counterMode, changeSuppression, resultAlias, keys, new SystemClock());
         }
     }
 }
@@ -37,6 +37,21 @@ public interface QueryMBean {
 
     int getCollectionCount();
 
+    /**
+     * @return number of runs of this query which were not dispatched, because its previous run was still in progress
+     */
+    int getOverlappingRunCount();
+
+    /**
+     * @return number of runs of this query which found the MBeans matching its ObjectName in the cache of its server
+     */
+    int getObjectNameCacheHitCount();
+
+    /**
+     * @return number of runs of this query which had to look up the MBeans matching its ObjectName on its server
+     */
+    int getObjectNameCacheMissCount();
+
     @Nullable
     String getResultAlias();
 
@@ -22,6 +22,8 @@
  */
 package org.jmxtrans.core.query;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -41,11 +43,37 @@ public class QueryMetrics {
     @Nonnull
     private final AtomicInteger collectionCount = new AtomicInteger();
 
+    @Nonnull
+    private final AtomicInteger overlappingRunCount = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicInteger objectNameCacheHits = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicInteger objectNameCacheMisses = new AtomicInteger();
+
     @Nonnull
     private final Clock clock;
 
+    /**
+     * Metrics of the queries merged into the query of these metrics, which also count its object name cache hits and
+     * misses.
+     */
+    @Nonnull
+    private final List<QueryMetrics> mergedQueryMetrics;
+
     public QueryMetrics(@Nonnull Clock clock) {
+        this(clock, Collections.<QueryMetrics>emptyList());
+    }
+
+    QueryMetrics(@Nonnull Clock clock, @Nonnull List<QueryMetrics> mergedQueryMetrics) {
         this.clock = clock;
+        this.mergedQueryMetrics = mergedQueryMetrics;
+    }
+
+    @Nonnull
+    public Clock getClock() {
+        return clock;
     }
 
     public int incrementCollected(int count) {
@@ -61,6 +89,24 @@ public class QueryMetrics {
         return collectionCount.incrementAndGet();
     }
 
+    public int incrementOverlappingRunCount() {
+        return overlappingRunCount.incrementAndGet();
+    }
+
+    public int incrementObjectNameCacheHits() {
+        for (QueryMetrics metrics : mergedQueryMetrics) {
+            metrics.incrementObjectNameCacheHits();
+        }
+        return objectNameCacheHits.incrementAndGet();
+    }
+
+    public int incrementObjectNameCacheMisses() {
+        for (QueryMetrics metrics : mergedQueryMetrics) {
+            metrics.incrementObjectNameCacheMisses();
+        }
+        return objectNameCacheMisses.incrementAndGet();
+    }
+
     public int getCollectedCount() {
         return collectedMetricsCount.get();
     }
@@ -72,4 +118,16 @@ public class QueryMetrics {
     public int getCollectionsCount() {
         return collectionCount.get();
     }
+
+    public int getOverlappingRunCount() {
+        return overlappingRunCount.get();
+    }
+
+    public int getObjectNameCacheHits() {
+        return objectNameCacheHits.get();
+    }
+
+    public int getObjectNameCacheMisses() {
+        return objectNameCacheMisses.get();
+    }
 }
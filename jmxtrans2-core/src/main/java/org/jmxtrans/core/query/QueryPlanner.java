@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Plans the reads of the queries of a server.
+ *
+ * Queries reading the same MBeans at the same interval, for example one query reading the heap usage and another one
+ * the non heap usage of {@code java.lang:type=Memory}, are merged into a single query. The merged query reads the
+ * attributes of all its queries with one {@code getAttributes} call per MBean, which saves a round trip per query
+ * and per MBean on remote servers. Values are then handed back to each query, which keeps its own naming and types.
+ */
+@ThreadSafe
+public class QueryPlanner {
+
+    /**
+     * @return queries to run, in the order of the first query of each group of merged queries
+     */
+    @Nonnull
+    public List<Query> plan(@Nonnull Iterable<Query> queries) {
+        List<List<Query>> groups = new ArrayList<>();
+        for (Query query : queries) {
+            List<Query> group = groupOf(groups, query);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(query);
+        }
+        List<Query> plannedQueries = new ArrayList<>(groups.size());
+        for (List<Query> group : groups) {
+            plannedQueries.add(group.size() == 1 ? group.get(0) : Query.merge(group));
+        }
+        return plannedQueries;
+    }
+
+    @Nullable
+    private List<Query> groupOf(@Nonnull List<List<Query>> groups, @Nonnull Query query) {
+        for (List<Query> group : groups) {
+            if (group.get(0).readsSameMBeansAs(query)) return group;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * RMI socket factory bounding how long a remote call waits for its response, so that a hung server cannot block the
+ * thread of a query forever. Closing the connector of such a call or interrupting its thread does not release a read
+ * already in progress, only a read timeout does.
+ *
+ * RMI uses the same socket factory for all connections of the JVM that do not define their own, so it is installed
+ * once, and only if no other factory has been installed.
+ */
+@ThreadSafe
+public class ReadTimeoutRmiSocketFactory extends RMISocketFactory {
+
+    @Nonnull private static final Logger logger = LoggerFactory.getLogger(ReadTimeoutRmiSocketFactory.class.getName());
+
+    private final int readTimeoutMillis;
+
+    public ReadTimeoutRmiSocketFactory(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = getDefaultSocketFactory().createSocket(host, port);
+        socket.setSoTimeout(readTimeoutMillis);
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return getDefaultSocketFactory().createServerSocket(port);
+    }
+
+    /**
+     * @return whether the factory was installed, false if another one already is
+     */
+    public static synchronized boolean installIfAbsent(int readTimeoutMillis) {
+        if (getSocketFactory() != null) return false;
+        try {
+            setSocketFactory(new ReadTimeoutRmiSocketFactory(readTimeoutMillis));
+            logger.info(format("Remote calls over RMI now time out after %d ms without response", readTimeoutMillis));
+            return true;
+        } catch (IOException | SecurityException e) {
+            logger.warn("Could not install RMI socket factory, remote calls will not time out", e);
+            return false;
+        }
+    }
+}
@@ -22,22 +22,31 @@
  */
 package org.jmxtrans.core.query;
 
+import java.io.Closeable;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
+import org.jmxtrans.core.monitoring.ObjectNameFactory;
+import org.jmxtrans.core.monitoring.SelfNamedMBean;
+import org.jmxtrans.utils.time.Clock;
+import org.jmxtrans.utils.time.SystemClock;
+
 import lombok.Getter;
 
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import static javax.management.remote.JMXConnectorFactory.PROTOCOL_PROVIDER_PACKAGES;
 import static javax.naming.Context.SECURITY_CREDENTIALS;
@@ -45,7 +54,10 @@ import static javax.naming.Context.SECURITY_PRINCIPAL;
 
 import static org.jmxtrans.utils.Preconditions2.checkNotEmpty;
 
-public class RemoteServer implements Server {
+public class RemoteServer implements Server, RemoteServerMBean, SelfNamedMBean, Closeable {
+
+    public static final int DEFAULT_OBJECT_NAME_CACHE_TTL_IN_SECONDS = 60;
+    public static final int DEFAULT_READ_TIMEOUT_IN_SECONDS = 60;
 
     @Nullable private final String host;
     @Nonnull private final JMXServiceURL url;
@@ -54,6 +66,10 @@ public class RemoteServer implements Server {
     @Nullable private final String protocolProviderPackages;
     @Nonnull @Getter
     private final Iterable<Query> queries;
+    @Nonnull private final JmxConnectionCache connectionCache;
+    @Nonnull @Getter private final ObjectName objectName;
+    @Nonnull @Getter private final Bulkhead bulkhead;
+    @Nonnull @Getter private final ObjectNameResolver objectNameResolver;
 
     private RemoteServer(
             @Nullable String host,
@@ -61,13 +77,32 @@ public class RemoteServer implements Server {
             @Nullable String username,
             @Nullable String password,
             @Nullable String protocolProviderPackages,
-            @Nonnull Iterable<Query> queries) {
+            @Nonnull Iterable<Query> queries,
+            @Nonnull Clock clock,
+            long connectionValidationIntervalMillis,
+            long minReconnectBackoffMillis,
+            long maxReconnectBackoffMillis,
+            int readTimeoutMillis,
+            long objectNameCacheTtlMillis,
+            @Nonnull ObjectName objectName,
+            @Nonnull Bulkhead bulkhead) {
         this.host = host;
         this.url = url;
         this.username = username;
         this.password = password;
         this.protocolProviderPackages = protocolProviderPackages;
         this.queries = queries;
+        this.objectName = objectName;
+        this.bulkhead = bulkhead;
+        this.objectNameResolver = new ObjectNameCache(clock, objectNameCacheTtlMillis);
+        this.connectionCache = new JmxConnectionCache(
+                url,
+                getEnvironment(),
+                clock,
+                connectionValidationIntervalMillis,
+                minReconnectBackoffMillis,
+                maxReconnectBackoffMillis,
+                readTimeoutMillis);
     }
 
     @Nullable
@@ -109,10 +144,35 @@ public class RemoteServer implements Server {
         return environment;
     }
 
+    @Nonnull
     @Override
     public MBeanServerConnection getServerConnection() throws Exception {
-        // FIXME: closing of JMXConnector is not done
-        return JMXConnectorFactory.connect(url, this.getEnvironment()).getMBeanServerConnection();
+        return connectionCache.getConnection();
+    }
+
+    @Override
+    public void invalidateConnection() {
+        connectionCache.invalidate();
+    }
+
+    @Override
+    public void close() {
+        connectionCache.close();
+    }
+
+    @Override
+    public int getConnectCount() {
+        return connectionCache.getConnectCount();
+    }
+
+    @Override
+    public int getConnectionReuseCount() {
+        return connectionCache.getReuseCount();
+    }
+
+    @Override
+    public int getConnectionFailureCount() {
+        return connectionCache.getFailureCount();
     }
 
     @Nonnull
@@ -121,6 +181,8 @@ public class RemoteServer implements Server {
     }
 
     public static class Builder {
+        @Nonnull private static final ObjectNameFactory objectNameFactory = new ObjectNameFactory("server");
+
         @Nullable private JMXServiceURL url;
         @Nullable private String host;
         @Nullable private Integer port;
@@ -128,6 +190,16 @@ public class RemoteServer implements Server {
         @Nullable private String password;
         @Nullable private String protocolProviderPackages;
         @Nonnull private final Collection<Query> queries = new ArrayList<>();
+        @Nonnull private Clock clock = new SystemClock();
+        private long connectionValidationIntervalMillis = SECONDS.toMillis(5);
+        private long minReconnectBackoffMillis = SECONDS.toMillis(1);
+        private long maxReconnectBackoffMillis = SECONDS.toMillis(60);
+        private int readTimeoutMillis = (int) SECONDS.toMillis(DEFAULT_READ_TIMEOUT_IN_SECONDS);
+        private long objectNameCacheTtlMillis = SECONDS.toMillis(DEFAULT_OBJECT_NAME_CACHE_TTL_IN_SECONDS);
+        @Nullable private String bulkheadName;
+        private int minConcurrentQueries = Bulkhead.DEFAULT_MIN_CONCURRENT_QUERIES;
+        private int maxConcurrentQueries = Bulkhead.DEFAULT_MAX_CONCURRENT_QUERIES;
+        private int maxQueuedQueries = Bulkhead.DEFAULT_MAX_QUEUED_QUERIES;
 
         @Nonnull
         public Builder withUrl(@Nullable String url) throws MalformedURLException {
@@ -176,16 +248,105 @@ public class RemoteServer implements Server {
             return this;
         }
 
+        @Nonnull
+        public Builder withClock(@Nonnull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        @Nonnull
+        public Builder withConnectionValidationInterval(long value, @Nonnull TimeUnit unit) {
+            this.connectionValidationIntervalMillis = unit.toMillis(value);
+            return this;
+        }
+
+        @Nonnull
+        public Builder withReconnectBackoff(long min, long max, @Nonnull TimeUnit unit) {
+            this.minReconnectBackoffMillis = unit.toMillis(min);
+            this.maxReconnectBackoffMillis = unit.toMillis(max);
+            return this;
+        }
+
+        /**
+         * How long remote calls wait for their response, zero to wait forever. RMI connections share one socket factory
+         * for the whole JVM, so the read timeout of the first server to connect applies to all of them.
+         */
+        @Nonnull
+        public Builder withReadTimeout(long value, @Nonnull TimeUnit unit) {
+            this.readTimeoutMillis = (int) unit.toMillis(value);
+            return this;
+        }
+
+        /**
+         * How long the MBeans matching the ObjectName of a query are cached, zero to look them up on each run.
+         */
+        @Nonnull
+        public Builder withObjectNameCacheTtl(long value, @Nonnull TimeUnit unit) {
+            this.objectNameCacheTtlMillis = unit.toMillis(value);
+            return this;
+        }
+
+        /**
+         * Servers with the same bulkhead name share their query collection capacity. By default, each server has its
+         * own bulkhead.
+         */
+        @Nonnull
+        public Builder withBulkhead(@Nullable String bulkheadName) {
+            this.bulkheadName = bulkheadName;
+            return this;
+        }
+
+        @Nonnull
+        public Builder withMinConcurrentQueries(@Nullable Integer minConcurrentQueries) {
+            this.minConcurrentQueries = minConcurrentQueries != null
+                    ? minConcurrentQueries
+                    : Bulkhead.DEFAULT_MIN_CONCURRENT_QUERIES;
+            return this;
+        }
+
+        @Nonnull
+        public Builder withMaxConcurrentQueries(@Nullable Integer maxConcurrentQueries) {
+            this.maxConcurrentQueries = maxConcurrentQueries != null
+                    ? maxConcurrentQueries
+                    : Bulkhead.DEFAULT_MAX_CONCURRENT_QUERIES;
+            return this;
+        }
+
+        @Nonnull
+        public Builder withMaxQueuedQueries(@Nullable Integer maxQueuedQueries) {
+            this.maxQueuedQueries = maxQueuedQueries != null
+                    ? maxQueuedQueries
+                    : Bulkhead.DEFAULT_MAX_QUEUED_QUERIES;
+            return this;
+        }
+
         @Nonnull
         public RemoteServer build() throws MalformedURLException {
-            return new RemoteServer(
-                    host,
-                    computeUrl(),
-                    username,
-                    password,
-                    protocolProviderPackages,
-                    queries
-            );
+            JMXServiceURL serviceUrl = computeUrl();
+            try {
+                return new RemoteServer(
+                        host,
+                        serviceUrl,
+                        username,
+                        password,
+                        protocolProviderPackages,
+                        queries,
+                        clock,
+                        connectionValidationIntervalMillis,
+                        minReconnectBackoffMillis,
+                        maxReconnectBackoffMillis,
+                        readTimeoutMillis,
+                        objectNameCacheTtlMillis,
+                        objectNameFactory.create(serviceUrl.toString()),
+                        new Bulkhead(
+                                bulkheadName != null ? bulkheadName : serviceUrl.toString(),
+                                minConcurrentQueries,
+                                maxConcurrentQueries,
+                                maxQueuedQueries)
+                );
+            } catch (MalformedObjectNameException e) {
+                throw new RuntimeException("Server URL [" + serviceUrl + "] is not valid, cannot expose MBean for this server.");
+            }
         }
 
         @Nonnull
@@ -23,14 +23,25 @@
 package org.jmxtrans.core.query;
 
 import java.net.InetAddress;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.management.ObjectName;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.core.results.SeriesDescriptor;
+import org.jmxtrans.core.template.CompiledTemplate;
+import org.jmxtrans.core.template.Expression;
 import org.jmxtrans.core.template.ExpressionEvaluator;
 import org.jmxtrans.core.template.KeepAlphaNumericAndDots;
 import org.jmxtrans.core.template.StringEscape;
@@ -41,14 +52,40 @@ import static java.lang.String.format;
 import static java.util.Collections.list;
 import static java.util.Collections.sort;
 
-public class ResultNameStrategy {
+/**
+ * Result aliases are compiled once, and the {@link SeriesDescriptor} of results are cached by query, MBean, attribute
+ * and key, so that collecting the same series again does not build any string.
+ */
+@ThreadSafe
+public class ResultNameStrategy implements ResultNameStrategyMBean {
+
+    /** Number of cached result names above which the cache is cleared, to bound memory when MBeans come and go. */
+    public static final int DEFAULT_MAX_CACHED_NAMES = 100000;
 
     private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
     @Nonnull private final ExpressionEvaluator expressionEvaluator;
     @Nonnull private final StringEscape stringEscape;
+    @Nonnull private final TemplateEngine templateEngine;
+    @Nonnull private final ConcurrentMap<String, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<>();
+    @Nonnull private final ConcurrentMap<SeriesKey, SeriesDescriptor> series = new ConcurrentHashMap<>();
+    /** Reused to look series up without allocating a key. */
+    @Nonnull private final ThreadLocal<SeriesKey> lookupKeys = new ThreadLocal<SeriesKey>() {
+        @Override
+        protected SeriesKey initialValue() {
+            return new SeriesKey();
+        }
+    };
+    private final int maxCachedNames;
+    @Nonnull private final AtomicLong cacheHits = new AtomicLong();
+    @Nonnull private final AtomicLong cacheMisses = new AtomicLong();
 
     public ResultNameStrategy() {
+        this(DEFAULT_MAX_CACHED_NAMES);
+    }
+
+    public ResultNameStrategy(int maxCachedNames) {
+        this.maxCachedNames = maxCachedNames;
         ExpressionEvaluator.Builder evaluatorsBuilder = ExpressionEvaluator.builder();
         try {
             InetAddress localHost = InetAddress.getLocalHost();
@@ -72,22 +109,58 @@ public class ResultNameStrategy {
         }
         expressionEvaluator = evaluatorsBuilder.build();
         stringEscape = new KeepAlphaNumericAndDots();
+        templateEngine = TemplateEngine.builder()
+                // placeholder, the key properties of each ObjectName are given at evaluation
+                .addEvaluator('%', ExpressionEvaluator.builder().build())
+                .addEvaluator('#', expressionEvaluator)
+                .doNotEscapeDots()
+                .build();
     }
 
     @Nonnull
     public String getResultName(@Nonnull Query query, @Nonnull ObjectName objectName, @Nonnull QueryAttribute queryAttribute) {
-
-        StringBuilder result = _getResultName(query, objectName, queryAttribute);
-
-        return result.toString();
+        return getSeries(query, objectName, queryAttribute, null).getName();
     }
 
     @Nonnull
     public String getResultName(@Nonnull Query query, @Nonnull ObjectName objectName, @Nonnull QueryAttribute queryAttribute, @Nonnull String key) {
+        return getSeries(query, objectName, queryAttribute, key).getName();
+    }
+
+    /**
+     * Looking up a series which is already known does not allocate.
+     *
+     * @param key key of the composite attribute, null for simple attributes
+     * @return the descriptor shared by all results of the series
+     */
+    @Nonnull
+    public SeriesDescriptor getSeries(
+            @Nonnull Query query,
+            @Nonnull ObjectName objectName,
+            @Nonnull QueryAttribute queryAttribute,
+            @Nullable String key) {
+        SeriesKey lookupKey = lookupKeys.get();
+        SeriesDescriptor descriptor = series.get(lookupKey.set(query, objectName, queryAttribute, key));
+        lookupKey.clear();
+        if (descriptor != null) {
+            cacheHits.incrementAndGet();
+            return descriptor;
+        }
+        cacheMisses.incrementAndGet();
         StringBuilder result = _getResultName(query, objectName, queryAttribute);
-        result.append(".");
-        result.append(key);
-        return result.toString();
+        if (key != null) {
+            result.append(".");
+            result.append(key);
+        }
+        descriptor = new SeriesDescriptor(
+                result.toString(), queryAttribute.getResultType(), objectName, queryAttribute.getName(), key,
+                queryAttribute.getCounterMode(), queryAttribute.getChangeSuppression());
+        if (series.size() >= maxCachedNames) {
+            logger.info(format("Result name cache reached %d entries, clearing it", maxCachedNames));
+            series.clear();
+        }
+        series.put(new SeriesKey().set(query, objectName, queryAttribute, key), descriptor);
+        return descriptor;
     }
 
     @Nonnull
@@ -117,14 +190,33 @@ public class ResultNameStrategy {
 
     @Nonnull
     public String resolveExpression(@Nonnull String expression, @Nonnull ObjectName exactObjectName) {
-        return TemplateEngine.builder()
-                .addEvaluator('%', ExpressionEvaluator.builder()
-                        .addExpressions(exactObjectName.getKeyPropertyList())
-                        .build())
-                .addEvaluator('#', expressionEvaluator)
-                .doNotEscapeDots()
-                .build()
-                .evaluate(expression);
+        CompiledTemplate template = compiledTemplates.get(expression);
+        if (template == null) {
+            template = templateEngine.compile(expression);
+            CompiledTemplate existing = compiledTemplates.putIfAbsent(expression, template);
+            if (existing != null) template = existing;
+        }
+        return template.evaluate(Collections.singletonMap('%', new KeyProperties(exactObjectName)));
+    }
+
+    @Override
+    public long getResultNameCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getResultNameCacheMissCount() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public int getResultNameCacheSize() {
+        return series.size();
+    }
+
+    @Override
+    public int getCompiledTemplateCount() {
+        return compiledTemplates.size();
     }
 
     /**
@@ -167,4 +259,81 @@ public class ResultNameStrategy {
         logger.debug(format("escapeObjectName(%s): %s", objectName, result));
         return result.toString();
     }
+
+    /**
+     * Key properties of an ObjectName, as evaluated by '%key%' expressions.
+     */
+    @Immutable
+    private final class KeyProperties implements Expression {
+        @Nonnull private final ObjectName objectName;
+
+        private KeyProperties(@Nonnull ObjectName objectName) {
+            this.objectName = objectName;
+        }
+
+        @Nonnull
+        @Override
+        public String evaluate(@Nonnull String key) {
+            String value = objectName.getKeyProperty(key);
+            if (value == null) {
+                logger.info("Unsupported expression '" + key + "'");
+                return "#unsupported_expression#";
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Queries and attributes are compared by identity: equal queries may still name their results differently.
+     *
+     * Keys are mutable so that they can be reused for lookups, keys stored in the cache are never modified.
+     */
+    @NotThreadSafe
+    private static final class SeriesKey {
+        @Nullable private Query query;
+        @Nullable private ObjectName objectName;
+        @Nullable private QueryAttribute queryAttribute;
+        @Nullable private String key;
+        private int hashCode;
+
+        @Nonnull
+        private SeriesKey set(@Nonnull Query query, @Nonnull ObjectName objectName, @Nonnull QueryAttribute queryAttribute, @Nullable String key) {
+            this.query = query;
+            this.objectName = objectName;
+            this.queryAttribute = queryAttribute;
+            this.key = key;
+            // queries and attributes hash all their fields, cached hashes of strings are cheaper
+            int hash = objectName.hashCode();
+            hash = 31 * hash + queryAttribute.getName().hashCode();
+            hash = 31 * hash + (key == null ? 0 : key.hashCode());
+            this.hashCode = hash;
+            return this;
+        }
+
+        /**
+         * Do not retain queries or MBean names from the thread local lookup key.
+         */
+        private void clear() {
+            query = null;
+            objectName = null;
+            queryAttribute = null;
+            key = null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SeriesKey)) return false;
+            SeriesKey other = (SeriesKey) o;
+            return query == other.query
+                    && queryAttribute == other.queryAttribute
+                    && objectName != null && objectName.equals(other.objectName)
+                    && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
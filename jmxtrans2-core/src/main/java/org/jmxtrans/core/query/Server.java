@@ -35,4 +35,19 @@ public interface Server {
 
     @Nonnull
     Iterable<Query> getQueries();
+
+    @Nonnull
+    Bulkhead getBulkhead();
+
+    /**
+     * @return resolver used to find the MBeans matching the queries of this server
+     */
+    @Nonnull
+    ObjectNameResolver getObjectNameResolver();
+
+    /**
+     * Mark the current connection to this server as suspect, so that it is not reused. Calls in progress on this
+     * connection might fail.
+     */
+    void invalidateConnection();
 }
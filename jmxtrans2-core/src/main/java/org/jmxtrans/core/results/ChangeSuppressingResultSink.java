@@ -0,0 +1,49 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Only forwards results whose value changed, see {@link ChangeSuppressor}. The values read are only stored once the
+ * session is committed, usually once the results are written.
+ */
+@NotThreadSafe
+public final class ChangeSuppressingResultSink implements ResultSink {
+
+    @Nonnull private final ResultSink delegate;
+    @Nonnull private final ChangeSuppressor.Session changes;
+
+    public ChangeSuppressingResultSink(@Nonnull ResultSink delegate, @Nonnull ChangeSuppressor.Session changes) {
+        this.delegate = delegate;
+        this.changes = changes;
+    }
+
+    @Override
+    public boolean accept(@Nonnull QueryResult result) {
+        // nothing to emit for this result, but more are welcome
+        if (!changes.shouldEmit(result)) return true;
+        return delegate.accept(result);
+    }
+}
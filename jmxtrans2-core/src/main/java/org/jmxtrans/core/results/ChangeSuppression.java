@@ -0,0 +1,62 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import static org.jmxtrans.utils.Preconditions2.checkArgument;
+
+/**
+ * Settings of a series whose values are only emitted when they change, see {@link ChangeSuppressor}.
+ */
+@Immutable
+@ThreadSafe
+@EqualsAndHashCode
+@ToString
+public final class ChangeSuppression {
+
+    public static final int DEFAULT_HEARTBEAT_PERIODS = 30;
+
+    /**
+     * Numeric values which differ from the last emitted value by at most this amount are unchanged, 0 to emit any
+     * change.
+     */
+    @Getter private final double deadBand;
+
+    /**
+     * A value is emitted at least once every this number of collections, even if unchanged.
+     */
+    @Getter private final int heartbeatPeriods;
+
+    public ChangeSuppression(double deadBand, int heartbeatPeriods) {
+        checkArgument(deadBand >= 0, "Dead band must not be negative, was %s", deadBand);
+        checkArgument(heartbeatPeriods >= 1, "Heartbeat periods must be positive, was %s", heartbeatPeriods);
+        this.deadBand = deadBand;
+        this.heartbeatPeriods = heartbeatPeriods;
+    }
+}
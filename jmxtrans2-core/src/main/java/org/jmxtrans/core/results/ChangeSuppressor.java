@@ -0,0 +1,199 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Keeps the last emitted value of each series with a {@link ChangeSuppression}, so that values which did not change
+ * are not emitted again.
+ *
+ * <ul>
+ *     <li>The first value of a series is always emitted.</li>
+ *     <li>A numeric value is changed if it differs from the last emitted value by more than the dead band, other
+ *     values are changed if they are not equal to the last emitted value.</li>
+ *     <li>An unchanged value is still emitted once the given number of heartbeat periods went by since the last
+ *     emitted value.</li>
+ *     <li>Series are kept per source, and evicted when idle or to bound the number of stored series, as by the
+ *     {@link CounterStore}.</li>
+ * </ul>
+ *
+ * As for the {@link CounterStore}, values are checked within a {@link Session}, and only stored once it is committed.
+ */
+@ThreadSafe
+public class ChangeSuppressor implements ChangeSuppressorMBean {
+
+    /** Maximum number of series stored for each source by default. */
+    public static final int DEFAULT_MAX_SERIES = 10000;
+    public static final long DEFAULT_MAX_IDLE_MILLIS = CounterStore.DEFAULT_MAX_IDLE_MILLIS;
+
+    @Nonnull private final SeriesStatesBySource<EmittedValue> states;
+    @Nonnull private final AtomicLong suppressedCount = new AtomicLong();
+
+    public ChangeSuppressor() {
+        this(DEFAULT_MAX_SERIES, DEFAULT_MAX_IDLE_MILLIS, MILLISECONDS);
+    }
+
+    /**
+     * @param maxSeries maximum number of series stored for each source
+     */
+    public ChangeSuppressor(int maxSeries, long maxIdle, @Nonnull TimeUnit unit) {
+        this.states = new SeriesStatesBySource<>(maxSeries, unit.toMillis(maxIdle));
+    }
+
+    /**
+     * @param source where the results are collected from, usually their server
+     */
+    @Nonnull
+    public Session session(@Nonnull Object source) {
+        return new Session(states.of(source));
+    }
+
+    /**
+     * Checks a single result and stores its value right away.
+     *
+     * @param source where the result was collected from, usually its server
+     * @see Session#shouldEmit(QueryResult)
+     */
+    public boolean shouldEmit(@Nonnull Object source, @Nonnull QueryResult result) {
+        Session session = session(source);
+        boolean shouldEmit = session.shouldEmit(result);
+        session.commit();
+        return shouldEmit;
+    }
+
+    private static boolean isChanged(@Nonnull QueryResult emitted, @Nonnull QueryResult result, double deadBand) {
+        if (emitted.getValueType() == ValueType.LONG && result.getValueType() == ValueType.LONG && deadBand == 0) {
+            return emitted.getLongValue() != result.getLongValue();
+        }
+        if (emitted.isNumeric() && result.isNumeric()) {
+            return !(Math.abs(result.getDoubleValue() - emitted.getDoubleValue()) <= deadBand);
+        }
+        Object value = result.getValue();
+        return value == null ? emitted.getValue() != null : !value.equals(emitted.getValue());
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return states.getSeriesCount();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return states.getEvictedCount();
+    }
+
+    @Override
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /**
+     * Checks the results of a source, usually those of one run of a query. Values read by the session are only stored
+     * once committed, the lock of the source is taken once per commit and not for each stored value.
+     */
+    @NotThreadSafe
+    public final class Session {
+        @Nonnull private final SeriesStates<EmittedValue> seriesStates;
+        /** Values checked since the last commit, by series. */
+        @Nonnull private final Map<SeriesDescriptor, EmittedValue> pending = new HashMap<>();
+        private long pendingSuppressedCount = 0;
+
+        private Session(@Nonnull SeriesStates<EmittedValue> seriesStates) {
+            this.seriesStates = seriesStates;
+        }
+
+        /**
+         * @return whether the result is emitted
+         */
+        public boolean shouldEmit(@Nonnull QueryResult result) {
+            ChangeSuppression suppression = result.getSeries().getChangeSuppression();
+            if (suppression == null) return true;
+
+            long epoch = result.getEpoch(MILLISECONDS);
+            EmittedValue emitted = lastEmitted(result.getSeries(), epoch);
+            if (emitted == null) {
+                pending.put(result.getSeries(), new EmittedValue(result, 0, epoch));
+                return true;
+            }
+            int periodsSinceEmission = emitted.periodsSinceEmission + 1;
+            if (periodsSinceEmission < suppression.getHeartbeatPeriods()
+                    && !isChanged(emitted.result, result, suppression.getDeadBand())) {
+                pending.put(result.getSeries(), new EmittedValue(emitted.result, periodsSinceEmission, epoch));
+                pendingSuppressedCount++;
+                return false;
+            }
+            pending.put(result.getSeries(), new EmittedValue(result, 0, epoch));
+            return true;
+        }
+
+        @Nullable
+        private EmittedValue lastEmitted(@Nonnull SeriesDescriptor series, long epoch) {
+            EmittedValue emitted = pending.get(series);
+            if (emitted != null) return emitted;
+            synchronized (seriesStates) {
+                return seriesStates.get(series, epoch);
+            }
+        }
+
+        /**
+         * Stores the values checked since the last commit.
+         */
+        public void commit() {
+            if (pending.isEmpty()) return;
+            synchronized (seriesStates) {
+                for (Map.Entry<SeriesDescriptor, EmittedValue> entry : pending.entrySet()) {
+                    seriesStates.put(entry.getKey(), entry.getValue(), entry.getValue().epoch);
+                }
+            }
+            pending.clear();
+            suppressedCount.addAndGet(pendingSuppressedCount);
+            pendingSuppressedCount = 0;
+        }
+    }
+
+    @Immutable
+    private static final class EmittedValue {
+        @Nonnull private final QueryResult result;
+        private final int periodsSinceEmission;
+        /** Time of the last value read, emitted or not. */
+        private final long epoch;
+
+        private EmittedValue(@Nonnull QueryResult result, int periodsSinceEmission, long epoch) {
+            this.result = result;
+            this.periodsSinceEmission = periodsSinceEmission;
+            this.epoch = epoch;
+        }
+    }
+}
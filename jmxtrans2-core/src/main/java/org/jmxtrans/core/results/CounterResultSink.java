@@ -0,0 +1,50 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Emits deltas or rates of counter series in place of their raw values, see {@link CounterStore}. The values read are
+ * only stored once the session is committed, usually once the results are written.
+ */
+@NotThreadSafe
+public final class CounterResultSink implements ResultSink {
+
+    @Nonnull private final ResultSink delegate;
+    @Nonnull private final CounterStore.Session counters;
+
+    public CounterResultSink(@Nonnull ResultSink delegate, @Nonnull CounterStore.Session counters) {
+        this.delegate = delegate;
+        this.counters = counters;
+    }
+
+    @Override
+    public boolean accept(@Nonnull QueryResult result) {
+        QueryResult derived = counters.derive(result);
+        // nothing to emit for this result, but more are welcome
+        if (derived == null) return true;
+        return delegate.accept(derived);
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Keeps the previous value of each counter series, to emit deltas or rates instead of raw values.
+ *
+ * <ul>
+ *     <li>The first value of a series is only stored, nothing is emitted.</li>
+ *     <li>A value lower than the previous one is a counter reset, usually because the JVM restarted: the counter is
+ *     assumed to have restarted from zero.</li>
+ *     <li>Series are kept per source, usually the server they are collected from, so that the same counter read from
+ *     several servers is derived independently for each of them.</li>
+ *     <li>A series not seen for longer than the maximum idle time is evicted. After such a gap, the next value is
+ *     handled as the first one. The maximum idle time must be longer than the longest collection interval, see
+ *     {@link #maxIdleMillisFor(long)}.</li>
+ *     <li>At most a given number of series are stored per source, the least recently seen series is evicted to make
+ *     room for new ones.</li>
+ * </ul>
+ *
+ * Values are derived within a {@link Session}, and only stored once the session is committed, so that values which
+ * are finally not written do not move the counters forward.
+ */
+@ThreadSafe
+public class CounterStore implements CounterStoreMBean {
+
+    /** Maximum number of series stored for each source by default. */
+    public static final int DEFAULT_MAX_SERIES = 10000;
+    public static final long DEFAULT_MAX_IDLE_MILLIS = MINUTES.toMillis(10);
+    /** Number of collection intervals a series can be missing before it is evicted. */
+    public static final int IDLE_INTERVALS = 3;
+
+    @Nonnull private final SeriesStatesBySource<CounterState> states;
+    @Nonnull private final AtomicLong resetCount = new AtomicLong();
+
+    public CounterStore() {
+        this(DEFAULT_MAX_SERIES, DEFAULT_MAX_IDLE_MILLIS, MILLISECONDS);
+    }
+
+    /**
+     * @param maxSeries maximum number of series stored for each source
+     */
+    public CounterStore(int maxSeries, long maxIdle, @Nonnull TimeUnit unit) {
+        this.states = new SeriesStatesBySource<>(maxSeries, unit.toMillis(maxIdle));
+    }
+
+    /**
+     * @return maximum idle time keeping the series collected at the given interval, and at least the default
+     */
+    public static long maxIdleMillisFor(long longestIntervalMillis) {
+        return Math.max(DEFAULT_MAX_IDLE_MILLIS, IDLE_INTERVALS * longestIntervalMillis);
+    }
+
+    /**
+     * @param source where the results are collected from, usually their server
+     */
+    @Nonnull
+    public Session session(@Nonnull Object source) {
+        return new Session(states.of(source));
+    }
+
+    /**
+     * Derives a single result and stores its value right away.
+     *
+     * @param source where the result was collected from, usually its server
+     * @see Session#derive(QueryResult)
+     */
+    @Nullable
+    public QueryResult derive(@Nonnull Object source, @Nonnull QueryResult result) {
+        Session session = session(source);
+        QueryResult derived = session.derive(result);
+        session.commit();
+        return derived;
+    }
+
+    private static boolean isNumeric(@Nonnull QueryResult result) {
+        return result.isNumeric() || result.getValue() instanceof Number;
+    }
+
+    private static double doubleValueOf(@Nonnull QueryResult result) {
+        if (result.isNumeric()) return result.getDoubleValue();
+        return ((Number) result.getValue()).doubleValue();
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return states.getSeriesCount();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return states.getEvictedCount();
+    }
+
+    @Override
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    /**
+     * Derives the results of a source, usually those of one run of a query. Values read by the session are only
+     * stored once committed, the lock of the source is taken once per commit and not for each stored value.
+     */
+    @NotThreadSafe
+    public final class Session {
+        @Nonnull private final SeriesStates<CounterState> seriesStates;
+        /** Values derived since the last commit, by series. */
+        @Nonnull private final Map<SeriesDescriptor, CounterState> pending = new HashMap<>();
+        private long pendingResetCount = 0;
+
+        private Session(@Nonnull SeriesStates<CounterState> seriesStates) {
+            this.seriesStates = seriesStates;
+        }
+
+        /**
+         * @return the result to emit in place of the given one, according to the {@link CounterMode} of its series,
+         * null if nothing is emitted
+         */
+        @Nullable
+        public QueryResult derive(@Nonnull QueryResult result) {
+            CounterMode mode = result.getSeries().getCounterMode();
+            if (mode == CounterMode.RAW) return result;
+            if (!isNumeric(result)) return result;
+
+            long epoch = result.getEpoch(MILLISECONDS);
+            CounterState previous = previousState(result.getSeries(), epoch);
+            if (previous == null || previous.isLong != (result.getValueType() == ValueType.LONG)) {
+                pending.put(result.getSeries(), new CounterState(result, epoch));
+                return null;
+            }
+            long elapsedMillis = epoch - previous.epoch;
+            // results read out of order are ignored
+            if (elapsedMillis <= 0) return null;
+            pending.put(result.getSeries(), new CounterState(result, epoch));
+
+            long longDelta = 0;
+            double doubleDelta = 0;
+            if (previous.isLong) {
+                long value = result.getLongValue();
+                longDelta = value >= previous.longValue ? value - previous.longValue : value;
+                if (value < previous.longValue) pendingResetCount++;
+            } else {
+                double value = doubleValueOf(result);
+                doubleDelta = value >= previous.doubleValue ? value - previous.doubleValue : value;
+                if (value < previous.doubleValue) pendingResetCount++;
+            }
+
+            if (mode == CounterMode.RATE) {
+                double delta = previous.isLong ? longDelta : doubleDelta;
+                return new QueryResult(result.getSeries(), delta * 1000 / elapsedMillis, epoch);
+            }
+            if (previous.isLong) return new QueryResult(result.getSeries(), longDelta, epoch);
+            return new QueryResult(result.getSeries(), doubleDelta, epoch);
+        }
+
+        @Nullable
+        private CounterState previousState(@Nonnull SeriesDescriptor series, long epoch) {
+            CounterState state = pending.get(series);
+            if (state != null) return state;
+            synchronized (seriesStates) {
+                return seriesStates.get(series, epoch);
+            }
+        }
+
+        /**
+         * Stores the values derived since the last commit.
+         */
+        public void commit() {
+            if (pending.isEmpty()) return;
+            synchronized (seriesStates) {
+                for (Map.Entry<SeriesDescriptor, CounterState> entry : pending.entrySet()) {
+                    seriesStates.put(entry.getKey(), entry.getValue(), entry.getValue().epoch);
+                }
+            }
+            pending.clear();
+            resetCount.addAndGet(pendingResetCount);
+            pendingResetCount = 0;
+        }
+    }
+
+    @Immutable
+    private static final class CounterState {
+        private final boolean isLong;
+        private final long longValue;
+        private final double doubleValue;
+        private final long epoch;
+
+        private CounterState(@Nonnull QueryResult result, long epoch) {
+            this.isLong = result.getValueType() == ValueType.LONG;
+            this.longValue = isLong ? result.getLongValue() : 0;
+            this.doubleValue = isLong ? 0 : doubleValueOf(result);
+            this.epoch = epoch;
+        }
+    }
+}
@@ -22,14 +22,17 @@
  */
 package org.jmxtrans.core.results;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
-import org.jmxtrans.utils.Preconditions2;
+import org.jmxtrans.utils.StringUtils2;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -38,33 +41,176 @@ import lombok.ToString;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
+ * Integral and floating point values are stored unboxed, tagged by their {@link ValueType}, so that writers can format
+ * them without boxing (see {@link #appendValue(Appendable)}). Other values are kept as objects.
+ *
+ * The name and type of a result are held by the {@link SeriesDescriptor} shared by all results of its series, so that
+ * a result only adds a timestamp and a value.
+ *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 @Immutable
 @ThreadSafe
-@EqualsAndHashCode
-@ToString
+@EqualsAndHashCode(of = {"series", "epochInMillis", "value"})
+@ToString(of = {"series", "epochInMillis", "value"})
 public class QueryResult {
-    @Nonnull @Getter private final String name;
+    @Nonnull @Getter private final SeriesDescriptor series;
     private final long epochInMillis;
-    @Nullable @Getter private final Object value;
-    @Nonnull @Getter private final MetricType type;
+    @Nonnull @Getter private final ValueType valueType;
+    /** Value if it is a {@link ValueType#LONG}, or raw bits of the value if it is a {@link ValueType#DOUBLE}. */
+    private final long numericValue;
+    /** Value if it is a {@link ValueType#OBJECT}. */
+    @Nullable private final Object value;
 
     /**
      * @param name          plain name of the metric (variables (e.g. <code>%my-jmx-attr%</code>) must have been resolved).
      * @param type          type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
-     * @param value         value of the collected metric
+     * @param value         value of the collected metric, integral and double values are unboxed
      * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
      */
     public QueryResult(@Nonnull String name, @Nonnull MetricType type, @Nullable Object value, long epochInMillis) {
-        this.name = Preconditions2.checkNotEmpty(name);
-        this.value = value;
+        this(new SeriesDescriptor(name, type), value, epochInMillis);
+    }
+
+    public QueryResult(@Nonnull String name, @Nonnull MetricType type, long value, long epochInMillis) {
+        this(new SeriesDescriptor(name, type), value, epochInMillis);
+    }
+
+    public QueryResult(@Nonnull String name, @Nonnull MetricType type, double value, long epochInMillis) {
+        this(new SeriesDescriptor(name, type), value, epochInMillis);
+    }
+
+    /**
+     * @param series        series of the result, shared by all its results
+     * @param value         value of the collected metric, integral and double values are unboxed
+     * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
+     */
+    public QueryResult(@Nonnull SeriesDescriptor series, @Nullable Object value, long epochInMillis) {
+        this.series = series;
+        this.epochInMillis = epochInMillis;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicLong || value instanceof AtomicInteger) {
+            this.valueType = ValueType.LONG;
+            this.numericValue = ((Number) value).longValue();
+            this.value = null;
+        } else if (value instanceof Double) {
+            this.valueType = ValueType.DOUBLE;
+            this.numericValue = Double.doubleToRawLongBits((Double) value);
+            this.value = null;
+        } else {
+            this.valueType = ValueType.OBJECT;
+            this.numericValue = 0;
+            this.value = value;
+        }
+    }
+
+    public QueryResult(@Nonnull SeriesDescriptor series, long value, long epochInMillis) {
+        this.series = series;
         this.epochInMillis = epochInMillis;
-        this.type = type;
+        this.valueType = ValueType.LONG;
+        this.numericValue = value;
+        this.value = null;
+    }
+
+    public QueryResult(@Nonnull SeriesDescriptor series, double value, long epochInMillis) {
+        this.series = series;
+        this.epochInMillis = epochInMillis;
+        this.valueType = ValueType.DOUBLE;
+        this.numericValue = Double.doubleToRawLongBits(value);
+        this.value = null;
+    }
+
+    /**
+     * Used by {@link ResultBatch} to restore the results it stores.
+     */
+    QueryResult(@Nonnull SeriesDescriptor series, @Nonnull ValueType valueType, long numericValue, @Nullable Object value, long epochInMillis) {
+        this.series = series;
+        this.epochInMillis = epochInMillis;
+        this.valueType = valueType;
+        this.numericValue = numericValue;
+        this.value = value;
+    }
+
+    /**
+     * @return value if it is a {@link ValueType#LONG}, raw bits of the value if it is a {@link ValueType#DOUBLE}
+     */
+    long getNumericValue() {
+        return numericValue;
+    }
+
+    @Nullable
+    Object getObjectValue() {
+        return value;
+    }
+
+    @Nonnull
+    public String getName() {
+        return series.getName();
+    }
+
+    @Nonnull
+    public MetricType getType() {
+        return series.getType();
     }
 
     public long getEpoch(TimeUnit timeUnit) {
         return timeUnit.convert(epochInMillis, MILLISECONDS);
     }
 
+    /**
+     * Slow path, numeric values are boxed. Prefer {@link #getLongValue()} or {@link #getDoubleValue()} depending on
+     * the {@link ValueType} of the value.
+     */
+    @Nullable
+    public Object getValue() {
+        switch (valueType) {
+            case LONG:
+                return getLongValue();
+            case DOUBLE:
+                return getDoubleValue();
+            case OBJECT:
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not a {@link ValueType#LONG}
+     */
+    public long getLongValue() {
+        if (valueType != ValueType.LONG) throw new IllegalStateException("Value of " + getName() + " is not a long");
+        return numericValue;
+    }
+
+    /**
+     * @return the value, converted to a double if it is a {@link ValueType#LONG}
+     * @throws IllegalStateException if the value is not numeric
+     */
+    public double getDoubleValue() {
+        if (valueType == ValueType.LONG) return numericValue;
+        if (valueType != ValueType.DOUBLE) throw new IllegalStateException("Value of " + getName() + " is not numeric");
+        return Double.longBitsToDouble(numericValue);
+    }
+
+    public boolean isNumeric() {
+        return valueType != ValueType.OBJECT;
+    }
+
+    /**
+     * Append the value in the format of {@link String#valueOf(Object)}. Long values are appended without allocation.
+     */
+    public void appendValue(@Nonnull Appendable appendable) throws IOException {
+        switch (valueType) {
+            case LONG:
+                StringUtils2.appendLong(appendable, numericValue);
+                return;
+            case DOUBLE:
+                appendable.append(Double.toString(getDoubleValue()));
+                return;
+            case OBJECT:
+            default:
+                appendable.append(String.valueOf(value));
+        }
+    }
+
 }
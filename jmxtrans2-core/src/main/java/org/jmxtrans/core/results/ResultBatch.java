@@ -0,0 +1,261 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.jmxtrans.utils.StringUtils2;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Results stored by columns: series, timestamps and values are kept in parallel arrays, so that results can move
+ * between pipeline stages without one object per result.
+ *
+ * A batch is filled by a single thread, then only read, possibly by several threads at once: each stage the batch is
+ * handed to {@link #retain()}s it, and {@link #release()}s it once done. The arrays of a pooled batch are reused once
+ * it is released by everyone.
+ *
+ * Columns start small and grow as results are added, up to the maximum capacity of the batch, so that queries
+ * yielding a few results do not hold large arrays.
+ *
+ * Consumers read results in place with the accessors taking an index. Iterating over a batch restores its results one
+ * at a time, as new objects, for consumers which are not aware of batches.
+ */
+@NotThreadSafe
+public final class ResultBatch implements Iterable<QueryResult> {
+
+    /** Number of results a batch can hold before its columns grow. */
+    public static final int INITIAL_CAPACITY = 16;
+
+    @Nullable private final ResultBatchPool pool;
+    private final int maxCapacity;
+    @Nonnull private SeriesDescriptor[] series;
+    @Nonnull private long[] epochs;
+    @Nonnull private ValueType[] valueTypes;
+    /** Long values, or raw bits of double values. */
+    @Nonnull private long[] numericValues;
+    /** Values which are neither long nor double, only allocated once such a value is added. */
+    @Nullable private Object[] objectValues;
+    private int size = 0;
+    @Nonnull private final AtomicInteger references = new AtomicInteger(1);
+
+    public ResultBatch(int maxCapacity) {
+        this(null, maxCapacity);
+    }
+
+    ResultBatch(@Nullable ResultBatchPool pool, int maxCapacity) {
+        this.pool = pool;
+        this.maxCapacity = maxCapacity;
+        int capacity = Math.min(INITIAL_CAPACITY, maxCapacity);
+        this.series = new SeriesDescriptor[capacity];
+        this.epochs = new long[capacity];
+        this.valueTypes = new ValueType[capacity];
+        this.numericValues = new long[capacity];
+    }
+
+    /**
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(@Nonnull QueryResult result) {
+        if (isFull()) throw new IllegalStateException("Batch is full");
+        if (size == series.length) grow();
+        series[size] = result.getSeries();
+        epochs[size] = result.getEpoch(MILLISECONDS);
+        valueTypes[size] = result.getValueType();
+        numericValues[size] = result.getNumericValue();
+        if (result.getValueType() == ValueType.OBJECT) {
+            if (objectValues == null) objectValues = new Object[series.length];
+            objectValues[size] = result.getObjectValue();
+        }
+        size++;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) series.length * 2, maxCapacity);
+        series = Arrays.copyOf(series, capacity);
+        epochs = Arrays.copyOf(epochs, capacity);
+        valueTypes = Arrays.copyOf(valueTypes, capacity);
+        numericValues = Arrays.copyOf(numericValues, capacity);
+        if (objectValues != null) objectValues = Arrays.copyOf(objectValues, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == maxCapacity;
+    }
+
+    /**
+     * @return number of results this batch can hold before its columns grow
+     */
+    public int getCapacity() {
+        return series.length;
+    }
+
+    @Nonnull
+    public SeriesDescriptor getSeries(int index) {
+        return series[checkIndex(index)];
+    }
+
+    public long getEpoch(int index) {
+        return epochs[checkIndex(index)];
+    }
+
+    public long getEpoch(int index, @Nonnull TimeUnit timeUnit) {
+        return timeUnit.convert(epochs[checkIndex(index)], MILLISECONDS);
+    }
+
+    @Nonnull
+    public ValueType getValueType(int index) {
+        return valueTypes[checkIndex(index)];
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not a {@link ValueType#LONG}
+     */
+    public long getLongValue(int index) {
+        if (getValueType(index) != ValueType.LONG) throw new IllegalStateException("Value " + index + " is not a long");
+        return numericValues[index];
+    }
+
+    /**
+     * @return the value, converted to a double if it is a {@link ValueType#LONG}
+     * @throws IllegalStateException if the value is not numeric
+     */
+    public double getDoubleValue(int index) {
+        switch (getValueType(index)) {
+            case LONG:
+                return numericValues[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(numericValues[index]);
+            default:
+                throw new IllegalStateException("Value " + index + " is not numeric");
+        }
+    }
+
+    /**
+     * Append the value in the format of {@link String#valueOf(Object)}. Long values are appended without allocation.
+     */
+    public void appendValue(int index, @Nonnull Appendable appendable) throws IOException {
+        switch (getValueType(index)) {
+            case LONG:
+                StringUtils2.appendLong(appendable, numericValues[index]);
+                return;
+            case DOUBLE:
+                appendable.append(Double.toString(Double.longBitsToDouble(numericValues[index])));
+                return;
+            case OBJECT:
+            default:
+                appendable.append(String.valueOf(objectValues == null ? null : objectValues[index]));
+        }
+    }
+
+    /**
+     * @return the result stored at the given index, restored as a new object
+     */
+    @Nonnull
+    public QueryResult get(int index) {
+        ValueType valueType = getValueType(index);
+        Object objectValue = valueType == ValueType.OBJECT && objectValues != null ? objectValues[index] : null;
+        return new QueryResult(series[index], valueType, numericValues[index], objectValue, epochs[index]);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        return index;
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<QueryResult> iterator() {
+        return new Iterator<QueryResult>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public QueryResult next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Batches are append only");
+            }
+        };
+    }
+
+    /**
+     * Take a reference on this batch, before handing it to another stage.
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Give back a reference on this batch. Once all references are given back, the batch is cleared and returned to
+     * its pool, if any.
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining > 0) return;
+        if (remaining < 0) throw new IllegalStateException("Batch was released more times than it was retained");
+        if (pool == null) return;
+        clear();
+        pool.recycle(this);
+    }
+
+    private void clear() {
+        for (int i = 0; i < size; i++) {
+            series[i] = null;
+            if (objectValues != null) objectValues[i] = null;
+        }
+        size = 0;
+        references.set(1);
+    }
+
+    @Override
+    public String toString() {
+        return "ResultBatch{size=" + size + ", capacity=" + series.length + ", maxCapacity=" + maxCapacity + "}";
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import lombok.Getter;
+
+/**
+ * Reuses the arrays of released {@link ResultBatch}es. At most a given number of batches are kept, batches which are
+ * released when the pool is full, or never released, are garbage collected. Batches keep the columns they have grown,
+ * so that the pool converges to the sizes of the batches actually in flight, but batches whose columns grew beyond a
+ * given capacity are not kept: a burst of large batches must not pin their arrays for the life of the pool.
+ */
+@ThreadSafe
+public final class ResultBatchPool {
+
+    @Getter private final int maxBatchCapacity;
+    private final int maxPooledBatches;
+    private final int maxPooledCapacity;
+    @Nonnull private final Queue<ResultBatch> pooledBatches = new ConcurrentLinkedQueue<>();
+    @Nonnull private final AtomicInteger pooledCount = new AtomicInteger();
+
+    public ResultBatchPool(int maxBatchCapacity, int maxPooledBatches) {
+        this(maxBatchCapacity, maxPooledBatches, maxBatchCapacity);
+    }
+
+    /**
+     * @param maxPooledCapacity released batches whose columns grew beyond this capacity are not kept
+     */
+    public ResultBatchPool(int maxBatchCapacity, int maxPooledBatches, int maxPooledCapacity) {
+        this.maxBatchCapacity = maxBatchCapacity;
+        this.maxPooledBatches = maxPooledBatches;
+        this.maxPooledCapacity = maxPooledCapacity;
+    }
+
+    /**
+     * @return an empty batch, holding a single reference
+     */
+    @Nonnull
+    public ResultBatch acquire() {
+        ResultBatch batch = pooledBatches.poll();
+        if (batch == null) return new ResultBatch(this, maxBatchCapacity);
+        pooledCount.decrementAndGet();
+        return batch;
+    }
+
+    void recycle(@Nonnull ResultBatch batch) {
+        if (batch.getCapacity() > maxPooledCapacity) return;
+        if (pooledCount.incrementAndGet() > maxPooledBatches) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+        pooledBatches.offer(batch);
+    }
+
+    public int getPooledCount() {
+        return pooledCount.get();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.ObjectName;
+
+import org.jmxtrans.utils.Preconditions2;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Identity of a series of results: its name, type and source. Descriptors are created once per series and shared by
+ * all its results, so that collecting a sample does not build its name again.
+ *
+ * Series with the same name and type are equal, whatever their source: output writers cannot tell them apart.
+ */
+@Immutable
+@ThreadSafe
+@EqualsAndHashCode(of = {"name", "type"})
+@ToString
+public final class SeriesDescriptor {
+    @Nonnull @Getter private final String name;
+    @Nonnull @Getter private final MetricType type;
+    /** MBean the series is read from, null if it is not read from an MBean attribute. */
+    @Nullable @Getter private final ObjectName objectName;
+    @Nullable @Getter private final String attributeName;
+    /** Key of the composite attribute, null for simple attributes. */
+    @Nullable @Getter private final String key;
+    /** How values read for this series are emitted, see {@link CounterStore}. */
+    @Nonnull @Getter private final CounterMode counterMode;
+    /** Null if all values are emitted, see {@link ChangeSuppressor}. */
+    @Nullable @Getter private final ChangeSuppression changeSuppression;
+
+    public SeriesDescriptor(
+            @Nonnull String name,
+            @Nonnull MetricType type,
+            @Nullable ObjectName objectName,
+            @Nullable String attributeName,
+            @Nullable String key,
+            @Nonnull CounterMode counterMode,
+            @Nullable ChangeSuppression changeSuppression) {
+        this.name = Preconditions2.checkNotEmpty(name);
+        this.type = type;
+        this.objectName = objectName;
+        this.attributeName = attributeName;
+        this.key = key;
+        this.counterMode = counterMode;
+        this.changeSuppression = changeSuppression;
+    }
+
+    public SeriesDescriptor(
+            @Nonnull String name,
+            @Nonnull MetricType type,
+            @Nullable ObjectName objectName,
+            @Nullable String attributeName,
+            @Nullable String key,
+            @Nonnull CounterMode counterMode) {
+        this(name, type, objectName, attributeName, key, counterMode, null);
+    }
+
+    public SeriesDescriptor(
+            @Nonnull String name,
+            @Nonnull MetricType type,
+            @Nullable ObjectName objectName,
+            @Nullable String attributeName,
+            @Nullable String key) {
+        this(name, type, objectName, attributeName, key, CounterMode.RAW);
+    }
+
+    public SeriesDescriptor(@Nonnull String name, @Nonnull MetricType type) {
+        this(name, type, null, null, null);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import lombok.Getter;
+
+/**
+ * State kept for each series of a single source by a pipeline stage, bounded in size, see {@link SeriesStatesBySource}.
+ *
+ * A series not seen for longer than the maximum idle time is evicted, so that its next value is handled as its first.
+ * When full, the least recently seen series is evicted to make room for new ones. Time is the time of the results, so
+ * that no clock is needed.
+ *
+ * @param <S> type of the state of a series
+ */
+@NotThreadSafe
+final class SeriesStates<S> {
+
+    private final int maxSeries;
+    private final long maxIdleMillis;
+    /** In access order, so that the least recently seen series comes first. */
+    @Nonnull private final LinkedHashMap<SeriesDescriptor, Entry<S>> entries;
+    @Getter private long evictedCount = 0;
+
+    SeriesStates(int maxSeries, long maxIdleMillis) {
+        this.maxSeries = maxSeries;
+        this.maxIdleMillis = maxIdleMillis;
+        this.entries = new LinkedHashMap<SeriesDescriptor, Entry<S>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SeriesDescriptor, Entry<S>> eldest) {
+                if (size() <= SeriesStates.this.maxSeries) return false;
+                evictedCount++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param epochInMillis time of the result being handled
+     * @return state of the series, null if the series is unknown, or was idle for too long
+     */
+    @Nullable
+    S get(@Nonnull SeriesDescriptor series, long epochInMillis) {
+        evictIdleSeries(epochInMillis);
+        Entry<S> entry = entries.get(series);
+        if (entry == null) return null;
+        if (epochInMillis - entry.lastSeen > maxIdleMillis) {
+            entries.remove(series);
+            evictedCount++;
+            return null;
+        }
+        entry.lastSeen = Math.max(entry.lastSeen, epochInMillis);
+        return entry.state;
+    }
+
+    void put(@Nonnull SeriesDescriptor series, @Nonnull S state, long epochInMillis) {
+        entries.put(series, new Entry<>(state, epochInMillis));
+    }
+
+    int getSeriesCount() {
+        return entries.size();
+    }
+
+    private void evictIdleSeries(long now) {
+        Iterator<Entry<S>> leastRecentlySeen = entries.values().iterator();
+        while (leastRecentlySeen.hasNext()) {
+            if (now - leastRecentlySeen.next().lastSeen <= maxIdleMillis) return;
+            leastRecentlySeen.remove();
+            evictedCount++;
+        }
+    }
+
+    private static final class Entry<S> {
+        @Nonnull private final S state;
+        private long lastSeen;
+
+        private Entry(@Nonnull S state, long lastSeen) {
+            this.state = state;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link SeriesStates} of a pipeline stage, kept apart by source, usually the server the series are collected from: the
+ * same series read from two servers has two independent states.
+ *
+ * The states of each source are guarded by their own lock, the {@link SeriesStates} itself, so that queries of
+ * different servers do not contend with each other. Each source keeps at most the given number of series.
+ *
+ * @param <S> type of the state of a series
+ */
+@ThreadSafe
+final class SeriesStatesBySource<S> {
+
+    private final int maxSeriesPerSource;
+    private final long maxIdleMillis;
+    @Nonnull private final ConcurrentMap<Object, SeriesStates<S>> sources = new ConcurrentHashMap<>();
+
+    SeriesStatesBySource(int maxSeriesPerSource, long maxIdleMillis) {
+        this.maxSeriesPerSource = maxSeriesPerSource;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * @return states of the series of the given source, to be used while holding their lock
+     */
+    @Nonnull
+    SeriesStates<S> of(@Nonnull Object source) {
+        SeriesStates<S> states = sources.get(source);
+        if (states != null) return states;
+        SeriesStates<S> created = new SeriesStates<>(maxSeriesPerSource, maxIdleMillis);
+        states = sources.putIfAbsent(source, created);
+        return states == null ? created : states;
+    }
+
+    int getSeriesCount() {
+        int count = 0;
+        for (SeriesStates<S> states : sources.values()) {
+            synchronized (states) {
+                count += states.getSeriesCount();
+            }
+        }
+        return count;
+    }
+
+    long getEvictedCount() {
+        long count = 0;
+        for (SeriesStates<S> states : sources.values()) {
+            synchronized (states) {
+                count += states.getEvictedCount();
+            }
+        }
+        return count;
+    }
+}
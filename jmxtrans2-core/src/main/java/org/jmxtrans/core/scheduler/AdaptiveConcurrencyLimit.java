@@ -0,0 +1,153 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.utils.time.Clock;
+
+/**
+ * Adapts the number of threads of an executor to the observed latency of its tasks, following an AIMD (additive
+ * increase, multiplicative decrease) algorithm.
+ *
+ * Task latencies are measured as by a {@link LatencyMonitor}. At the end of each window:
+ * <ul>
+ *     <li>if the target is congested, the limit is multiplied by {@link #BACKOFF_RATIO};</li>
+ *     <li>otherwise, if tasks are waiting in the queue, the limit is increased by one.</li>
+ * </ul>
+ *
+ * The limit always stays between a floor and a ceiling. The limit, floor and ceiling can be modified at runtime.
+ */
+@ThreadSafe
+public class AdaptiveConcurrencyLimit extends LatencyMonitor implements AdaptiveConcurrencyLimitMBean {
+
+    public static final double BACKOFF_RATIO = 0.75;
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final ThreadPoolExecutor executor;
+
+    @GuardedBy("this") private int minLimit;
+    @GuardedBy("this") private int maxLimit;
+    @GuardedBy("this") private int limit;
+    @GuardedBy("this") private long increaseCount = 0;
+    @GuardedBy("this") private long decreaseCount = 0;
+
+    /**
+     * The executor is resized to {@code minLimit} threads on creation.
+     */
+    public AdaptiveConcurrencyLimit(@Nonnull ThreadPoolExecutor executor, @Nonnull Clock clock, int minLimit, int maxLimit) {
+        super(clock);
+        checkLimits(minLimit, maxLimit);
+        this.executor = executor;
+        synchronized (this) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            applyLimit(minLimit);
+        }
+    }
+
+    @Override
+    protected synchronized void onWindow(long averageLatencyNanos) {
+        if (isCongested()) {
+            int newLimit = Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+            if (newLimit < limit) {
+                decreaseCount++;
+                logger.debug("Latency increased to " + averageLatencyNanos + "ns, decreasing limit to " + newLimit);
+                applyLimit(newLimit);
+            }
+        } else if (!executor.getQueue().isEmpty() && limit < maxLimit) {
+            increaseCount++;
+            applyLimit(limit + 1);
+        }
+    }
+
+    @GuardedBy("this")
+    private void applyLimit(int newLimit) {
+        // core pool size must never exceed maximum pool size, order of updates matters
+        if (newLimit > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(newLimit);
+            executor.setCorePoolSize(newLimit);
+        } else {
+            executor.setCorePoolSize(newLimit);
+            executor.setMaximumPoolSize(newLimit);
+        }
+        limit = newLimit;
+    }
+
+    private static void checkLimits(int minLimit, int maxLimit) {
+        if (minLimit <= 0) throw new IllegalArgumentException("Floor must be positive, got " + minLimit);
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("Ceiling [" + maxLimit + "] must not be lower than floor [" + minLimit + "]");
+        }
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void setLimit(int limit) {
+        applyLimit(Math.min(maxLimit, Math.max(minLimit, limit)));
+    }
+
+    @Override
+    public synchronized int getMinLimit() {
+        return minLimit;
+    }
+
+    @Override
+    public synchronized void setMinLimit(int minLimit) {
+        checkLimits(minLimit, maxLimit);
+        this.minLimit = minLimit;
+        if (limit < minLimit) applyLimit(minLimit);
+    }
+
+    @Override
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public synchronized void setMaxLimit(int maxLimit) {
+        checkLimits(minLimit, maxLimit);
+        this.maxLimit = maxLimit;
+        if (limit > maxLimit) applyLimit(maxLimit);
+    }
+
+    @Override
+    public synchronized long getIncreaseCount() {
+        return increaseCount;
+    }
+
+    @Override
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+}
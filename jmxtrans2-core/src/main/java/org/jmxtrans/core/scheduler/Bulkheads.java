@@ -0,0 +1,80 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.query.Server;
+
+/**
+ * Query executors, one per {@link org.jmxtrans.core.query.Bulkhead}.
+ */
+@ThreadSafe
+public class Bulkheads {
+
+    @Nonnull private final Map<String, ExecutorService> executorsByName;
+
+    public Bulkheads(@Nonnull Map<String, ? extends ExecutorService> executorsByName) {
+        this.executorsByName = new HashMap<>(executorsByName);
+    }
+
+    /**
+     * @throws RejectedExecutionException if there is no executor for the bulkhead of this server
+     */
+    @Nonnull
+    public Executor executorFor(@Nonnull Server server) {
+        String name = server.getBulkhead().getName();
+        ExecutorService executor = executorsByName.get(name);
+        if (executor == null) throw new RejectedExecutionException("No executor for bulkhead " + name);
+        return executor;
+    }
+
+    @Nonnull
+    public Collection<ExecutorService> getExecutors() {
+        return executorsByName.values();
+    }
+
+    public void shutdown() {
+        for (ExecutorService executor : executorsByName.values()) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wait for termination of each executor, up to the given timeout for each of them.
+     */
+    public void awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        for (ExecutorService executor : executorsByName.values()) {
+            executor.awaitTermination(timeout, unit);
+        }
+    }
+}
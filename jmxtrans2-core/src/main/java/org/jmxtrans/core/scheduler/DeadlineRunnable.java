@@ -22,7 +22,13 @@
  */
 package org.jmxtrans.core.scheduler;
 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
@@ -31,30 +37,126 @@ import org.jmxtrans.utils.time.Clock;
 
 import lombok.Getter;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import static lombok.AccessLevel.PROTECTED;
 
+/**
+ * Task which is dropped if it starts after its deadline.
+ *
+ * If a watchdog is given, the deadline is also enforced while the task is running: a task still running at its
+ * deadline is abandoned. Its thread is interrupted and {@link #onTimeout()} is called from the watchdog thread, so
+ * that the task can release whatever resource it is blocked on. Once the watchdog is shut down, tasks are run without
+ * enforcing their deadline.
+ */
 @ThreadSafe
 public abstract class DeadlineRunnable implements Runnable {
 
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
     @Nonnull @Getter(PROTECTED) private final Clock clock;
     @Getter(PROTECTED) private final long deadline;
+    @Nonnull private final TaskMetrics taskMetrics;
+    @Nullable private final ScheduledExecutorService watchdog;
+
+    @Nonnull private final Object lock = new Object();
+    @GuardedBy("lock") private boolean finished = false;
+    @GuardedBy("lock") private boolean timedOut = false;
+
+    public DeadlineRunnable(@Nonnull Clock clock, long deadline, @Nonnull TaskMetrics taskMetrics) {
+        this(clock, deadline, taskMetrics, null);
+    }
 
-    public DeadlineRunnable(@Nonnull Clock clock, long deadline) {
+    public DeadlineRunnable(
+            @Nonnull Clock clock,
+            long deadline,
+            @Nonnull TaskMetrics taskMetrics,
+            @Nullable ScheduledExecutorService watchdog) {
         this.clock = clock;
         this.deadline = deadline;
+        this.taskMetrics = taskMetrics;
+        this.watchdog = watchdog;
     }
 
     @Override
     public final void run() {
-        if (deadline < clock.currentTimeMillis()) {
-            // TODO: log and count
-            logger.warn("Deadline is passed, dropping job");
+        try {
+            runBeforeDeadline();
+        } finally {
+            onCompletion();
+        }
+    }
+
+    private void runBeforeDeadline() {
+        long now = clock.currentTimeMillis();
+        if (deadline < now) {
+            taskMetrics.incrementDropped();
+            logger.debug("Deadline is passed, dropping job " + this);
+            return;
+        }
+        if (watchdog == null) {
+            doRun();
+            return;
+        }
+
+        final Thread worker = Thread.currentThread();
+        ScheduledFuture<?> timeout;
+        try {
+            timeout = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    abandon(worker);
+                }
+            }, deadline - now, MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the watchdog is shut down while stopping, tasks still running by then are not abandoned anymore
+            logger.debug("Watchdog is shut down, running job without enforcing its deadline " + this);
+            doRun();
             return;
         }
-        doRun();
+        try {
+            doRun();
+        } finally {
+            timeout.cancel(false);
+            synchronized (lock) {
+                finished = true;
+                // clear the interruption, so that it does not leak to the next task run by this thread
+                if (timedOut) Thread.interrupted();
+            }
+        }
+    }
+
+    private void abandon(@Nonnull Thread worker) {
+        synchronized (lock) {
+            if (finished) return;
+            timedOut = true;
+        }
+        taskMetrics.incrementTimedOut();
+        logger.debug("Deadline is passed, abandoning running job " + this);
+        onTimeout();
+        // interrupt last, so that the task cannot complete before being notified of its timeout
+        synchronized (lock) {
+            if (!finished) worker.interrupt();
+        }
+    }
+
+    protected boolean isTimedOut() {
+        synchronized (lock) {
+            return timedOut;
+        }
     }
 
     protected abstract void doRun();
 
+    /**
+     * Called from the watchdog thread when the task runs past its deadline.
+     */
+    protected void onTimeout() {
+    }
+
+    /**
+     * Called on the thread executing the task once it is done, whether it completed, failed or was dropped.
+     */
+    protected void onCompletion() {
+    }
+
 }
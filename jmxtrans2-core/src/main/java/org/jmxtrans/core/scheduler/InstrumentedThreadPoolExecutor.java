@@ -0,0 +1,141 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link ThreadPoolExecutor} keeping track of the peak occupancy of its work queue and of rejected tasks.
+ *
+ * The peak is sampled each time a task is submitted, which is when the queue grows. It can be reset to start a new
+ * observation window.
+ *
+ * {@link TaskExecutionListener}s can be registered to observe the execution of each task.
+ */
+@ThreadSafe
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    @Nonnull private final AtomicInteger peakQueueSize = new AtomicInteger();
+    @Nonnull private final CountingRejectedExecutionHandler rejectedExecutionHandler;
+    @Nonnull private final CopyOnWriteArrayList<TaskExecutionListener> listeners = new CopyOnWriteArrayList<>();
+
+    public InstrumentedThreadPoolExecutor(
+            int corePoolSize,
+            int maximumPoolSize,
+            long keepAliveTime,
+            @Nonnull TimeUnit unit,
+            @Nonnull BlockingQueue<Runnable> workQueue,
+            @Nonnull ThreadFactory threadFactory,
+            @Nonnull RejectedExecutionHandler handler) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory,
+                new CountingRejectedExecutionHandler(handler));
+    }
+
+    private InstrumentedThreadPoolExecutor(
+            int corePoolSize,
+            int maximumPoolSize,
+            long keepAliveTime,
+            @Nonnull TimeUnit unit,
+            @Nonnull BlockingQueue<Runnable> workQueue,
+            @Nonnull ThreadFactory threadFactory,
+            @Nonnull CountingRejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.rejectedExecutionHandler = handler;
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        try {
+            super.execute(command);
+        } finally {
+            updatePeakQueueSize(getQueue().size());
+        }
+    }
+
+    public void addListener(@Nonnull TaskExecutionListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        for (TaskExecutionListener listener : listeners) {
+            listener.beforeExecute(r);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, @CheckForNull Throwable t) {
+        for (TaskExecutionListener listener : listeners) {
+            listener.afterExecute(r, t);
+        }
+        super.afterExecute(r, t);
+    }
+
+    private void updatePeakQueueSize(int queueSize) {
+        int peak = peakQueueSize.get();
+        while (queueSize > peak) {
+            if (peakQueueSize.compareAndSet(peak, queueSize)) return;
+            peak = peakQueueSize.get();
+        }
+    }
+
+    public int getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    public void resetPeakQueueSize() {
+        peakQueueSize.set(getQueue().size());
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedExecutionHandler.rejectedCount.get();
+    }
+
+    @ThreadSafe
+    private static final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+        @Nonnull private final RejectedExecutionHandler delegate;
+        @Nonnull private final AtomicLong rejectedCount = new AtomicLong();
+
+        private CountingRejectedExecutionHandler(@Nonnull RejectedExecutionHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejectedCount.incrementAndGet();
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+}
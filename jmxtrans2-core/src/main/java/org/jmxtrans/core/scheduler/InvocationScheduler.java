@@ -0,0 +1,182 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.MBeanServerConnection;
+
+import org.jmxtrans.core.lifecycle.LifecycleAware;
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Invocation;
+import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
+import org.jmxtrans.utils.time.Clock;
+import org.jmxtrans.utils.time.Interval;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Runs each configured {@link Invocation} at its collection interval, and hands its results to the output writers.
+ *
+ * Like queries, invocations are run on the multiples of their interval since the epoch, and each run must complete
+ * before the next one is due. Invocations are run by their own executor, so that expensive operations do not delay
+ * queries. Runs rejected by a saturated executor, or dropped after their deadline, are accounted in the given
+ * {@link TaskMetrics}.
+ */
+@ThreadSafe
+public class InvocationScheduler implements LifecycleAware, InvocationSchedulerMBean {
+
+    /** Name of the bulkhead sizing the executor of invocations. */
+    @Nonnull public static final String BULKHEAD_NAME = "invocations";
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final Clock clock;
+    @Nonnull private final Interval defaultPeriod;
+    @Nonnull private final Iterable<Invocation> invocations;
+    @Nonnull private final MBeanServerConnection mBeanServer;
+    @Nonnull private final ExecutorService invocationExecutor;
+    @Nonnull private final ScheduledExecutorService timer;
+    @Nonnull private final Iterable<OutputWriter> outputWriters;
+    @Nonnull private final ResultProcessor resultProcessor;
+    @Nonnull private final TaskMetrics taskMetrics;
+    @Nonnull private final List<ScheduledFuture<?>> scheduledRuns = new CopyOnWriteArrayList<>();
+
+    public InvocationScheduler(
+            @Nonnull Clock clock,
+            @Nonnull Interval defaultPeriod,
+            @Nonnull Iterable<Invocation> invocations,
+            @Nonnull MBeanServerConnection mBeanServer,
+            @Nonnull ExecutorService invocationExecutor,
+            @Nonnull ScheduledExecutorService timer,
+            @Nonnull Iterable<OutputWriter> outputWriters,
+            @Nonnull ResultProcessor resultProcessor,
+            @Nonnull TaskMetrics taskMetrics) {
+        this.clock = clock;
+        this.defaultPeriod = defaultPeriod;
+        this.invocations = invocations;
+        this.mBeanServer = mBeanServer;
+        this.invocationExecutor = invocationExecutor;
+        this.timer = timer;
+        this.outputWriters = outputWriters;
+        this.resultProcessor = resultProcessor;
+        this.taskMetrics = taskMetrics;
+    }
+
+    @Override
+    public void start() {
+        for (final Invocation invocation : invocations) {
+            Interval interval = invocation.getCollectInterval() != null ? invocation.getCollectInterval() : defaultPeriod;
+            final long periodMillis = interval.getDuration(MILLISECONDS);
+            long initialDelay = periodMillis - clock.currentTimeMillis() % periodMillis;
+            scheduledRuns.add(timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(invocation, periodMillis);
+                }
+            }, initialDelay, periodMillis, MILLISECONDS));
+        }
+        logger.debug("Scheduling " + scheduledRuns.size() + " invocations");
+    }
+
+    private void dispatch(@Nonnull Invocation invocation, long periodMillis) {
+        try {
+            invocationExecutor.execute(new Processor(clock.currentTimeMillis() + periodMillis, invocation));
+        } catch (RejectedExecutionException e) {
+            taskMetrics.incrementRejected();
+            logger.debug("Could not enqueue invocation " + invocation);
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (ScheduledFuture<?> scheduledRun : scheduledRuns) {
+            scheduledRun.cancel(false);
+        }
+        scheduledRuns.clear();
+        invocationExecutor.shutdown();
+    }
+
+    @Override
+    public int getInvocationCount() {
+        int count = 0;
+        for (Invocation ignored : invocations) count++;
+        return count;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        long count = 0;
+        for (Invocation invocation : invocations) count += invocation.getCacheHitCount();
+        return count;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        long count = 0;
+        for (Invocation invocation : invocations) count += invocation.getRejectedCount();
+        return count;
+    }
+
+    @ThreadSafe
+    private final class Processor extends DeadlineRunnable {
+        @Nonnull private final Invocation invocation;
+
+        private Processor(long deadline, @Nonnull Invocation invocation) {
+            super(clock, deadline, taskMetrics);
+            this.invocation = invocation;
+        }
+
+        @Override
+        protected void doRun() {
+            final List<QueryResult> results = new ArrayList<>();
+            try {
+                invocation.invoke(mBeanServer, new ResultSink() {
+                    @Override
+                    public boolean accept(@Nonnull QueryResult result) {
+                        return results.add(result);
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn(format("Error running invocation [%s]", invocation), e);
+                return;
+            }
+            if (results.isEmpty()) return;
+            for (OutputWriter outputWriter : outputWriters) {
+                resultProcessor.writeResults(getDeadline(), results, outputWriter);
+            }
+        }
+    }
+}
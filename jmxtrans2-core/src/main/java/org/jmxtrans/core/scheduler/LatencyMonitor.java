@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.utils.time.Clock;
+
+/**
+ * Measures the latency of the tasks of an executor, averaged over windows of {@link #SAMPLES_PER_WINDOW} tasks.
+ *
+ * The average of each window is compared to a baseline: if it is more than {@link #LATENCY_TOLERANCE} times the
+ * baseline latency, the target is considered congested. The baseline is the lowest average latency observed, slowly
+ * drifting towards the current latency so that a lasting change in the latency of the target does not leave it
+ * congested forever.
+ */
+@ThreadSafe
+public class LatencyMonitor implements TaskExecutionListener, LatencyMonitorMBean {
+
+    public static final int SAMPLES_PER_WINDOW = 10;
+    public static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_DRIFT = 0.05;
+
+    @Nonnull private final Clock clock;
+    @Nonnull private final ThreadLocal<Long> taskStartNanos = new ThreadLocal<>();
+
+    @GuardedBy("this") private int samples = 0;
+    @GuardedBy("this") private long totalLatencyNanos = 0;
+    @GuardedBy("this") private long baselineLatencyNanos = 0;
+    @GuardedBy("this") private long lastLatencyNanos = 0;
+
+    public LatencyMonitor(@Nonnull Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void beforeExecute(@Nonnull Runnable task) {
+        taskStartNanos.set(clock.nanoTime());
+    }
+
+    @Override
+    public void afterExecute(@Nonnull Runnable task, @CheckForNull Throwable throwable) {
+        Long start = taskStartNanos.get();
+        if (start == null) return;
+        taskStartNanos.remove();
+        recordLatency(clock.nanoTime() - start);
+    }
+
+    public synchronized void recordLatency(long latencyNanos) {
+        samples++;
+        totalLatencyNanos += latencyNanos;
+        if (samples < SAMPLES_PER_WINDOW) return;
+
+        long averageLatencyNanos = totalLatencyNanos / samples;
+        samples = 0;
+        totalLatencyNanos = 0;
+
+        lastLatencyNanos = averageLatencyNanos;
+        if (baselineLatencyNanos == 0 || averageLatencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = averageLatencyNanos;
+        } else {
+            baselineLatencyNanos += (long) ((averageLatencyNanos - baselineLatencyNanos) * BASELINE_DRIFT);
+        }
+        onWindow(averageLatencyNanos);
+    }
+
+    /**
+     * Called at the end of each window, once the baseline has been updated, while holding the lock of this monitor.
+     */
+    @GuardedBy("this")
+    protected void onWindow(long averageLatencyNanos) {
+    }
+
+    /**
+     * @return whether the average latency of the last window was more than {@link #LATENCY_TOLERANCE} times the
+     * baseline latency
+     */
+    @Override
+    public synchronized boolean isCongested() {
+        return lastLatencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE;
+    }
+
+    @Override
+    public synchronized long getBaselineLatencyInNanos() {
+        return baselineLatencyNanos;
+    }
+
+    @Override
+    public synchronized long getLastLatencyInNanos() {
+        return lastLatencyNanos;
+    }
+}
@@ -22,7 +22,6 @@
  */
 package org.jmxtrans.core.scheduler;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -42,29 +41,32 @@ public class NaiveScheduler {
 
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
-    @Nonnull private final ExecutorService queryExecutor;
-    @Nonnull private final ExecutorService resultExecutor;
+    @Nonnull private final Bulkheads queryExecutors;
+    @Nonnull private final WriterChannels writerChannels;
 
     // Synchronization around state transition is primitive and actually wrong. Using Guava would be cleaner, but
     // current naive implementation has a fairly low potential for trouble.
     @Nonnull @Getter private volatile State state = State.NEW;
     @Nonnull private final ScheduledExecutorService queryTimer;
+    @Nonnull private final ScheduledExecutorService queryWatchdog;
     @Nonnull private final QueryGenerator queryGenerator;
     @Nonnull private final Iterable<LifecycleAware> lifecycleListeners;
     private final long shutdownTimeoutMillis;
 
     public NaiveScheduler(
-            @Nonnull ExecutorService queryExecutor,
-            @Nonnull ExecutorService resultExecutor,
+            @Nonnull Bulkheads queryExecutors,
+            @Nonnull WriterChannels writerChannels,
             @Nonnull ScheduledExecutorService queryTimer,
+            @Nonnull ScheduledExecutorService queryWatchdog,
             @Nonnull QueryGenerator queryGenerator,
             @Nonnull Iterable<LifecycleAware> lifecycleListeners,
             long shutdownTimeoutMillis) {
         this.queryTimer = queryTimer;
+        this.queryWatchdog = queryWatchdog;
         this.lifecycleListeners = lifecycleListeners;
         this.shutdownTimeoutMillis = shutdownTimeoutMillis;
-        this.queryExecutor = queryExecutor;
-        this.resultExecutor = resultExecutor;
+        this.queryExecutors = queryExecutors;
+        this.writerChannels = writerChannels;
         this.queryGenerator = queryGenerator;
     }
 
@@ -78,6 +80,7 @@ public class NaiveScheduler {
             for (LifecycleAware lifecycleListener : lifecycleListeners) {
                 lifecycleListener.start();
             }
+            writerChannels.start();
             queryGenerator.start();
             this.state = State.RUNNING;
             logger.debug("Scheduler started");
@@ -96,11 +99,14 @@ public class NaiveScheduler {
             this.state = State.STOPPING;
             queryGenerator.stop();
             queryTimer.shutdown();
-            queryExecutor.shutdown();
-            resultExecutor.shutdown();
+            queryExecutors.shutdown();
+            writerChannels.shutdown();
             queryTimer.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
-            queryExecutor.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
-            resultExecutor.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
+            queryExecutors.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
+            // watchdog is stopped only once all queries are done, it might still have to abandon some of them
+            queryWatchdog.shutdown();
+            queryWatchdog.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
+            writerChannels.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
             for (LifecycleAware lifecycleListener : lifecycleListeners) {
                 lifecycleListener.stop();
             }
@@ -113,7 +119,7 @@ public class NaiveScheduler {
     }
 
     public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-        resultExecutor.awaitTermination(timeout, unit);
+        writerChannels.awaitTermination(timeout, unit);
     }
 
     @ThreadSafe
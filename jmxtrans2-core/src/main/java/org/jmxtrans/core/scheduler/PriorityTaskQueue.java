@@ -0,0 +1,312 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.query.Priority;
+
+/**
+ * Bounded work queue ordering tasks by {@link Priority}, and in FIFO order within a priority.
+ *
+ * When the queue is full, a task is only rejected if no queued task has a lower priority. Otherwise, the most
+ * recently queued task of the lowest priority is evicted to make room, and {@link PrioritizedTask#shed()} is called on
+ * it. Under overload, low priority tasks are thus shed first, and high priority tasks are only rejected once the queue
+ * is full of high priority tasks.
+ *
+ * Tasks not implementing {@link PrioritizedTask} have {@link Priority#NORMAL} priority and are never evicted.
+ */
+@ThreadSafe
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final int capacity;
+    @Nonnull private final ReentrantLock lock = new ReentrantLock();
+    @Nonnull private final Condition notEmpty = lock.newCondition();
+    @Nonnull private final Condition notFull = lock.newCondition();
+    @GuardedBy("lock") @Nonnull private final Map<Priority, ArrayDeque<Runnable>> queues = new EnumMap<>(Priority.class);
+    @GuardedBy("lock") private int count = 0;
+
+    public PriorityTaskQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        this.capacity = capacity;
+        for (Priority priority : PRIORITIES) {
+            queues.put(priority, new ArrayDeque<Runnable>());
+        }
+    }
+
+    @Override
+    public boolean offer(@Nonnull Runnable task) {
+        PrioritizedTask evicted;
+        lock.lock();
+        try {
+            if (count < capacity) {
+                enqueue(task);
+                return true;
+            }
+            evicted = evictFor(priorityOf(task));
+            if (evicted == null) return false;
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+        // the evicted task might re-enter this queue, notify it outside of the lock
+        evicted.shed();
+        return true;
+    }
+
+    @Override
+    public boolean offer(@Nonnull Runnable task, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) break;
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return offer(task);
+    }
+
+    @Override
+    public void put(@Nonnull Runnable task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) notFull.await();
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nonnull
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (Priority priority : PRIORITIES) {
+                Runnable task = queues.get(priority).peekFirst();
+                if (task != null) return task;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(@Nullable Object task) {
+        if (!(task instanceof Runnable)) return false;
+        lock.lock();
+        try {
+            if (!queues.get(priorityOf((Runnable) task)).removeFirstOccurrence(task)) return false;
+            count--;
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super Runnable> c, int maxElements) {
+        if (c == this) throw new IllegalArgumentException("Cannot drain a queue to itself");
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the queue, in the order in which tasks would be polled
+     */
+    @Override
+    @Nonnull
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Priority priority : PRIORITIES) {
+                snapshot.addAll(queues.get(priority));
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            @Nullable private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                PriorityTaskQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @GuardedBy("lock")
+    private void enqueue(@Nonnull Runnable task) {
+        queues.get(priorityOf(task)).addLast(task);
+        count++;
+        notEmpty.signal();
+    }
+
+    @GuardedBy("lock")
+    @Nonnull
+    private Runnable dequeue() {
+        for (Priority priority : PRIORITIES) {
+            Runnable task = queues.get(priority).pollFirst();
+            if (task != null) {
+                count--;
+                notFull.signal();
+                return task;
+            }
+        }
+        throw new IllegalStateException("Queue is empty but count is " + count);
+    }
+
+    /**
+     * Remove the most recently queued task of the lowest priority, if it is lower than the given priority.
+     */
+    @GuardedBy("lock")
+    @Nullable
+    private PrioritizedTask evictFor(@Nonnull Priority priority) {
+        for (int i = PRIORITIES.length - 1; i > priority.ordinal(); i--) {
+            ArrayDeque<Runnable> queue = queues.get(PRIORITIES[i]);
+            Runnable victim = queue.peekLast();
+            if (victim instanceof PrioritizedTask) {
+                queue.pollLast();
+                count--;
+                return (PrioritizedTask) victim;
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    private static Priority priorityOf(@Nonnull Runnable task) {
+        return task instanceof PrioritizedTask ? ((PrioritizedTask) task).getPriority() : Priority.NORMAL;
+    }
+}
@@ -22,14 +22,24 @@
  */
 package org.jmxtrans.core.scheduler;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
+import org.jmxtrans.core.query.QueryPlanner;
 import org.jmxtrans.core.query.Server;
 import org.jmxtrans.utils.time.Clock;
 import org.jmxtrans.utils.time.Interval;
@@ -37,68 +47,406 @@ import org.jmxtrans.utils.time.Interval;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * Dispatches queries to the {@link QueryProcessor} according to their collection interval.
+ *
+ * Queries are stored in a {@link TimingWheel} advanced by one tick every {@link #TICK}. Queries without a specific
+ * collection interval are run every {@code defaultPeriod}.
+ *
+ * Ticks are anchored to the wall clock: tick {@code n} starts at {@code n * TICK} since the epoch, and queries are run
+ * on the ticks that are a multiple of their collection interval. After each tick, the generator reschedules itself for
+ * the start of the next tick, so that the time spent dispatching queries does not accumulate as drift. If the
+ * generator runs late (long dispatch, JVM pause, ...), the runs that should already have happened are handled
+ * according to the {@link OverrunPolicy}.
+ *
+ * With {@link DispatchMode#SPREAD}, each query is run at a stable offset from the start of its collection interval,
+ * computed from a hash of its server host and ObjectName. Queries sharing an interval are thus spread evenly over that
+ * interval instead of all being dispatched on the same tick, and each query keeps the same slot across restarts.
+ *
+ * Before each tick, the generator reads the {@link Backpressure} of the result side. While writers fall behind, only
+ * every other run of each query is dispatched, and while they are saturated no run is dispatched at all: there is no
+ * point in collecting results which would be dropped anyway. Those runs are counted as throttled. Throttling depends
+ * on the {@link Priority} of the query: low priority queries are throttled one level earlier, and high priority
+ * queries one level later. Queries due on the same tick are dispatched by order of priority.
+ *
+ * Runs of the same query on the same server never overlap: while a run is in progress, new runs are handled according
+ * to the {@link OverlapPolicy}, and counted on the query if they are not dispatched.
+ *
+ * When started, the queries of each server are planned by a {@link QueryPlanner}, so that queries reading the same
+ * MBeans at the same interval are run as one.
+ *
+ * The timing wheel is only accessed from the timer thread once the generator is started. Queued runs are dispatched
+ * from the thread completing the previous run.
+ */
 @ThreadSafe
-public class QueryGenerator implements Runnable {
+public class QueryGenerator implements Runnable, QueryGeneratorMBean {
+
+    @Nonnull public static final Interval TICK = new Interval(1, SECONDS);
+    private static final long TICK_MILLIS = TICK.getDuration(MILLISECONDS);
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final int IDLE = 0;
+    private static final int RUNNING = 1;
+    private static final int QUEUED = 2;
+
+    @Nonnull private static final Comparator<ScheduledQuery> BY_PRIORITY = new Comparator<ScheduledQuery>() {
+        @Override
+        public int compare(ScheduledQuery first, ScheduledQuery second) {
+            return first.query.getPriority().compareTo(second.query.getPriority());
+        }
+    };
+
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
     @Nonnull private final Clock clock;
-    @Nonnull private final Interval queryPeriod;
+    @Nonnull private final Interval defaultPeriod;
+    @Nonnull private final DispatchMode dispatchMode;
+    @Nonnull private final OverrunPolicy overrunPolicy;
+    @Nonnull private final OverlapPolicy overlapPolicy;
     @Nonnull private final Iterable<Server> servers;
     @Nonnull private final QueryProcessor queryProcessor;
     @Nonnull private final ScheduledExecutorService queryTimer;
+    @Nonnull private final Backpressure backpressure;
+    @Nonnull private final QueryPlanner queryPlanner = new QueryPlanner();
+    @Nonnull private final List<ScheduledQuery> scheduledQueries = new ArrayList<>();
+    @Nonnull private final List<ScheduledQuery> expiredQueries = new ArrayList<>();
+    @Nonnull private TimingWheel<ScheduledQuery> timingWheel = new TimingWheel<>(TICKS_PER_WHEEL);
+    @Nullable private volatile ScheduledFuture<?> ticker;
+    @Nonnull private volatile BackpressureLevel backpressureLevel = BackpressureLevel.NONE;
     private volatile boolean running = false;
 
+    @Nonnull private final AtomicLong overrunCount = new AtomicLong();
+    @Nonnull private final AtomicLong lateCycleCount = new AtomicLong();
+    @Nonnull private final AtomicLong missedCycleCount = new AtomicLong();
+    @Nonnull private final AtomicLong throttledCycleCount = new AtomicLong();
+    @Nonnull private final AtomicLong overlappingCycleCount = new AtomicLong();
+
     public QueryGenerator(
             @Nonnull Clock clock,
-            @Nonnull Interval queryPeriod,
+            @Nonnull Interval defaultPeriod,
+            @Nonnull DispatchMode dispatchMode,
+            @Nonnull OverrunPolicy overrunPolicy,
+            @Nonnull OverlapPolicy overlapPolicy,
             @Nonnull Iterable<Server> servers,
             @Nonnull QueryProcessor queryProcessor,
-            @Nonnull ScheduledExecutorService queryTimer) {
+            @Nonnull ScheduledExecutorService queryTimer,
+            @Nonnull Backpressure backpressure) {
         this.clock = clock;
-        this.queryPeriod = queryPeriod;
+        this.defaultPeriod = defaultPeriod;
+        this.dispatchMode = dispatchMode;
+        this.overrunPolicy = overrunPolicy;
+        this.overlapPolicy = overlapPolicy;
         this.servers = servers;
         this.queryProcessor = queryProcessor;
         this.queryTimer = queryTimer;
+        this.backpressure = backpressure;
     }
 
     @Override
     public void run() {
+        if (!running) return;
         try {
-            long deadline = clock.currentTimeMillis() + queryPeriod.getDuration(MILLISECONDS);
-            for (Server server : servers) {
-                for (final Query query : server.getQueries()) {
-                    try {
-                        logger.debug("Enqueue query " + query);
-                        queryProcessor.process(deadline, server, query);
-                    } catch (Exception e) {
-                        logger.warn("Could not enqueue query " + query, e);
-                    }
-                }
+            long currentTick = currentTick();
+            if (currentTick < timingWheel.getTick() - 1) {
+                logger.warn("Clock went backward, rescheduling all queries from tick " + currentTick);
+                scheduleAll(currentTick);
             }
-
-            if (running) {
-                logger.debug("Scheduling next run in " + queryPeriod.getDuration(SECONDS) + " seconds.");
-                try {
-                    queryTimer.schedule(
-                            this,
-                            queryPeriod.getDuration(MILLISECONDS),
-                            MILLISECONDS);
-                } catch (Exception e) {
-                    logger.error("Could not schedule next task", e);
-                }
+            if (currentTick > timingWheel.getTick()) overrunCount.incrementAndGet();
+            updateBackpressureLevel();
+            while (timingWheel.getTick() <= currentTick) {
+                processTick(timingWheel.getTick(), currentTick);
             }
         } catch (Throwable t) {
             logger.error("Exception trying to enqueue", t);
             throw t;
+        } finally {
+            expiredQueries.clear();
+            scheduleNextTick();
+        }
+    }
+
+    /**
+     * Expired queries are put back on the wheel even if handling one of them fails. Those not handled yet then miss
+     * their run of this tick.
+     */
+    private void processTick(long tick, long currentTick) {
+        timingWheel.advance(expiredQueries);
+        Collections.sort(expiredQueries, BY_PRIORITY);
+        int handled = 0;
+        try {
+            while (handled < expiredQueries.size()) {
+                ScheduledQuery scheduledQuery = expiredQueries.get(handled++);
+                long nextRun = tick + scheduledQuery.intervalInTicks;
+                try {
+                    nextRun = tick + handleRun(scheduledQuery, currentTick - tick);
+                } finally {
+                    timingWheel.scheduleAt(scheduledQuery, nextRun);
+                }
+            }
+        } finally {
+            for (int i = handled; i < expiredQueries.size(); i++) {
+                ScheduledQuery scheduledQuery = expiredQueries.get(i);
+                missedCycleCount.incrementAndGet();
+                timingWheel.scheduleAt(scheduledQuery, tick + scheduledQuery.intervalInTicks);
+            }
+            expiredQueries.clear();
+        }
+    }
+
+    /**
+     * Dispatch a query run, if the overrun policy allows it.
+     *
+     * @param lateTicks number of ticks elapsed since the run was scheduled
+     * @return number of ticks, from the scheduled time of this run, until the next run
+     */
+    private long handleRun(@Nonnull ScheduledQuery scheduledQuery, long lateTicks) {
+        long interval = scheduledQuery.intervalInTicks;
+        if (lateTicks == 0) {
+            dispatch(scheduledQuery);
+            return interval;
+        }
+        // number of runs which should already have happened, including this one
+        long dueRuns = lateTicks / interval + 1;
+        switch (overrunPolicy) {
+            case CATCH_UP:
+                lateCycleCount.incrementAndGet();
+                dispatch(scheduledQuery);
+                return interval;
+            case COALESCE:
+                lateCycleCount.incrementAndGet();
+                missedCycleCount.addAndGet(dueRuns - 1);
+                dispatch(scheduledQuery);
+                return dueRuns * interval;
+            case SKIP:
+            default:
+                if (lateTicks % interval == 0) {
+                    // the last due run is scheduled on the current tick, so it is on time
+                    missedCycleCount.addAndGet(dueRuns - 1);
+                    dispatch(scheduledQuery);
+                } else {
+                    missedCycleCount.addAndGet(dueRuns);
+                }
+                return dueRuns * interval;
+        }
+    }
+
+    private void updateBackpressureLevel() {
+        BackpressureLevel level = backpressure.getLevel();
+        if (level != backpressureLevel) {
+            logger.info("Backpressure from writers changed from " + backpressureLevel + " to " + level);
+            backpressureLevel = level;
+        }
+    }
+
+    private void dispatch(@Nonnull ScheduledQuery scheduledQuery) {
+        if (isThrottled(scheduledQuery)) {
+            throttledCycleCount.incrementAndGet();
+            return;
+        }
+        if (!startRun(scheduledQuery)) return;
+        process(scheduledQuery);
+    }
+
+    private void process(@Nonnull final ScheduledQuery scheduledQuery) {
+        try {
+            logger.debug("Enqueue query " + scheduledQuery.query);
+            long deadline = clock.currentTimeMillis() + scheduledQuery.intervalInMillis;
+            queryProcessor.process(deadline, scheduledQuery.server, scheduledQuery.query, new Runnable() {
+                @Override
+                public void run() {
+                    completeRun(scheduledQuery);
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Could not enqueue query " + scheduledQuery.query, e);
+            completeRun(scheduledQuery);
+        }
+    }
+
+    /**
+     * @return whether the run can be dispatched now, false if it was queued or dropped because of the previous run
+     */
+    private boolean startRun(@Nonnull ScheduledQuery scheduledQuery) {
+        AtomicInteger runState = scheduledQuery.runState;
+        while (true) {
+            if (runState.compareAndSet(IDLE, RUNNING)) return true;
+            if (overlapPolicy == OverlapPolicy.QUEUE_ONE && runState.compareAndSet(RUNNING, QUEUED)) return false;
+            int state = runState.get();
+            if (state == QUEUED || (state == RUNNING && overlapPolicy == OverlapPolicy.SKIP)) {
+                overlappingCycleCount.incrementAndGet();
+                scheduledQuery.query.incrementOverlappingRunCount();
+                return false;
+            }
+            // previous run completed in the meantime, try again
+        }
+    }
+
+    /**
+     * Called once per run, from the thread completing it. Dispatches the queued run, if any.
+     *
+     * @throws IllegalStateException if no run of the query is in progress, the run was already completed
+     */
+    private void completeRun(@Nonnull ScheduledQuery scheduledQuery) {
+        AtomicInteger runState = scheduledQuery.runState;
+        while (true) {
+            if (runState.get() == IDLE) {
+                throw new IllegalStateException("No run of query " + scheduledQuery.query + " is in progress");
+            }
+            if (runState.compareAndSet(RUNNING, IDLE)) return;
+            if (runState.compareAndSet(QUEUED, RUNNING)) {
+                if (running) {
+                    process(scheduledQuery);
+                } else {
+                    runState.set(IDLE);
+                }
+                return;
+            }
         }
     }
 
+    private boolean isThrottled(@Nonnull ScheduledQuery scheduledQuery) {
+        switch (levelFor(scheduledQuery.query.getPriority())) {
+            case SKIP:
+                return true;
+            case THIN:
+                scheduledQuery.dispatchedWhileThinning = !scheduledQuery.dispatchedWhileThinning;
+                return !scheduledQuery.dispatchedWhileThinning;
+            case NONE:
+            default:
+                scheduledQuery.dispatchedWhileThinning = false;
+                return false;
+        }
+    }
+
+    @Nonnull
+    private BackpressureLevel levelFor(@Nonnull Priority priority) {
+        BackpressureLevel level = backpressureLevel;
+        switch (priority) {
+            case HIGH:
+                return level == BackpressureLevel.SKIP ? BackpressureLevel.THIN : BackpressureLevel.NONE;
+            case LOW:
+                return level == BackpressureLevel.NONE ? BackpressureLevel.NONE : BackpressureLevel.SKIP;
+            case NORMAL:
+            default:
+                return level;
+        }
+    }
+
+    private long currentTick() {
+        return clock.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    private void scheduleNextTick() {
+        if (!running) return;
+        long delay = timingWheel.getTick() * TICK_MILLIS - clock.currentTimeMillis();
+        ticker = queryTimer.schedule(this, Math.max(0, delay), MILLISECONDS);
+    }
+
     public void start() {
+        scheduledQueries.clear();
+        for (Server server : servers) {
+            for (Query query : queryPlanner.plan(server.getQueries())) {
+                Interval interval = query.getCollectInterval() != null ? query.getCollectInterval() : defaultPeriod;
+                scheduledQueries.add(new ScheduledQuery(server, query, interval));
+            }
+        }
+        scheduleAll(currentTick());
         running = true;
-        run();
+        logger.debug("Scheduling " + timingWheel.size() + " queries in " + dispatchMode + " mode, every "
+                + TICK_MILLIS + "ms tick.");
+        scheduleNextTick();
+    }
+
+    private void scheduleAll(long startTick) {
+        timingWheel = new TimingWheel<>(TICKS_PER_WHEEL, startTick);
+        for (ScheduledQuery scheduledQuery : scheduledQueries) {
+            timingWheel.scheduleAt(scheduledQuery, firstTick(scheduledQuery, startTick));
+        }
+    }
+
+    /**
+     * @return first tick not before {@code startTick} which is aligned on the query interval, plus its offset
+     */
+    private long firstTick(@Nonnull ScheduledQuery scheduledQuery, long startTick) {
+        long interval = scheduledQuery.intervalInTicks;
+        long offset = initialOffsetInTicks(scheduledQuery);
+        long periodStart = startTick - (startTick % interval);
+        long firstTick = periodStart + offset;
+        return firstTick < startTick ? firstTick + interval : firstTick;
+    }
+
+    private long initialOffsetInTicks(@Nonnull ScheduledQuery scheduledQuery) {
+        if (dispatchMode != DispatchMode.SPREAD) return 0;
+        // String.hashCode() is specified, so offsets are stable across JVMs and restarts
+        int hash = (scheduledQuery.server.getHost() + "/" + scheduledQuery.query.getObjectName()).hashCode();
+        return (hash & Integer.MAX_VALUE) % scheduledQuery.intervalInTicks;
     }
 
     public void stop() {
         running = false;
+        ScheduledFuture<?> currentTicker = ticker;
+        if (currentTicker != null) currentTicker.cancel(false);
+    }
+
+    @Override
+    public long getOverrunCount() {
+        return overrunCount.get();
     }
 
+    @Override
+    public long getLateCycleCount() {
+        return lateCycleCount.get();
+    }
+
+    @Override
+    public long getMissedCycleCount() {
+        return missedCycleCount.get();
+    }
+
+    @Override
+    public long getThrottledCycleCount() {
+        return throttledCycleCount.get();
+    }
+
+    @Override
+    public long getOverlappingCycleCount() {
+        return overlappingCycleCount.get();
+    }
+
+    @Override
+    public String getBackpressureLevel() {
+        return backpressureLevel.name();
+    }
+
+    @Override
+    public String getOverrunPolicy() {
+        return overrunPolicy.name();
+    }
+
+    @Override
+    public String getOverlapPolicy() {
+        return overlapPolicy.name();
+    }
+
+    @Override
+    public String getDispatchMode() {
+        return dispatchMode.name();
+    }
+
+    private static final class ScheduledQuery {
+        @Nonnull private final Server server;
+        @Nonnull private final Query query;
+        private final long intervalInMillis;
+        private final long intervalInTicks;
+        /** Whether the last run of this query under {@link BackpressureLevel#THIN} was dispatched. */
+        private boolean dispatchedWhileThinning = false;
+        /** {@link #IDLE}, {@link #RUNNING} or {@link #QUEUED}, updated from the timer and query threads. */
+        @Nonnull private final AtomicInteger runState = new AtomicInteger(IDLE);
+
+        private ScheduledQuery(@Nonnull Server server, @Nonnull Query query, @Nonnull Interval interval) {
+            this.server = server;
+            this.query = query;
+            this.intervalInMillis = interval.getDuration(MILLISECONDS);
+            this.intervalInTicks = Math.max(1, intervalInMillis / TICK_MILLIS);
+        }
+    }
 }
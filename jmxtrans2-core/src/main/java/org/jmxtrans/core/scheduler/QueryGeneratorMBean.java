@@ -0,0 +1,60 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+public interface QueryGeneratorMBean {
+
+    /**
+     * @return number of times the generator found that the scheduled time of some ticks had already passed
+     */
+    long getOverrunCount();
+
+    /**
+     * @return number of query runs dispatched after their scheduled time
+     */
+    long getLateCycleCount();
+
+    /**
+     * @return number of query runs that were not dispatched at all, because of the {@link OverrunPolicy}
+     */
+    long getMissedCycleCount();
+
+    /**
+     * @return number of query runs that were not dispatched, because of backpressure from the output writers
+     */
+    long getThrottledCycleCount();
+
+    /**
+     * @return number of query runs that were not dispatched, because the previous run of the same query was still in
+     * progress
+     */
+    long getOverlappingCycleCount();
+
+    String getBackpressureLevel();
+
+    String getOverrunPolicy();
+
+    String getOverlapPolicy();
+
+    String getDispatchMode();
+}
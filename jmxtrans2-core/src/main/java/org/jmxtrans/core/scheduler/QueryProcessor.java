@@ -22,94 +22,310 @@
  */
 package org.jmxtrans.core.scheduler;
 
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
+import org.jmxtrans.core.lifecycle.LifecycleAware;
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.ResultNameStrategy;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.results.ChangeSuppressingResultSink;
+import org.jmxtrans.core.results.ChangeSuppressor;
+import org.jmxtrans.core.results.CounterResultSink;
+import org.jmxtrans.core.results.CounterStore;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
+import org.jmxtrans.core.results.ResultBatchPool;
+import org.jmxtrans.core.results.ResultSink;
 import org.jmxtrans.utils.time.Clock;
 
 import static java.lang.String.format;
 
-public class QueryProcessor {
+/**
+ * Submits query runs to the bulkhead of their server.
+ *
+ * Runs are prioritized according to the {@link Priority} of their query, and accounted in the {@link TaskMetrics} of
+ * that priority class.
+ *
+ * The executor reading MBeans in parallel is shut down when the application stops, once all queries are done.
+ */
+public class QueryProcessor implements LifecycleAware {
+
+    /** Maximum number of results handed to output writers at once. */
+    public static final int RESULT_BATCH_SIZE = 1024;
+
+    /**
+     * Maximum number of released batches kept for reuse, per output writer. This covers the batches in flight in a
+     * steady state, batches piling up while writers lag are left to the garbage collector once written.
+     */
+    public static final int MAX_POOLED_BATCHES_PER_WRITER = 4;
 
+    /** Released batches whose columns grew beyond this capacity are not kept for reuse. */
+    public static final int MAX_POOLED_BATCH_CAPACITY = 128;
+
+    /** Maximum number of threads reading MBeans in parallel, for all queries. */
+    public static final int MAX_READ_THREADS = 16;
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
     @Nonnull private final Clock clock;
     @Nonnull private final Iterable<OutputWriter> outputWriters;
-    @Nonnull private final Executor queryExecutor;
+    @Nonnull private final Bulkheads bulkheads;
     @Nonnull private final ResultProcessor resultProcessor;
     @Nonnull private final ResultNameStrategy resultNameStrategy;
+    @Nonnull private final Map<Priority, TaskMetrics> taskMetrics;
+    @Nonnull private final ScheduledExecutorService watchdog;
+    @Nonnull private final CounterStore counterStore;
+    @Nonnull private final ChangeSuppressor changeSuppressor;
+    @Nullable private final ExecutorService readExecutor;
+    @Nonnull private final ResultBatchPool batchPool;
 
+    /**
+     * @param taskMetrics metrics of each priority class, see {@link TaskMetrics#perPriority()}
+     * @param watchdog used to abandon queries still running at their deadline
+     */
     public QueryProcessor(
             @Nonnull Clock clock,
             @Nonnull Iterable<OutputWriter> outputWriters,
-            @Nonnull Executor queryExecutor,
+            @Nonnull Bulkheads bulkheads,
             @Nonnull ResultProcessor resultProcessor,
-            @Nonnull ResultNameStrategy resultNameStrategy) {
+            @Nonnull ResultNameStrategy resultNameStrategy,
+            @Nonnull Map<Priority, TaskMetrics> taskMetrics,
+            @Nonnull ScheduledExecutorService watchdog) {
+        this(clock, outputWriters, bulkheads, resultProcessor, resultNameStrategy, taskMetrics, watchdog,
+                new CounterStore(), new ChangeSuppressor(), null);
+    }
+
+    /**
+     * @param counterStore previous values of counters, to emit their deltas or rates
+     * @param changeSuppressor last emitted values, to only emit changed values
+     * @param readExecutor used by queries to read MBeans in parallel, null to read them one after the other. It is
+     *                     separate from the bulkheads, so that reads do not compete with queries for their threads.
+     */
+    public QueryProcessor(
+            @Nonnull Clock clock,
+            @Nonnull Iterable<OutputWriter> outputWriters,
+            @Nonnull Bulkheads bulkheads,
+            @Nonnull ResultProcessor resultProcessor,
+            @Nonnull ResultNameStrategy resultNameStrategy,
+            @Nonnull Map<Priority, TaskMetrics> taskMetrics,
+            @Nonnull ScheduledExecutorService watchdog,
+            @Nonnull CounterStore counterStore,
+            @Nonnull ChangeSuppressor changeSuppressor,
+            @Nullable ExecutorService readExecutor) {
         this.clock = clock;
         this.outputWriters = outputWriters;
-        this.queryExecutor = queryExecutor;
+        this.bulkheads = bulkheads;
         this.resultProcessor = resultProcessor;
         this.resultNameStrategy = resultNameStrategy;
+        this.taskMetrics = taskMetrics;
+        this.watchdog = watchdog;
+        this.counterStore = counterStore;
+        this.changeSuppressor = changeSuppressor;
+        this.readExecutor = readExecutor;
+        int writerCount = 0;
+        for (OutputWriter ignored : outputWriters) writerCount++;
+        this.batchPool = new ResultBatchPool(
+                RESULT_BATCH_SIZE,
+                Math.max(1, writerCount) * MAX_POOLED_BATCHES_PER_WRITER,
+                MAX_POOLED_BATCH_CAPACITY);
+    }
+
+    @Override
+    public void start() {
     }
 
-    @Nonnull
-    public void process(long deadline, @Nonnull Server server, @Nonnull Query query) {
-        queryExecutor.execute(new Processor(clock, deadline, server, query, outputWriters, resultProcessor, resultNameStrategy));
+    @Override
+    public void stop() {
+        if (readExecutor != null) readExecutor.shutdown();
+    }
+
+    /**
+     * Queries rejected by a saturated bulkhead, or shed from its queue to make room for queries of higher priority, are
+     * counted and dropped.
+     *
+     * @param onCompletion run exactly once when this run of the query is over, whether it completed, failed, was
+     *                     dropped or was rejected
+     */
+    public void process(long deadline, @Nonnull Server server, @Nonnull Query query, @Nonnull Runnable onCompletion) {
+        TaskMetrics metrics = taskMetrics.get(query.getPriority());
+        try {
+            bulkheads.executorFor(server).execute(new Processor(
+                    clock, deadline, server, query, readExecutor, outputWriters, resultProcessor, resultNameStrategy,
+                    counterStore, changeSuppressor, batchPool, metrics, watchdog, onCompletion));
+        } catch (RejectedExecutionException e) {
+            metrics.incrementRejected();
+            logger.debug(format("Could not enqueue query [%s] for server [%s]", query, server));
+            onCompletion.run();
+        }
     }
 
     @ThreadSafe
-    private static class Processor extends DeadlineRunnable {
+    private static class Processor extends DeadlineRunnable implements PrioritizedTask {
         @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
         @Nonnull private final Query query;
         @Nonnull private final Server server;
+        @Nullable private final Executor readExecutor;
         @Nonnull private final Iterable<OutputWriter> outputWriters;
         @Nonnull private final ResultProcessor resultProcessor;
         @Nonnull private final ResultNameStrategy resultNameStrategy;
+        @Nonnull private final CounterStore counterStore;
+        @Nonnull private final ChangeSuppressor changeSuppressor;
+        @Nonnull private final ResultBatchPool batchPool;
+        @Nonnull private final TaskMetrics taskMetrics;
+        @Nonnull private final Runnable completion;
 
         public Processor(
                 @Nonnull Clock clock,
                 long deadline,
                 @Nonnull Server server,
                 @Nonnull Query query,
+                @Nullable Executor readExecutor,
                 @Nonnull Iterable<OutputWriter> outputWriters,
                 @Nonnull ResultProcessor resultProcessor,
-                @Nonnull ResultNameStrategy resultNameStrategy) {
-            super(clock, deadline);
+                @Nonnull ResultNameStrategy resultNameStrategy,
+                @Nonnull CounterStore counterStore,
+                @Nonnull ChangeSuppressor changeSuppressor,
+                @Nonnull ResultBatchPool batchPool,
+                @Nonnull TaskMetrics taskMetrics,
+                @Nonnull ScheduledExecutorService watchdog,
+                @Nonnull Runnable onCompletion) {
+            super(clock, deadline, taskMetrics, watchdog);
             this.query = query;
             this.server = server;
+            this.readExecutor = readExecutor;
             this.outputWriters = outputWriters;
             this.resultProcessor = resultProcessor;
             this.resultNameStrategy = resultNameStrategy;
+            this.counterStore = counterStore;
+            this.changeSuppressor = changeSuppressor;
+            this.batchPool = batchPool;
+            this.taskMetrics = taskMetrics;
+            this.completion = onCompletion;
         }
 
         @Override
         protected void doRun() {
+            CounterStore.Session counters = counterStore.session(server);
+            ChangeSuppressor.Session changes = changeSuppressor.session(server);
+            WriterSink sink = new WriterSink(counters, changes);
             try {
                 logger.debug(format("Collecting metrics from query [%s] for server [%s]", query, server));
-                Iterable<QueryResult> results = query.collectMetrics(server.getServerConnection(), resultNameStrategy);
-                for (OutputWriter outputWriter : outputWriters) {
-                    for (QueryResult result : results) {
-                        try {
-                            resultProcessor.writeResult(getDeadline(), result, outputWriter);
-                        } catch (RejectedExecutionException e) {
-                            logger.warn("Could not enqueue result to writers.", e);
-                        }
-                    }
+                // counters are derived first, so that unchanged deltas and rates can be suppressed
+                query.collectMetrics(
+                        server.getServerConnection(), server.getObjectNameResolver(), readExecutor, getDeadline(),
+                        resultNameStrategy,
+                        new CounterResultSink(new ChangeSuppressingResultSink(sink, changes), counters));
+                if (!sink.flush()) {
+                    logger.debug(format("Query [%s] for server [%s] completed after its deadline, results are discarded", query, server));
                 }
             } catch (Exception e) {
+                if (isTimedOut()) {
+                    logger.debug(format("Query [%s] for server [%s] was abandoned after its deadline", query, server));
+                    return;
+                }
                 logger.warn(format("Error while collecting metrics from query [%s] for server [%s]", query, server), e);
             } catch (Throwable t) {
                 logger.error(format("Error while collecting metrics from query [%s] for server [%s]", query, server), t);
                 throw t;
+            } finally {
+                sink.discard();
+            }
+        }
+
+        /**
+         * The connection is invalidated so that later queries do not wait on the same hung server. The thread blocked
+         * in a remote call is only released by the read timeout of that call.
+         */
+        @Override
+        protected void onTimeout() {
+            logger.info(format("Query [%s] for server [%s] ran past its deadline, invalidating connection", query, server));
+            server.invalidateConnection();
+        }
+
+        @Override
+        protected void onCompletion() {
+            completion.run();
+        }
+
+        /**
+         * Hands results to each output writer by pooled batches of at most {@link #RESULT_BATCH_SIZE}, as they are
+         * collected, so that at most one batch of results is filled while collecting a query. The same batch is shared by all
+         * output writers. Results still pending once the query is past its deadline are discarded, and collection is
+         * stopped.
+         *
+         * Counters and emitted values read so far are committed once their results are handed to the output writers,
+         * so that discarded results leave them untouched.
+         */
+        @NotThreadSafe
+        private final class WriterSink implements ResultSink {
+            @Nonnull private final CounterStore.Session counters;
+            @Nonnull private final ChangeSuppressor.Session changes;
+            @Nullable private ResultBatch batch;
+
+            private WriterSink(@Nonnull CounterStore.Session counters, @Nonnull ChangeSuppressor.Session changes) {
+                this.counters = counters;
+                this.changes = changes;
+            }
+
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                if (batch == null) batch = batchPool.acquire();
+                batch.add(result);
+                return !batch.isFull() || flush();
             }
+
+            /**
+             * @return false if results were discarded because the query is past its deadline
+             */
+            private boolean flush() {
+                if (isTimedOut()) {
+                    discard();
+                    return false;
+                }
+                if (batch != null) {
+                    for (OutputWriter outputWriter : outputWriters) {
+                        resultProcessor.writeResults(getDeadline(), batch, outputWriter);
+                    }
+                    discard();
+                }
+                counters.commit();
+                changes.commit();
+                return true;
+            }
+
+            /**
+             * Gives back the reference of this sink on its pending batch, if any.
+             */
+            private void discard() {
+                if (batch == null) return;
+                batch.release();
+                batch = null;
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Priority getPriority() {
+            return query.getPriority();
+        }
+
+        @Override
+        public void shed() {
+            taskMetrics.incrementShed();
+            logger.debug(format("Query [%s] for server [%s] was shed to make room for queries of higher priority", query, server));
+            completion.run();
         }
     }
 }
@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Backpressure computed from the occupancy of the writer channels and from the latency of the writers.
+ *
+ * <ul>
+ *     <li>Once any channel is {@link #SKIP_OCCUPANCY} full, new results would soon be rejected, query runs are
+ *     skipped.</li>
+ *     <li>Once any channel is {@link #THIN_OCCUPANCY} full, or if a writer is congested while results are waiting in
+ *     its channel, query runs are thinned.</li>
+ * </ul>
+ * Writer congestion is the one detected by the {@link LatencyMonitor} of each channel. The most loaded channel
+ * drives the level: all queries feed all writers, so a single slow writer is enough to lose results.
+ */
+@ThreadSafe
+public class ResultBackpressure implements Backpressure {
+
+    public static final double THIN_OCCUPANCY = 0.5;
+    public static final double SKIP_OCCUPANCY = 0.9;
+
+    @Nonnull private final WriterChannels writerChannels;
+
+    public ResultBackpressure(@Nonnull WriterChannels writerChannels) {
+        this.writerChannels = writerChannels;
+    }
+
+    @Nonnull
+    @Override
+    public BackpressureLevel getLevel() {
+        BackpressureLevel level = BackpressureLevel.NONE;
+        for (WriterChannel channel : writerChannels.getChannels()) {
+            BackpressureLevel channelLevel = getLevel(channel);
+            if (channelLevel.compareTo(level) > 0) level = channelLevel;
+        }
+        return level;
+    }
+
+    @Nonnull
+    private BackpressureLevel getLevel(@Nonnull WriterChannel channel) {
+        double occupancy = channel.getOccupancy();
+        if (occupancy >= SKIP_OCCUPANCY) return BackpressureLevel.SKIP;
+        if (occupancy >= THIN_OCCUPANCY) return BackpressureLevel.THIN;
+        if (channel.getQueueSize() > 0 && channel.isCongested()) return BackpressureLevel.THIN;
+        return BackpressureLevel.NONE;
+    }
+}
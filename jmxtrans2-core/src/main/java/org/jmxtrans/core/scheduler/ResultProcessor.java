@@ -23,15 +23,18 @@
 package org.jmxtrans.core.scheduler;
 
 import java.io.IOException;
-import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
+import org.jmxtrans.core.output.ColumnarOutputWriter;
 import org.jmxtrans.core.output.OutputWriter;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 import org.jmxtrans.utils.time.Clock;
 
 import static java.lang.String.format;
@@ -41,51 +44,101 @@ public class ResultProcessor {
     @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
     @Nonnull private final Clock clock;
-    @Nonnull private final Executor resultExecutor;
+    @Nonnull private final WriterChannels writerChannels;
+    @Nonnull private final TaskMetrics taskMetrics;
 
-    public ResultProcessor(@Nonnull Clock clock, @Nonnull Executor resultExecutor) {
+    public ResultProcessor(@Nonnull Clock clock, @Nonnull WriterChannels writerChannels, @Nonnull TaskMetrics taskMetrics) {
         this.clock = clock;
-        this.resultExecutor = resultExecutor;
+        this.writerChannels = writerChannels;
+        this.taskMetrics = taskMetrics;
     }
 
-    public void writeResult(
+    /**
+     * Each batch of results of a query execution is handed to the channel of the output writer as a single task.
+     * Results rejected by a full channel are counted and dropped.
+     */
+    public void writeResults(
             long deadline,
-            @Nonnull QueryResult result,
+            @Nonnull Iterable<QueryResult> results,
             @Nonnull OutputWriter outputWriter) {
-        logger.debug(format("Enquing query results [%s] to output writer [%s]", result, outputWriter));
-        resultExecutor.execute(new Processor(clock, deadline, result, outputWriter));
+        try {
+            writerChannels.executorFor(outputWriter).execute(new Processor(clock, deadline, results, outputWriter, taskMetrics));
+        } catch (RejectedExecutionException e) {
+            taskMetrics.incrementRejected();
+            logger.debug("Could not enqueue results to output writer " + outputWriter);
+        }
+    }
+
+    /**
+     * Same as {@link #writeResults(long, Iterable, OutputWriter)}, the channel of the output writer holds a reference
+     * on the batch until its task completes, or is rejected. The caller keeps its own reference.
+     *
+     * A {@link ColumnarOutputWriter} reads the batch in place, other output writers iterate over restored results.
+     */
+    public void writeResults(
+            long deadline,
+            @Nonnull ResultBatch batch,
+            @Nonnull OutputWriter outputWriter) {
+        batch.retain();
+        try {
+            writerChannels.executorFor(outputWriter).execute(new Processor(clock, deadline, batch, batch, outputWriter, taskMetrics));
+        } catch (RejectedExecutionException e) {
+            batch.release();
+            taskMetrics.incrementRejected();
+            logger.debug("Could not enqueue results to output writer " + outputWriter);
+        }
     }
 
     @ThreadSafe
     public static class Processor extends DeadlineRunnable {
         @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
-        @Nonnull private final QueryResult result;
+        @Nonnull private final Iterable<QueryResult> results;
         @Nonnull private final OutputWriter outputWriter;
+        @Nullable private final ResultBatch batch;
 
         public Processor(
                 @Nonnull Clock clock,
                 long deadline,
-                @Nonnull QueryResult result,
-                @Nonnull OutputWriter outputWriter) {
-            super(clock, deadline);
-            this.result = result;
+                @Nonnull Iterable<QueryResult> results,
+                @Nonnull OutputWriter outputWriter,
+                @Nonnull TaskMetrics taskMetrics) {
+            this(clock, deadline, results, null, outputWriter, taskMetrics);
+        }
+
+        private Processor(
+                @Nonnull Clock clock,
+                long deadline,
+                @Nonnull Iterable<QueryResult> results,
+                @Nullable ResultBatch batch,
+                @Nonnull OutputWriter outputWriter,
+                @Nonnull TaskMetrics taskMetrics) {
+            super(clock, deadline, taskMetrics);
+            this.results = results;
+            this.batch = batch;
             this.outputWriter = outputWriter;
         }
 
         @Override
         protected void doRun() {
             try {
-                int numberOfResultsWritten = outputWriter.write(result);
+                int numberOfResultsWritten = batch != null && outputWriter instanceof ColumnarOutputWriter
+                        ? ((ColumnarOutputWriter) outputWriter).writeBatch(batch)
+                        : outputWriter.writeAll(results);
                 logger.debug(format("Writing [%d] results to [%s]", numberOfResultsWritten, outputWriter));
             } catch (IOException e) {
                 logger.warn("Je suis Charlie");
-                logger.warn(format("Sadly, error while drawing [%s] to [%s].", result, outputWriter), e);
+                logger.warn(format("Sadly, error while drawing [%s] to [%s].", results, outputWriter), e);
             } catch (InterruptedException e) {
-                logger.warn(format("Writer has been interrupted [%s] to [%s].", result, outputWriter), e);
+                logger.warn(format("Writer has been interrupted [%s] to [%s].", results, outputWriter), e);
             } catch (Throwable t) {
-                logger.error(format("Error writing [%s] to [%s].", result, outputWriter));
+                logger.error(format("Error writing [%s] to [%s].", results, outputWriter));
                 throw t;
             }
         }
+
+        @Override
+        protected void onCompletion() {
+            if (batch != null) batch.release();
+        }
     }
 }
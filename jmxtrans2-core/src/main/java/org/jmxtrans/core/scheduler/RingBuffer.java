@@ -0,0 +1,112 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded, preallocated, lock free queue for multiple producers and a single consumer.
+ *
+ * Each slot carries a sequence number telling whether it is ready to be written by a producer or to be read by the
+ * consumer. Producers only contend on a CAS of the producer sequence, the consumer never contends with anyone.
+ * {@link #poll()} must only ever be called from a single thread at a time.
+ */
+@ThreadSafe
+final class RingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    @Nonnull private final AtomicReferenceArray<E> slots;
+    @Nonnull private final AtomicLongArray sequences;
+    @Nonnull private final AtomicLong producerSequence = new AtomicLong();
+    @Nonnull private final AtomicLong consumerSequence = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to the next power of 2, and to at least 2: with a single slot, a published element
+     *                 could not be told apart from a free slot
+     */
+    RingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        int rounded = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.capacity = Math.max(2, rounded);
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(@Nonnull E element) {
+        while (true) {
+            long position = producerSequence.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available < 0) return false;
+            if (available == 0 && producerSequence.compareAndSet(position, position + 1)) {
+                slots.lazySet(index, element);
+                // publishes the element to the consumer
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return null if the buffer is empty
+     */
+    @Nullable
+    E poll() {
+        long position = consumerSequence.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) return null;
+        E element = slots.get(index);
+        slots.lazySet(index, null);
+        // releases the slot for the next round of producers
+        sequences.set(index, position + capacity);
+        consumerSequence.lazySet(position + 1);
+        return element;
+    }
+
+    int size() {
+        long size = producerSequence.get() - consumerSequence.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.query.Priority;
+
+/**
+ * Counts tasks which did not complete normally, because they were rejected by a saturated executor or because of
+ * their deadline, or shed to make room for tasks of higher priority.
+ *
+ * Those events are expected under load, they are counted instead of being logged one by one.
+ */
+@ThreadSafe
+public class TaskMetrics implements TaskMetricsMBean {
+
+    @Nonnull private final AtomicLong droppedCount = new AtomicLong();
+    @Nonnull private final AtomicLong timedOutCount = new AtomicLong();
+    @Nonnull private final AtomicLong rejectedCount = new AtomicLong();
+    @Nonnull private final AtomicLong shedCount = new AtomicLong();
+
+    /**
+     * @return one instance per {@link Priority}, so that each priority class is accounted separately
+     */
+    @Nonnull
+    public static Map<Priority, TaskMetrics> perPriority() {
+        Map<Priority, TaskMetrics> metrics = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            metrics.put(priority, new TaskMetrics());
+        }
+        return metrics;
+    }
+
+    public long incrementDropped() {
+        return droppedCount.incrementAndGet();
+    }
+
+    public long incrementTimedOut() {
+        return timedOutCount.incrementAndGet();
+    }
+
+    public long incrementRejected() {
+        return rejectedCount.incrementAndGet();
+    }
+
+    public long incrementShed() {
+        return shedCount.incrementAndGet();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getShedCount() {
+        return shedCount.get();
+    }
+}
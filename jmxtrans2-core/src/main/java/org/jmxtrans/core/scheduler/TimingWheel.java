@@ -0,0 +1,127 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Hashed timing wheel, as described by Varghese and Lauck.
+ *
+ * Time is divided in ticks. Tasks are stored in the bucket corresponding to the tick at which they expire, modulo the
+ * number of buckets. Scheduling a task is O(1), and advancing the wheel by one tick only looks at the tasks stored in
+ * a single bucket, whatever the total number of scheduled tasks.
+ *
+ * @param <T> type of the scheduled tasks
+ */
+@NotThreadSafe
+public class TimingWheel<T> {
+
+    @Nonnull private final List<Entry<T>>[] buckets;
+    private final int mask;
+    private long tick;
+    private int size = 0;
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to the next power of two
+     */
+    public TimingWheel(int ticksPerWheel) {
+        this(ticksPerWheel, 0);
+    }
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to the next power of two
+     * @param initialTick first tick to be processed
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(int ticksPerWheel, long initialTick) {
+        if (ticksPerWheel <= 0) throw new IllegalArgumentException("ticksPerWheel must be positive: " + ticksPerWheel);
+        int bucketCount = Integer.highestOneBit(ticksPerWheel);
+        if (bucketCount < ticksPerWheel) bucketCount <<= 1;
+        buckets = new List[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        mask = bucketCount - 1;
+        tick = initialTick;
+    }
+
+    /**
+     * @return the tick that will be processed by the next call to {@link #advance(java.util.Collection)}
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedule a task to expire when the given tick is processed. Ticks in the past are processed on the next call to
+     * {@link #advance(java.util.Collection)}.
+     */
+    public void scheduleAt(@Nonnull T task, long expirationTick) {
+        long effectiveTick = Math.max(expirationTick, tick);
+        buckets[(int) (effectiveTick & mask)].add(new Entry<>(task, effectiveTick));
+        size++;
+    }
+
+    /**
+     * Process the current tick and move to the next one.
+     *
+     * @param expired collection to which tasks expiring on the current tick are added
+     */
+    public void advance(@Nonnull Collection<? super T> expired) {
+        List<Entry<T>> bucket = buckets[(int) (tick & mask)];
+        int i = 0;
+        while (i < bucket.size()) {
+            Entry<T> entry = bucket.get(i);
+            if (entry.expirationTick <= tick) {
+                expired.add(entry.task);
+                // swap remove, order of tasks in a bucket does not matter
+                int last = bucket.size() - 1;
+                bucket.set(i, bucket.get(last));
+                bucket.remove(last);
+                size--;
+            } else {
+                i++;
+            }
+        }
+        tick++;
+    }
+
+    private static final class Entry<T> {
+        @Nonnull private final T task;
+        private final long expirationTick;
+
+        private Entry(@Nonnull T task, long expirationTick) {
+            this.task = task;
+            this.expirationTick = expirationTick;
+        }
+    }
+}
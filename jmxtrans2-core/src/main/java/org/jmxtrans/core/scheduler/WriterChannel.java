@@ -0,0 +1,160 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Runs the result tasks of a single output writer, on a single consumer thread owning that writer.
+ *
+ * Tasks are submitted without locking to a preallocated {@link RingBuffer}. A full buffer rejects tasks instead of
+ * blocking, so that a slow writer only ever delays its own results. Since the writer is only called from the consumer
+ * thread, it does not need to be thread safe.
+ */
+@ThreadSafe
+public class WriterChannel implements Executor, WriterChannelMBean {
+
+    /** Default maximum number of pending tasks. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long IDLE_PARK_NANOS = MILLISECONDS.toNanos(100);
+
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    @Nonnull private final RingBuffer<Runnable> buffer;
+    @Nonnull private final Thread consumer;
+    @Nonnull private final LatencyMonitor latencyMonitor;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param capacity maximum number of pending tasks, rounded up to the next power of 2
+     * @param latencyMonitor measures the latency of each task, on the consumer thread
+     */
+    public WriterChannel(int capacity, @Nonnull ThreadFactory threadFactory, @Nonnull LatencyMonitor latencyMonitor) {
+        this.buffer = new RingBuffer<>(capacity);
+        this.latencyMonitor = latencyMonitor;
+        this.consumer = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+    }
+
+    public void start() {
+        consumer.start();
+    }
+
+    /**
+     * @throws RejectedExecutionException if the channel is shut down or its buffer is full
+     */
+    @Override
+    public void execute(@Nonnull Runnable task) {
+        if (shutdown) throw new RejectedExecutionException("Channel is shut down");
+        if (!buffer.offer(task)) throw new RejectedExecutionException("Channel is full");
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Tasks already submitted are still run, new tasks are rejected.
+     */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(consumer);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        // a consumer which was never started has nothing to wait for
+        if (consumer.getState() == Thread.State.NEW) return true;
+        consumer.join(unit.toMillis(timeout));
+        return !consumer.isAlive();
+    }
+
+    private void consume() {
+        while (true) {
+            Runnable task = buffer.poll();
+            if (task == null) {
+                if (shutdown && buffer.isEmpty()) return;
+                // woken up early by producers
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            runTask(task);
+        }
+    }
+
+    private void runTask(@Nonnull Runnable task) {
+        latencyMonitor.beforeExecute(task);
+        Throwable throwable = null;
+        try {
+            task.run();
+        } catch (Throwable t) {
+            throwable = t;
+            // the consumer thread must survive failing tasks, it is the only one running this writer
+            logger.error("Error running result task " + task, t);
+        } finally {
+            // clear a pending interruption, it must not leak to the next task
+            Thread.interrupted();
+            latencyMonitor.afterExecute(task, throwable);
+        }
+    }
+
+    /**
+     * @return fraction of the buffer occupied by pending tasks
+     */
+    public double getOccupancy() {
+        return (double) buffer.size() / buffer.capacity();
+    }
+
+    /**
+     * @return whether the writer is congested, as detected by the latency monitor of this channel
+     */
+    public boolean isCongested() {
+        return latencyMonitor.isCongested();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+}
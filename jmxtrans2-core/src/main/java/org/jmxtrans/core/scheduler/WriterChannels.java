@@ -0,0 +1,84 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.output.OutputWriter;
+
+/**
+ * Result executors, one {@link WriterChannel} per {@link OutputWriter}.
+ */
+@ThreadSafe
+public class WriterChannels {
+
+    @Nonnull private final Map<OutputWriter, WriterChannel> channelsByWriter;
+
+    public WriterChannels(@Nonnull Map<OutputWriter, WriterChannel> channelsByWriter) {
+        this.channelsByWriter = new IdentityHashMap<>(channelsByWriter);
+    }
+
+    /**
+     * @throws RejectedExecutionException if there is no channel for this output writer
+     */
+    @Nonnull
+    public Executor executorFor(@Nonnull OutputWriter outputWriter) {
+        WriterChannel channel = channelsByWriter.get(outputWriter);
+        if (channel == null) throw new RejectedExecutionException("No channel for output writer " + outputWriter);
+        return channel;
+    }
+
+    @Nonnull
+    public Collection<WriterChannel> getChannels() {
+        return channelsByWriter.values();
+    }
+
+    public void start() {
+        for (WriterChannel channel : channelsByWriter.values()) {
+            channel.start();
+        }
+    }
+
+    public void shutdown() {
+        for (WriterChannel channel : channelsByWriter.values()) {
+            channel.shutdown();
+        }
+    }
+
+    /**
+     * Wait for termination of each channel, up to the given timeout for each of them.
+     */
+    public void awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        for (WriterChannel channel : channelsByWriter.values()) {
+            channel.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.jmxtrans.core.log.Logger;
+import org.jmxtrans.core.log.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * Expression parsed once by a {@link TemplateEngine} into a list of literal text and expression segments, so that
+ * evaluating it again does not need to parse it.
+ */
+@Immutable
+@ThreadSafe
+public final class CompiledTemplate {
+    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+
+    @Nonnull private final String expression;
+    @Nonnull private final StringEscape stringEscape;
+    @Nonnull private final Map<Character, ExpressionEvaluator> evaluators;
+    @Nonnull private final List<Segment> segments;
+
+    CompiledTemplate(
+            @Nonnull String expression,
+            @Nonnull StringEscape stringEscape,
+            @Nonnull Map<Character, ExpressionEvaluator> evaluators) {
+        this.expression = expression;
+        this.stringEscape = stringEscape;
+        this.evaluators = evaluators;
+        this.segments = parse(expression, evaluators);
+    }
+
+    @Nonnull
+    private static List<Segment> parse(@Nonnull String expression, @Nonnull Map<Character, ExpressionEvaluator> evaluators) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int position = 0;
+        while (position < expression.length()) {
+            char c = expression.charAt(position);
+            if (evaluators.containsKey(c)) {
+                int beginningSeparatorPosition = position;
+                int endingSeparatorPosition = expression.indexOf(c, beginningSeparatorPosition + 1);
+                if (endingSeparatorPosition == -1) {
+                    throw new IllegalStateException("Invalid expression '" + expression + "', no ending '" + c + "' after beginning '" + c + "' at position " + beginningSeparatorPosition);
+                }
+                if (text.length() > 0) {
+                    segments.add(new Segment(null, text.toString()));
+                    text.setLength(0);
+                }
+                segments.add(new Segment(c, expression.substring(beginningSeparatorPosition + 1, endingSeparatorPosition)));
+                position = endingSeparatorPosition + 1;
+            } else {
+                text.append(c);
+                position++;
+            }
+        }
+        if (text.length() > 0) segments.add(new Segment(null, text.toString()));
+        return Collections.unmodifiableList(segments);
+    }
+
+    @Nonnull
+    public String evaluate() {
+        return evaluate(Collections.<Character, Expression>emptyMap());
+    }
+
+    /**
+     * @param expressions expressions used instead of the evaluators of the template engine, by namespace. Used for
+     *                    namespaces whose values change from one evaluation to the other.
+     */
+    @Nonnull
+    public String evaluate(@Nonnull Map<Character, ? extends Expression> expressions) {
+        StringBuilder result = new StringBuilder();
+        for (Segment segment : segments) {
+            if (segment.namespace == null) {
+                result.append(segment.text);
+                continue;
+            }
+            Expression expression = expressions.get(segment.namespace);
+            if (expression == null) expression = evaluators.get(segment.namespace);
+            stringEscape.escape(expression.evaluate(segment.text), result);
+        }
+        logger.debug(format("evaluate expression [%s] -> [%s]", expression, result));
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    @Immutable
+    private static final class Segment {
+        /** Null for literal text. */
+        @Nullable private final Character namespace;
+        /** Literal text, or key of the expression. */
+        @Nonnull private final String text;
+
+        private Segment(@Nullable Character namespace, @Nonnull String text) {
+            this.namespace = namespace;
+            this.text = text;
+        }
+    }
+}
@@ -33,7 +33,7 @@ import org.jmxtrans.core.log.Logger;
 import org.jmxtrans.core.log.LoggerFactory;
 
 @ThreadSafe
-public class ExpressionEvaluator {
+public class ExpressionEvaluator implements Expression {
 
     private final Logger logger = LoggerFactory.getLogger(getClass().getName());
 
@@ -45,6 +45,7 @@ public class ExpressionEvaluator {
     }
 
     @Nonnull
+    @Override
     public String evaluate(@Nonnull String key) {
         Expression expressionProcessor = expressions.get(key);
         if (expressionProcessor == null) {
@@ -29,15 +29,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
-import org.jmxtrans.core.log.Logger;
-import org.jmxtrans.core.log.LoggerFactory;
-
-import static java.lang.String.format;
-
 @ThreadSafe
 public class TemplateEngine {
-    @Nonnull private final Logger logger = LoggerFactory.getLogger(getClass().getName());
-
     @Nonnull private final StringEscape stringEscape;
     @Nonnull private final Map<Character, ExpressionEvaluator> evaluators;
 
@@ -49,29 +42,15 @@ public class TemplateEngine {
     }
     
     public String evaluate(String expression) {
-        StringBuilder result = new StringBuilder();
+        return compile(expression).evaluate();
+    }
 
-        int position = 0;
-        while (position < expression.length()) {
-            char c = expression.charAt(position);
-            if (evaluators.keySet().contains(c)) {
-                char expressionSeparator = c;
-                ExpressionEvaluator evaluator = evaluators.get(c);
-                int beginningSeparatorPosition = position;
-                int endingSeparatorPosition = expression.indexOf(expressionSeparator, beginningSeparatorPosition + 1);
-                if (endingSeparatorPosition == -1) {
-                    throw new IllegalStateException("Invalid expression '" + expression + "', no ending '" + expressionSeparator + "' after beginning '" + expressionSeparator + "' at position " + beginningSeparatorPosition);
-                }
-                String key = expression.substring(beginningSeparatorPosition + 1, endingSeparatorPosition);
-                stringEscape.escape(evaluator.evaluate(key), result);
-                position = endingSeparatorPosition + 1;
-            } else {
-                result.append(c);
-                position++;
-            }
-        }
-        logger.debug(format("evaluate expression [%s] -> [%s]", expression, result));
-        return result.toString();
+    /**
+     * Parse the expression once, to evaluate it any number of times.
+     */
+    @Nonnull
+    public CompiledTemplate compile(@Nonnull String expression) {
+        return new CompiledTemplate(expression, stringEscape, evaluators);
     }
 
     public static Builder builder() {
@@ -38,6 +38,11 @@ public class DummyOutputWriter implements OutputWriter {
         return 0;
     }
 
+    @Override
+    public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+        return 0;
+    }
+
     public static final class Factory implements OutputWriterFactory<DummyOutputWriter> {
 
         @Nonnull
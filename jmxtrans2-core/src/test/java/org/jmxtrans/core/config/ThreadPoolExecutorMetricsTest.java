@@ -23,8 +23,10 @@
 package org.jmxtrans.core.config;
 
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.jmxtrans.core.scheduler.InstrumentedThreadPoolExecutor;
 import org.jmxtrans.core.scheduler.JmxTransThreadFactory;
 
 import org.testng.annotations.Test;
@@ -63,5 +65,71 @@ public class ThreadPoolExecutorMetricsTest {
         assertThat(executorMetrics.getPoolSize()).isZero();
         assertThat(executorMetrics.getTaskCount()).isZero();
     }
+
+    @Test
+    public void rejectedTasksAreCounted() throws InterruptedException {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(
+                1, 1,
+                120, SECONDS,
+                new ArrayBlockingQueue<Runnable>(1),
+                new JmxTransThreadFactory("test-executor-thread"),
+                new ThreadPoolExecutor.DiscardPolicy());
+        ThreadPoolExecutorMetrics executorMetrics = new ThreadPoolExecutorMetrics(executor);
+
+        try {
+            for (int i = 0; i < 5; i++) executor.execute(new BlockingTask(blocker));
+            assertThat(executorMetrics.getRejectedTaskCount()).isEqualTo(3);
+        } finally {
+            blocker.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void peakQueueSizeIsTracked() throws InterruptedException {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(
+                1, 1,
+                120, SECONDS,
+                new ArrayBlockingQueue<Runnable>(20),
+                new JmxTransThreadFactory("test-executor-thread"),
+                new ThreadPoolExecutor.AbortPolicy());
+        ThreadPoolExecutorMetrics executorMetrics = new ThreadPoolExecutorMetrics(executor);
+        Runnable blockingTask = new BlockingTask(blocker);
+
+        try {
+            for (int i = 0; i < 4; i++) executor.execute(blockingTask);
+            assertThat(executorMetrics.getPeakWorkQueueSize()).isEqualTo(3);
+
+            blocker.countDown();
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+            assertThat(executorMetrics.getPeakWorkQueueSize()).isEqualTo(3);
+
+            executorMetrics.resetPeakWorkQueueSize();
+            assertThat(executorMetrics.getPeakWorkQueueSize()).isZero();
+        } finally {
+            blocker.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class BlockingTask implements Runnable {
+        private final CountDownLatch blocker;
+
+        private BlockingTask(CountDownLatch blocker) {
+            this.blocker = blocker;
+        }
+
+        @Override
+        public void run() {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
     
 }
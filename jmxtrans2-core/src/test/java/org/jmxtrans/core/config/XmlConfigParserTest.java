@@ -23,7 +23,9 @@
 package org.jmxtrans.core.config;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -32,9 +34,17 @@ import javax.xml.bind.UnmarshalException;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.jmxtrans.core.monitoring.ObjectNameFactory;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.Invocation;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
+import org.jmxtrans.core.query.QueryAttribute;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.results.ChangeSuppression;
+import org.jmxtrans.core.results.CounterMode;
+import org.jmxtrans.core.scheduler.DispatchMode;
+import org.jmxtrans.core.scheduler.OverlapPolicy;
+import org.jmxtrans.core.scheduler.OverrunPolicy;
 import org.jmxtrans.utils.PropertyPlaceholderResolver;
 import org.jmxtrans.utils.io.Resource;
 import org.jmxtrans.utils.io.StandardResource;
@@ -95,6 +105,7 @@ public class XmlConfigParserTest {
 
         assertThat(query1.getMaxResults()).isEqualTo(50);
         assertThat(query2.getMaxResults()).isEqualTo(10);
+        assertThat(query1.getPriority()).isEqualTo(Priority.NORMAL);
     }
     
     @Test
@@ -109,6 +120,78 @@ public class XmlConfigParserTest {
         assertThat(server.getQueries()).hasSize(1);
     }
 
+    @Test
+    public void bulkheadsAreParsed() throws Exception {
+        Resource resource = new StandardResource("classpath:org/jmxtrans/core/config/bulkheads.xml");
+        Configuration configuration = parser.parseConfiguration(resource);
+
+        Iterator<Server> serverIterator = configuration.getServers().iterator();
+        Server app = serverIterator.next();
+        Server db = serverIterator.next();
+
+        assertThat(app.getBulkhead()).isEqualTo(new Bulkhead("app", 2, 4, 50));
+        assertThat(db.getBulkhead().getName()).isEqualTo("service:jmx:rmi://db.test.net:6543/jndi/rmi://db.test.net:6543/jmxrmi");
+        assertThat(db.getBulkhead().getMaxConcurrentQueries()).isEqualTo(Bulkhead.DEFAULT_MAX_CONCURRENT_QUERIES);
+        assertThat(db.getBulkhead().getMaxQueuedQueries()).isEqualTo(Bulkhead.DEFAULT_MAX_QUEUED_QUERIES);
+    }
+
+    @Test
+    public void collectIntervalsAreInheritedFromServer() throws Exception {
+        Resource resource = new StandardResource("classpath:org/jmxtrans/core/config/collect-intervals.xml");
+        Configuration configuration = parser.parseConfiguration(resource);
+
+        Server server = configuration.getServers().iterator().next();
+        Iterator<Query> queryIterator = server.getQueries().iterator();
+        Query permGen = queryIterator.next();
+        Query memory = queryIterator.next();
+
+        assertThat(configuration.getPeriod()).isEqualTo(new Interval(10, SECONDS));
+        assertThat(permGen.getCollectInterval()).isEqualTo(new Interval(30, SECONDS));
+        assertThat(memory.getCollectInterval()).isEqualTo(new Interval(5, SECONDS));
+        assertThat(permGen.getPriority()).isEqualTo(Priority.NORMAL);
+        assertThat(memory.getPriority()).isEqualTo(Priority.HIGH);
+        assertThat(configuration.getDispatchMode()).isEqualTo(DispatchMode.SPREAD);
+        assertThat(configuration.getOverrunPolicy()).isEqualTo(OverrunPolicy.CATCH_UP);
+        assertThat(configuration.getOverlapPolicy()).isEqualTo(OverlapPolicy.QUEUE_ONE);
+    }
+
+    @Test
+    public void counterModesAreParsed() throws Exception {
+        Resource resource = new StandardResource("classpath:org/jmxtrans/core/config/counter-modes.xml");
+        Configuration configuration = parser.parseConfiguration(resource);
+
+        Query gc = configuration.getServers().iterator().next().getQueries().iterator().next();
+        Map<String, CounterMode> counterModes = new HashMap<>();
+        for (QueryAttribute attribute : gc.getQueryAttributes()) {
+            counterModes.put(attribute.getName(), attribute.getCounterMode());
+        }
+
+        assertThat(counterModes)
+                .containsEntry("CollectionCount", CounterMode.RATE)
+                .containsEntry("CollectionTime", CounterMode.DELTA)
+                .containsEntry("Valid", CounterMode.RAW);
+    }
+
+    @Test
+    public void changeSuppressionIsInheritedFromQuery() throws Exception {
+        Resource resource = new StandardResource("classpath:org/jmxtrans/core/config/change-suppression.xml");
+        Configuration configuration = parser.parseConfiguration(resource);
+
+        Map<String, ChangeSuppression> changeSuppressions = new HashMap<>();
+        for (Query query : configuration.getServers().iterator().next().getQueries()) {
+            for (QueryAttribute attribute : query.getQueryAttributes()) {
+                changeSuppressions.put(attribute.getName(), attribute.getChangeSuppression());
+            }
+        }
+
+        assertThat(changeSuppressions)
+                .containsEntry("ThreadCount", new ChangeSuppression(2, ChangeSuppression.DEFAULT_HEARTBEAT_PERIODS))
+                .containsEntry("PeakThreadCount", new ChangeSuppression(2, 6))
+                .containsEntry("LoadedClassCount", new ChangeSuppression(0, 4))
+                .containsEntry("TotalLoadedClassCount", new ChangeSuppression(1, 4))
+                .containsEntry("Uptime", null);
+    }
+
     @Test
     public void invocationsAreParsed() throws JAXBException, SAXException, IOException, IllegalAccessException, InstantiationException, ClassNotFoundException, MalformedObjectNameException {
         Resource resource = new StandardResource("classpath:org/jmxtrans/core/config/simple-configuration.xml");
@@ -133,6 +216,7 @@ public class XmlConfigParserTest {
                 new String[] { "long" },
                 "jvm.thread.cpu", COUNTER, new SystemClock()
         ));
+        assertThat(configuration.getInvocationBulkhead()).isEqualTo(new Bulkhead("invocations", 2, 4, 50));
     }
 
     @Test
@@ -149,5 +233,8 @@ public class XmlConfigParserTest {
         Configuration configuration = parser.parseConfiguration(resource);
         assertThat(configuration.getPeriod()).isNotNull();
         assertThat(configuration.getPeriod()).isEqualTo(new Interval(60, SECONDS));
+        assertThat(configuration.getDispatchMode()).isEqualTo(DispatchMode.BURST);
+        assertThat(configuration.getOverrunPolicy()).isEqualTo(OverrunPolicy.COALESCE);
+        assertThat(configuration.getOverlapPolicy()).isEqualTo(OverlapPolicy.SKIP);
     }
 }
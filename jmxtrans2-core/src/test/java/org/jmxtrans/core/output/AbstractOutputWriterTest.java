@@ -56,6 +56,15 @@ public class AbstractOutputWriterTest {
             this.result = result;
             return 1;
         }
+
+        @Override
+        public int writeAll(@Nonnull Iterable<QueryResult> results) throws IOException {
+            int count = 0;
+            for (QueryResult result : results) {
+                count += write(result);
+            }
+            return count;
+        }
     }
 
 }
@@ -27,9 +27,11 @@ import java.util.Map;
 
 import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -45,6 +47,22 @@ public class DevNullOutputWriterTest {
         assertThat(processedMetricCount).isZero();
     }
 
+    @Test
+    public void writingBatchesOfResultsDoesNothing() throws IOException, InterruptedException {
+        OutputWriter outputWriter = new DevNullOutputWriter();
+        QueryResult result = new QueryResult("name", MetricType.UNKNOWN, "value", 0);
+
+        assertThat(outputWriter.writeAll(asList(result, result))).isZero();
+    }
+
+    @Test
+    public void writingColumnarBatchesDoesNothing() throws IOException, InterruptedException {
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(new QueryResult("name", MetricType.UNKNOWN, "value", 0));
+
+        assertThat(new DevNullOutputWriter().writeBatch(batch)).isZero();
+    }
+
     @Test
     public void factoryCanCreateOutputWriter() {
         Map<String, String> settings = emptyMap();
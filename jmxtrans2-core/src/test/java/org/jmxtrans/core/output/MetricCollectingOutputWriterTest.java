@@ -29,6 +29,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 import org.jmxtrans.utils.time.ManualClock;
 
@@ -39,9 +40,11 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Listeners(MockitoTestNGListener.class)
@@ -49,6 +52,7 @@ public class MetricCollectingOutputWriterTest {
     
     @Nonnull private final ManualClock clock = new ManualClock();
     @Mock private OutputWriter outputWriter;
+    @Mock private ColumnarOutputWriter columnarOutputWriter;
     @Mock private QueryResult result;
     private ObjectName objectName;
     private MetricCollectingOutputWriter metricCollectingOutputWriter;
@@ -66,6 +70,46 @@ public class MetricCollectingOutputWriterTest {
         assertThat(metricCollectingOutputWriter.getProcessedResultsCount()).isEqualTo(1);
     }
     
+    @Test
+    public void processedResultCountIsIncrementedForBatches() throws IOException, InterruptedException {
+        when(outputWriter.writeAll(asList(result, result))).thenReturn(2);
+        metricCollectingOutputWriter.writeAll(asList(result, result));
+        assertThat(metricCollectingOutputWriter.getProcessedResultsCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void batchesAreReadInPlaceByColumnarWriters() throws Exception {
+        ResultBatch batch = new ResultBatch(1);
+        when(columnarOutputWriter.writeBatch(batch)).thenReturn(1);
+
+        new MetricCollectingOutputWriter(clock, columnarOutputWriter, objectName).writeBatch(batch);
+        metricCollectingOutputWriter.writeBatch(batch);
+
+        verify(columnarOutputWriter).writeBatch(batch);
+        verify(outputWriter).writeAll(batch);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void processingTimeOfBatchesIsCountedAlsoWhenExceptionIsThrown() throws IOException, InterruptedException {
+        ResultBatch batch = new ResultBatch(1);
+        when(columnarOutputWriter.writeBatch(batch)).then(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                clock.waitFor(100, MILLISECONDS);
+                throw new IOException();
+            }
+        });
+        MetricCollectingOutputWriter writer = new MetricCollectingOutputWriter(clock, columnarOutputWriter, objectName);
+
+        try {
+            writer.writeBatch(batch);
+        } catch (IOException ioe) {
+            assertThat(writer.getProcessingTimeMillis()).isEqualTo(100);
+            assertThat(writer.getProcessedResultsCount()).isZero();
+            throw ioe;
+        }
+    }
+
     @Test
     public void processingTimeIsCounted() throws IOException, InterruptedException {
         when(outputWriter.write(result)).then(new Answer<Integer>() {
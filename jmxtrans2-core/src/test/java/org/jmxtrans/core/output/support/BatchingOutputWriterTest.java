@@ -35,6 +35,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.inOrder;
@@ -83,6 +85,16 @@ public class BatchingOutputWriterTest {
         verify(targetOutputWriter, times(2)).write(any(QueryResult.class));
     }
 
+    @Test
+    public void bulkWritesAreBatchedAtAppropriateSize() throws IOException, InterruptedException {
+        OutputWriter batchingOutputWriter = new BatchingOutputWriter<>(2, targetOutputWriter);
+        int processedResultCount = batchingOutputWriter.writeAll(asList(result, result, result, result, result));
+        assertThat(processedResultCount).isEqualTo(4);
+        verify(targetOutputWriter, times(2)).beforeBatch();
+        verify(targetOutputWriter, times(4)).write(any(QueryResult.class));
+        verify(targetOutputWriter, times(2)).afterBatch();
+    }
+
     @Test
     public void beforeAndAfterBatchAreCalledInOrder() throws IOException, InterruptedException {
         InOrder inOrder = inOrder(targetOutputWriter);
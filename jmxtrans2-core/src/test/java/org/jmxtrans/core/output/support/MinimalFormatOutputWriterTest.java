@@ -27,6 +27,7 @@ import java.io.StringWriter;
 
 import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 
 import org.testng.annotations.Test;
 
@@ -43,4 +44,14 @@ public class MinimalFormatOutputWriterTest {
         assertThat(output.toString()).isEqualTo("metric.name 123 456\n");
     }
 
+    @Test
+    public void sameFormatIsWrittenFromBatches() throws IOException {
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(new QueryResult("metric.name", MetricType.UNKNOWN, 123, 456));
+        StringWriter output = new StringWriter();
+        new MinimalFormatOutputWriter().write(output, batch, 0);
+
+        assertThat(output.toString()).isEqualTo("metric.name 123 456\n");
+    }
+
 }
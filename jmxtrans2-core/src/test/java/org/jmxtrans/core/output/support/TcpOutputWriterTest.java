@@ -29,6 +29,7 @@ import javax.annotation.Nonnull;
 
 import org.jmxtrans.core.output.support.pool.*;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 
 import org.mockito.Mock;
@@ -39,6 +40,7 @@ import org.testng.annotations.Test;
 import stormpot.BlazePool;
 import stormpot.Config;
 
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.jmxtrans.utils.io.Charsets.UTF_8;
 
@@ -71,6 +73,19 @@ public class TcpOutputWriterTest {
         await().until(server.hasReceived("test"));
     }
 
+    @Test
+    public void bulkWritesUseASingleSocket() throws IOException, InterruptedException {
+        BlazePool<PoolableSocketAppender> socketPool = createSocketPool();
+
+        TcpOutputWriter<DummyWriter> tcpOutputWriter = new TcpOutputWriter<>(new DummyWriter(), socketPool);
+        int processedResultCount = tcpOutputWriter.writeAll(asList(result, result, result));
+
+        socketPool.shutdown();
+
+        assertThat(processedResultCount).isEqualTo(3);
+        await().until(server.hasReceived("testtesttest"));
+    }
+
     private BlazePool<PoolableSocketAppender> createSocketPool() {
         return new BlazePool<>(
                 new Config<>()
@@ -94,5 +109,11 @@ public class TcpOutputWriterTest {
             writer.append("test");
             return 1;
         }
+
+        @Override
+        public int write(@Nonnull Appendable writer, @Nonnull ResultBatch batch, int index) throws IOException {
+            writer.append("test");
+            return 1;
+        }
     }
 }
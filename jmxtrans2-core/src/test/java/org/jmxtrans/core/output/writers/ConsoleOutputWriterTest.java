@@ -27,9 +27,11 @@ import java.io.StringWriter;
 import java.util.Map;
 
 import org.jmxtrans.core.output.support.MinimalFormatOutputWriter;
+import org.jmxtrans.core.results.ResultBatch;
 
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
 
 import static org.jmxtrans.core.results.QueryResultFixtures.standardQueryResult;
@@ -49,6 +51,30 @@ public class ConsoleOutputWriterTest {
         assertThat(output.toString()).isEqualTo(standardQueryResultMinimallyFormatted());
     }
     
+    @Test
+    public void resultsOfABatchArePrintedAndFormatted() throws IOException {
+        StringWriter output = new StringWriter();
+
+        int resultsWritten = new ConsoleOutputWriter(new MinimalFormatOutputWriter(), output)
+                .writeAll(asList(standardQueryResult(), standardQueryResult()));
+
+        assertThat(resultsWritten).isEqualTo(2);
+        assertThat(output.toString())
+                .isEqualTo(standardQueryResultMinimallyFormatted() + standardQueryResultMinimallyFormatted());
+    }
+
+    @Test
+    public void columnarBatchesArePrintedAndFormatted() throws IOException {
+        StringWriter output = new StringWriter();
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(standardQueryResult());
+
+        int resultsWritten = new ConsoleOutputWriter(new MinimalFormatOutputWriter(), output).writeBatch(batch);
+
+        assertThat(resultsWritten).isEqualTo(1);
+        assertThat(output.toString()).isEqualTo(standardQueryResultMinimallyFormatted());
+    }
+
     @Test
     public void factoryCreatesConsoleWriter() {
         Map<String, String> settings = emptyMap();
@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.results.ResultBatch;
 
 import org.testng.annotations.Test;
 
@@ -48,6 +49,19 @@ public class GraphiteOutputWriterTest {
                 .endsWith("some.value 2 3");
     }
 
+    @Test
+    public void resultsOfColumnarBatchesFollowTheSameFormat() throws IOException {
+        StringWriter writer = new StringWriter();
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(standardQueryResult());
+
+        new GraphiteOutputWriter().write(writer, batch, 0);
+
+        assertThat(writer.toString())
+                .startsWith("servers.")
+                .endsWith("some.value 2 3");
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void hostnameIsRequired() {
         Map<String, String> settings = new HashMap<>();
@@ -22,19 +22,64 @@
  */
 package org.jmxtrans.core.query;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 
+import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
+import org.jmxtrans.utils.time.ManualClock;
 import org.jmxtrans.utils.time.SystemClock;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import static org.jmxtrans.core.results.MetricType.UNKNOWN;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class InvocationTest {
 
+    private final ManualClock clock = new ManualClock();
+    private ObjectName objectName;
+    private MBeanServerConnection mBeanServer;
+    private final List<QueryResult> results = new ArrayList<>();
+    private final ResultSink sink = new ResultSink() {
+        @Override
+        public boolean accept(@Nonnull QueryResult result) {
+            return results.add(result);
+        }
+    };
+
+    @BeforeMethod
+    public void createMBeanServer() throws Exception {
+        clock.setTime(0, MILLISECONDS);
+        results.clear();
+        objectName = new ObjectName("java.lang:type=Threading");
+        mBeanServer = mock(MBeanServerConnection.class);
+        when(mBeanServer.queryNames(any(ObjectName.class), any(QueryExp.class))).thenReturn(singleton(objectName));
+        when(mBeanServer.invoke(any(ObjectName.class), anyString(), any(Object[].class), any(String[].class))).thenReturn(42L);
+    }
+
     @Test
     public void sameInvocationsAreEquals() throws MalformedObjectNameException {
         Invocation firstInvocation = new Invocation(
@@ -52,4 +97,87 @@ public class InvocationTest {
         assertThat(firstInvocation).isEqualTo(secondInvocation);
     }
 
+    @Test
+    public void resultsOfOperationAreExported() throws Exception {
+        Invocation invocation = invocation(0, 1);
+
+        assertThat(invocation.invoke(mBeanServer, sink)).isTrue();
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getName()).isEqualTo("jvm.thread.cpu");
+        assertThat(results.get(0).getValue()).isEqualTo(42L);
+    }
+
+    @Test
+    public void resultsCanBeQueued() throws Exception {
+        BlockingQueue<QueryResult> resultQueue = new LinkedBlockingQueue<>();
+
+        invocation(0, 1).invoke(mBeanServer, resultQueue);
+
+        assertThat(resultQueue).hasSize(1);
+        assertThat(resultQueue.peek().getValue()).isEqualTo(42L);
+    }
+
+    @Test
+    public void resultsAreCachedForTheirTtl() throws Exception {
+        Invocation invocation = invocation(10, 1);
+
+        invocation.invoke(mBeanServer, sink);
+        clock.setTime(9, SECONDS);
+        invocation.invoke(mBeanServer, sink);
+        verify(mBeanServer, times(1)).invoke(objectName, "getThreadCpuTime", new Object[0], new String[0]);
+
+        clock.setTime(10, SECONDS);
+        invocation.invoke(mBeanServer, sink);
+        verify(mBeanServer, times(2)).invoke(objectName, "getThreadCpuTime", new Object[0], new String[0]);
+        assertThat(results).hasSize(3);
+        assertThat(invocation.getCacheHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedResultsAreStampedWithTheTimeOfTheirInvocation() throws Exception {
+        Invocation invocation = invocation(10, 1);
+
+        invocation.invoke(mBeanServer, sink);
+        clock.setTime(9, SECONDS);
+        invocation.invoke(mBeanServer, sink);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getEpoch(MILLISECONDS)).isEqualTo(0);
+        assertThat(results.get(1).getEpoch(MILLISECONDS)).isEqualTo(SECONDS.toMillis(9));
+        assertThat(results.get(1).getValue()).isEqualTo(42L);
+    }
+
+    @Test
+    public void concurrentInvocationsOfAnOperationAreLimited() throws Exception {
+        final Invocation invocation = invocation(0, 1);
+        final List<Boolean> nestedInvocations = new ArrayList<>();
+        when(mBeanServer.invoke(any(ObjectName.class), anyString(), any(Object[].class), any(String[].class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock mock) throws Throwable {
+                // invoked again while the first invocation is still running
+                nestedInvocations.add(invocation.invoke(mBeanServer, sink));
+                return 42L;
+            }
+        });
+
+        assertThat(invocation.invoke(mBeanServer, sink)).isTrue();
+
+        assertThat(nestedInvocations).containsExactly(false);
+        assertThat(invocation.getRejectedCount()).isEqualTo(1);
+        assertThat(results).hasSize(1);
+    }
+
+    @Nonnull
+    private Invocation invocation(long resultCacheTtlInSeconds, int maxConcurrentInvocations) {
+        return new Invocation(
+                objectName,
+                "getThreadCpuTime",
+                new Object[0], new String[0],
+                "jvm.thread.cpu", UNKNOWN,
+                null,
+                resultCacheTtlInSeconds, SECONDS,
+                maxConcurrentInvocations,
+                clock);
+    }
 }
@@ -0,0 +1,259 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class JmxConnectionCacheTest {
+
+    private ManualClock clock;
+    private JMXConnectorServer connectorServer;
+    private final List<Runnable> pendingCloses = new ArrayList<>();
+    private final Executor closeExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            pendingCloses.add(command);
+        }
+    };
+
+    @BeforeMethod
+    public void startConnectorServer() throws IOException {
+        clock = new ManualClock();
+        clock.setTime(1, SECONDS);
+        pendingCloses.clear();
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL("service:jmx:rmi://"), null, getPlatformMBeanServer());
+        connectorServer.start();
+    }
+
+    @AfterMethod
+    public void stopConnectorServer() throws IOException {
+        connectorServer.stop();
+    }
+
+    @Test
+    public void connectionIsReused() throws IOException {
+        JmxConnectionCache cache = createCache(connectorServer.getAddress());
+
+        MBeanServerConnection connection1 = cache.getConnection();
+        MBeanServerConnection connection2 = cache.getConnection();
+
+        assertThat(connection1).isSameAs(connection2);
+        assertThat(cache.getConnectCount()).isEqualTo(1);
+        assertThat(cache.getReuseCount()).isEqualTo(1);
+        assertThat(cache.getFailureCount()).isZero();
+        cache.close();
+    }
+
+    @Test
+    public void connectionIsValidatedAfterValidationInterval() throws IOException {
+        JmxConnectionCache cache = createCache(connectorServer.getAddress());
+
+        MBeanServerConnection connection1 = cache.getConnection();
+        clock.waitFor(10, SECONDS);
+        MBeanServerConnection connection2 = cache.getConnection();
+
+        assertThat(connection1).isSameAs(connection2);
+        assertThat(cache.getConnectCount()).isEqualTo(1);
+        cache.close();
+    }
+
+    @Test
+    public void brokenConnectionIsReplaced() throws IOException {
+        JmxConnectionCache cache = createCache(connectorServer.getAddress());
+
+        MBeanServerConnection connection1 = cache.getConnection();
+        cache.invalidate();
+        MBeanServerConnection connection2 = cache.getConnection();
+
+        assertThat(connection1).isNotSameAs(connection2);
+        assertThat(cache.getConnectCount()).isEqualTo(2);
+        cache.close();
+    }
+
+    @Test
+    public void invalidatedConnectionIsClosedInTheBackground() throws IOException {
+        JmxConnectionCache cache = createCache(connectorServer.getAddress());
+        MBeanServerConnection connection = cache.getConnection();
+
+        cache.invalidate();
+        assertThat(pendingCloses).hasSize(1);
+        connection.getMBeanCount();
+
+        pendingCloses.get(0).run();
+        try {
+            connection.getMBeanCount();
+            fail("Connection should be closed");
+        } catch (IOException expected) {
+        }
+        cache.close();
+    }
+
+    @Test(timeOut = 10000)
+    public void invalidatedConnectionIsClosedByDefaultOnItsOwnThread() throws Exception {
+        JmxConnectionCache cache = new JmxConnectionCache(
+                connectorServer.getAddress(),
+                Collections.<String, Object>emptyMap(),
+                clock,
+                SECONDS.toMillis(5),
+                SECONDS.toMillis(1),
+                SECONDS.toMillis(60),
+                (int) SECONDS.toMillis(60));
+        MBeanServerConnection connection = cache.getConnection();
+
+        cache.invalidate();
+        while (true) {
+            try {
+                connection.getMBeanCount();
+                Thread.sleep(10);
+            } catch (IOException closed) {
+                break;
+            }
+        }
+        cache.close();
+    }
+
+    @Test
+    public void reconnectionBacksOffAfterFailure() throws IOException {
+        JMXServiceURL address = connectorServer.getAddress();
+        connectorServer.stop();
+        JmxConnectionCache cache = createCache(address);
+
+        assertConnectionFails(cache);
+        assertThat(cache.getFailureCount()).isEqualTo(1);
+
+        // still backing off, no connection attempt is made
+        clock.waitFor(500, MILLISECONDS);
+        assertConnectionFails(cache);
+        assertThat(cache.getFailureCount()).isEqualTo(1);
+
+        clock.waitFor(1, SECONDS);
+        assertConnectionFails(cache);
+        assertThat(cache.getFailureCount()).isEqualTo(2);
+
+        // second backoff is twice as long as the first one
+        clock.waitFor(1500, MILLISECONDS);
+        assertConnectionFails(cache);
+        assertThat(cache.getFailureCount()).isEqualTo(2);
+    }
+
+    @Test(timeOut = 10000)
+    public void invalidationDoesNotWaitForHungConnection() throws Exception {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final AtomicReference<Socket> accepted = new AtomicReference<>();
+        // accepts connections, but never answers
+        try (final ServerSocket hungServer = new ServerSocket(0)) {
+            Thread acceptor = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        accepted.set(hungServer.accept());
+                        connecting.countDown();
+                    } catch (IOException ignored) {
+                    }
+                }
+            };
+            acceptor.start();
+            final JmxConnectionCache cache = createCache(new JMXServiceURL(
+                    "service:jmx:rmi:///jndi/rmi://localhost:" + hungServer.getLocalPort() + "/jmxrmi"));
+            Thread hungQuery = connectInBackground(cache, new AtomicReference<IOException>());
+            connecting.await();
+
+            // the watchdog invalidates the connection of a query running past its deadline
+            cache.invalidate();
+
+            // and interrupts the queries waiting for that connection
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            Thread waitingQuery = connectInBackground(cache, failure);
+            waitingQuery.interrupt();
+            waitingQuery.join();
+            assertThat(failure.get()).isInstanceOf(InterruptedIOException.class);
+            assertThat(hungQuery.isAlive()).isTrue();
+
+            accepted.get().close();
+            hungQuery.join();
+        }
+    }
+
+    private Thread connectInBackground(final JmxConnectionCache cache, final AtomicReference<IOException> failure) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.getConnection();
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void assertConnectionFails(JmxConnectionCache cache) {
+        try {
+            cache.getConnection();
+            fail("Connection should have failed");
+        } catch (IOException expected) {
+        }
+    }
+
+    private JmxConnectionCache createCache(JMXServiceURL url) {
+        return new JmxConnectionCache(
+                url,
+                Collections.<String, Object>emptyMap(),
+                clock,
+                SECONDS.toMillis(5),
+                SECONDS.toMillis(1),
+                SECONDS.toMillis(60),
+                (int) SECONDS.toMillis(60),
+                closeExecutor);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MBeanAttributesTest {
+
+    @Test
+    public void attributesAreResolvedFromMBeanInfo() throws Exception {
+        MBeanServer mBeanServer = getPlatformMBeanServer();
+        MBeanInfo memory = mBeanServer.getMBeanInfo(new ObjectName("java.lang:type=Memory"));
+
+        MBeanAttributes attributes = MBeanAttributes.from(
+                memory, new String[] {"HeapMemoryUsage", "ObjectPendingFinalizationCount", "Verbose", "Missing"});
+
+        assertThat(attributes.getNames()).containsOnly("HeapMemoryUsage", "ObjectPendingFinalizationCount");
+        assertThat(attributes.getKind("HeapMemoryUsage")).isEqualTo(AttributeKind.COMPOSITE);
+        assertThat(attributes.getKind("ObjectPendingFinalizationCount")).isEqualTo(AttributeKind.SCALAR);
+    }
+
+    @Test
+    public void unreadableAndArrayAttributesAreSkipped() {
+        MBeanInfo mBeanInfo = new MBeanInfo("test.Bean", null, new MBeanAttributeInfo[] {
+                new MBeanAttributeInfo("WriteOnly", "long", null, false, true, false),
+                new MBeanAttributeInfo("Array", "[J", null, true, false, false),
+                new MBeanAttributeInfo("Object", "java.lang.Object", null, true, false, false)
+        }, null, null, null);
+
+        MBeanAttributes attributes = MBeanAttributes.from(mBeanInfo, new String[] {"WriteOnly", "Array", "Object"});
+
+        assertThat(attributes.getNames()).containsOnly("Object");
+        assertThat(attributes.getKind("Object")).isEqualTo(AttributeKind.UNKNOWN);
+    }
+
+    @Test
+    public void allAttributesAreReadWhenUnknown() {
+        MBeanAttributes attributes = MBeanAttributes.unknown(new String[] {"a", "b"});
+
+        assertThat(attributes.getNames()).containsExactly("a", "b");
+        assertThat(attributes.isEmpty()).isFalse();
+        assertThat(attributes.getKind("a")).isEqualTo(AttributeKind.UNKNOWN);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MBeanServerNotification;
+import javax.management.ObjectName;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.management.MBeanServerNotification.REGISTRATION_NOTIFICATION;
+import static javax.management.MBeanServerNotification.UNREGISTRATION_NOTIFICATION;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MBeanInfoCacheTest {
+
+    private static final String[] REQUESTED_NAMES = {"CollectionUsageThreshold", "IntegerList"};
+
+    private MBeanServer mBeanServer;
+    private ManualClock clock;
+    private MBeanInfoCache cache;
+    private ObjectName objectName;
+
+    @BeforeMethod
+    public void createCache() throws Exception {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        clock = new ManualClock();
+        clock.setTime(0, MILLISECONDS);
+        cache = new MBeanInfoCache(clock, SECONDS.toMillis(60));
+        objectName = new ObjectName("test:type=MemoryPool,name=PS Eden Space");
+        mBeanServer.registerMBean(new MockMemoryPool("PS Eden Space", 87359488L), objectName);
+    }
+
+    @Test
+    public void attributesAreReadAgainAfterTimeToLive() throws Exception {
+        assertThat(cache.get(mBeanServer, objectName, REQUESTED_NAMES).getNames())
+                .containsOnly("CollectionUsageThreshold");
+        reregisterWithOtherAttributes();
+
+        clock.setTime(59, SECONDS);
+        assertThat(cache.get(mBeanServer, objectName, REQUESTED_NAMES).getNames())
+                .containsOnly("CollectionUsageThreshold");
+
+        clock.setTime(60, SECONDS);
+        assertThat(cache.get(mBeanServer, objectName, REQUESTED_NAMES).getNames())
+                .containsOnly("CollectionUsageThreshold", "IntegerList");
+    }
+
+    @Test
+    public void emptyAttributesAreReadAgainAfterTimeToLive() throws Exception {
+        String[] requestedNames = {"IntegerList"};
+        assertThat(cache.get(mBeanServer, objectName, requestedNames).isEmpty()).isTrue();
+        reregisterWithOtherAttributes();
+
+        clock.setTime(60, SECONDS);
+        assertThat(cache.get(mBeanServer, objectName, requestedNames).getNames()).containsOnly("IntegerList");
+    }
+
+    @Test
+    public void attributesAreDroppedWhenMBeanIsUnregistered() throws Exception {
+        cache.get(mBeanServer, objectName, REQUESTED_NAMES);
+
+        cache.handleNotification(new MBeanServerNotification(REGISTRATION_NOTIFICATION, this, 1, objectName), null);
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.handleNotification(new MBeanServerNotification(UNREGISTRATION_NOTIFICATION, this, 2, objectName), null);
+        assertThat(cache.size()).isZero();
+    }
+
+    private void reregisterWithOtherAttributes() throws Exception {
+        mBeanServer.unregisterMBean(objectName);
+        mBeanServer.registerMBean(new Mock("PS Eden Space", 87359488L), objectName);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObjectNameCacheTest {
+
+    private ManualClock clock = new ManualClock();
+    private ObjectNameCache cache;
+    private QueryMetrics metrics;
+    private MBeanServerConnection connection;
+    private ObjectName pattern;
+    private ObjectName garbageCollector;
+
+    @BeforeMethod
+    public void createCache() throws Exception {
+        clock.setTime(0, SECONDS);
+        cache = new ObjectNameCache(clock, SECONDS.toMillis(60));
+        metrics = new QueryMetrics(clock);
+        pattern = new ObjectName("java.lang:type=GarbageCollector,*");
+        garbageCollector = new ObjectName("java.lang:type=GarbageCollector,name=G1 Young Generation");
+        connection = mock(MBeanServerConnection.class);
+        when(connection.queryNames(pattern, null)).thenReturn(Collections.singleton(garbageCollector));
+    }
+
+    @Test
+    public void namesAreCachedUntilTheirTimeToLive() throws Exception {
+        assertThat(cache.queryNames(connection, pattern, metrics)).containsOnly(garbageCollector);
+        clock.waitFor(59, SECONDS);
+        assertThat(cache.queryNames(connection, pattern, metrics)).containsOnly(garbageCollector);
+        verify(connection, times(1)).queryNames(pattern, null);
+
+        clock.waitFor(1, SECONDS);
+        cache.queryNames(connection, pattern, metrics);
+        verify(connection, times(2)).queryNames(pattern, null);
+
+        assertThat(metrics.getObjectNameCacheHits()).isEqualTo(1);
+        assertThat(metrics.getObjectNameCacheMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidatedNamesAreLookedUpAgain() throws Exception {
+        cache.queryNames(connection, pattern, metrics);
+        cache.invalidate(pattern);
+        cache.queryNames(connection, pattern, metrics);
+
+        verify(connection, times(2)).queryNames(pattern, null);
+    }
+
+    @Test
+    public void namesAreLookedUpAgainOnNewConnection() throws Exception {
+        MBeanServerConnection newConnection = mock(MBeanServerConnection.class);
+
+        cache.queryNames(connection, pattern, metrics);
+        cache.queryNames(newConnection, pattern, metrics);
+
+        verify(newConnection).queryNames(pattern, null);
+    }
+
+    @Test
+    public void cacheIsDisabledWithoutTimeToLive() throws Exception {
+        cache = new ObjectNameCache(clock, 0);
+
+        cache.queryNames(connection, pattern, metrics);
+        cache.queryNames(connection, pattern, metrics);
+
+        verify(connection, times(2)).queryNames(pattern, null);
+        assertThat(metrics.getObjectNameCacheMisses()).isZero();
+    }
+
+    @Test
+    public void cacheWorksWithoutNotifications() throws Exception {
+        doThrow(new UnsupportedOperationException()).when(connection).addNotificationListener(
+                eq(MBeanServerDelegate.DELEGATE_NAME), any(NotificationListener.class), any(NotificationFilter.class), any());
+
+        cache.queryNames(connection, pattern, metrics);
+        cache.queryNames(connection, pattern, metrics);
+
+        verify(connection, times(1)).queryNames(pattern, null);
+    }
+
+    @Test
+    public void namesAreInvalidatedOnMatchingRegistration() throws Exception {
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        ObjectName testPattern = new ObjectName("test:type=MemoryPool,*");
+        ObjectName otherPattern = new ObjectName("other:*");
+        cache.queryNames(mBeanServer, testPattern, metrics);
+        cache.queryNames(mBeanServer, otherPattern, metrics);
+
+        mBeanServer.registerMBean(new MockMemoryPool("PS Perm Gen", 1L), new ObjectName("test:type=MemoryPool,name=PS Perm Gen"));
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.queryNames(mBeanServer, testPattern, metrics)).hasSize(1);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.MBeanServerNotification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.Collections.singleton;
+import static javax.management.MBeanServerNotification.REGISTRATION_NOTIFICATION;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.verify;
+
+public class ObjectNameIndexTest {
+
+    private MBeanServer mBeanServer;
+    private ObjectNameIndex index;
+    private ObjectName pattern;
+    private ObjectName edenSpace;
+    private ObjectName permGen;
+    private QueryMetrics metrics;
+
+    @BeforeMethod
+    public void createIndex() throws Exception {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        index = new ObjectNameIndex(mBeanServer);
+        metrics = new QueryMetrics(new ManualClock());
+        pattern = new ObjectName("test:type=MemoryPool,*");
+        edenSpace = new ObjectName("test:type=MemoryPool,name=PS Eden Space");
+        permGen = new ObjectName("test:type=MemoryPool,name=PS Perm Gen");
+        mBeanServer.registerMBean(new MockMemoryPool("PS Eden Space", 87359488L), edenSpace);
+    }
+
+    @Test
+    public void existingMBeansAreIndexed() throws Exception {
+        assertThat(index.queryNames(mBeanServer, pattern, metrics)).containsOnly(edenSpace);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void indexedPatternsAreCountedAsCacheHits() throws Exception {
+        index.queryNames(mBeanServer, pattern, metrics);
+        index.queryNames(mBeanServer, pattern, metrics);
+
+        assertThat(metrics.getObjectNameCacheMisses()).isEqualTo(1);
+        assertThat(metrics.getObjectNameCacheHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void registeredMBeansAreAddedToTheIndex() throws Exception {
+        index.queryNames(mBeanServer, pattern, metrics);
+
+        mBeanServer.registerMBean(new MockMemoryPool("PS Perm Gen", 87752704L), permGen);
+        mBeanServer.registerMBean(new MockMemoryPool("Other", 1L), new ObjectName("other:type=MemoryPool"));
+
+        assertThat(index.queryNames(mBeanServer, pattern, metrics)).containsOnly(edenSpace, permGen);
+    }
+
+    @Test
+    public void unregisteredMBeansAreRemovedFromTheIndex() throws Exception {
+        index.queryNames(mBeanServer, pattern, metrics);
+
+        mBeanServer.unregisterMBean(edenSpace);
+
+        assertThat(index.queryNames(mBeanServer, pattern, metrics)).isEmpty();
+    }
+
+    @Test
+    public void unregistrationsAreForwardedToListeners() throws Exception {
+        NotificationListener listener = mock(NotificationListener.class);
+        index.addUnregistrationListener(listener);
+
+        mBeanServer.registerMBean(new MockMemoryPool("PS Perm Gen", 87752704L), permGen);
+        mBeanServer.unregisterMBean(edenSpace);
+
+        verify(listener).handleNotification(any(MBeanServerNotification.class), isNull());
+    }
+
+    @Test
+    public void patternsArePublishedOnceIndexed() throws Exception {
+        MBeanServer server = mock(MBeanServer.class);
+        final ObjectNameIndex index = new ObjectNameIndex(server);
+        final List<Integer> sizesDuringLookup = new ArrayList<>();
+        when(server.queryNames(pattern, null)).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sizesDuringLookup.add(index.size());
+                // registered while the pattern is being looked up
+                index.handleNotification(new MBeanServerNotification(REGISTRATION_NOTIFICATION, this, 1, permGen), null);
+                return singleton(edenSpace);
+            }
+        });
+        when(server.isRegistered(any(ObjectName.class))).thenReturn(true);
+
+        assertThat(index.queryNames(server, pattern, metrics)).containsOnly(edenSpace, permGen);
+        assertThat(sizesDuringLookup).containsExactly(0);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = ListenerNotFoundException.class)
+    public void closedIndexDoesNotListenToRegistrations() throws Exception {
+        index.queryNames(mBeanServer, pattern, metrics);
+
+        index.close();
+
+        assertThat(index.size()).isZero();
+        mBeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, index);
+    }
+
+    @Test
+    public void objectNamesWhichAreNotPatternsAreNotIndexed() throws Exception {
+        assertThat(index.queryNames(mBeanServer, edenSpace, metrics)).containsOnly(edenSpace);
+        assertThat(index.queryNames(mBeanServer, permGen, metrics)).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    public void queriesOnOtherServersAreNotIndexed() throws Exception {
+        MBeanServerConnection otherServer = mock(MBeanServerConnection.class);
+
+        index.queryNames(otherServer, pattern, metrics);
+
+        verify(otherServer).queryNames(pattern, null);
+        assertThat(index.size()).isZero();
+    }
+}
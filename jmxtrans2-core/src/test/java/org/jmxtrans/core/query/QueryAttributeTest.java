@@ -22,11 +22,26 @@
  */
 package org.jmxtrans.core.query;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import javax.annotation.Nonnull;
+import javax.management.ObjectName;
+
+import org.jmxtrans.core.results.CounterMode;
+import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
+import org.jmxtrans.core.results.SeriesDescriptor;
+
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 import static org.jmxtrans.core.query.QueryAttribute.builder;
+import static org.jmxtrans.core.results.MetricType.COUNTER;
+import static org.jmxtrans.core.results.MetricType.GAUGE;
 import static org.jmxtrans.core.results.MetricType.UNKNOWN;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -77,4 +92,75 @@ public class QueryAttributeTest {
         assertThat(attribute1).isEqualTo(attribute2);
     }
 
+    @Test
+    public void resultsOfASeriesShareTheirDescriptor() throws Exception {
+        ObjectName objectName = new ObjectName("test:type=Test");
+        QueryAttribute attribute = builder("Count").build();
+        Query query = Query.builder().withObjectName(objectName).addAttribute(attribute).build();
+        ResultNameStrategy resultNameStrategy = new ResultNameStrategy();
+        final List<QueryResult> results = new ArrayList<>();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                return results.add(result);
+            }
+        };
+
+        attribute.collectMetrics(objectName, 1L, sink, query, resultNameStrategy);
+        attribute.collectMetrics(objectName, 2L, sink, query, resultNameStrategy);
+
+        assertThat(results.get(1).getSeries()).isSameAs(results.get(0).getSeries());
+        assertThat(results.get(0).getSeries().getObjectName()).isEqualTo(objectName);
+        assertThat(results.get(0).getSeries().getAttributeName()).isEqualTo("Count");
+    }
+
+    @Test
+    public void derivedCountersAreExportedAsGauges() throws Exception {
+        ObjectName objectName = new ObjectName("test:type=Test");
+        QueryAttribute attribute = builder("Count").withType(COUNTER).withCounterMode(CounterMode.RATE).build();
+        Query query = Query.builder().withObjectName(objectName).addAttribute(attribute).build();
+
+        SeriesDescriptor series = new ResultNameStrategy().getSeries(query, objectName, attribute, null);
+
+        assertThat(series.getType()).isEqualTo(GAUGE);
+        assertThat(series.getCounterMode()).isEqualTo(CounterMode.RATE);
+    }
+
+    /**
+     * Once a series is known, collecting a sample only allocates its {@link QueryResult}.
+     */
+    @Test
+    public void collectingKnownSeriesAllocatesLittle() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) throw new SkipException("Allocation cannot be measured");
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("Allocation cannot be measured");
+        }
+        ObjectName objectName = new ObjectName("test:type=Test");
+        QueryAttribute attribute = builder("Count").build();
+        Query query = Query.builder().withObjectName(objectName).addAttribute(attribute).build();
+        ResultNameStrategy resultNameStrategy = new ResultNameStrategy();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                return true;
+            }
+        };
+        Object value = 42L;
+        int iterations = 100000;
+        for (int i = 0; i < iterations; i++) {
+            attribute.collectMetrics(objectName, value, AttributeKind.SCALAR, sink, query, resultNameStrategy);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            attribute.collectMetrics(objectName, value, AttributeKind.SCALAR, sink, query, resultNameStrategy);
+        }
+        long allocatedPerResult = (allocations.getThreadAllocatedBytes(threadId) - before) / iterations;
+
+        assertThat(allocatedPerResult).isLessThanOrEqualTo(64);
+    }
+
 }
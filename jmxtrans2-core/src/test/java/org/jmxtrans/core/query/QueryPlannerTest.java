@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.query;
+
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.utils.time.Interval;
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryPlannerTest {
+
+    private QueryPlanner planner = new QueryPlanner();
+    private ObjectName memory;
+    private MBeanServerConnection connection;
+
+    @BeforeMethod
+    public void mockServer() throws Exception {
+        memory = new ObjectName("java.lang:type=Memory");
+        connection = mock(MBeanServerConnection.class);
+        when(connection.queryNames(memory, null)).thenReturn(singleton(memory));
+        AttributeList attributes = new AttributeList();
+        attributes.add(new Attribute("HeapMemoryUsage", 10L));
+        attributes.add(new Attribute("NonHeapMemoryUsage", 20L));
+        when(connection.getAttributes(eq(memory), any(String[].class))).thenReturn(attributes);
+    }
+
+    @Test
+    public void queriesOnDifferentMBeansOrIntervalsAreNotMerged() {
+        Query heap = memoryQuery("heap", "HeapMemoryUsage").build();
+        Query threads = Query.builder().withObjectName("java.lang:type=Threading").addAttribute("ThreadCount").build();
+        Query slowHeap = memoryQuery("heap", "HeapMemoryUsage").withCollectInterval(new Interval(60, SECONDS)).build();
+
+        assertThat(planner.plan(asList(heap, threads, slowHeap))).containsExactly(heap, threads, slowHeap);
+    }
+
+    @Test
+    public void queriesOnSameMBeansAreReadAtOnce() throws Exception {
+        Query heap = memoryQuery("heap", "HeapMemoryUsage").withPriority(Priority.LOW).build();
+        Query threads = Query.builder().withObjectName("java.lang:type=Threading").addAttribute("ThreadCount").build();
+        Query nonHeap = memoryQuery("nonHeap", "NonHeapMemoryUsage").withPriority(Priority.HIGH).build();
+
+        List<Query> plannedQueries = planner.plan(asList(heap, threads, nonHeap));
+        assertThat(plannedQueries).hasSize(2);
+        assertThat(plannedQueries.get(1)).isSameAs(threads);
+        Query merged = plannedQueries.get(0);
+        assertThat(merged.getPriority()).isEqualTo(Priority.HIGH);
+
+        Iterable<QueryResult> results = merged.collectMetrics(connection, new ResultNameStrategy());
+
+        verify(connection, times(1)).getAttributes(eq(memory), any(String[].class));
+        assertThat(results).extracting("name").containsOnly("heap.HeapMemoryUsage", "nonHeap.NonHeapMemoryUsage");
+        assertThat(heap.getCollectedMetricsCount()).isEqualTo(1);
+        assertThat(heap.getCollectionCount()).isEqualTo(1);
+        assertThat(nonHeap.getCollectedMetricsCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void maxResultsIsHonoredForEachMergedQuery() throws Exception {
+        Query heap = memoryQuery("heap", "HeapMemoryUsage").addAttribute("NonHeapMemoryUsage").withMaxResults(1).build();
+        Query nonHeap = memoryQuery("nonHeap", "NonHeapMemoryUsage").build();
+
+        Iterable<QueryResult> results = planner.plan(asList(heap, nonHeap)).get(0)
+                .collectMetrics(connection, new ResultNameStrategy());
+
+        assertThat(results).hasSize(2);
+        assertThat(heap.getCollectedMetricsCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void overlappingRunsAreCountedOnMergedQueries() {
+        Query heap = memoryQuery("heap", "HeapMemoryUsage").build();
+        Query nonHeap = memoryQuery("nonHeap", "NonHeapMemoryUsage").build();
+
+        planner.plan(asList(heap, nonHeap)).get(0).incrementOverlappingRunCount();
+
+        assertThat(heap.getOverlappingRunCount()).isEqualTo(1);
+        assertThat(nonHeap.getOverlappingRunCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void objectNameCacheHitsAreCountedOnMergedQueries() throws Exception {
+        Query heap = memoryQuery("heap", "HeapMemoryUsage").build();
+        Query nonHeap = memoryQuery("nonHeap", "NonHeapMemoryUsage").build();
+        Query merged = planner.plan(asList(heap, nonHeap)).get(0);
+        ObjectNameResolver resolver = new ObjectNameCache(new ManualClock(), SECONDS.toMillis(60));
+
+        merged.collectMetrics(connection, resolver, null, new ResultNameStrategy());
+        merged.collectMetrics(connection, resolver, null, new ResultNameStrategy());
+
+        assertThat(heap.getObjectNameCacheMissCount()).isEqualTo(1);
+        assertThat(heap.getObjectNameCacheHitCount()).isEqualTo(1);
+        assertThat(nonHeap.getObjectNameCacheMissCount()).isEqualTo(1);
+        assertThat(nonHeap.getObjectNameCacheHitCount()).isEqualTo(1);
+    }
+
+    private Query.Builder memoryQuery(String resultAlias, String attribute) {
+        return Query.builder()
+                .withObjectName("java.lang:type=Memory")
+                .withResultAlias(resultAlias)
+                .addAttribute(attribute);
+    }
+}
@@ -23,20 +23,46 @@
 package org.jmxtrans.core.query;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.annotation.Nonnull;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
@@ -125,6 +151,146 @@ public class QueryTest {
         assertThat(results).hasSize(2);
     }
 
+    @Test
+    public void mbeansAreReadInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Query query = Query.builder()
+                    .withObjectName("test:type=MemoryPool,*")
+                    .withMaxParallelReads(4)
+                    .addAttribute("CollectionUsageThreshold")
+                    .build();
+
+            Iterable<QueryResult> results = query.collectMetrics(mbeanServer, ObjectNameResolver.DIRECT, executor, new ResultNameStrategy());
+
+            assertThat(results).hasSize(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void maxResultsIsHonoredWhenReadingInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Query query = Query.builder()
+                    .withObjectName("test:type=MemoryPool,*")
+                    .withMaxParallelReads(4)
+                    .withMaxResults(1)
+                    .addAttribute("CollectionUsageThreshold")
+                    .build();
+
+            Iterable<QueryResult> results = query.collectMetrics(mbeanServer, ObjectNameResolver.DIRECT, executor, new ResultNameStrategy());
+
+            assertThat(results).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void mbeansAreReadByCallerWhenExecutorRejectsReads() throws Exception {
+        Executor executor = mock(Executor.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+        Query query = Query.builder()
+                .withObjectName("test:type=MemoryPool,*")
+                .withMaxParallelReads(4)
+                .addAttribute("CollectionUsageThreshold")
+                .build();
+
+        Iterable<QueryResult> results = query.collectMetrics(mbeanServer, ObjectNameResolver.DIRECT, executor, new ResultNameStrategy());
+
+        assertThat(results).hasSize(2);
+    }
+
+    @Test(timeOut = 10000)
+    public void parallelReadsAreNotWaitedForPastDeadline() throws Exception {
+        ObjectName pattern = new ObjectName("test:type=MemoryPool,*");
+        ObjectName hung = new ObjectName("test:type=MemoryPool,name=Hung");
+        final Thread collectingThread = Thread.currentThread();
+        final CountDownLatch helperReading = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        MBeanServerConnection connection = mock(MBeanServerConnection.class);
+        when(connection.queryNames(pattern, null)).thenReturn(new LinkedHashSet<>(asList(hung, mockEdenSpacePool)));
+        doAnswer(new Answer<AttributeList>() {
+            @Override
+            public AttributeList answer(InvocationOnMock invocation) throws Throwable {
+                if (Thread.currentThread() != collectingThread) {
+                    helperReading.countDown();
+                    released.await();
+                }
+                return new AttributeList(singletonList(new Attribute("CollectionUsageThreshold", 1L)));
+            }
+        }).when(connection).getAttributes(any(ObjectName.class), any(String[].class));
+        // the helper is running a read before the collecting thread starts reading
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+                try {
+                    helperReading.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        try {
+            Query query = Query.builder()
+                    .withObjectName(pattern)
+                    .withMaxParallelReads(2)
+                    .addAttribute("CollectionUsageThreshold")
+                    .build();
+            final List<QueryResult> results = new ArrayList<>();
+
+            query.collectMetrics(connection, ObjectNameResolver.DIRECT, executor, 0, new ResultNameStrategy(), new ResultSink() {
+                @Override
+                public boolean accept(@Nonnull QueryResult result) {
+                    return results.add(result);
+                }
+            });
+
+            assertThat(results).hasSize(1);
+        } finally {
+            released.countDown();
+        }
+    }
+
+    @Test
+    public void objectNamesAreInvalidatedWhenAnMBeanIsNotFound() throws Exception {
+        ObjectName unregistered = new ObjectName("test:type=MemoryPool,name=Unregistered");
+        ObjectNameResolver resolver = mock(ObjectNameResolver.class);
+        Query query = Query.builder()
+                .withObjectName("test:type=MemoryPool,*")
+                .addAttribute("CollectionUsageThreshold")
+                .build();
+        when(resolver.queryNames(eq(mbeanServer), eq(new ObjectName("test:type=MemoryPool,*")), any(QueryMetrics.class)))
+                .thenReturn(singleton(unregistered));
+
+        Iterable<QueryResult> results = query.collectMetrics(mbeanServer, resolver, null, new ResultNameStrategy());
+
+        assertThat(results).isEmpty();
+        verify(resolver).invalidate(new ObjectName("test:type=MemoryPool,*"));
+    }
+
+    @Test
+    public void onlyExistingAttributesAreRead() throws Exception {
+        MBeanServerConnection connection = mock(MBeanServerConnection.class);
+        when(connection.queryNames(mockEdenSpacePool, null)).thenReturn(singleton(mockEdenSpacePool));
+        when(connection.getMBeanInfo(mockEdenSpacePool)).thenReturn(mbeanServer.getMBeanInfo(mockEdenSpacePool));
+        when(connection.getAttributes(eq(mockEdenSpacePool), any(String[].class))).thenReturn(new AttributeList());
+        Query query = Query.builder()
+                .withObjectName(mockEdenSpacePool)
+                .addAttribute("CollectionUsageThreshold")
+                .addAttribute("DoesNotExist")
+                .build();
+
+        query.collectMetrics(connection, new ResultNameStrategy());
+        query.collectMetrics(connection, new ResultNameStrategy());
+
+        verify(connection, times(2)).getAttributes(mockEdenSpacePool, new String[] {"CollectionUsageThreshold"});
+        verify(connection, times(1)).getMBeanInfo(mockEdenSpacePool);
+    }
+
     @Test(
             expectedExceptions = RuntimeException.class,
             expectedExceptionsMessageRegExp = "Object name \\[invalid object name\\] is not valid.*")
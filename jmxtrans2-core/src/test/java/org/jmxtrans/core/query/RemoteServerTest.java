@@ -41,6 +41,24 @@ public class RemoteServerTest {
         assertThat(server.getHost()).isEqualTo("host.test.net");
     }
 
+    @Test
+    public void eachServerHasItsOwnBulkheadByDefault() throws MalformedURLException {
+        RemoteServer server1 = RemoteServer.builder().withHost("host1.test.net").withPort(1234).build();
+        RemoteServer server2 = RemoteServer.builder().withHost("host2.test.net").withPort(1234).build();
+
+        assertThat(server1.getBulkhead().getName()).isNotEqualTo(server2.getBulkhead().getName());
+    }
+
+    @Test
+    public void serversCanShareABulkhead() throws MalformedURLException {
+        RemoteServer server1 = RemoteServer.builder().withHost("host1.test.net").withPort(1234)
+                .withBulkhead("group").withMaxConcurrentQueries(3).build();
+        RemoteServer server2 = RemoteServer.builder().withHost("host2.test.net").withPort(1234)
+                .withBulkhead("group").withMaxQueuedQueries(200).build();
+
+        assertThat(server1.getBulkhead().merge(server2.getBulkhead())).isEqualTo(new Bulkhead("group", 1, 3, 200));
+    }
+
     @Test
     public void weblogicSpecificEnvironmentIsUsedIfRequired() throws MalformedURLException {
         RemoteServer server = RemoteServer.builder()
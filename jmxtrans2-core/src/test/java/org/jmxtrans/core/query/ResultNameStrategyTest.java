@@ -35,6 +35,7 @@ import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
 
 @Listeners(MockitoTestNGListener.class)
 public class ResultNameStrategyTest {
@@ -80,4 +81,40 @@ public class ResultNameStrategyTest {
         assertThat(resultNameStrategy.getResultName(query, objectName, QueryAttribute.builder("ObjectPendingFinalizationCount").build()))
                 .isEqualTo("java.lang.Memory.ObjectPendingFinalizationCount");
     }
+
+    @Test
+    public void resultAliasIsResolvedWithKeyProperties() throws MalformedObjectNameException {
+        when(query.getResultAlias()).thenReturn("memory.%type%.%unknown%");
+        ObjectName objectName = new ObjectName("java.lang:type=Memory");
+
+        assertThat(resultNameStrategy.getResultName(query, objectName, QueryAttribute.builder("HeapMemoryUsage").build(), "used"))
+                .isEqualTo("memory.Memory._unsupported_expression_.HeapMemoryUsage.used");
+    }
+
+    @Test
+    public void resultNamesAreCached() throws MalformedObjectNameException {
+        ObjectName objectName = new ObjectName("java.lang:type=Memory");
+        QueryAttribute attribute = QueryAttribute.builder("HeapMemoryUsage").build();
+
+        String first = resultNameStrategy.getResultName(query, objectName, attribute, "used");
+        String second = resultNameStrategy.getResultName(query, objectName, attribute, "used");
+        resultNameStrategy.getResultName(query, objectName, attribute, "max");
+
+        assertThat(second).isSameAs(first);
+        assertThat(resultNameStrategy.getResultNameCacheHitCount()).isEqualTo(1);
+        assertThat(resultNameStrategy.getResultNameCacheMissCount()).isEqualTo(2);
+        assertThat(resultNameStrategy.getResultNameCacheSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void cacheIsClearedWhenFull() throws MalformedObjectNameException {
+        resultNameStrategy = new ResultNameStrategy(2);
+        QueryAttribute attribute = QueryAttribute.builder("Count").build();
+
+        for (int i = 0; i < 3; i++) {
+            resultNameStrategy.getResultName(query, new ObjectName("test:type=Test,name=" + i), attribute);
+        }
+
+        assertThat(resultNameStrategy.getResultNameCacheSize()).isEqualTo(1);
+    }
 }
@@ -0,0 +1,153 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import static org.jmxtrans.core.results.MetricType.GAUGE;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangeSuppressorTest {
+
+    private static final String SERVER = "server";
+
+    private final SeriesDescriptor exact = series("exact", new ChangeSuppression(0, 3));
+    private final SeriesDescriptor deadBand = series("deadBand", new ChangeSuppression(1, 10));
+    private ChangeSuppressor changeSuppressor;
+
+    @BeforeMethod
+    public void createChangeSuppressor() {
+        changeSuppressor = new ChangeSuppressor(2, 1, MINUTES);
+    }
+
+    @Test
+    public void allValuesAreEmittedWithoutSuppression() {
+        SeriesDescriptor series = new SeriesDescriptor("all", GAUGE);
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(series, 1L, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(series, 1L, 2000))).isTrue();
+        assertThat(changeSuppressor.getSeriesCount()).isZero();
+    }
+
+    @Test
+    public void unchangedValuesAreSuppressed() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 2000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 2L, 3000))).isTrue();
+        assertThat(changeSuppressor.getSuppressedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void valuesWithinDeadBandAreSuppressed() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(deadBand, 10d, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(deadBand, 10.5d, 2000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(deadBand, 11L, 3000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(deadBand, 11.5d, 4000))).isTrue();
+        // compared to the last emitted value, not to the last read one
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(deadBand, 10.75d, 5000))).isFalse();
+    }
+
+    @Test
+    public void nonNumericValuesAreComparedForEquality() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, "value", 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, "value", 2000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, "other", 3000))).isTrue();
+    }
+
+    @Test
+    public void unchangedValuesAreEmittedOnHeartbeat() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 2000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 3000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 4000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 5000))).isFalse();
+    }
+
+    @Test
+    public void sameSeriesIsComparedIndependentlyForEachServer() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit("other-server", new QueryResult(exact, 2L, 1000))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 2000))).isFalse();
+        assertThat(changeSuppressor.shouldEmit("other-server", new QueryResult(exact, 2L, 2000))).isFalse();
+    }
+
+    @Test
+    public void valueAfterAGapIsEmitted() {
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 0))).isTrue();
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, MINUTES.toMillis(2)))).isTrue();
+        assertThat(changeSuppressor.getEvictedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void sinkOnlyForwardsChangedValues() {
+        final List<QueryResult> accepted = new ArrayList<>();
+        ResultSink sink = new ChangeSuppressingResultSink(new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                accepted.add(result);
+                return true;
+            }
+        }, changeSuppressor.session(SERVER));
+
+        assertThat(sink.accept(new QueryResult(exact, 1L, 1000))).isTrue();
+        assertThat(sink.accept(new QueryResult(exact, 1L, 2000))).isTrue();
+
+        assertThat(accepted).containsExactly(new QueryResult(exact, 1L, 1000));
+    }
+
+    @Test
+    public void valuesAreOnlyStoredOnceSessionIsCommitted() {
+        ChangeSuppressor.Session session = changeSuppressor.session(SERVER);
+        assertThat(session.shouldEmit(new QueryResult(exact, 1L, 1000))).isTrue();
+        assertThat(session.shouldEmit(new QueryResult(exact, 1L, 2000))).isFalse();
+        assertThat(changeSuppressor.getSeriesCount()).isZero();
+        assertThat(changeSuppressor.getSuppressedCount()).isZero();
+
+        session.commit();
+        assertThat(changeSuppressor.getSuppressedCount()).isEqualTo(1);
+        session = changeSuppressor.session(SERVER);
+        assertThat(session.shouldEmit(new QueryResult(exact, 1L, 3000))).isFalse();
+        // emitted on heartbeat, the committed suppressed value counts as a period
+        assertThat(session.shouldEmit(new QueryResult(exact, 1L, 4000))).isTrue();
+        // the session is dropped without being committed
+        assertThat(changeSuppressor.shouldEmit(SERVER, new QueryResult(exact, 1L, 5000))).isFalse();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void deadBandCannotBeNegative() {
+        new ChangeSuppression(-1, 1);
+    }
+
+    @Nonnull
+    private static SeriesDescriptor series(@Nonnull String name, @Nonnull ChangeSuppression changeSuppression) {
+        return new SeriesDescriptor(name, GAUGE, null, null, null, CounterMode.RAW, changeSuppression);
+    }
+}
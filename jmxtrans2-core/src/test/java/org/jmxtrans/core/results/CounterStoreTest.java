@@ -0,0 +1,212 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.jmxtrans.core.results.MetricType.GAUGE;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CounterStoreTest {
+
+    private static final String SERVER = "server";
+
+    private final SeriesDescriptor raw = series("raw", CounterMode.RAW);
+    private final SeriesDescriptor delta = series("delta", CounterMode.DELTA);
+    private final SeriesDescriptor rate = series("rate", CounterMode.RATE);
+    private CounterStore counterStore;
+
+    @BeforeMethod
+    public void createCounterStore() {
+        counterStore = new CounterStore(2, 1, MINUTES);
+    }
+
+    @Test
+    public void rawValuesAreEmittedAsRead() {
+        QueryResult result = new QueryResult(raw, 10L, 1000);
+        assertThat(counterStore.derive(SERVER, result)).isSameAs(result);
+        assertThat(counterStore.getSeriesCount()).isZero();
+    }
+
+    @Test
+    public void firstValueOfASeriesIsNotEmitted() {
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000))).isNull();
+        assertThat(counterStore.getSeriesCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void deltasAreEmitted() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 25L, 11000)))
+                .isEqualTo(new QueryResult(delta, 15L, 11000));
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 25.5d, 21000))).isNull();
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 26d, 31000)))
+                .isEqualTo(new QueryResult(delta, 0.5d, 31000));
+    }
+
+    @Test
+    public void ratesArePerSecond() {
+        counterStore.derive(SERVER, new QueryResult(rate, 10L, 1000));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(rate, 30L, 11000)))
+                .isEqualTo(new QueryResult(rate, 2d, 11000));
+    }
+
+    @Test
+    public void countersAreAssumedToRestartFromZeroWhenReset() {
+        counterStore.derive(SERVER, new QueryResult(delta, 100L, 1000));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 5L, 11000)))
+                .isEqualTo(new QueryResult(delta, 5L, 11000));
+        assertThat(counterStore.getResetCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void valuesReadOutOfOrderAreIgnored() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 11000));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 5L, 1000))).isNull();
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 12L, 21000)))
+                .isEqualTo(new QueryResult(delta, 2L, 21000));
+    }
+
+    @Test
+    public void valueAfterAGapIsHandledAsTheFirstOne() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 0));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 20L, MINUTES.toMillis(2)))).isNull();
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 25L, MINUTES.toMillis(2) + 10000)))
+                .isEqualTo(new QueryResult(delta, 5L, MINUTES.toMillis(2) + 10000));
+    }
+
+    @Test
+    public void idleSeriesAreEvicted() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 0));
+        counterStore.derive(SERVER, new QueryResult(rate, 10L, MINUTES.toMillis(2)));
+
+        assertThat(counterStore.getSeriesCount()).isEqualTo(1);
+        assertThat(counterStore.getEvictedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void leastRecentlySeenSeriesIsEvictedWhenStoreIsFull() {
+        SeriesDescriptor other = series("other", CounterMode.DELTA);
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000));
+        counterStore.derive(SERVER, new QueryResult(rate, 10L, 2000));
+        counterStore.derive(SERVER, new QueryResult(delta, 11L, 3000));
+        counterStore.derive(SERVER, new QueryResult(other, 10L, 4000));
+
+        assertThat(counterStore.getSeriesCount()).isEqualTo(2);
+        assertThat(counterStore.getEvictedCount()).isEqualTo(1);
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 12L, 5000)))
+                .isEqualTo(new QueryResult(delta, 1L, 5000));
+        assertThat(counterStore.derive(SERVER, new QueryResult(rate, 12L, 6000))).isNull();
+    }
+
+    @Test
+    public void sameSeriesIsDerivedIndependentlyForEachServer() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000));
+        counterStore.derive("other-server", new QueryResult(delta, 1000L, 1000));
+
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 15L, 11000)))
+                .isEqualTo(new QueryResult(delta, 5L, 11000));
+        assertThat(counterStore.derive("other-server", new QueryResult(delta, 1100L, 11000)))
+                .isEqualTo(new QueryResult(delta, 100L, 11000));
+        assertThat(counterStore.getResetCount()).isZero();
+    }
+
+    @Test
+    public void maxIdleTimeCoversSeveralCollectionIntervals() {
+        assertThat(CounterStore.maxIdleMillisFor(SECONDS.toMillis(10))).isEqualTo(CounterStore.DEFAULT_MAX_IDLE_MILLIS);
+        assertThat(CounterStore.maxIdleMillisFor(MINUTES.toMillis(15))).isEqualTo(MINUTES.toMillis(45));
+    }
+
+    @Test
+    public void nonNumericValuesAreEmittedAsRead() {
+        QueryResult result = new QueryResult(delta, "value", 1000);
+        assertThat(counterStore.derive(SERVER, result)).isSameAs(result);
+    }
+
+    @Test
+    public void sinkOnlyForwardsDerivedValues() {
+        final List<QueryResult> accepted = new ArrayList<>();
+        ResultSink sink = new CounterResultSink(new ResultSink() {
+            @Override
+            public boolean accept(@Nonnull QueryResult result) {
+                accepted.add(result);
+                return true;
+            }
+        }, counterStore.session(SERVER));
+
+        assertThat(sink.accept(new QueryResult(delta, 10L, 1000))).isTrue();
+        assertThat(sink.accept(new QueryResult(delta, 12L, 2000))).isTrue();
+
+        assertThat(accepted).containsExactly(new QueryResult(delta, 2L, 2000));
+    }
+
+    @Test
+    public void valuesAreOnlyStoredOnceSessionIsCommitted() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000));
+        CounterStore.Session session = counterStore.session(SERVER);
+
+        assertThat(session.derive(new QueryResult(delta, 20L, 11000))).isEqualTo(new QueryResult(delta, 10L, 11000));
+        assertThat(session.derive(new QueryResult(delta, 5L, 21000))).isEqualTo(new QueryResult(delta, 5L, 21000));
+        assertThat(counterStore.getResetCount()).isZero();
+        // the session is dropped without being committed
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 30L, 31000)))
+                .isEqualTo(new QueryResult(delta, 20L, 31000));
+
+        session = counterStore.session(SERVER);
+        session.derive(new QueryResult(delta, 5L, 41000));
+        session.commit();
+        assertThat(counterStore.getResetCount()).isEqualTo(1);
+        assertThat(counterStore.derive(SERVER, new QueryResult(delta, 7L, 51000)))
+                .isEqualTo(new QueryResult(delta, 2L, 51000));
+    }
+
+    @Test
+    public void seriesAreBoundedForEachServer() {
+        counterStore.derive(SERVER, new QueryResult(delta, 10L, 1000));
+        counterStore.derive(SERVER, new QueryResult(rate, 10L, 1000));
+        counterStore.derive("other-server", new QueryResult(delta, 10L, 1000));
+
+        assertThat(counterStore.getSeriesCount()).isEqualTo(3);
+        assertThat(counterStore.getEvictedCount()).isZero();
+    }
+
+    @Nonnull
+    private static SeriesDescriptor series(@Nonnull String name, @Nonnull CounterMode counterMode) {
+        return new SeriesDescriptor(name, GAUGE, null, null, null, counterMode);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CountingResultSinkTest {
+
+    private final QueryResult result = new QueryResult("name", MetricType.GAUGE, 1, 0);
+
+    @Test
+    public void resultsAreForwardedUpToMaxResults() {
+        CollectingSink collected = new CollectingSink(true);
+        CountingResultSink sink = new CountingResultSink(collected, 2);
+
+        assertThat(sink.accept(result)).isTrue();
+        assertThat(sink.accept(result)).isFalse();
+        assertThat(sink.accept(result)).isFalse();
+
+        assertThat(collected.results).hasSize(2);
+        assertThat(sink.getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void sinkStopsWhenDelegateStops() {
+        CollectingSink collected = new CollectingSink(false);
+        CountingResultSink sink = new CountingResultSink(collected, 10);
+
+        assertThat(sink.accept(result)).isFalse();
+        assertThat(sink.accept(result)).isFalse();
+
+        assertThat(collected.results).hasSize(1);
+        assertThat(sink.isAccepting()).isFalse();
+    }
+
+    private static final class CollectingSink implements ResultSink {
+        private final List<QueryResult> results = new ArrayList<>();
+        private final boolean accepting;
+
+        private CollectingSink(boolean accepting) {
+            this.accepting = accepting;
+        }
+
+        @Override
+        public boolean accept(@Nonnull QueryResult result) {
+            results.add(result);
+            return accepting;
+        }
+    }
+}
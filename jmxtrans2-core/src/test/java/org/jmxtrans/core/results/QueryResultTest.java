@@ -22,6 +22,8 @@
  */
 package org.jmxtrans.core.results;
 
+import java.io.IOException;
+
 import org.testng.annotations.Test;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -83,4 +85,42 @@ public class QueryResultTest {
         assertThat(new QueryResult("name", UNKNOWN, "value", 1L).hashCode())
                 .isNotEqualTo(new QueryResult("name", UNKNOWN, "value", 2L).hashCode());
     }
+
+    @Test
+    public void integralValuesAreUnboxed() {
+        QueryResult queryResult = new QueryResult("name", UNKNOWN, Integer.valueOf(42), 1L);
+
+        assertThat(queryResult.getValueType()).isEqualTo(ValueType.LONG);
+        assertThat(queryResult.getLongValue()).isEqualTo(42L);
+        assertThat(queryResult.getValue()).isEqualTo(42L);
+        assertThat(queryResult).isEqualTo(new QueryResult("name", UNKNOWN, 42L, 1L));
+    }
+
+    @Test
+    public void doubleValuesAreUnboxed() {
+        QueryResult queryResult = new QueryResult("name", UNKNOWN, Double.valueOf(1.5), 1L);
+
+        assertThat(queryResult.getValueType()).isEqualTo(ValueType.DOUBLE);
+        assertThat(queryResult.getDoubleValue()).isEqualTo(1.5);
+        assertThat(queryResult).isEqualTo(new QueryResult("name", UNKNOWN, 1.5, 1L));
+    }
+
+    @Test
+    public void valuesAreAppendedAsStrings() throws IOException {
+        assertThat(appendedValue(new QueryResult("name", UNKNOWN, -42L, 1L))).isEqualTo("-42");
+        assertThat(appendedValue(new QueryResult("name", UNKNOWN, 1.5, 1L))).isEqualTo("1.5");
+        assertThat(appendedValue(new QueryResult("name", UNKNOWN, "value", 1L))).isEqualTo("value");
+        assertThat(appendedValue(new QueryResult("name", UNKNOWN, null, 1L))).isEqualTo("null");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void stringValuesAreNotNumeric() {
+        new QueryResult("name", UNKNOWN, "value", 1L).getDoubleValue();
+    }
+
+    private static String appendedValue(QueryResult queryResult) throws IOException {
+        StringBuilder result = new StringBuilder();
+        queryResult.appendValue(result);
+        return result.toString();
+    }
 }
@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.results;
+
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import static org.jmxtrans.core.results.MetricType.GAUGE;
+import static org.jmxtrans.core.results.MetricType.UNKNOWN;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResultBatchTest {
+
+    private final SeriesDescriptor series = new SeriesDescriptor("name", GAUGE);
+
+    @Test
+    public void valuesAreStoredByColumns() throws IOException {
+        ResultBatch batch = new ResultBatch(3);
+        batch.add(new QueryResult(series, Long.MAX_VALUE, 1L));
+        batch.add(new QueryResult(series, 1.5d, 2L));
+        batch.add(new QueryResult(series, "value", 3L));
+
+        assertThat(batch.size()).isEqualTo(3);
+        assertThat(batch.isFull()).isTrue();
+        assertThat(batch.getSeries(0)).isSameAs(series);
+        assertThat(batch.getEpoch(1, MILLISECONDS)).isEqualTo(2L);
+        assertThat(batch.getValueType(0)).isEqualTo(ValueType.LONG);
+        assertThat(batch.getLongValue(0)).isEqualTo(Long.MAX_VALUE);
+        assertThat(batch.getValueType(1)).isEqualTo(ValueType.DOUBLE);
+        assertThat(batch.getDoubleValue(1)).isEqualTo(1.5d);
+        assertThat(batch.getValueType(2)).isEqualTo(ValueType.OBJECT);
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.appendValue(i, values);
+            values.append(' ');
+        }
+        assertThat(values.toString()).isEqualTo(Long.MAX_VALUE + " 1.5 value ");
+    }
+
+    @Test
+    public void resultsAreRestoredWhenIterating() {
+        QueryResult longResult = new QueryResult("long", UNKNOWN, 1L, 1L);
+        QueryResult doubleResult = new QueryResult("double", UNKNOWN, 1.5d, 2L);
+        QueryResult objectResult = new QueryResult("object", UNKNOWN, "value", 3L);
+        ResultBatch batch = new ResultBatch(3);
+        batch.add(longResult);
+        batch.add(doubleResult);
+        batch.add(objectResult);
+
+        assertThat(batch).containsExactly(longResult, doubleResult, objectResult);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void cannotAddToFullBatch() {
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(new QueryResult(series, 1L, 1L));
+        batch.add(new QueryResult(series, 1L, 1L));
+    }
+
+    @Test
+    public void columnsGrowUpToMaxCapacity() {
+        ResultBatch batch = new ResultBatch(40);
+        assertThat(batch.getCapacity()).isEqualTo(ResultBatch.INITIAL_CAPACITY);
+
+        for (int i = 0; i < 40; i++) {
+            batch.add(new QueryResult(series, i, i));
+        }
+
+        assertThat(batch.getCapacity()).isEqualTo(40);
+        assertThat(batch.isFull()).isTrue();
+        assertThat(batch.getLongValue(39)).isEqualTo(39);
+        assertThat(batch.getEpoch(17)).isEqualTo(17);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void cannotReadPastSize() {
+        ResultBatch batch = new ResultBatch(2);
+        batch.add(new QueryResult(series, 1L, 1L));
+        batch.getSeries(1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void nonNumericValuesCannotBeReadAsDouble() {
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(new QueryResult(series, "value", 1L));
+        batch.getDoubleValue(0);
+    }
+
+    @Test
+    public void batchesAreRecycledOnceReleasedByAllStages() {
+        ResultBatchPool pool = new ResultBatchPool(2, 1);
+        ResultBatch batch = pool.acquire();
+        batch.add(new QueryResult(series, "value", 1L));
+        batch.retain();
+
+        batch.release();
+        assertThat(pool.getPooledCount()).isZero();
+        assertThat(batch.size()).isEqualTo(1);
+
+        batch.release();
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+        assertThat(batch.isEmpty()).isTrue();
+
+        assertThat(pool.acquire()).isSameAs(batch);
+        assertThat(pool.getPooledCount()).isZero();
+    }
+
+    @Test
+    public void poolIsBounded() {
+        ResultBatchPool pool = new ResultBatchPool(2, 1);
+        ResultBatch first = pool.acquire();
+        ResultBatch second = pool.acquire();
+
+        first.release();
+        second.release();
+
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void batchesWhichGrewBeyondPooledCapacityAreNotPooled() {
+        ResultBatchPool pool = new ResultBatchPool(64, 2, ResultBatch.INITIAL_CAPACITY);
+        ResultBatch small = pool.acquire();
+        ResultBatch large = pool.acquire();
+        for (int i = 0; i <= ResultBatch.INITIAL_CAPACITY; i++) {
+            large.add(new QueryResult(series, (long) i, 1L));
+        }
+
+        small.release();
+        large.release();
+
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+        assertThat(pool.acquire()).isSameAs(small);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void cannotReleaseMoreThanRetained() {
+        ResultBatch batch = new ResultBatch(1);
+        batch.release();
+        batch.release();
+    }
+}
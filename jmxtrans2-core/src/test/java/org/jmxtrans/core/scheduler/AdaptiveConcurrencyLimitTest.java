@@ -0,0 +1,156 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private final ManualClock clock = new ManualClock();
+    private BlockingQueue<Runnable> queue;
+    private ThreadPoolExecutor executor;
+    private AdaptiveConcurrencyLimit limit;
+
+    @BeforeMethod
+    public void createLimit() {
+        queue = new ArrayBlockingQueue<>(10);
+        // no thread is ever created, so that queued tasks stay in the queue
+        executor = new ThreadPoolExecutor(1, 1, 1, SECONDS, queue, new NoThreadFactory());
+        limit = new AdaptiveConcurrencyLimit(executor, clock, 2, 4);
+    }
+
+    @AfterMethod
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void executorIsResizedToFloor() {
+        assertThat(limit.getLimit()).isEqualTo(2);
+        assertThat(executor.getCorePoolSize()).isEqualTo(2);
+        assertThat(executor.getMaximumPoolSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void limitIsNotIncreasedWithoutBacklog() {
+        recordWindow(10);
+        recordWindow(10);
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void limitIsIncreasedAdditivelyWhenTasksAreWaiting() {
+        queue.add(new DummyTask());
+
+        recordWindow(10);
+        assertThat(limit.getLimit()).isEqualTo(3);
+        assertThat(executor.getCorePoolSize()).isEqualTo(3);
+        assertThat(executor.getMaximumPoolSize()).isEqualTo(3);
+
+        recordWindow(10);
+        recordWindow(10);
+        assertThat(limit.getLimit()).isEqualTo(4);
+        assertThat(limit.getIncreaseCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void limitIsDecreasedMultiplicativelyWhenLatencyIncreases() {
+        limit.setLimit(4);
+        recordWindow(10);
+
+        recordWindow(50);
+        assertThat(limit.getLimit()).isEqualTo(3);
+        assertThat(limit.getDecreaseCount()).isEqualTo(1);
+
+        recordWindow(100);
+        recordWindow(100);
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void latencyIsMeasuredAroundTaskExecution() {
+        Runnable task = new DummyTask();
+        for (int i = 0; i < AdaptiveConcurrencyLimit.SAMPLES_PER_WINDOW; i++) {
+            limit.beforeExecute(task);
+            clock.waitFor(20, MILLISECONDS);
+            limit.afterExecute(task, null);
+        }
+        assertThat(limit.getLastLatencyInNanos()).isEqualTo(MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void limitCanBeForcedWithinBounds() {
+        limit.setLimit(10);
+        assertThat(limit.getLimit()).isEqualTo(4);
+        limit.setLimit(0);
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void boundsCanBeModified() {
+        limit.setMinLimit(3);
+        assertThat(limit.getLimit()).isEqualTo(3);
+        limit.setMaxLimit(3);
+        limit.setMinLimit(1);
+        limit.setLimit(5);
+        assertThat(limit.getLimit()).isEqualTo(3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void floorCannotExceedCeiling() {
+        limit.setMinLimit(5);
+    }
+
+    private void recordWindow(long latencyMillis) {
+        for (int i = 0; i < AdaptiveConcurrencyLimit.SAMPLES_PER_WINDOW; i++) {
+            limit.recordLatency(MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    private static final class NoThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return null;
+        }
+    }
+
+    private static final class DummyTask implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
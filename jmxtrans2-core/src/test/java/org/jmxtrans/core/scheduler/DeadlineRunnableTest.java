@@ -22,24 +22,36 @@
  */
 package org.jmxtrans.core.scheduler;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+
 import javax.annotation.Nonnull;
 
 import org.jmxtrans.utils.time.Clock;
 import org.jmxtrans.utils.time.ManualClock;
 
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class DeadlineRunnableTest {
 
+    private TaskMetrics taskMetrics;
+
+    @BeforeMethod
+    public void createTaskMetrics() {
+        taskMetrics = new TaskMetrics();
+    }
+
     @Test
     public void jobIsRunBeforeDeadline() {
         ManualClock clock = new ManualClock();
         long deadline = clock.currentTimeMillis() + 1000;
-        DummyJob job = new DummyJob(clock, deadline);
+        DummyJob job = new DummyJob(clock, deadline, taskMetrics);
         job.run();
         assertThat(job.hasRun).isTrue();
     }
@@ -48,20 +60,77 @@ public class DeadlineRunnableTest {
     public void jodIsNotRunAfterDeadline() {
         ManualClock clock = new ManualClock();
         long deadline = clock.currentTimeMillis() + 1000;
-        DummyJob job = new DummyJob(clock, deadline);
+        DummyJob job = new DummyJob(clock, deadline, taskMetrics);
         clock.waitFor(2, SECONDS);
         job.run();
         assertThat(job.hasRun).isFalse();
+        assertThat(taskMetrics.getDroppedCount()).isEqualTo(1);
+        assertThat(taskMetrics.getTimedOutCount()).isZero();
+    }
+
+    @Test
+    public void jobRunningPastDeadlineIsAbandoned() throws InterruptedException {
+        ManualClock clock = new ManualClock();
+        ScheduledExecutorService watchdog = newSingleThreadScheduledExecutor();
+        try {
+            BlockingJob job = new BlockingJob(clock, clock.currentTimeMillis() + 50, taskMetrics, watchdog);
+            job.run();
+
+            assertThat(job.interrupted).isTrue();
+            assertThat(job.timeoutNotified).isTrue();
+            assertThat(job.isTimedOut()).isTrue();
+            assertThat(taskMetrics.getTimedOutCount()).isEqualTo(1);
+            assertThat(taskMetrics.getDroppedCount()).isZero();
+            assertThat(Thread.interrupted()).isFalse();
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    @Test
+    public void jobIsRunWithoutDeadlineOnceWatchdogIsShutDown() {
+        ManualClock clock = new ManualClock();
+        ScheduledExecutorService watchdog = newSingleThreadScheduledExecutor();
+        watchdog.shutdown();
+
+        DummyJob job = new DummyJob(clock, clock.currentTimeMillis() + 1000, taskMetrics, watchdog);
+        job.run();
+
+        assertThat(job.hasRun).isTrue();
+        assertThat(taskMetrics.getTimedOutCount()).isZero();
     }
 
     private static final class DummyJob extends DeadlineRunnable {
         private boolean hasRun = false;
-        public DummyJob(@Nonnull Clock clock, long deadline) {
-            super(clock, deadline);
+        public DummyJob(@Nonnull Clock clock, long deadline, @Nonnull TaskMetrics taskMetrics) {
+            super(clock, deadline, taskMetrics);
+        }
+        public DummyJob(@Nonnull Clock clock, long deadline, @Nonnull TaskMetrics taskMetrics, @Nonnull ScheduledExecutorService watchdog) {
+            super(clock, deadline, taskMetrics, watchdog);
         }
         @Override
         protected void doRun() {
             hasRun = true;
         }
     }
+
+    private static final class BlockingJob extends DeadlineRunnable {
+        private boolean interrupted = false;
+        private volatile boolean timeoutNotified = false;
+        public BlockingJob(@Nonnull Clock clock, long deadline, @Nonnull TaskMetrics taskMetrics, @Nonnull ScheduledExecutorService watchdog) {
+            super(clock, deadline, taskMetrics, watchdog);
+        }
+        @Override
+        protected void doRun() {
+            try {
+                new CountDownLatch(1).await(10, SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        @Override
+        protected void onTimeout() {
+            timeoutNotified = true;
+        }
+    }
 }
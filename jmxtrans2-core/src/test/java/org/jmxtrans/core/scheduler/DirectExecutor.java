@@ -22,11 +22,43 @@
  */
 package org.jmxtrans.core.scheduler;
 
-import java.util.concurrent.Executor;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DirectExecutor extends AbstractExecutorService {
+
+    private volatile boolean shutdown = false;
 
-public class DirectExecutor implements Executor {
     @Override
     public void execute(Runnable command) {
         command.run();
     }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return shutdown;
+    }
 }
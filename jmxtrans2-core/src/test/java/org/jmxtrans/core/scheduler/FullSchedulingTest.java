@@ -26,6 +26,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -38,27 +40,37 @@ import javax.management.MBeanServerConnection;
 import org.jmxtrans.core.lifecycle.LifecycleAware;
 import org.jmxtrans.core.output.OutputWriter;
 import org.jmxtrans.core.query.InProcessServer;
+import org.jmxtrans.core.query.ObjectNameResolver;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.ResultNameStrategy;
 import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultSink;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 import org.jmxtrans.utils.time.Clock;
 import org.jmxtrans.utils.time.Interval;
 import org.jmxtrans.utils.time.SystemClock;
 
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import static com.jayway.awaitility.Awaitility.await;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 @Listeners(MockitoTestNGListener.class)
@@ -66,45 +78,81 @@ public class FullSchedulingTest {
 
     @Mock private Query query;
     @Mock private OutputWriter outputWriter;
-    @Mock private QueryResult result;
+    private final QueryResult result = new QueryResult("name", MetricType.UNKNOWN, 1L, 0);
     private Collection<QueryResult> results;
+    private final Collection<QueryResult> writtenResults = new ConcurrentLinkedQueue<>();
     @Nonnull private final Clock clock = new SystemClock();
     @Nonnull private final Interval queryPeriod = new Interval(1, SECONDS);
 
     @BeforeMethod
     public void prepareQueryResults() {
-        this.results = singleton(result);
+        this.results = singletonList(result);
     }
 
     @Test
     public void queriesAreFullyProcessed() throws Exception {
-        when(query.collectMetrics(any(MBeanServerConnection.class), any(ResultNameStrategy.class)))
-                .thenReturn(results);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ResultSink sink = (ResultSink) invocation.getArguments()[5];
+                for (QueryResult result : results) {
+                    sink.accept(result);
+                }
+                return null;
+            }
+        }).when(query).collectMetrics(any(MBeanServerConnection.class), any(ObjectNameResolver.class), Matchers.<Executor>any(), anyLong(), any(ResultNameStrategy.class), any(ResultSink.class));
+        when(query.getPriority()).thenReturn(Priority.NORMAL);
+        // batches are recycled once written, their content is copied
+        doAnswer(new Answer<Integer>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                int count = 0;
+                for (QueryResult result : (Iterable<QueryResult>) invocation.getArguments()[0]) {
+                    writtenResults.add(result);
+                    count++;
+                }
+                return count;
+            }
+        }).when(outputWriter).writeAll(Matchers.<Iterable<QueryResult>>any());
 
         long shutdownTimerMillis = 1000;
 
-        ExecutorService queryExecutor = createExecutorService("queries", 2, 1000, 1, MINUTES);
-        ExecutorService resultExecutor = createExecutorService("results", 2, 1000, 1, MINUTES);
+        Bulkheads queryExecutors = new Bulkheads(singletonMap(
+                InProcessServer.DEFAULT_BULKHEAD_NAME,
+                createExecutorService("queries", 2, 1000, 1, MINUTES)));
+        WriterChannels writerChannels = new WriterChannels(singletonMap(
+                outputWriter,
+                new WriterChannel(1000, new JmxTransThreadFactory("results"), new LatencyMonitor(clock))));
         ScheduledExecutorService queryTimer = createScheduledExecutorService("queryTimer");
+        ScheduledExecutorService queryWatchdog = createScheduledExecutorService("queryWatchdog");
 
         NaiveScheduler scheduler = new NaiveScheduler(
-                queryExecutor,
-                resultExecutor,
+                queryExecutors,
+                writerChannels,
                 queryTimer,
+                queryWatchdog,
                 new QueryGenerator(
                         clock,
                         queryPeriod,
+                        DispatchMode.BURST,
+                        OverrunPolicy.COALESCE,
+                        OverlapPolicy.SKIP,
                         Collections.<Server>singleton(new InProcessServer(singleton(query))),
                         new QueryProcessor(
                                 clock,
                                 singleton(outputWriter),
-                                queryExecutor,
+                                queryExecutors,
                                 new ResultProcessor(
                                         clock,
-                                        resultExecutor
-                                ), new ResultNameStrategy()
+                                        writerChannels,
+                                        new TaskMetrics()
+                                ), new ResultNameStrategy(),
+                                TaskMetrics.perPriority(),
+                                queryWatchdog
                         ),
-                        queryTimer
+                        queryTimer,
+                        Backpressure.NONE
                 ),
                 Collections.<LifecycleAware>emptyList(),
                 shutdownTimerMillis
@@ -135,15 +183,9 @@ public class FullSchedulingTest {
     }
 
     private class ResultWritten implements Callable<Boolean> {
-        // NOTE: This is necessary as Mockito verification with timeout depends on JUnit classes (ugly but ...)
         @Override
         public Boolean call() throws Exception {
-            try {
-                verify(outputWriter).write(result);
-                return true;
-            } catch (AssertionError ae) {
-                return false;
-            }
+            return writtenResults.containsAll(results);
         }
     }
 }
@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Invocation;
+import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.utils.mockito.MockitoTestNGListener;
+import org.jmxtrans.utils.time.Interval;
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.jmxtrans.core.results.MetricType.UNKNOWN;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Listeners(MockitoTestNGListener.class)
+public class InvocationSchedulerTest {
+
+    private final ManualClock clock = new ManualClock();
+    @Mock private MBeanServerConnection mBeanServer;
+    @Mock private ScheduledExecutorService timer;
+    @Mock private OutputWriter outputWriter;
+    @Mock private ResultProcessor resultProcessor;
+    private ObjectName objectName;
+
+    @BeforeMethod
+    public void createMBeanServer() throws Exception {
+        clock.setTime(3, SECONDS);
+        objectName = new ObjectName("java.lang:type=Threading");
+        when(mBeanServer.queryNames(any(ObjectName.class), any(QueryExp.class))).thenReturn(singleton(objectName));
+        when(mBeanServer.invoke(any(ObjectName.class), anyString(), any(Object[].class), any(String[].class))).thenReturn(42L);
+    }
+
+    @Test
+    public void invocationsAreScheduledAtTheirOwnInterval() {
+        InvocationScheduler scheduler = scheduler(
+                invocation(new Interval(60, SECONDS), 0),
+                invocation(null, 0));
+
+        scheduler.start();
+
+        verify(timer).scheduleAtFixedRate(any(Runnable.class), eq(57000L), eq(60000L), eq(MILLISECONDS));
+        verify(timer).scheduleAtFixedRate(any(Runnable.class), eq(7000L), eq(10000L), eq(MILLISECONDS));
+        assertThat(scheduler.getInvocationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void resultsAreWrittenToOutputWriters() {
+        InvocationScheduler scheduler = scheduler(invocation(null, 0));
+        scheduler.start();
+
+        scheduledRun().run();
+
+        verify(resultProcessor).writeResults(eq(3000L + 10000L), anyListOf(QueryResult.class), eq(outputWriter));
+    }
+
+    @Test
+    public void cachedResultsAreAccounted() throws Exception {
+        InvocationScheduler scheduler = scheduler(invocation(null, 30));
+        scheduler.start();
+        Runnable run = scheduledRun();
+
+        run.run();
+        clock.setTime(13, SECONDS);
+        run.run();
+
+        verify(mBeanServer, times(1)).invoke(any(ObjectName.class), anyString(), any(Object[].class), any(String[].class));
+        verify(resultProcessor, times(2)).writeResults(anyLong(), anyListOf(QueryResult.class), eq(outputWriter));
+        assertThat(scheduler.getCacheHitCount()).isEqualTo(1);
+    }
+
+    private Runnable scheduledRun() {
+        ArgumentCaptor<Runnable> run = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).scheduleAtFixedRate(run.capture(), anyLong(), anyLong(), eq(MILLISECONDS));
+        return run.getValue();
+    }
+
+    private InvocationScheduler scheduler(Invocation... invocations) {
+        List<OutputWriter> outputWriters = singletonList(outputWriter);
+        return new InvocationScheduler(
+                clock,
+                new Interval(10, SECONDS),
+                asList(invocations),
+                mBeanServer,
+                new DirectExecutor(),
+                timer,
+                outputWriters,
+                resultProcessor,
+                new TaskMetrics());
+    }
+
+    private Invocation invocation(Interval collectInterval, long resultCacheTtlInSeconds) {
+        return new Invocation(
+                objectName,
+                "getThreadCpuTime",
+                new Object[0], new String[0],
+                "jvm.thread.cpu", UNKNOWN,
+                collectInterval,
+                resultCacheTtlInSeconds, SECONDS,
+                1,
+                clock);
+    }
+}
@@ -26,7 +26,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.jmxtrans.core.lifecycle.LifecycleAware;
+import org.jmxtrans.core.output.OutputWriter;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
+import org.jmxtrans.utils.time.SystemClock;
 
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -36,6 +38,7 @@ import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
@@ -48,17 +51,19 @@ public class NaiveSchedulerTest {
 
     private NaiveScheduler scheduler;
     private ExecutorService queryExecutor;
-    private ExecutorService resultExecutor;
+    private WriterChannel writerChannel;
     private ScheduledExecutorService queryTimer;
+    private ScheduledExecutorService queryWatchdog;
     @Mock private LifecycleAware lifecycleListener;
 
     @BeforeMethod
     public void createScheduler() {
         queryExecutor = newSingleThreadExecutor();
-        resultExecutor = newSingleThreadExecutor();
+        writerChannel = new WriterChannel(10, new JmxTransThreadFactory("results"), new LatencyMonitor(new SystemClock()));
         queryTimer = newSingleThreadScheduledExecutor();
+        queryWatchdog = newSingleThreadScheduledExecutor();
         QueryGenerator queryGenerator = Mockito.mock(QueryGenerator.class);
-        scheduler = new NaiveScheduler(queryExecutor, resultExecutor, queryTimer, queryGenerator, singletonList(lifecycleListener), 1);
+        scheduler = new NaiveScheduler(new Bulkheads(singletonMap("test", queryExecutor)), new WriterChannels(singletonMap(Mockito.mock(OutputWriter.class), writerChannel)), queryTimer, queryWatchdog, queryGenerator, singletonList(lifecycleListener), 1);
     }
 
     @Test(expectedExceptions = IllegalStateException.class)
@@ -77,8 +82,9 @@ public class NaiveSchedulerTest {
         scheduler.start();
         scheduler.stop();
         assertThat(queryExecutor.isShutdown()).isTrue();
-        assertThat(resultExecutor.isShutdown()).isTrue();
+        assertThat(writerChannel.isShutdown()).isTrue();
         assertThat(queryTimer.isShutdown()).isTrue();
+        assertThat(queryWatchdog.isShutdown()).isTrue();
     }
 
     @Test
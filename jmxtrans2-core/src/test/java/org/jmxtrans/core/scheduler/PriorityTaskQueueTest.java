@@ -0,0 +1,210 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
+
+import javax.annotation.Nonnull;
+
+import org.jmxtrans.core.query.Priority;
+
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriorityTaskQueueTest {
+
+    @Test
+    public void tasksArePolledByPriorityThenInOrder() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        Task low = new Task(Priority.LOW);
+        Task normal1 = new Task(Priority.NORMAL);
+        Task normal2 = new Task(Priority.NORMAL);
+        Task high = new Task(Priority.HIGH);
+        queue.offer(low);
+        queue.offer(normal1);
+        queue.offer(high);
+        queue.offer(normal2);
+
+        assertThat(queue.size()).isEqualTo(4);
+        assertThat(queue.peek()).isSameAs(high);
+        assertThat(queue.poll()).isSameAs(high);
+        assertThat(queue.poll()).isSameAs(normal1);
+        assertThat(queue.poll()).isSameAs(normal2);
+        assertThat(queue.poll()).isSameAs(low);
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void newestTaskOfLowestPriorityIsShedWhenFull() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(3);
+        Task low1 = new Task(Priority.LOW);
+        Task low2 = new Task(Priority.LOW);
+        Task normal = new Task(Priority.NORMAL);
+        Task high = new Task(Priority.HIGH);
+        queue.offer(low1);
+        queue.offer(normal);
+        queue.offer(low2);
+
+        assertThat(queue.offer(high)).isTrue();
+
+        assertThat(low2.shed).isTrue();
+        assertThat(low1.shed).isFalse();
+        assertThat(queue).containsExactly(high, normal, low1);
+    }
+
+    @Test
+    public void tasksAreRejectedWhenFullOfTasksOfSameOrHigherPriority() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(2);
+        Task normal = new Task(Priority.NORMAL);
+        Task high = new Task(Priority.HIGH);
+        queue.offer(normal);
+        queue.offer(high);
+
+        Task rejected = new Task(Priority.NORMAL);
+        assertThat(queue.offer(rejected)).isFalse();
+        assertThat(queue.offer(new Task(Priority.LOW))).isFalse();
+
+        assertThat(normal.shed).isFalse();
+        assertThat(rejected.shed).isFalse();
+        assertThat(queue.remainingCapacity()).isZero();
+    }
+
+    @Test
+    public void tasksWithoutPriorityAreNormalAndNeverShed() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(1);
+        Runnable plain = new Task(Priority.LOW).asPlainRunnable();
+        queue.offer(plain);
+
+        assertThat(queue.offer(new Task(Priority.HIGH))).isFalse();
+        assertThat(queue.poll()).isSameAs(plain);
+    }
+
+    @Test
+    public void pollWaitsForTasks() throws InterruptedException {
+        PriorityTaskQueue queue = new PriorityTaskQueue(1);
+        assertThat(queue.poll(1, MILLISECONDS)).isNull();
+        Task task = new Task(Priority.NORMAL);
+        queue.put(task);
+        assertThat(queue.take()).isSameAs(task);
+    }
+
+    @Test
+    public void tasksCanBeRemovedAndDrained() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(3);
+        Task low = new Task(Priority.LOW);
+        Task high = new Task(Priority.HIGH);
+        queue.offer(low);
+        queue.offer(high);
+
+        assertThat(queue.remove(low)).isTrue();
+        assertThat(queue.remove(low)).isFalse();
+
+        List<Runnable> drained = new ArrayList<>();
+        assertThat(queue.drainTo(drained)).isEqualTo(1);
+        assertThat(drained).containsExactly(high);
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void executorRunsQueuedTasksByPriority() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, SECONDS,
+                new PriorityTaskQueue(10), new JmxTransThreadFactory("test"), new AbortPolicy());
+        final List<Priority> executed = new ArrayList<>();
+        final Object blocker = new Object();
+        try {
+            synchronized (blocker) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (blocker) {
+                            // wait for all tasks to be queued
+                        }
+                    }
+                });
+                for (Priority priority : new Priority[] {Priority.LOW, Priority.NORMAL, Priority.HIGH}) {
+                    executor.execute(new RecordingTask(priority, executed));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, SECONDS);
+        }
+        assertThat(executed).containsExactly(Priority.HIGH, Priority.NORMAL, Priority.LOW);
+    }
+
+    private static class Task implements PrioritizedTask {
+        @Nonnull private final Priority priority;
+        private boolean shed = false;
+
+        private Task(@Nonnull Priority priority) {
+            this.priority = priority;
+        }
+
+        @Nonnull
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void shed() {
+            shed = true;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        private Runnable asPlainRunnable() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    Task.this.run();
+                }
+            };
+        }
+    }
+
+    private static class RecordingTask extends Task {
+        @Nonnull private final List<Priority> executed;
+
+        private RecordingTask(@Nonnull Priority priority, @Nonnull List<Priority> executed) {
+            super(priority);
+            this.executed = executed;
+        }
+
+        @Override
+        public void run() {
+            synchronized (executed) {
+                executed.add(getPriority());
+            }
+        }
+    }
+}
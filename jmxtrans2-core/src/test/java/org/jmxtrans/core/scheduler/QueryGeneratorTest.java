@@ -23,28 +23,42 @@
 package org.jmxtrans.core.scheduler;
 
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
+
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.Server;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 import org.jmxtrans.utils.time.Interval;
 import org.jmxtrans.utils.time.ManualClock;
 
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -55,34 +69,375 @@ public class QueryGeneratorTest {
     private Interval queryPeriod = new Interval(10, SECONDS);
     @Mock private Server server;
     @Mock private Query query;
+    @Mock private Query slowQuery;
     @Mock private QueryProcessor queryProcessor;
     @Mock private ScheduledExecutorService queryTimer;
+    @Mock private Backpressure backpressure;
     private QueryGenerator queryGenerator;
 
     @BeforeMethod
     public void createQueryGenerator() {
-        clock.setTime(1, SECONDS);
+        clock.setTime(10, SECONDS);
         when(server.getQueries()).thenReturn(singleton(query));
-        queryGenerator = new QueryGenerator(clock, queryPeriod, singletonList(server), queryProcessor, queryTimer);
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.NONE);
+        when(query.getPriority()).thenReturn(Priority.NORMAL);
+        when(slowQuery.getPriority()).thenReturn(Priority.NORMAL);
+        // runs complete as soon as they are dispatched, unless a test says otherwise
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Runnable) invocation.getArguments()[3]).run();
+                return null;
+            }
+        }).when(queryProcessor).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        queryGenerator = queryGenerator(DispatchMode.BURST, OverrunPolicy.COALESCE);
+    }
+
+    private QueryGenerator queryGenerator(DispatchMode dispatchMode, OverrunPolicy overrunPolicy) {
+        return queryGenerator(dispatchMode, overrunPolicy, OverlapPolicy.SKIP);
+    }
+
+    private QueryGenerator queryGenerator(DispatchMode dispatchMode, OverrunPolicy overrunPolicy, OverlapPolicy overlapPolicy) {
+        return new QueryGenerator(clock, queryPeriod, dispatchMode, overrunPolicy, overlapPolicy, singletonList(server), queryProcessor, queryTimer, backpressure);
     }
 
     @Test
     public void queryAreEnqueued() {
+        queryGenerator.start();
         queryGenerator.run();
-        verify(queryProcessor).process(11000, server, query);
+        verify(queryProcessor).process(eq(20000L), eq(server), eq(query), any(Runnable.class));
     }
 
     @Test
-    public void nextTaskIsScheduled() {
+    public void currentTickIsProcessedImmediatelyAndNextOneOnWallClockBoundary() {
+        clock.setTime(10300, MILLISECONDS);
         queryGenerator.start();
-        verify(queryTimer).schedule(any(Runnable.class), eq(10000L), eq(MILLISECONDS));
+        verify(queryTimer).schedule(queryGenerator, 0, MILLISECONDS);
+
+        queryGenerator.run();
+        verify(queryProcessor).process(eq(20300L), eq(server), eq(query), any(Runnable.class));
+        verify(queryTimer).schedule(queryGenerator, 700, MILLISECONDS);
+    }
+
+    @Test
+    public void nextTickIsScheduledOnWallClockBoundaryWhateverTheDispatchDuration() {
+        queryGenerator.start();
+        clock.waitFor(250, MILLISECONDS);
+        queryGenerator.run();
+        verify(queryTimer).schedule(queryGenerator, 750, MILLISECONDS);
+    }
+
+    @Test
+    public void queriesAreAlignedOnTheirPeriod() {
+        clock.setTime(13, SECONDS);
+        queryGenerator.start();
+        for (int i = 0; i < 7; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, never()).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+
+        queryGenerator.run();
+        verify(queryProcessor).process(eq(30000L), eq(server), eq(query), any(Runnable.class));
     }
 
     @Test
-    public void nextTaskIsNotScheduledIfGeneratorIsStopped() {
+    public void queriesAreEnqueuedOncePerPeriod() {
+        queryGenerator.start();
+        for (int i = 0; i < 25; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(3)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void queriesCanHaveTheirOwnCollectInterval() {
+        when(slowQuery.getCollectInterval()).thenReturn(new Interval(20, SECONDS));
+        when(server.getQueries()).thenReturn(asList(query, slowQuery));
+
+        queryGenerator.start();
+        for (int i = 0; i < 31; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(4)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(slowQuery), any(Runnable.class));
+    }
+
+    @Test
+    public void spreadQueriesAreDispatchedAtAStableOffsetWithinTheirPeriod() throws Exception {
+        when(query.getObjectName()).thenReturn(new ObjectName("java.lang:type=Memory"));
+        when(server.getHost()).thenReturn("host.test.net");
+        int expectedOffset = ("host.test.net/java.lang:type=Memory".hashCode() & Integer.MAX_VALUE) % 10;
+        queryGenerator = queryGenerator(DispatchMode.SPREAD, OverrunPolicy.COALESCE);
+
+        queryGenerator.start();
+        for (int i = 0; i < expectedOffset; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, never()).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+
+        queryGenerator.run();
+        verify(queryProcessor).process(eq(clock.currentTimeMillis() + 10000), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void spreadQueriesAreEnqueuedOncePerPeriod() {
+        queryGenerator = queryGenerator(DispatchMode.SPREAD, OverrunPolicy.COALESCE);
+
+        queryGenerator.start();
+        for (int i = 0; i < 30; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(3)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void missedRunsAreCaughtUp() {
+        queryGenerator = queryGenerator(DispatchMode.BURST, OverrunPolicy.CATCH_UP);
+        queryGenerator.start();
+        queryGenerator.run();
+
+        clock.waitFor(25, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(3)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getOverrunCount()).isEqualTo(1);
+        assertThat(queryGenerator.getLateCycleCount()).isEqualTo(2);
+        assertThat(queryGenerator.getMissedCycleCount()).isZero();
+    }
+
+    @Test
+    public void missedRunsAreCoalesced() {
+        queryGenerator.start();
+        queryGenerator.run();
+
+        clock.waitFor(25, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getOverrunCount()).isEqualTo(1);
+        assertThat(queryGenerator.getLateCycleCount()).isEqualTo(1);
+        assertThat(queryGenerator.getMissedCycleCount()).isEqualTo(1);
+
+        clock.waitFor(5, SECONDS);
+        queryGenerator.run();
+        verify(queryProcessor, times(3)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void missedRunsAreSkipped() {
+        queryGenerator = queryGenerator(DispatchMode.BURST, OverrunPolicy.SKIP);
+        queryGenerator.start();
+        queryGenerator.run();
+
+        clock.waitFor(25, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(1)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getLateCycleCount()).isZero();
+        assertThat(queryGenerator.getMissedCycleCount()).isEqualTo(2);
+
+        clock.waitFor(5, SECONDS);
+        queryGenerator.run();
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void skippedRunsFallingOnCurrentTickAreDispatched() {
+        queryGenerator = queryGenerator(DispatchMode.BURST, OverrunPolicy.SKIP);
+        queryGenerator.start();
+        queryGenerator.run();
+
+        clock.waitFor(20, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getMissedCycleCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void runsAreSkippedWhenWritersAreSaturated() {
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.SKIP);
+        queryGenerator.start();
+        for (int i = 0; i < 30; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, never()).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        assertThat(queryGenerator.getThrottledCycleCount()).isEqualTo(3);
+        assertThat(queryGenerator.getBackpressureLevel()).isEqualTo("SKIP");
+    }
+
+    @Test
+    public void runsAreThinnedWhenWritersFallBehind() {
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.THIN);
+        queryGenerator.start();
+        for (int i = 0; i < 40; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getThrottledCycleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void highPriorityRunsAreOnlyThinnedWhenWritersAreSaturated() {
+        when(query.getPriority()).thenReturn(Priority.HIGH);
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.SKIP);
+        queryGenerator.start();
+        for (int i = 0; i < 40; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getThrottledCycleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void lowPriorityRunsAreSkippedWhenWritersFallBehind() {
+        when(query.getPriority()).thenReturn(Priority.LOW);
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.THIN);
+        queryGenerator.start();
+        for (int i = 0; i < 30; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, never()).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        assertThat(queryGenerator.getThrottledCycleCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void runsDueOnTheSameTickAreDispatchedByPriority() {
+        when(query.getPriority()).thenReturn(Priority.LOW);
+        when(slowQuery.getPriority()).thenReturn(Priority.HIGH);
+        when(server.getQueries()).thenReturn(asList(query, slowQuery));
+
+        queryGenerator.start();
+        queryGenerator.run();
+
+        InOrder inOrder = inOrder(queryProcessor);
+        inOrder.verify(queryProcessor).process(anyLong(), eq(server), eq(slowQuery), any(Runnable.class));
+        inOrder.verify(queryProcessor).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void runsAreDispatchedAgainOnceWritersCatchUp() {
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.SKIP);
+        queryGenerator.start();
+        queryGenerator.run();
+
+        when(backpressure.getLevel()).thenReturn(BackpressureLevel.NONE);
+        clock.waitFor(10, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(1)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getThrottledCycleCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void runsOverlappingARunInProgressAreSkipped() {
+        doNothing().when(queryProcessor).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        queryGenerator.start();
+        for (int i = 0; i < 30; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(1)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        verify(query, times(2)).incrementOverlappingRunCount();
+        assertThat(queryGenerator.getOverlappingCycleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void runsAreDispatchedAgainOncePreviousRunCompletes() {
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(queryProcessor).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        queryGenerator.start();
+        queryGenerator.run();
+        verify(queryProcessor).process(anyLong(), eq(server), eq(query), completion.capture());
+
+        completion.getValue().run();
+        clock.waitFor(10, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getOverlappingCycleCount()).isZero();
+    }
+
+    @Test
+    public void oneOverlappingRunIsQueuedAndDispatchedOncePreviousRunCompletes() {
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(queryProcessor).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        queryGenerator = queryGenerator(DispatchMode.BURST, OverrunPolicy.COALESCE, OverlapPolicy.QUEUE_ONE);
+        queryGenerator.start();
+        for (int i = 0; i < 30; i++) {
+            queryGenerator.run();
+            clock.waitFor(1, SECONDS);
+        }
+        verify(queryProcessor, times(1)).process(anyLong(), eq(server), eq(query), completion.capture());
+        // second run is queued, third one is skipped
+        assertThat(queryGenerator.getOverlappingCycleCount()).isEqualTo(1);
+
+        completion.getValue().run();
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test(timeOut = 10000, expectedExceptions = IllegalStateException.class)
+    public void runsCannotBeCompletedTwice() {
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(queryProcessor).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
+        queryGenerator.start();
+        queryGenerator.run();
+        verify(queryProcessor).process(anyLong(), eq(server), eq(query), completion.capture());
+
+        completion.getValue().run();
+        completion.getValue().run();
+    }
+
+    @Test
+    public void queriesAreRescheduledEvenIfHandlingATickFails() {
+        when(slowQuery.getPriority()).thenReturn(Priority.HIGH);
+        when(server.getQueries()).thenReturn(asList(query, slowQuery));
+        doThrow(new AssertionError("dispatch failed"))
+                .when(queryProcessor).process(anyLong(), eq(server), eq(slowQuery), any(Runnable.class));
+        queryGenerator.start();
+        try {
+            queryGenerator.run();
+            fail("Failure to dispatch should be thrown");
+        } catch (AssertionError expected) {
+            assertThat(expected).hasMessage("dispatch failed");
+        }
+        verify(queryProcessor, never()).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        assertThat(queryGenerator.getMissedCycleCount()).isEqualTo(1);
+
+        clock.waitFor(10, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+        // the failed run never completed, so the next one overlaps it
+        verify(slowQuery).incrementOverlappingRunCount();
+    }
+
+    @Test
+    public void queriesAreRescheduledIfClockGoesBackward() {
+        queryGenerator.start();
+        queryGenerator.run();
+
+        clock.setTime(0, SECONDS);
+        queryGenerator.run();
+
+        verify(queryProcessor, times(2)).process(anyLong(), eq(server), eq(query), any(Runnable.class));
+    }
+
+    @Test
+    public void queriesAreNotEnqueuedIfGeneratorIsStopped() {
+        queryGenerator.start();
         queryGenerator.stop();
         queryGenerator.run();
-        verify(queryTimer, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        verify(queryProcessor, never()).process(anyLong(), any(Server.class), any(Query.class), any(Runnable.class));
     }
 
 }
@@ -23,28 +23,66 @@
 package org.jmxtrans.core.scheduler;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
 import javax.management.MBeanServer;
 
 import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.core.query.Bulkhead;
 import org.jmxtrans.core.query.InProcessServer;
+import org.jmxtrans.core.query.ObjectNameResolver;
+import org.jmxtrans.core.query.Priority;
 import org.jmxtrans.core.query.Query;
 import org.jmxtrans.core.query.ResultNameStrategy;
+import org.jmxtrans.core.query.Server;
+import org.jmxtrans.core.results.ChangeSuppressor;
+import org.jmxtrans.core.results.CounterMode;
+import org.jmxtrans.core.results.CounterStore;
+import org.jmxtrans.core.results.MetricType;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
+import org.jmxtrans.core.results.ResultSink;
+import org.jmxtrans.core.results.SeriesDescriptor;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 import org.jmxtrans.utils.time.ManualClock;
 
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -54,25 +92,279 @@ public class QueryProcessorTest {
     private ManualClock clock = new ManualClock();
     @Mock private MBeanServer mBeanServer;
     @Mock private OutputWriter outputWriter;
-    private Executor queryExecutor = new DirectExecutor();
+    private Bulkheads queryExecutors = new Bulkheads(singletonMap(InProcessServer.DEFAULT_BULKHEAD_NAME, new DirectExecutor()));
     @Mock private ResultProcessor resultProcessor;
     @Mock private Query query;
-    @Mock private QueryResult result;
-    private Collection<QueryResult> results;
+    private final QueryResult result = new QueryResult("name", MetricType.UNKNOWN, 1L, 0);
+    @Mock private ScheduledExecutorService watchdog;
+    @Mock private ScheduledFuture<?> timeout;
+    @Mock private Runnable onCompletion;
+    private Map<Priority, TaskMetrics> queryMetrics;
+    private TaskMetrics taskMetrics;
+    private List<QueryResult> results;
+    private Map<OutputWriter, List<List<QueryResult>>> writtenBatches;
 
     private QueryProcessor queryProcessor;
 
     @BeforeMethod
     public void createQueryProcessor() throws IOException {
-        results = singleton(result);
-        queryProcessor = new QueryProcessor(clock, singleton(outputWriter), queryExecutor, resultProcessor, new ResultNameStrategy());
+        clock.setTime(0, MILLISECONDS);
+        results = singletonList(result);
+        queryMetrics = TaskMetrics.perPriority();
+        taskMetrics = queryMetrics.get(Priority.NORMAL);
+        when(query.getPriority()).thenReturn(Priority.NORMAL);
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter), queryExecutors, resultProcessor, new ResultNameStrategy(), queryMetrics, watchdog);
+        doReturn(timeout).when(watchdog).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
 
-        when(query.collectMetrics(any(MBeanServer.class), any(ResultNameStrategy.class))).thenReturn(results);
+        stubResults(results);
+        recordWrittenBatches();
+    }
+
+    /**
+     * Batches are recycled once written, their content is copied when they are handed to the result processor.
+     */
+    private void recordWrittenBatches() {
+        writtenBatches = new HashMap<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ResultBatch batch = (ResultBatch) invocation.getArguments()[1];
+                OutputWriter writer = (OutputWriter) invocation.getArguments()[2];
+                if (!writtenBatches.containsKey(writer)) writtenBatches.put(writer, new ArrayList<List<QueryResult>>());
+                List<QueryResult> copy = new ArrayList<>();
+                for (QueryResult result : batch) copy.add(result);
+                writtenBatches.get(writer).add(copy);
+                return null;
+            }
+        }).when(resultProcessor).writeResults(anyLong(), any(ResultBatch.class), any(OutputWriter.class));
+    }
+
+    private void stubResults(@Nonnull final Iterable<QueryResult> results) throws IOException {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ResultSink sink = (ResultSink) invocation.getArguments()[5];
+                for (QueryResult result : results) {
+                    if (!sink.accept(result)) break;
+                }
+                return null;
+            }
+        }).when(query).collectMetrics(any(MBeanServer.class), any(ObjectNameResolver.class), Matchers.<Executor>any(), anyLong(), any(ResultNameStrategy.class), any(ResultSink.class));
     }
 
     @Test
     public void queryAreProcessed() {
-        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query);
-        verify(resultProcessor).writeResult(1, result, outputWriter);
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        verify(resultProcessor).writeResults(eq(1L), any(ResultBatch.class), eq(outputWriter));
+        assertThat(writtenBatches.get(outputWriter)).containsExactly(results);
+    }
+
+    @Test
+    public void allResultsOfAQueryAreHandedToEachWriterAtOnce() throws IOException {
+        OutputWriter otherOutputWriter = mock(OutputWriter.class);
+        results = asList(result, result, result);
+        stubResults(results);
+        queryProcessor = new QueryProcessor(clock, asList(outputWriter, otherOutputWriter), queryExecutors, resultProcessor, new ResultNameStrategy(), queryMetrics, watchdog);
+
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+
+        assertThat(writtenBatches.get(outputWriter)).containsExactly(results);
+        assertThat(writtenBatches.get(otherOutputWriter)).containsExactly(results);
+    }
+
+    @Test
+    public void resultsAreHandedToWritersByBatches() throws IOException {
+        stubResults(nCopies(QueryProcessor.RESULT_BATCH_SIZE * 2 + 1, result));
+
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+
+        assertThat(writtenBatches.get(outputWriter)).containsExactly(
+                nCopies(QueryProcessor.RESULT_BATCH_SIZE, result),
+                nCopies(QueryProcessor.RESULT_BATCH_SIZE, result),
+                singletonList(result));
+    }
+
+    @Test
+    public void collectionStopsOnceQueryIsPastItsDeadline() throws Exception {
+        final ArgumentCaptor<Runnable> abandon = ArgumentCaptor.forClass(Runnable.class);
+        final List<QueryResult> accepted = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ResultSink sink = (ResultSink) invocation.getArguments()[5];
+                // deadline is reached while the query is running
+                verify(watchdog).schedule(abandon.capture(), anyLong(), any(TimeUnit.class));
+                abandon.getValue().run();
+                for (int i = 0; i < QueryProcessor.RESULT_BATCH_SIZE * 2; i++) {
+                    accepted.add(result);
+                    if (!sink.accept(result)) break;
+                }
+                return null;
+            }
+        }).when(query).collectMetrics(any(MBeanServer.class), any(ObjectNameResolver.class), Matchers.<Executor>any(), anyLong(), any(ResultNameStrategy.class), any(ResultSink.class));
+
+        queryProcessor.process(1000, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+
+        assertThat(accepted).hasSize(QueryProcessor.RESULT_BATCH_SIZE);
+        verify(resultProcessor, never()).writeResults(anyLong(), any(ResultBatch.class), any(OutputWriter.class));
+        assertThat(taskMetrics.getTimedOutCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void countersAreNotStoredWhenResultsAreDiscarded() throws IOException {
+        final ArgumentCaptor<Runnable> abandon = ArgumentCaptor.forClass(Runnable.class);
+        CounterStore counterStore = new CounterStore();
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter), queryExecutors, resultProcessor,
+                new ResultNameStrategy(), queryMetrics, watchdog, counterStore, new ChangeSuppressor(), null);
+        final SeriesDescriptor counter = new SeriesDescriptor("counter", MetricType.COUNTER, null, null, null, CounterMode.DELTA);
+        Server server = new InProcessServer(Collections.<Query>emptyList());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ResultSink sink = (ResultSink) invocation.getArguments()[5];
+                sink.accept(new QueryResult(counter, 10L, 1000));
+                // deadline is reached before results are written
+                verify(watchdog).schedule(abandon.capture(), anyLong(), any(TimeUnit.class));
+                abandon.getValue().run();
+                return null;
+            }
+        }).when(query).collectMetrics(any(MBeanServer.class), any(ObjectNameResolver.class), Matchers.<Executor>any(), anyLong(), any(ResultNameStrategy.class), any(ResultSink.class));
+
+        queryProcessor.process(1000, server, query, onCompletion);
+        assertThat(counterStore.getSeriesCount()).isZero();
+
+        stubResults(singletonList(new QueryResult(counter, 10L, 1000)));
+        queryProcessor.process(1000, server, query, onCompletion);
+        assertThat(counterStore.getSeriesCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void nothingIsHandedToWritersWithoutResults() throws IOException {
+        stubResults(Collections.<QueryResult>emptyList());
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        verify(resultProcessor, never()).writeResults(anyLong(), any(ResultBatch.class), any(OutputWriter.class));
+    }
+
+    @Test
+    public void completionIsNotifiedOnceQueryIsProcessed() {
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        verify(onCompletion).run();
+    }
+
+    @Test
+    public void completionIsNotifiedWhenQueryIsDroppedAfterItsDeadline() {
+        clock.setTime(2, MILLISECONDS);
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        assertThat(taskMetrics.getDroppedCount()).isEqualTo(1);
+        verify(onCompletion).run();
+    }
+
+    @Test
+    public void watchdogIsCancelledOnceQueryIsProcessed() {
+        queryProcessor.process(1000, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        verify(watchdog).schedule(any(Runnable.class), eq(1000L), eq(MILLISECONDS));
+        verify(timeout).cancel(false);
+    }
+
+    @Test
+    public void queriesRunningPastTheirDeadlineAreAbandoned() throws Exception {
+        final ArgumentCaptor<Runnable> abandon = ArgumentCaptor.forClass(Runnable.class);
+        Server server = mock(Server.class);
+        when(server.getBulkhead()).thenReturn(Bulkhead.named(InProcessServer.DEFAULT_BULKHEAD_NAME));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // deadline is reached while the query is running
+                verify(watchdog).schedule(abandon.capture(), anyLong(), any(TimeUnit.class));
+                abandon.getValue().run();
+                throw new IOException("Connection closed");
+            }
+        }).when(query).collectMetrics(any(MBeanServer.class), any(ObjectNameResolver.class), Matchers.<Executor>any(), anyLong(), any(ResultNameStrategy.class), any(ResultSink.class));
+
+        queryProcessor.process(1000, server, query, onCompletion);
+
+        verify(server).invalidateConnection();
+        verify(resultProcessor, never()).writeResults(anyLong(), any(ResultBatch.class), any(OutputWriter.class));
+        assertThat(taskMetrics.getTimedOutCount()).isEqualTo(1);
+        assertThat(taskMetrics.getDroppedCount()).isZero();
+        assertThat(Thread.interrupted()).isFalse();
+    }
+
+    @Test
+    public void mbeansAreReadInParallelByTheReadExecutorWithinTheDeadline() throws IOException {
+        ExecutorService readExecutor = mock(ExecutorService.class);
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter), queryExecutors, resultProcessor,
+                new ResultNameStrategy(), queryMetrics, watchdog, new CounterStore(), new ChangeSuppressor(), readExecutor);
+
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+
+        verify(query).collectMetrics(any(MBeanServer.class), any(ObjectNameResolver.class), eq(readExecutor), eq(1L),
+                any(ResultNameStrategy.class), any(ResultSink.class));
+    }
+
+    @Test
+    public void readExecutorIsShutDownWhenStopped() {
+        ExecutorService readExecutor = mock(ExecutorService.class);
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter), queryExecutors, resultProcessor,
+                new ResultNameStrategy(), queryMetrics, watchdog, new CounterStore(), new ChangeSuppressor(), readExecutor);
+
+        queryProcessor.start();
+        verify(readExecutor, never()).shutdown();
+
+        queryProcessor.stop();
+        verify(readExecutor).shutdown();
+    }
+
+    @Test
+    public void queriesOfServersWithoutBulkheadAreRejected() {
+        Server server = new InProcessServer(Collections.<Query>emptyList(), Bulkhead.named("unknown"));
+        queryProcessor.process(1, server, query, onCompletion);
+        assertThat(taskMetrics.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void queriesRejectedBySaturatedExecutorAreCounted() {
+        ExecutorService saturated = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(saturated).execute(any(Runnable.class));
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter),
+                new Bulkheads(singletonMap(InProcessServer.DEFAULT_BULKHEAD_NAME, saturated)),
+                resultProcessor, new ResultNameStrategy(), queryMetrics, watchdog);
+
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+
+        assertThat(taskMetrics.getRejectedCount()).isEqualTo(2);
+        verify(onCompletion, times(2)).run();
+    }
+
+    @Test
+    public void queriesAreAccountedInTheMetricsOfTheirPriority() {
+        when(query.getPriority()).thenReturn(Priority.LOW);
+        Server server = new InProcessServer(Collections.<Query>emptyList(), Bulkhead.named("unknown"));
+
+        queryProcessor.process(1, server, query, onCompletion);
+
+        assertThat(queryMetrics.get(Priority.LOW).getRejectedCount()).isEqualTo(1);
+        assertThat(taskMetrics.getRejectedCount()).isZero();
+    }
+
+    @Test
+    public void shedQueriesAreCountedAndCompleted() {
+        ExecutorService executor = mock(ExecutorService.class);
+        queryProcessor = new QueryProcessor(clock, singleton(outputWriter),
+                new Bulkheads(singletonMap(InProcessServer.DEFAULT_BULKHEAD_NAME, executor)),
+                resultProcessor, new ResultNameStrategy(), queryMetrics, watchdog);
+        when(query.getPriority()).thenReturn(Priority.LOW);
+
+        queryProcessor.process(1, new InProcessServer(Collections.<Query>emptyList()), query, onCompletion);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(task.capture());
+        PrioritizedTask prioritizedTask = (PrioritizedTask) task.getValue();
+        assertThat(prioritizedTask.getPriority()).isEqualTo(Priority.LOW);
+        prioritizedTask.shed();
+
+        assertThat(queryMetrics.get(Priority.LOW).getShedCount()).isEqualTo(1);
+        verify(onCompletion).run();
+        verify(resultProcessor, never()).writeResults(anyLong(), any(ResultBatch.class), any(OutputWriter.class));
     }
 }
@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jmxtrans.core.output.OutputWriter;
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ResultBackpressureTest {
+
+    private final ManualClock clock = new ManualClock();
+    private LatencyMonitor latencyMonitor;
+    private WriterChannel channel;
+    private WriterChannel idleChannel;
+    private ResultBackpressure backpressure;
+
+    @BeforeMethod
+    public void createBackpressure() {
+        latencyMonitor = new LatencyMonitor(clock);
+        // channels are never started, so that queued tasks stay in their buffer
+        channel = new WriterChannel(10, new JmxTransThreadFactory("results"), latencyMonitor);
+        idleChannel = new WriterChannel(10, new JmxTransThreadFactory("results"), new LatencyMonitor(clock));
+        Map<OutputWriter, WriterChannel> channels = new LinkedHashMap<>();
+        channels.put(mock(OutputWriter.class), idleChannel);
+        channels.put(mock(OutputWriter.class), channel);
+        backpressure = new ResultBackpressure(new WriterChannels(channels));
+    }
+
+    @Test
+    public void noBackpressureWhenChannelsAreMostlyEmpty() {
+        enqueue(7);
+        assertThat(backpressure.getLevel()).isEqualTo(BackpressureLevel.NONE);
+    }
+
+    @Test
+    public void runsAreThinnedWhenAChannelIsHalfFull() {
+        // capacity is rounded up to 16
+        enqueue(8);
+        assertThat(backpressure.getLevel()).isEqualTo(BackpressureLevel.THIN);
+    }
+
+    @Test
+    public void runsAreSkippedWhenAChannelIsAlmostFull() {
+        enqueue(15);
+        assertThat(backpressure.getLevel()).isEqualTo(BackpressureLevel.SKIP);
+    }
+
+    @Test
+    public void runsAreThinnedWhenAWriterIsCongestedWithBacklog() {
+        recordWindow(10);
+        recordWindow(50);
+        assertThat(backpressure.getLevel()).isEqualTo(BackpressureLevel.NONE);
+
+        enqueue(1);
+        assertThat(backpressure.getLevel()).isEqualTo(BackpressureLevel.THIN);
+    }
+
+    private void enqueue(int tasks) {
+        for (int i = 0; i < tasks; i++) {
+            channel.execute(new DummyTask());
+        }
+    }
+
+    private void recordWindow(long latencyMillis) {
+        for (int i = 0; i < LatencyMonitor.SAMPLES_PER_WINDOW; i++) {
+            latencyMonitor.recordLatency(MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    private static final class DummyTask implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
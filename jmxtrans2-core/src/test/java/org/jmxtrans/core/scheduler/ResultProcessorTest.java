@@ -23,54 +23,142 @@
 package org.jmxtrans.core.scheduler;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executor;
 
+import org.jmxtrans.core.output.ColumnarOutputWriter;
 import org.jmxtrans.core.output.OutputWriter;
 import org.jmxtrans.core.results.QueryResult;
+import org.jmxtrans.core.results.ResultBatch;
+import org.jmxtrans.core.results.ResultBatchPool;
 import org.jmxtrans.utils.mockito.MockitoTestNGListener;
 import org.jmxtrans.utils.time.ManualClock;
 
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import static org.jmxtrans.core.results.MetricType.UNKNOWN;
 
-import static org.mockito.Matchers.any;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @Listeners(MockitoTestNGListener.class)
 public class ResultProcessorTest {
 
     private final ManualClock clock = new ManualClock();
-    private final Executor resultExecutor = new DirectExecutor();
+    private WriterChannel channel;
     private ResultProcessor resultProcessor;
     private final QueryResult result = new QueryResult("name", UNKNOWN, new Object(), 0);
     private final BlockingQueue<QueryResult> results = new ArrayBlockingQueue<>(1);
     @Mock private OutputWriter outputWriter;
+    @Mock private ColumnarOutputWriter columnarOutputWriter;
 
     @BeforeMethod
     public void createResultProcessor() {
         results.clear();
-        resultProcessor = new ResultProcessor(clock, resultExecutor);
+        channel = new WriterChannel(1, new JmxTransThreadFactory("results"), new LatencyMonitor(clock));
+        resultProcessor = new ResultProcessor(clock, channels(channel), new TaskMetrics());
         results.add(result);
     }
 
+    @AfterMethod
+    public void shutdownChannel() throws InterruptedException {
+        channel.shutdown();
+        channel.awaitTermination(1, SECONDS);
+    }
+
     @Test
     public void resultsAreProcessed() throws IOException, InterruptedException {
-        resultProcessor.writeResult(1, result, outputWriter);
-        verify(outputWriter).write(result);
+        channel.start();
+        resultProcessor.writeResults(1, results, outputWriter);
+        shutdownChannel();
+        verify(outputWriter).writeAll(results);
+    }
+
+    @Test
+    public void batchesAreRecycledOnceWritten() throws IOException, InterruptedException {
+        ResultBatchPool pool = new ResultBatchPool(1, 1);
+        ResultBatch batch = pool.acquire();
+        batch.add(result);
+        channel.start();
+
+        resultProcessor.writeResults(1, batch, outputWriter);
+        batch.release();
+        shutdownChannel();
+
+        verify(outputWriter).writeAll(batch);
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void batchesAreReadInPlaceByColumnarWriters() throws IOException, InterruptedException {
+        ResultBatch batch = new ResultBatch(1);
+        batch.add(result);
+        resultProcessor = new ResultProcessor(clock, new WriterChannels(singletonMap((OutputWriter) columnarOutputWriter, channel)), new TaskMetrics());
+        channel.start();
+
+        resultProcessor.writeResults(1, batch, columnarOutputWriter);
+        shutdownChannel();
+
+        verify(columnarOutputWriter).writeBatch(batch);
+        verify(columnarOutputWriter, never()).writeAll(Matchers.<Iterable<QueryResult>>any());
+    }
+
+    @Test
+    public void rejectedBatchesAreRecycled() {
+        ResultBatchPool pool = new ResultBatchPool(1, 1);
+        resultProcessor = new ResultProcessor(clock, new WriterChannels(Collections.<OutputWriter, WriterChannel>emptyMap()), new TaskMetrics());
+        ResultBatch batch = pool.acquire();
+        batch.add(result);
+
+        resultProcessor.writeResults(1, batch, outputWriter);
+        batch.release();
+
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void resultsRejectedByFullChannelAreCounted() {
+        TaskMetrics taskMetrics = new TaskMetrics();
+        resultProcessor = new ResultProcessor(clock, channels(channel), taskMetrics);
+
+        // channel is not started, the first two tasks fill it
+        resultProcessor.writeResults(1, results, outputWriter);
+        resultProcessor.writeResults(1, results, outputWriter);
+        resultProcessor.writeResults(1, results, outputWriter);
+
+        assertThat(taskMetrics.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void resultsForUnknownWriterAreRejected() {
+        TaskMetrics taskMetrics = new TaskMetrics();
+        resultProcessor = new ResultProcessor(clock, new WriterChannels(Collections.<OutputWriter, WriterChannel>emptyMap()), taskMetrics);
+
+        resultProcessor.writeResults(1, results, outputWriter);
+
+        assertThat(taskMetrics.getRejectedCount()).isEqualTo(1);
     }
 
     @Test
     public void exceptionsFromWriterAreManaged() throws IOException, InterruptedException {
-        doThrow(new IOException()).when(outputWriter).write(any(QueryResult.class));
-        ResultProcessor.Processor processor = new ResultProcessor.Processor(clock, 10, result, outputWriter);
+        doThrow(new IOException()).when(outputWriter).writeAll(Matchers.<Iterable<QueryResult>>any());
+        ResultProcessor.Processor processor = new ResultProcessor.Processor(clock, 10, results, outputWriter, new TaskMetrics());
         processor.run();
     }
 
+    private WriterChannels channels(WriterChannel channel) {
+        return new WriterChannels(singletonMap(outputWriter, channel));
+    }
+
 }
@@ -0,0 +1,121 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new RingBuffer<String>(1).capacity()).isEqualTo(2);
+        assertThat(new RingBuffer<String>(8).capacity()).isEqualTo(8);
+        assertThat(new RingBuffer<String>(1000).capacity()).isEqualTo(1024);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new RingBuffer<String>(0);
+    }
+
+    @Test
+    public void elementsArePolledInOrder() {
+        RingBuffer<String> buffer = new RingBuffer<>(4);
+        buffer.offer("a");
+        buffer.offer("b");
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.poll()).isEqualTo("a");
+        assertThat(buffer.poll()).isEqualTo("b");
+        assertThat(buffer.poll()).isNull();
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        RingBuffer<String> buffer = new RingBuffer<>(2);
+        assertThat(buffer.offer("a")).isTrue();
+        assertThat(buffer.offer("b")).isTrue();
+        assertThat(buffer.offer("c")).isFalse();
+
+        buffer.poll();
+        assertThat(buffer.offer("c")).isTrue();
+    }
+
+    @Test
+    public void slotsAreReusedAcrossRounds() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(2);
+        for (int i = 0; i < 10; i++) {
+            assertThat(buffer.offer(i)).isTrue();
+            assertThat(buffer.poll()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void concurrentProducersDoNotLoseElements() throws InterruptedException {
+        final int producers = 4;
+        final int elementsPerProducer = 10000;
+        final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * elementsPerProducer;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < elementsPerProducer; i++) {
+                        while (!buffer.offer(offset + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+
+        Set<Integer> received = new HashSet<>();
+        while (received.size() < producers * elementsPerProducer) {
+            Integer element = buffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assertThat(received.add(element)).isTrue();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+}
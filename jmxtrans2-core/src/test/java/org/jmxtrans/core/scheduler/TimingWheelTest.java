@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimingWheelTest {
+
+    @Test
+    public void taskExpiresOnItsTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(8);
+        wheel.scheduleAt("task", 3);
+
+        assertThat(advance(wheel, 3)).isEmpty();
+        assertThat(advance(wheel, 1)).containsExactly("task");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    public void tasksFurtherThanOneRoundAreKeptInTheirBucket() {
+        TimingWheel<String> wheel = new TimingWheel<>(8);
+        wheel.scheduleAt("first round", 2);
+        wheel.scheduleAt("third round", 18);
+
+        assertThat(advance(wheel, 3)).containsExactly("first round");
+        assertThat(advance(wheel, 8)).isEmpty();
+        assertThat(advance(wheel, 8)).containsExactly("third round");
+    }
+
+    @Test
+    public void tasksInThePastExpireOnNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(8);
+        advance(wheel, 5);
+        wheel.scheduleAt("late", 1);
+
+        assertThat(advance(wheel, 1)).containsExactly("late");
+    }
+
+    @Test
+    public void wheelCanStartAtAnyTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(8, 1000003);
+        wheel.scheduleAt("task", 1000005);
+
+        assertThat(wheel.getTick()).isEqualTo(1000003);
+        assertThat(advance(wheel, 2)).isEmpty();
+        assertThat(advance(wheel, 1)).containsExactly("task");
+    }
+
+    @Test
+    public void numberOfBucketsIsRoundedToPowerOfTwo() {
+        TimingWheel<String> wheel = new TimingWheel<>(5);
+        wheel.scheduleAt("task", 8);
+
+        // with 5 buckets, tick 8 would share its bucket with tick 3
+        assertThat(advance(wheel, 4)).isEmpty();
+        assertThat(advance(wheel, 5)).containsExactly("task");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void wheelMustHaveBuckets() {
+        new TimingWheel<String>(0);
+    }
+
+    private List<String> advance(TimingWheel<String> wheel, int ticks) {
+        List<String> expired = new ArrayList<>();
+        for (int i = 0; i < ticks; i++) {
+            wheel.advance(expired);
+        }
+        return expired;
+    }
+}
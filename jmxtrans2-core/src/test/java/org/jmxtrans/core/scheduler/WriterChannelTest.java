@@ -0,0 +1,125 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 JMXTrans Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jmxtrans.core.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jmxtrans.utils.time.ManualClock;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriterChannelTest {
+
+    private final ManualClock clock = new ManualClock();
+    private WriterChannel channel;
+
+    @BeforeMethod
+    public void createChannel() {
+        channel = new WriterChannel(4, new JmxTransThreadFactory("results"), new LatencyMonitor(clock));
+    }
+
+    @AfterMethod
+    public void shutdownChannel() throws InterruptedException {
+        channel.shutdown();
+        channel.awaitTermination(1, SECONDS);
+    }
+
+    @Test
+    public void tasksAreRunInOrderOnASingleThread() throws InterruptedException {
+        RecordingTask first = new RecordingTask();
+        RecordingTask second = new RecordingTask();
+        channel.start();
+        channel.execute(first);
+        channel.execute(second);
+
+        assertThat(second.done.await(1, SECONDS)).isTrue();
+        assertThat(first.done.getCount()).isZero();
+        assertThat(first.thread).isSameAs(second.thread);
+        assertThat(first.thread.getName()).startsWith("jmxtrans-results-");
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void tasksAreRejectedWhenChannelIsFull() {
+        for (int i = 0; i < 5; i++) {
+            channel.execute(new RecordingTask());
+        }
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void tasksAreRejectedAfterShutdown() {
+        channel.shutdown();
+        channel.execute(new RecordingTask());
+    }
+
+    @Test
+    public void pendingTasksAreRunBeforeTermination() throws InterruptedException {
+        RecordingTask task = new RecordingTask();
+        channel.execute(task);
+        channel.start();
+        channel.shutdown();
+
+        assertThat(channel.awaitTermination(1, SECONDS)).isTrue();
+        assertThat(task.done.getCount()).isZero();
+    }
+
+    @Test
+    public void consumerSurvivesFailingTasks() throws InterruptedException {
+        RecordingTask task = new RecordingTask();
+        channel.start();
+        channel.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        channel.execute(task);
+
+        assertThat(task.done.await(1, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void occupancyIsReported() {
+        channel.execute(new RecordingTask());
+        assertThat(channel.getQueueSize()).isEqualTo(1);
+        assertThat(channel.getCapacity()).isEqualTo(4);
+        assertThat(channel.getOccupancy()).isEqualTo(0.25);
+    }
+
+    private static final class RecordingTask implements Runnable {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Thread thread;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            done.countDown();
+        }
+    }
+}
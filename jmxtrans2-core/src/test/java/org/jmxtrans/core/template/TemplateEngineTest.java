@@ -24,6 +24,8 @@ package org.jmxtrans.core.template;
 
 import org.testng.annotations.Test;
 
+import static java.util.Collections.singletonMap;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class TemplateEngineTest {
@@ -40,4 +42,18 @@ public class TemplateEngineTest {
                 .isEqualTo("some text with a value replaced.");
     }
     
+    @Test
+    public void compiledTemplateCanBeEvaluatedWithOtherExpressions() {
+        CompiledTemplate template = TemplateEngine.builder()
+                .addEvaluator('%', ExpressionEvaluator.builder().build())
+                .addEvaluator('#', ExpressionEvaluator.builder()
+                        .addExpression("key", "value")
+                        .build())
+                .build()
+                .compile("%name%-#key#");
+
+        assertThat(template.evaluate(singletonMap('%', new StaticExpression("first")))).isEqualTo("first-value");
+        assertThat(template.evaluate(singletonMap('%', new StaticExpression("second")))).isEqualTo("second-value");
+    }
+
 }
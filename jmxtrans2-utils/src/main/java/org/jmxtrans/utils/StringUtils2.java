@@ -22,6 +22,7 @@
  */
 package org.jmxtrans.utils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -146,4 +147,24 @@ public final class StringUtils2 {
             }
         }
     }
+
+    /**
+     * Append the decimal representation of the given long, as {@link Long#toString(long)} would, without allocating
+     * an intermediate {@linkplain String}.
+     */
+    public static void appendLong(@Nonnull Appendable result, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            result.append("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            result.append('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            result.append((char) ('0' + (value / divisor) % 10));
+        }
+    }
 }
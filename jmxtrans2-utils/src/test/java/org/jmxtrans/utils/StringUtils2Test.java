@@ -22,6 +22,7 @@
  */
 package org.jmxtrans.utils;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import org.testng.annotations.Test;
@@ -112,4 +113,14 @@ public class StringUtils2Test {
 
         assertThat(escaped.toString()).isEqualTo("abc");
     }
+
+    @Test
+    public void appendLongFormatsLikeLongToString() throws IOException {
+        long[] values = {0, 7, 10, -10, 123456789, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        for (long value : values) {
+            StringBuilder result = new StringBuilder();
+            StringUtils2.appendLong(result, value);
+            assertThat(result.toString()).isEqualTo(Long.toString(value));
+        }
+    }
 }